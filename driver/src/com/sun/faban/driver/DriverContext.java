@@ -23,9 +23,11 @@
  */
 package com.sun.faban.driver;
 
+import com.sun.faban.driver.util.DataFeeder;
 import com.sun.faban.driver.util.Random;
 import com.sun.faban.driver.engine.NullContext;
 
+import java.io.IOException;
 import java.util.logging.Logger;
 
 import org.w3c.dom.Element;
@@ -290,4 +292,48 @@ public abstract class DriverContext {
      * @return The resource directory for this benchmark
      */ 
     public abstract String getResourceDir();
+
+    /**
+     * Obtains the feeder for a comma separated text data file. The file is
+     * mapped once and shared by all threads in the agent. Repeated calls
+     * with the same arguments return the same feeder. Drivers should
+     * obtain their feeders at initialization time.
+     * @param file The data file, relative to the resource directory
+     * @param access The access mode
+     * @return The data feeder of this thread
+     * @throws IOException Error opening the data file
+     * @see DataFeeder
+     */
+    public abstract DataFeeder getDataFeeder(String file,
+                                             DataFeeder.Access access)
+            throws IOException;
+
+    /**
+     * Obtains the feeder for a binary data file with fixed length records.
+     * The file is mapped once and shared by all threads in the agent.
+     * Repeated calls with the same arguments return the same feeder.
+     * @param file The data file, relative to the resource directory
+     * @param recordLength The length of each record in bytes
+     * @param access The access mode
+     * @return The data feeder of this thread
+     * @throws IOException Error opening the data file
+     * @see DataFeeder
+     */
+    public abstract DataFeeder getDataFeeder(String file, int recordLength,
+                                             DataFeeder.Access access)
+            throws IOException;
+
+    /**
+     * Hands off a response for validation outside the timed path. The
+     * validation runs on the agent-wide validation pool after the operation
+     * returns. Validation failures get reported as errors of the current
+     * operation. The response times of the operation are not affected.
+     * Call this method after recording the end time of the operation and
+     * do not modify the response object afterwards.
+     * @param response The response to validate
+     * @param validator The validator to validate the response
+     * @param <T> The response type
+     * @see Validator
+     */
+    public abstract <T> void validate(T response, Validator<T> validator);
 }
@@ -765,4 +765,35 @@ public class HttpTransport {
                         com.sun.faban.driver.DriverContext.getContext();
         engine.setUploadSpeed(kbps);
     }
+
+    /**
+     * Set the emulated link latency for this HTTP transport object
+     *
+     * @param rttMillis the round trip time in milliseconds
+     * @param jitterMillis the jitter in milliseconds
+     * @throws UnsupportedOperationException if the underlying HTTP transport
+     * doesn't support link emulation on its sockets
+     */
+    public void setLatency(int rttMillis, int jitterMillis) {
+        // Subclasses can throw UnsupportedOperationException if necessary
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext)
+                        com.sun.faban.driver.DriverContext.getContext();
+        engine.setLatency(rttMillis, jitterMillis);
+    }
+
+    /**
+     * Set the emulated packet loss rate for this HTTP transport object
+     *
+     * @param rate the packet loss rate, from 0 to 1
+     * @throws UnsupportedOperationException if the underlying HTTP transport
+     * doesn't support link emulation on its sockets
+     */
+    public void setPacketLoss(double rate) {
+        // Subclasses can throw UnsupportedOperationException if necessary
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext)
+                        com.sun.faban.driver.DriverContext.getContext();
+        engine.setPacketLoss(rate);
+    }
 }
@@ -0,0 +1,58 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.annotation.ElementType;
+
+/**
+ * The Replay annotation schedules the operations of a driver from a
+ * request trace instead of a cycle time distribution. Each driver thread
+ * replays the requests of the sessions assigned to it at their original
+ * relative times, scaled by the speed-up factor. The trace is described in
+ * {@link com.sun.faban.driver.util.RequestTrace}. When used on the driver
+ * class, the initial delay of each thread is also taken from the trace.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Replay {
+
+    /**
+     * The trace file. If empty, the trace is taken from the "traceFile"
+     * driver property. Relative paths are resolved against the benchmark's
+     * resource directory.
+     */
+    String trace() default "";
+
+    /** The factor by which the replay is faster than the original. */
+    double speedUp() default 1d;
+
+    /** Lag behind schedule, in milliseconds, counted as a late request. */
+    int lagThreshold() default 100;
+
+    /** The allowed deviation from the targeted time, in %. */
+    double cycleDeviation() default 5d;
+}
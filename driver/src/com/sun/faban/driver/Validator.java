@@ -0,0 +1,49 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver;
+
+/**
+ * A Validator checks the response of an operation outside the timed path.
+ * Operations hand the response to the driver context by calling
+ * DriverContext.validate(response, validator) after recording the end time.
+ * The validator then runs on the agent-wide validation pool while the
+ * driver thread proceeds to its next cycle. Any exception thrown from
+ * validate gets counted as an error against the operation that obtained
+ * the response.<p>
+ * Validators run concurrently on different threads and must therefore
+ * not modify driver state. The response object must not be reused or
+ * modified by the driver after it is handed off.
+ *
+ * @param <T> The response type, i.e. a byte array or a string buffer
+ * @see com.sun.faban.driver.DriverContext#validate(Object, Validator)
+ */
+public interface Validator<T> {
+
+    /**
+     * Validates the response.
+     * @param response The response to validate
+     * @throws Exception The response is not valid
+     */
+    public void validate(T response) throws Exception;
+}
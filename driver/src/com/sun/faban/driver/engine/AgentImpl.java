@@ -25,6 +25,7 @@ package com.sun.faban.driver.engine;
 
 import com.sun.faban.common.RegistryLocator;
 import com.sun.faban.common.Utilities;
+import com.sun.faban.driver.transport.util.ConnectionStats;
 import com.sun.faban.driver.util.PairwiseAggregator;
 import com.sun.faban.driver.util.Timer;
 
@@ -88,6 +89,12 @@ public class AgentImpl extends UnicastRemoteObject
     VariableLoadHandlerThread threadController;
     private long earliestStartTime = Long.MIN_VALUE;
 
+    // Seconds to wait for pending validations at the end of the run.
+    private static final int VALIDATION_TIMEOUT = 120;
+
+    // The response validation pool, created on first use.
+    private ValidationPool validationPool;
+
 
     /**
      * Constructs the AgentImpl object.
@@ -566,15 +573,39 @@ public class AgentImpl extends UnicastRemoteObject
      * Report stats from a run
      * Each thread's result is obtained by calling that thread's getResult()
      * All these results are then aggregated by calling one of the
-     * thread's getAggregateResult method.
+     * thread's getAggregateResult method. Pending response validations
+     * are completed and their failures added to the thread results first.
      * @return results
      */
     public Metrics getResults() {
+        ValidationPool pool;
+        synchronized (this) {
+            pool = validationPool;
+            validationPool = null;
+        }
+        if (pool != null) {
+            pool.drain(VALIDATION_TIMEOUT);
+            for (AgentThread thread : agentThreads)
+                if (thread != null)
+                    pool.fold(thread);
+        }
         PairwiseAggregator<Metrics> aggregator = new
                 PairwiseAggregator<Metrics>(numThreads, new MetricsProvider());
         return aggregator.collectStats();
     }
 
+    /**
+     * Obtains the response validation pool of this agent. The pool gets
+     * created on first use.
+     * @return The validation pool
+     */
+    synchronized ValidationPool getValidationPool() {
+        if (validationPool == null)
+            validationPool = new ValidationPool(this, numThreads,
+                    runInfo.driverConfig.operations.length);
+        return validationPool;
+    }
+
     /**
      * Waits for all the threads to terminate.
      */
@@ -736,6 +767,9 @@ public class AgentImpl extends UnicastRemoteObject
                         rtm.timestamp = (int) ((System.nanoTime() - startTime) /
                                 Utilities.TO_NANOS);
                         rtm.sequence = sequence;
+                        rtm.connOpened = ConnectionStats.getOpened();
+                        rtm.connReused = ConnectionStats.getReused();
+                        rtm.connTime = ConnectionStats.getConnectTime();
                         master.updateMetrics(rtm);
                     } catch (RemoteException e) {
                         logger.log(Level.SEVERE, "Communication error " +
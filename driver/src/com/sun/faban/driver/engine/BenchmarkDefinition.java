@@ -369,7 +369,16 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
                 getInitialDelay(background.initialDelay().max());
     }
 
-    private static Cycle getInitialDelay(Class<?> driverClass) {
+    private static Cycle getInitialDelay(Class<?> driverClass)
+            throws DefinitionException {
+        // A replayed trace also schedules the first request.
+        com.sun.faban.driver.Replay replay = driverClass.getAnnotation(
+                com.sun.faban.driver.Replay.class);
+        if (replay != null) {
+            Replay delay = new Replay();
+            delay.init(replay);
+            return delay;
+        }
         InitialDelay initDelay = driverClass.getAnnotation(
                 InitialDelay.class);
         int max;
@@ -735,9 +744,9 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
             clone.pctString = pctString.clone();
             clone.pctSuffix = pctSuffix.clone();
 
-            clone.initialDelay[0] = (Uniform) initialDelay[0].clone();
+            clone.initialDelay[0] = (Cycle) initialDelay[0].clone();
             if (initialDelay[1] != null) {
-				clone.initialDelay[1] = (Uniform) initialDelay[1].clone();
+				clone.initialDelay[1] = (Cycle) initialDelay[1].clone();
 			}
 
             // Copy operation references into a flat array.
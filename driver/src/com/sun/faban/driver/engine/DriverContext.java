@@ -28,7 +28,10 @@ import com.sun.faban.common.Utilities;
 import com.sun.faban.driver.CustomMetrics;
 import com.sun.faban.driver.CustomTableMetrics;
 import com.sun.faban.driver.Timing;
+import com.sun.faban.driver.Validator;
+import com.sun.faban.driver.transport.util.Throttle;
 import static com.sun.faban.driver.engine.AgentThread.TIME_NOT_SET;
+import com.sun.faban.driver.util.DataFeeder;
 import com.sun.faban.driver.util.Random;
 import com.sun.faban.driver.util.Timer;
 import org.w3c.dom.Attr;
@@ -40,6 +43,7 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.logging.Logger;
@@ -94,6 +98,21 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
 	/** Desired download speed of this context */
 	private int kbpsDownload = -1;
 
+    /** Emulated round trip time of this context, in ms */
+    private int latency = -1;
+
+    /** Emulated jitter of this context, in ms */
+    private int jitter = -1;
+
+    /** Emulated packet loss rate of this context */
+    private double packetLoss = -1d;
+
+    /** The throttle emulating the link of this context */
+    private Throttle throttle;
+
+    /** The data feeders of this context, by file and access. */
+    private HashMap<String, DataFeeder> feeders;
+
     /**
      * Obtains the DriverContext associated with this thread.
      * @return the associated DriverContext
@@ -651,12 +670,84 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
                             name + ". Ignoring such input.");
                 } else {
                     timingInfo.respondTime = tstamp = System.nanoTime();
+                    if (timingInfo.firstRespondTime == TIME_NOT_SET) {
+                        timingInfo.firstRespondTime = tstamp;
+                        // Whatever setup happened so far is not part of the
+                        // wait for the first byte.
+                        timingInfo.firstByteTime = tstamp -
+                                timingInfo.invokeTime -
+                                timingInfo.connectTime -
+                                timingInfo.handshakeTime -
+                                timingInfo.resumeTime;
+                    }
                 }
             }
         }
         return tstamp;
     }
 
+    /**
+     * Checks whether a time span lies within steady state. This method is
+     * not exposed through the interface and is only used by the transport
+     * facilities to qualify measurements finer than the operation, such
+     * as the requests of a pipelined operation.
+     * @param start The system nanotime the span started
+     * @param end The system nanotime the span ended
+     * @return true if the span is in steady state, false otherwise
+     */
+    public boolean isSteadyState(long start, long end) {
+        return agentThread.isSteadyState(start, end);
+    }
+
+    /**
+     * Records the time taken to resolve a host name. This method is not
+     * exposed through the interface and is only used by the transport
+     * facilities. Note that name resolution happens before the connect
+     * and is therefore not part of the operation's response time.
+     * @param start The system nanotime the lookup started
+     * @param end The system nanotime the lookup ended
+     */
+    public void recordLookupTime(long start, long end) {
+        if (agentThread.currentOperation != -1 && timingInfo != null)
+            timingInfo.lookupTime += end - start;
+    }
+
+    /**
+     * Records the time taken to establish a TCP connection. This method is
+     * not exposed through the interface and is only used by the transport
+     * facilities.
+     * @param start The system nanotime the connect started
+     * @param end The system nanotime the connection got established
+     */
+    public void recordConnectTime(long start, long end) {
+        if (agentThread.currentOperation != -1 && timingInfo != null)
+            timingInfo.connectTime += end - start;
+    }
+
+    /**
+     * Records the time taken for the SSL/TLS handshake. This method is
+     * not exposed through the interface and is only used by the transport
+     * facilities. If the handshake is timed below the SSL layer, the
+     * handshake traffic may have been recorded as the first response byte.
+     * We reset it here as it is not part of the actual response.
+     * @param start The system nanotime the handshake started
+     * @param end The system nanotime the handshake completed
+     * @param resumed Whether the handshake resumed a cached session
+     */
+    public void recordHandshakeTime(long start, long end, boolean resumed) {
+        if (agentThread.currentOperation != -1 && timingInfo != null) {
+            if (resumed)
+                timingInfo.resumeTime += end - start;
+            else
+                timingInfo.handshakeTime += end - start;
+            if (timingInfo.firstRespondTime != TIME_NOT_SET &&
+                    timingInfo.firstRespondTime >= start) {
+                timingInfo.firstRespondTime = TIME_NOT_SET;
+                timingInfo.firstByteTime = TIME_NOT_SET;
+            }
+        }
+    }
+
     /**
      * Sets the intended invocation time for the next invocation
      * on this thread. This is called from AgentThread only.
@@ -671,6 +762,12 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         timingInfo.respondTime = TIME_NOT_SET;
         timingInfo.lastRespondTime = TIME_NOT_SET;
         timingInfo.pauseTime = 0l;
+        timingInfo.firstRespondTime = TIME_NOT_SET;
+        timingInfo.firstByteTime = TIME_NOT_SET;
+        timingInfo.lookupTime = 0l;
+        timingInfo.connectTime = 0l;
+        timingInfo.handshakeTime = 0l;
+        timingInfo.resumeTime = 0l;
     }
 
     /**
@@ -693,6 +790,27 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
 
         /** Pause Time. */
         public long pauseTime = 0l;
+
+        /** Time the first byte of the response arrived. */
+        public long firstRespondTime = TIME_NOT_SET;
+
+        /**
+         * Duration from the invoke time to the first response byte,
+         * less connection setup.
+         */
+        public long firstByteTime = TIME_NOT_SET;
+
+        /** Accumulated host name lookup time. */
+        public long lookupTime = 0l;
+
+        /** Accumulated TCP connect time. */
+        public long connectTime = 0l;
+
+        /** Accumulated full SSL/TLS handshake time. */
+        public long handshakeTime = 0l;
+
+        /** Accumulated SSL/TLS handshake time resuming a cached session. */
+        public long resumeTime = 0l;
     }
 
     /**
@@ -713,6 +831,70 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         return agentThread.agent.driverBase + File.separator + "resources";
     }
 
+    /**
+     * Obtains the feeder for a comma separated text data file.
+     * @param file The data file, relative to the resource directory
+     * @param access The access mode
+     * @return The data feeder of this thread
+     * @throws IOException Error opening the data file
+     * @see com.sun.faban.driver.DriverContext#getDataFeeder(String,
+     *      DataFeeder.Access)
+     */
+    public DataFeeder getDataFeeder(String file, DataFeeder.Access access)
+            throws IOException {
+        return getDataFeeder(file, 0, access);
+    }
+
+    /**
+     * Obtains the feeder for a binary data file with fixed length records.
+     * The rows get partitioned over all threads of the driver in all agents.
+     * @param file The data file, relative to the resource directory
+     * @param recordLength The length of each record in bytes
+     * @param access The access mode
+     * @return The data feeder of this thread
+     * @throws IOException Error opening the data file
+     * @see com.sun.faban.driver.DriverContext#getDataFeeder(String, int,
+     *      DataFeeder.Access)
+     */
+    public DataFeeder getDataFeeder(String file, int recordLength,
+                                    DataFeeder.Access access)
+            throws IOException {
+        String key = file + ':' + recordLength + ':' + access;
+        if (feeders == null)
+            feeders = new HashMap<String, DataFeeder>();
+        DataFeeder feeder = feeders.get(key);
+        if (feeder == null) {
+            File f = new File(file);
+            if (!f.isAbsolute())
+                f = new File(getResourceDir(), file);
+            feeder = DataFeeder.getInstance(f, recordLength, access,
+                    agentThread.agent, getClientsInDriver(), getThreadId(),
+                    getRandom());
+            feeders.put(key, feeder);
+        }
+        return feeder;
+    }
+
+    /**
+     * Hands off a response for validation outside the timed path. The
+     * response is validated on the agent's validation pool and failures
+     * are counted against the current operation. Whether the failure
+     * counts in steady state is decided by the operation's timing at the
+     * time of hand-off.
+     * @param response The response to validate
+     * @param validator The validator to validate the response
+     * @param <T> The response type
+     * @see com.sun.faban.driver.DriverContext#validate(Object, Validator)
+     */
+    public <T> void validate(T response, Validator<T> validator) {
+        if (agentThread.currentOperation == -1)
+            throw new IllegalStateException(
+                    "Validation only allowed within operations.");
+        agentThread.agent.getValidationPool().submit(agentThread,
+                agentThread.currentOperation, agentThread.isSteadyState(),
+                response, validator);
+    }
+
     /**
      * Set the desired upload speed for the thread using this context.
      * This method is intended for use only by transport classes; drivers
@@ -760,4 +942,74 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
     public int getDownloadSpeed() {
         return kbpsDownload;
     }
+
+    /**
+     * Set the emulated link latency for the thread using this context.
+     * This method is intended for use only by transport classes; drivers
+     * should call an appropriate method on the transport to set this
+     * value.
+     *
+     * @param rttMillis The round trip time in milliseconds. If < 0, the
+     * agent's default faban.link.rtt is used.
+     * @param jitterMillis The jitter in milliseconds. If < 0, the
+     * agent's default faban.link.jitter is used.
+     */
+    public void setLatency(int rttMillis, int jitterMillis) {
+        this.latency = rttMillis;
+        this.jitter = jitterMillis;
+    }
+
+    /**
+     * Return the emulated round trip time for the thread using this context.
+     *
+     * @return round trip time in milliseconds, or -1 if not set
+     */
+    public int getLatency() {
+        return latency;
+    }
+
+    /**
+     * Return the emulated jitter for the thread using this context.
+     *
+     * @return jitter in milliseconds, or -1 if not set
+     */
+    public int getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Set the emulated packet loss rate for the thread using this context.
+     * This method is intended for use only by transport classes; drivers
+     * should call an appropriate method on the transport to set this
+     * value.
+     *
+     * @param rate The loss rate, from 0 to 1. If < 0, the agent's
+     * default faban.link.loss is used.
+     */
+    public void setPacketLoss(double rate) {
+        this.packetLoss = rate;
+    }
+
+    /**
+     * Return the emulated packet loss rate for the thread using this
+     * context.
+     *
+     * @return The loss rate, or -1 if not set
+     */
+    public double getPacketLoss() {
+        return packetLoss;
+    }
+
+    /**
+     * Obtains the throttle emulating the link for the thread using this
+     * context. All sockets of the thread share the same throttle. This
+     * method is intended for use only by transport classes.
+     *
+     * @return The throttle
+     */
+    public Throttle getThrottle() {
+        if (throttle == null)
+            throttle = new Throttle(this);
+        return throttle;
+    }
 }
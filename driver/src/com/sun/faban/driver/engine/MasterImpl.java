@@ -1349,7 +1349,10 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
                         formatter.format("%.03f", s[i][j]);
                 }
             }
-            
+            b.append(' ');
+            if (!current[type].formatConnectionStats(previous[type], b))
+                b.setLength(b.length() - 1);
+
             logger.info(b.toString());
         }
 
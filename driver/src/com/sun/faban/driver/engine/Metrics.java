@@ -222,6 +222,9 @@ public class Metrics implements Serializable, Cloneable,
      */
     protected long[][] respGraph;
 
+    /** Breakdown of the response times into network phases. */
+    protected TimingBreakdown breakdown;
+
     /** The attached custom metrics. */
     protected LinkedHashMap<String, CustomMetrics> metricAttachments = null;
 
@@ -316,6 +319,7 @@ public class Metrics implements Serializable, Cloneable,
         graphBucketSize = driverConfig.graphInterval * 1000000000l;
         thruputGraph = new int[txTypes][graphBuckets];
         respGraph = new long[txTypes][graphBuckets];
+        breakdown = new TimingBreakdown(txTypes, graphBuckets, graphBucketSize);
 
         // Calculate the response time histograms.
         double precision = driverConfig.responseTimeUnit.toNanos(1l);
@@ -409,6 +413,8 @@ public class Metrics implements Serializable, Cloneable,
 				respMax[txType] = responseTime;
 			}
         }
+
+        breakdown.record(txType, timingInfo, elapsedTime, !thread.inRamp);
     }
 
     /**
@@ -433,6 +439,39 @@ public class Metrics implements Serializable, Cloneable,
             endTimeNanos = thread.driverContext.timingInfo.respondTime;
     }
 
+    /**
+     * Records the errors found by asynchronous response validation. The
+     * operations already got recorded as successful with their response
+     * times when they completed. The failures are moved from the success
+     * counts to the error counts so invalid responses do not count
+     * towards throughput or the mix. The response time sums are scaled
+     * down with the counts, keeping the average and standard deviation
+     * of the remaining operations.
+     * @param txType The operation type
+     * @param steady The number of failures in steady state
+     * @param total The total number of failures
+     */
+    void recordValidationErrors(int txType, int steady, int total) {
+        steady = Math.min(steady, txCntStdy[txType]);
+        total = Math.min(total, txCntTotal[txType]);
+        if (txCntStdy[txType] > 0) {
+            double remain = (txCntStdy[txType] - steady) /
+                            (double) txCntStdy[txType];
+            respSumStdy[txType] *= remain;
+            sumSquaresStdy[txType] *= remain;
+        }
+        if (txCntTotal[txType] > 0) {
+            double remain = (txCntTotal[txType] - total) /
+                            (double) txCntTotal[txType];
+            respSumTotal[txType] *= remain;
+            sumSquaresTotal[txType] *= remain;
+        }
+        txCntStdy[txType] -= steady;
+        txCntTotal[txType] -= total;
+        errCntStdy[txType] += steady;
+        errCntTotal[txType] += total;
+    }
+
     /**
      * Records the delay (think/cycle) time. The delay time is recorded
      * regardless of whether a transaction succeeds or fails.
@@ -591,6 +630,8 @@ public class Metrics implements Serializable, Cloneable,
             endTime = s.endTime;
 		}
 
+        breakdown.add(s.breakdown);
+
         // Aggregate the attached CustomMetrics.
         if (metricAttachments == null) {
             metricAttachments = s.metricAttachments;
@@ -810,6 +851,7 @@ public class Metrics implements Serializable, Cloneable,
                 clone.thruputGraph[i] = thruputGraph[i].clone();
                 clone.respGraph[i] = respGraph[i].clone();
             }
+            clone.breakdown = (TimingBreakdown) breakdown.clone();
             if (metricAttachments != null) {
                 clone.metricAttachments =
                         new LinkedHashMap<String, CustomMetrics>();
@@ -1070,6 +1112,11 @@ public class Metrics implements Serializable, Cloneable,
             }
             if (txCntStdy[i] > 0) {
                 boolean passPct = true;
+                // The histogram still holds operations that failed
+                // validation, so percentiles are taken of its population.
+                int histCnt = 0;
+                for (int j = 0; j < respHist[i].length; j++)
+                    histCnt += respHist[i][j];
                 space(16, buffer);
                 result.avgResp[i] = (respSumStdy[i]/txCntStdy[i]) / precision;
                 formatter.format("<avg>%5.3f</avg>\n", result.avgResp[i]);
@@ -1090,7 +1137,7 @@ public class Metrics implements Serializable, Cloneable,
                     for (int j = 0; j < driver.percentiles.length; j++) {
                         double pct = driver.percentiles[j];
                         sumtx = 0;
-                        cntPct = (int)(txCntStdy[i] * (pct / 100d));
+                        cntPct = (int)(histCnt * (pct / 100d));
                         k = 0;
                         for (; k < respHist[i].length; k++) {
                             sumtx += respHist[i][k];
@@ -1147,7 +1194,7 @@ public class Metrics implements Serializable, Cloneable,
                             append("</passed>\n");
                 } else {
                     sumtx = 0;
-                    cntPct = (int)(txCntStdy[i] * .90d);
+                    cntPct = (int)(histCnt * .90d);
                     k = 0;
                     for (; k < respHist[i].length; k++) {
                         sumtx += respHist[i][k];
@@ -1185,7 +1232,7 @@ public class Metrics implements Serializable, Cloneable,
 
                     // 99th% hack for Berkeley.
                     sumtx = 0;
-                    cnt99 = (int)(txCntStdy[i] * .99d);
+                    cnt99 = (int)(histCnt * .99d);
                     k = 0;
                     for (; k < respHist[i].length; k++) {
                         sumtx += respHist[i][k];
@@ -1295,6 +1342,8 @@ public class Metrics implements Serializable, Cloneable,
         }
         space(8, buffer).append("</delayTimes>\n");
 
+        breakdown.printSummary(buffer, txNames, driver);
+
         if (metricAttachments != null) {
             Set<Map.Entry<String, CustomMetrics>> entries =
                     metricAttachments.entrySet();
@@ -1619,6 +1668,11 @@ public class Metrics implements Serializable, Cloneable,
         printHistogram(b, "Frequency Distribution of Targeted Cycle/Think " +
                 "Times (seconds)", delayBucketSize / 1e9d, "%.3f",
                 targetedDelayHist);
+
+        int bucketLimit = graphBuckets;
+        if (runInfo.driverConfigs[driverType].runControl == RunControl.CYCLES)
+            bucketLimit = getBucketLimit(thruputGraph);
+        breakdown.printDetail(b, driverName, txNames, bucketLimit, driver);
     }
 
     @SuppressWarnings("boxing")
@@ -26,10 +26,16 @@ package com.sun.faban.driver.engine;
 import com.sun.faban.driver.CustomMetrics;
 import com.sun.faban.driver.CustomTableMetrics;
 import com.sun.faban.driver.DriverContext;
+import com.sun.faban.driver.Validator;
+import com.sun.faban.driver.util.DataFeeder;
 import com.sun.faban.driver.util.Random;
 import org.w3c.dom.Element;
 
 import javax.xml.xpath.XPathExpressionException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -44,6 +50,7 @@ public class NullContext extends DriverContext {
     private Random random;
     private long baseMillis = System.currentTimeMillis();
     private long baseNanos = System.nanoTime();
+    private HashMap<String, DataFeeder> feeders;
 
 
     /**
@@ -371,4 +378,64 @@ public class NullContext extends DriverContext {
             return null;
         return driverBase + "/resources";
     }
+
+    /**
+     * Obtains the feeder for a comma separated text data file. With no
+     * agents, the single thread gets all the rows.
+     * @param file The data file, relative to the resource directory
+     * @param access The access mode
+     * @return The data feeder
+     * @throws IOException Error opening the data file
+     * @see com.sun.faban.driver.DriverContext#getDataFeeder(String,
+     *      DataFeeder.Access)
+     */
+    public DataFeeder getDataFeeder(String file, DataFeeder.Access access)
+            throws IOException {
+        return getDataFeeder(file, 0, access);
+    }
+
+    /**
+     * Obtains the feeder for a binary data file with fixed length records.
+     * With no agents, the single thread gets all the rows.
+     * @param file The data file, relative to the resource directory
+     * @param recordLength The length of each record in bytes
+     * @param access The access mode
+     * @return The data feeder
+     * @throws IOException Error opening the data file
+     * @see com.sun.faban.driver.DriverContext#getDataFeeder(String, int,
+     *      DataFeeder.Access)
+     */
+    public DataFeeder getDataFeeder(String file, int recordLength,
+                                    DataFeeder.Access access)
+            throws IOException {
+        String key = file + ':' + recordLength + ':' + access;
+        if (feeders == null)
+            feeders = new HashMap<String, DataFeeder>();
+        DataFeeder feeder = feeders.get(key);
+        if (feeder == null) {
+            File f = new File(file);
+            if (!f.isAbsolute() && getResourceDir() != null)
+                f = new File(getResourceDir(), file);
+            feeder = DataFeeder.getInstance(f, recordLength, access,
+                    NullContext.class, 1, 0, getRandom());
+            feeders.put(key, feeder);
+        }
+        return feeder;
+    }
+
+    /**
+     * Validates the response. Without agents, the validation runs
+     * synchronously and failures are logged.
+     * @param response The response to validate
+     * @param validator The validator to validate the response
+     * @param <T> The response type
+     * @see com.sun.faban.driver.DriverContext#validate(Object, Validator)
+     */
+    public <T> void validate(T response, Validator<T> validator) {
+        try {
+            validator.validate(response);
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "Validation failed.", e);
+        }
+    }
 }
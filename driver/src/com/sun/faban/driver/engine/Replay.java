@@ -0,0 +1,283 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.common.Utilities;
+import com.sun.faban.driver.ConfigurationException;
+import com.sun.faban.driver.CustomMetrics;
+import com.sun.faban.driver.CycleType;
+import com.sun.faban.driver.DefinitionException;
+import com.sun.faban.driver.FatalException;
+import com.sun.faban.driver.util.LatencyHistogram;
+import com.sun.faban.driver.util.Random;
+import com.sun.faban.driver.util.RequestTrace;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+
+import static com.sun.faban.driver.engine.AgentThread.TIME_NOT_SET;
+
+/**
+ * Implements the replay of a request trace. The delay is calculated so
+ * the next request of the thread's trace partition gets invoked at its
+ * original time relative to the start of the run, divided by the speed-up
+ * factor. If the replay falls behind, the next request is invoked right
+ * away. The lag of the actual invoke time behind the trace schedule is
+ * recorded for each request as "Replay Lag" custom metrics. Replay is
+ * only supported for the foreground operations.
+ */
+public class Replay extends Cycle {
+
+	private static final long serialVersionUID = 1L;
+
+    /** The per-thread replay state, shared by all replay cycles. */
+    private static ThreadLocal<State> state = new ThreadLocal<State>();
+
+    String trace;
+    double speedUp = 1d;
+    long lagThreshold = 100 * Utilities.TO_NANOS;
+
+    /**
+     * Constructs the cycle.
+     */
+    public Replay() {
+        cycleType = CycleType.CYCLETIME;
+    }
+
+    /**
+     * Initializes this cycle according to the annotation.
+     * @param a The annotation
+     * @throws DefinitionException If there is an error in the annotation
+     */
+	public void init(Annotation a) throws DefinitionException {
+        com.sun.faban.driver.Replay cycleDef =
+                (com.sun.faban.driver.Replay) a;
+        cycleDeviation = cycleDef.cycleDeviation();
+        trace = cycleDef.trace();
+        speedUp = cycleDef.speedUp();
+        lagThreshold = cycleDef.lagThreshold() * Utilities.TO_NANOS;
+        if (speedUp <= 0d)
+            throw new DefinitionException("@Replay speedUp must be " +
+                    "positive, found " + speedUp);
+    }
+
+    /**
+     * Returns the delay from the start of the previous operation to the
+     * scheduled time of the next request in the trace. If the trace is
+     * exhausted, the delay extends beyond the end of the run so the thread
+     * stops.
+     *
+     * @param random The random number generator used
+     * @return The delay time
+     */
+	public long getDelay(Random random) {
+        DriverContext ctx = DriverContext.getContext();
+        AgentThread thread = ctx.agentThread;
+        State s = state.get();
+        if (s == null) {
+            s = new State(open(ctx));
+            state.set(s);
+            ctx.attachMetrics("Replay Lag", s.lag);
+        }
+
+        // Record the lag of the request just replayed.
+        DriverContext.TimingInfo timingInfo = ctx.timingInfo;
+        if (s.scheduled != TIME_NOT_SET &&
+                timingInfo.invokeTime != TIME_NOT_SET &&
+                thread.isSteadyState(s.scheduled, timingInfo.invokeTime))
+            s.lag.record(timingInfo.invokeTime - s.scheduled, lagThreshold);
+        s.scheduled = TIME_NOT_SET;
+
+        // The schedule is relative to the run start time.
+        if (!thread.startTimeSet)
+            try {
+                thread.agent.timeSetLatch.await();
+            } catch (InterruptedException e) { // Run is killed.
+                throw new FatalException(e);
+            }
+        long base = thread.agent.startTime;
+        s.partition.setSchedule(base, speedUp);
+        RunInfo runInfo = thread.runInfo;
+        long invokeTime;
+        RequestTrace.Record record = s.partition.peek();
+        if (record == null) {
+            invokeTime = base + (runInfo.rampUp + runInfo.stdyState +
+                                 runInfo.rampDown) * 1000000000l;
+        } else {
+            invokeTime = base + (long) (record.getTime() * 1000d / speedUp);
+            s.scheduled = invokeTime;
+        }
+        long delay = invokeTime - thread.startTime[0];
+        return delay < 0l ? 0l : delay;
+    }
+
+    private RequestTrace.Partition open(DriverContext ctx) {
+        String file = trace;
+        if (file == null || file.length() == 0)
+            file = ctx.getProperty("traceFile");
+        if (file == null || file.length() == 0)
+            throw new FatalException("No trace configured for replay. " +
+                    "Please set the traceFile driver property.");
+        File f = new File(file);
+        if (!f.isAbsolute())
+            f = new File(ctx.getResourceDir(), file);
+        RunInfo.AgentInfo agentInfo = ctx.agentThread.runInfo.agentInfo;
+        try {
+            return RequestTrace.getPartition(f, ctx.agentThread.agent,
+                    ctx.getClientsInDriver(), agentInfo.startThreadNumber,
+                    agentInfo.threads, ctx.getThreadId());
+        } catch (IOException e) {
+            throw new FatalException("Error opening trace " + f, e);
+        }
+    }
+
+    /**
+     * Provides the maximum value to be represented inside a histogram.
+     *
+     * @return The max reasonable delay to be presented in the output histogram.
+     */
+	public double getHistogramMax() {
+        // Trace inter-arrival times vary widely, 10 seconds covers
+        // interactive sessions.
+        return 10000d * Utilities.TO_NANOS;
+    }
+
+    /**
+     * Configure the cycle based on an XML fragment from the configuration
+     * file. The format of the fragment is:
+     *
+     * <pre>
+     * <trace>file</trace>
+     * <speedUp>factor</speedUp>
+     * </pre>
+     */
+    protected void configureSubclass(Element e) throws ConfigurationException {
+        NodeList nl = e.getElementsByTagNameNS(RunInfo.DRIVERURI, "trace");
+        if (nl.getLength() > 1) {
+            String msg = "Bad trace definition; must have only one per cycleTime";
+            getLogger().severe(msg);
+            ConfigurationException ce = new ConfigurationException(msg);
+            getLogger().throwing(getClass().getName(), "configure", ce);
+            throw ce;
+        }
+        if (nl.getLength() == 1) {
+            trace = nl.item(0).getFirstChild().getNodeValue().trim();
+        }
+        nl = e.getElementsByTagNameNS(RunInfo.DRIVERURI, "speedUp");
+        if (nl.getLength() > 1) {
+            String msg = "Bad speedUp definition; must have only one per cycleTime";
+            getLogger().severe(msg);
+            ConfigurationException ce = new ConfigurationException(msg);
+            getLogger().throwing(getClass().getName(), "configure", ce);
+            throw ce;
+        }
+        if (nl.getLength() == 1) {
+            speedUp = Double.parseDouble(
+                    nl.item(0).getFirstChild().getNodeValue());
+        }
+    }
+
+    /** The replay state of a thread. */
+    private static class State {
+        RequestTrace.Partition partition;
+        Lag lag = new Lag();
+
+        /** The scheduled invoke time of the pending request. */
+        long scheduled = TIME_NOT_SET;
+
+        State(RequestTrace.Partition partition) {
+            this.partition = partition;
+        }
+    }
+
+    /**
+     * The lag of the replay behind the trace schedule.
+     */
+    static class Lag implements CustomMetrics {
+
+        private static final long serialVersionUID = 1L;
+
+        private LatencyHistogram lag = new LatencyHistogram();
+        private long late;
+
+        /**
+         * Records the lag of a request.
+         * @param nanos The lag, in nanoseconds
+         * @param threshold The lag counting as late
+         */
+        void record(long nanos, long threshold) {
+            lag.record(nanos);
+            if (nanos > threshold)
+                ++late;
+        }
+
+        /**
+         * @see CustomMetrics#add(CustomMetrics)
+         */
+        public void add(CustomMetrics other) {
+            Lag o = (Lag) other;
+            lag.add(o.lag);
+            late += o.late;
+        }
+
+        /**
+         * @see CustomMetrics#getResults()
+         */
+        @SuppressWarnings("boxing")
+        public Element[] getResults() {
+            Element[] e = new Element[6];
+            for (int i = 0; i < e.length; i++)
+                e[i] = new Element();
+            int count = lag.getCount();
+            e[0].description = "Replayed requests";
+            e[0].result = String.valueOf(count);
+            e[1].description = "Average lag behind schedule (ms)";
+            e[1].result = String.format("%.3f", lag.getMean() / 1e6d);
+            e[2].description = "90th percentile lag (ms)";
+            e[2].result = String.format("%.3f", lag.getPercentile(90d) / 1e6d);
+            e[3].description = "99th percentile lag (ms)";
+            e[3].result = String.format("%.3f", lag.getPercentile(99d) / 1e6d);
+            e[4].description = "Maximum lag (ms)";
+            e[4].result = String.format("%.3f", lag.getMax() / 1e6d);
+            e[5].description = "Late requests (%)";
+            e[5].result = String.format("%.3f",
+                    count == 0 ? 0d : late * 100d / count);
+            return e;
+        }
+
+        /**
+         * @see Object#clone()
+         */
+        @Override
+        public Object clone() {
+            Lag clone = new Lag();
+            clone.add(this);
+            return clone;
+        }
+    }
+}
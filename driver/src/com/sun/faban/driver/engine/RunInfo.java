@@ -37,6 +37,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 
 
@@ -765,6 +766,42 @@ public class RunInfo implements Serializable {
                     template.indexOf("operation#"));
             StringBuilder operations = new StringBuilder();
 
+            // The percentiles and response time unit of the generated driver.
+            String percentiles = xp.evaluate("fd:driverConfig/fd:percentiles",
+                    runConfigNode);
+            if (percentiles == null || percentiles.trim().length() == 0)
+                percentiles = "90th, 95th, 99th";
+            String[] pctNames = percentiles.trim().split("[,\\s]+");
+            double[] pcts = new double[pctNames.length];
+            StringBuilder pctList = new StringBuilder();
+            for (int j = 0; j < pctNames.length; j++) {
+                String pct = pctNames[j].replaceAll("[^0-9.]+$", "");
+                try {
+                    pcts[j] = Double.parseDouble(pct);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException("Invalid percentile " +
+                            pctNames[j] + " in <percentiles>");
+                }
+                if (j > 0)
+                    pctList.append(", ");
+                pctList.append('"').append(pctNames[j]).append('"');
+            }
+            String unit = xp.evaluate("fd:driverConfig/fd:responseTimeUnit",
+                    runConfigNode);
+            TimeUnit responseTimeUnit = TimeUnit.SECONDS;
+            if (unit != null && unit.trim().length() > 0)
+                try {
+                    responseTimeUnit = TimeUnit.valueOf(
+                            unit.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new ConfigurationException("Invalid " +
+                            "<responseTimeUnit> " + unit);
+                }
+
+            // The max90th is given in seconds.
+            double limitScale = TimeUnit.SECONDS.toNanos(1l) /
+                                (double) responseTimeUnit.toNanos(1l);
+
             Element operationNode = null;
             int i=1;
 
@@ -871,10 +908,17 @@ public class RunInfo implements Serializable {
                 //Create the benchmark Operation annotation
                 StringBuilder bmop = new StringBuilder(
                         "@BenchmarkOperation(name = \"").append(operationName);
-                bmop.append("\", percentileLimits={ ").
-                     append(max90th).append(", ").
-                     append(max90th).append(", ").
-                     append(max90th).append("}, ");
+                // The limit applies up to the 99th percentile, the
+                // higher tail percentiles are reported only.
+                double limit = max90th == null || max90th.length() == 0 ?
+                        0d : Double.parseDouble(max90th) * limitScale;
+                bmop.append("\", percentileLimits={ ");
+                for (int j = 0; j < pcts.length; j++) {
+                    if (j > 0)
+                        bmop.append(", ");
+                    bmop.append(pcts[j] <= 99d ? limit : 0d);
+                }
+                bmop.append("}, ");
 				if (provider == TransportProvider.SUN &&
                         url.startsWith("https"))
 					bmop.append("timing = com.sun.faban.driver.Timing.MANUAL");
@@ -923,6 +967,10 @@ public class RunInfo implements Serializable {
                                              provider.providerClass);
             template = template.replaceFirst("@BenchmarkDriverName@",
                     definingClassName);
+            template = template.replaceFirst("@Percentiles@",
+                    pctList.toString());
+            template = template.replaceFirst("@ResponseTimeUnit@",
+                    responseTimeUnit.name());
             
             String tmpDir = System.getProperty("faban.tmpdir");
             
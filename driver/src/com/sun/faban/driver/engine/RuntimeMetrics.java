@@ -139,6 +139,15 @@ public class RuntimeMetrics implements Serializable,
     /** Response time histogram. */
     protected int[][] respHist;
 
+    /** Connections opened by the agents, cumulative. */
+    protected long connOpened;
+
+    /** Open connections reused by the agents, cumulative. */
+    protected long connReused;
+
+    /** Total time taken to open connections, cumulative, in ns. */
+    protected long connTime;
+
     /**
      * Only classes in this package can instantiate the RuntimeMetrics.
      */
@@ -169,6 +178,9 @@ public class RuntimeMetrics implements Serializable,
             sumSquaresTotal = new double [txTypes];
             respHist = new int[txTypes][m.respHist[0].length];
         }
+        connOpened = 0l;
+        connReused = 0l;
+        connTime = 0l;
 
         for (int i = 0; i < txTypes; i++) {
             // Add the sum squares before adding the count and response sum.
@@ -221,7 +233,10 @@ public class RuntimeMetrics implements Serializable,
     public void add(RuntimeMetrics m) {
         if (m.timestamp > timestamp)
             timestamp = m.timestamp;
-        
+        connOpened += m.connOpened;
+        connReused += m.connReused;
+        connTime += m.connTime;
+
         for (int i = 0; i < txTypes; i++) {
             // Add the sum squares before adding the count and response sum.
             // The values of count and sum have to be unchanged at this point.
@@ -455,6 +470,32 @@ public class RuntimeMetrics implements Serializable,
         return s;
     }
 
+    /**
+     * Formats the connection stats since the previous RuntimeMetrics:
+     * the number of connections opened, the ratio of requests sent over
+     * reused connections, and the average connect time in ms.
+     * @param prev The previous RuntimeMetrics
+     * @param b The buffer to append the connection stats to
+     * @return Whether there were any connection stats to format
+     */
+    public boolean formatConnectionStats(RuntimeMetrics prev,
+                                         StringBuilder b) {
+        long opened = connOpened - prev.connOpened;
+        long reused = connReused - prev.connReused;
+        if (opened == 0l && reused == 0l)
+            return false;
+        Formatter formatter = new Formatter(b);
+        b.append("COpen=").append(opened);
+        formatter.format(" CReuse=%.01f%%", reused * 100d / (opened + reused));
+        b.append(" CConn=");
+        if (opened == 0l)
+            b.append('-');
+        else
+            formatter.format("%.03f", (connTime - prev.connTime) / 1e6d /
+                                                                    opened);
+        return true;
+    }
+
     private long getBucketValue(int bucketId) {
         long resp;
         if (bucketId < Metrics.FINE_RESPBUCKETS) {
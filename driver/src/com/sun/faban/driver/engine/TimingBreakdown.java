@@ -0,0 +1,336 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.common.TextTable;
+import com.sun.faban.common.Utilities;
+import com.sun.faban.driver.util.LatencyHistogram;
+
+import java.io.Serializable;
+import java.util.Formatter;
+
+import static com.sun.faban.driver.engine.AgentThread.TIME_NOT_SET;
+
+/**
+ * TimingBreakdown keeps the per-operation breakdown of the response time
+ * into its network phases: host name lookup, TCP connect, full SSL/TLS
+ * handshake, resumed SSL/TLS handshake, time to first byte, and transfer.
+ * The phase times are collected by the timed socket layer into the
+ * DriverContext.TimingInfo and recorded here at the end of each successful
+ * operation. The data structures are allocated lazily so drivers not using
+ * the timed transports do not pay for the breakdown.
+ */
+class TimingBreakdown implements Serializable, Cloneable {
+
+	private static final long serialVersionUID = 1l;
+
+    /** Host name lookup phase. */
+    static final int LOOKUP = 0;
+
+    /** TCP connect phase. */
+    static final int CONNECT = 1;
+
+    /** Full SSL/TLS handshake phase. */
+    static final int HANDSHAKE = 2;
+
+    /** SSL/TLS handshake resuming a cached session. */
+    static final int RESUME = 3;
+
+    /** Time to first byte, from sending the request. */
+    static final int FIRST_BYTE = 4;
+
+    /** Transfer of the remaining response, after the first byte. */
+    static final int TRANSFER = 5;
+
+    /** The number of phases. */
+    static final int PHASES = 6;
+
+    /** The phase names as shown in the reports. */
+    static final String[] PHASE_NAMES = { "Lookup", "Connect", "Handshake",
+                                          "Resumption", "First Byte",
+                                          "Transfer" };
+
+    private int txTypes;
+    private int graphBuckets;
+    private long graphBucketSize;
+
+    /** Steady state histograms, by phase and operation. */
+    private LatencyHistogram[][] hist;
+
+    /** Accumulated phase times over the course of the run. */
+    private long[][][] graph;
+
+    /** Sample count for each graph bucket. */
+    private int[][][] graphCnt;
+
+    /**
+     * Constructs the breakdown.
+     * @param txTypes The number of operations
+     * @param graphBuckets The number of graph buckets
+     * @param graphBucketSize The size of each graph bucket, in ns
+     */
+    TimingBreakdown(int txTypes, int graphBuckets, long graphBucketSize) {
+        this.txTypes = txTypes;
+        this.graphBuckets = graphBuckets;
+        this.graphBucketSize = graphBucketSize;
+    }
+
+    /**
+     * Records the phase times of a successful operation.
+     * @param txType The operation type
+     * @param timingInfo The timing info of the operation
+     * @param elapsedTime The time since the start of the run, in ns
+     * @param steadyState Whether the operation is in steady state
+     */
+    void record(int txType, DriverContext.TimingInfo timingInfo,
+                long elapsedTime, boolean steadyState) {
+        if (timingInfo.lookupTime > 0l)
+            record(LOOKUP, txType, timingInfo.lookupTime, elapsedTime,
+                   steadyState);
+        if (timingInfo.connectTime > 0l)
+            record(CONNECT, txType, timingInfo.connectTime, elapsedTime,
+                   steadyState);
+        if (timingInfo.handshakeTime > 0l)
+            record(HANDSHAKE, txType, timingInfo.handshakeTime, elapsedTime,
+                   steadyState);
+        if (timingInfo.resumeTime > 0l)
+            record(RESUME, txType, timingInfo.resumeTime, elapsedTime,
+                   steadyState);
+        if (timingInfo.firstRespondTime != TIME_NOT_SET &&
+                timingInfo.firstByteTime != TIME_NOT_SET) {
+            record(FIRST_BYTE, txType, timingInfo.firstByteTime, elapsedTime,
+                   steadyState);
+            long transfer = timingInfo.respondTime -
+                    timingInfo.firstRespondTime - timingInfo.pauseTime;
+            record(TRANSFER, txType, transfer, elapsedTime, steadyState);
+        }
+    }
+
+    private void record(int phase, int txType, long time, long elapsedTime,
+                        boolean steadyState) {
+        if (time < 0l)
+            time = 0l;
+        if (steadyState) {
+            if (hist == null)
+                hist = new LatencyHistogram[PHASES][txTypes];
+            if (hist[phase][txType] == null)
+                hist[phase][txType] = new LatencyHistogram();
+            hist[phase][txType].record(time);
+        }
+        if (elapsedTime > 0l) {
+            if (graph == null) {
+                graph = new long[PHASES][][];
+                graphCnt = new int[PHASES][][];
+            }
+            if (graph[phase] == null) {
+                graph[phase] = new long[txTypes][graphBuckets];
+                graphCnt[phase] = new int[txTypes][graphBuckets];
+            }
+            int bucket = (int) (elapsedTime / graphBucketSize);
+            if (bucket >= graphBuckets)
+                bucket = graphBuckets - 1;
+            graph[phase][txType][bucket] += time;
+            ++graphCnt[phase][txType][bucket];
+        }
+    }
+
+    /**
+     * Checks whether any phase times got recorded in steady state.
+     * @return true if there is data to report, false otherwise
+     */
+    boolean hasData() {
+        return hist != null;
+    }
+
+    /**
+     * Aggregates the breakdown of another thread into this one.
+     * @param b The other breakdown
+     */
+    void add(TimingBreakdown b) {
+        if (b == null)
+            return;
+        if (b.hist != null) {
+            if (hist == null)
+                hist = new LatencyHistogram[PHASES][txTypes];
+            for (int i = 0; i < PHASES; i++)
+                for (int j = 0; j < txTypes; j++) {
+                    if (b.hist[i][j] == null)
+                        continue;
+                    if (hist[i][j] == null)
+                        hist[i][j] = (LatencyHistogram) b.hist[i][j].clone();
+                    else
+                        hist[i][j].add(b.hist[i][j]);
+                }
+        }
+        if (b.graph != null) {
+            if (graph == null) {
+                graph = new long[PHASES][][];
+                graphCnt = new int[PHASES][][];
+            }
+            for (int i = 0; i < PHASES; i++) {
+                if (b.graph[i] == null)
+                    continue;
+                if (graph[i] == null) {
+                    graph[i] = new long[txTypes][graphBuckets];
+                    graphCnt[i] = new int[txTypes][graphBuckets];
+                }
+                for (int j = 0; j < txTypes; j++)
+                    for (int k = 0; k < graphBuckets; k++) {
+                        graph[i][j][k] += b.graph[i][j][k];
+                        graphCnt[i][j][k] += b.graphCnt[i][j][k];
+                    }
+            }
+        }
+    }
+
+    /**
+     * Makes a deep copy of this breakdown.
+     * @return The copy
+     */
+    @Override
+    public Object clone() {
+        TimingBreakdown clone = null;
+        try {
+            clone = (TimingBreakdown) super.clone();
+            clone.hist = null;
+            clone.graph = null;
+            clone.graphCnt = null;
+            clone.add(this);
+        } catch (CloneNotSupportedException e) {
+            // This should not happen as we already implement cloneable.
+        }
+        return clone;
+    }
+
+    /**
+     * Prints the breakdown as a custom table into the summary report.
+     * @param buffer The summary buffer
+     * @param txNames The operation names
+     * @param driver The driver definition
+     */
+    @SuppressWarnings("boxing")
+    void printSummary(StringBuilder buffer, String[] txNames,
+                      BenchmarkDefinition.Driver driver) {
+        if (hist == null)
+            return;
+        double precision = driver.responseTimeUnit.toNanos(1l);
+        String unit = driver.responseTimeUnit.toString().toLowerCase();
+        double[] pcts;
+        String[] pctNames;
+        if (driver.percentiles.length > 0) {
+            pcts = driver.percentiles;
+            pctNames = new String[pcts.length];
+            for (int i = 0; i < pcts.length; i++)
+                pctNames[i] = driver.pctString[i] + (driver.pctSuffix[i] ==
+                        null ? "th" : driver.pctSuffix[i]);
+        } else {
+            pcts = new double[] { 90d, 99d };
+            pctNames = new String[] { "90th", "99th" };
+        }
+
+        Formatter formatter = new Formatter(buffer);
+        Metrics.space(8, buffer).append("<customTable name=\"Timing " +
+                "Breakdown (").append(unit).append(")\">\n");
+        Metrics.space(12, buffer).append("<head>\n");
+        Metrics.space(16, buffer).append("<th>Operation</th>\n");
+        Metrics.space(16, buffer).append("<th>Phase</th>\n");
+        Metrics.space(16, buffer).append("<th>Samples</th>\n");
+        Metrics.space(16, buffer).append("<th>Avg</th>\n");
+        Metrics.space(16, buffer).append("<th>Max</th>\n");
+        for (String pctName : pctNames)
+            Metrics.space(16, buffer).append("<th>").append(pctName).
+                    append("%</th>\n");
+        Metrics.space(12, buffer).append("</head>\n");
+        for (int j = 0; j < txTypes; j++)
+            for (int i = 0; i < PHASES; i++) {
+                LatencyHistogram h = hist[i][j];
+                if (h == null || h.getCount() == 0)
+                    continue;
+                Metrics.space(12, buffer).append("<tr>\n");
+                Metrics.space(16, buffer).append("<td>");
+                Utilities.escapeXML(txNames[j], buffer);
+                buffer.append("</td>\n");
+                Metrics.space(16, buffer).append("<td>").
+                        append(PHASE_NAMES[i]).append("</td>\n");
+                Metrics.space(16, buffer).append("<td>").
+                        append(h.getCount()).append("</td>\n");
+                Metrics.space(16, buffer);
+                formatter.format("<td>%5.3f</td>\n", h.getMean() / precision);
+                Metrics.space(16, buffer);
+                formatter.format("<td>%5.3f</td>\n", h.getMax() / precision);
+                for (double pct : pcts) {
+                    Metrics.space(16, buffer);
+                    formatter.format("<td>%5.3f</td>\n",
+                            h.getPercentile(pct) / precision);
+                }
+                Metrics.space(12, buffer).append("</tr>\n");
+            }
+        Metrics.space(8, buffer).append("</customTable>\n");
+    }
+
+    /**
+     * Prints the average phase times over the course of the run into the
+     * detail report. Only phases with recorded data get printed.
+     * @param b The detail buffer
+     * @param driverName The driver name
+     * @param txNames The operation names
+     * @param bucketLimit The number of graph buckets to print
+     * @param driver The driver definition
+     */
+    @SuppressWarnings("boxing")
+    void printDetail(StringBuilder b, String driverName, String[] txNames,
+                     int bucketLimit, BenchmarkDefinition.Driver driver) {
+        if (graph == null)
+            return;
+        double precision = driver.responseTimeUnit.toNanos(1l);
+        String unit = driver.responseTimeUnit.toString().toLowerCase();
+        double bucketSecs = graphBucketSize / 1e9d;
+        if (bucketLimit > graphBuckets)
+            bucketLimit = graphBuckets;
+        for (int i = 0; i < PHASES; i++) {
+            if (graph[i] == null)
+                continue;
+            b.append("Section: ").append(driverName).append(' ').
+                    append(PHASE_NAMES[i]).append(" Times (").append(unit).
+                    append(")\n");
+            b.append("Display: Line\n");
+            TextTable table = new TextTable(bucketLimit, txTypes + 1);
+            table.setHeader(0, "Time (s)");
+            for (int j = 0; j < txTypes; j++)
+                table.setHeader(j + 1, txNames[j]);
+            for (int k = 0; k < bucketLimit; k++) {
+                table.setField(k, 0, String.format("%.0f", bucketSecs * k));
+                for (int j = 0; j < txTypes; j++) {
+                    double data = 0d;
+                    if (graphCnt[i][j][k] != 0)
+                        data = graph[i][j][k] /
+                                (precision * graphCnt[i][j][k]);
+                    table.setField(k, j + 1, String.format("%.6f", data));
+                }
+            }
+            table.format(b);
+            b.append('\n');
+        }
+    }
+}
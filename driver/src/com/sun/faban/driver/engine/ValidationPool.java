@@ -0,0 +1,162 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.Validator;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The agent-wide pool validating responses off the timed path of the
+ * driver threads. Each validation carries the thread, the operation, and
+ * whether the operation ran in steady state. Failures are counted per
+ * thread and operation and get folded into the thread's metrics when the
+ * agent collects its results.<p>
+ * The pool size defaults to the number of processors and can be set with
+ * the faban.validation.threads system property. The queue is bounded by
+ * faban.validation.queue, 1024 per pool thread by default. If the
+ * validation cannot keep up and the queue fills, the driver thread
+ * handing off the response runs the validation itself. This slows down
+ * the driver instead of letting the backlog grow without bounds.
+ */
+class ValidationPool {
+
+    private static Logger logger =
+            Logger.getLogger(ValidationPool.class.getName());
+
+    private AgentImpl agent;
+    private int txTypes;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Error counters by thread index and operation, steady state and
+     * total interleaved.
+     */
+    private AtomicIntegerArray errors;
+
+    /**
+     * Constructs the validation pool for an agent.
+     * @param agent The agent
+     * @param numThreads The number of driver threads in the agent
+     * @param txTypes The number of operations
+     */
+    ValidationPool(final AgentImpl agent, int numThreads, int txTypes) {
+        this.agent = agent;
+        this.txTypes = txTypes;
+        errors = new AtomicIntegerArray(numThreads * txTypes * 2);
+
+        int poolSize = Integer.getInteger("faban.validation.threads",
+                Runtime.getRuntime().availableProcessors());
+        if (poolSize < 1)
+            poolSize = 1;
+        int queueSize = Integer.getInteger("faban.validation.queue",
+                1024 * poolSize);
+        if (queueSize < 1)
+            queueSize = 1;
+
+        ThreadFactory factory = new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, agent.runInfo.driverConfig.name +
+                        "Validator." + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0l,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), factory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Submits a response for validation.
+     * @param thread The driver thread that obtained the response
+     * @param txType The operation that obtained the response
+     * @param steadyState Whether the operation ran in steady state
+     * @param response The response
+     * @param validator The validator
+     * @param <T> The response type
+     */
+    <T> void submit(final AgentThread thread, final int txType,
+                    final boolean steadyState, final T response,
+                    final Validator<T> validator) {
+        final int idx = ((thread.id - agent.runInfo.agentInfo.
+                startThreadNumber) * txTypes + txType) * 2;
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    validator.validate(response);
+                } catch (Throwable t) {
+                    errors.incrementAndGet(idx);
+                    if (steadyState)
+                        errors.incrementAndGet(idx + 1);
+                    thread.logger.log(Level.WARNING, thread.name + '.' +
+                            thread.driverConfig.operations[txType].name +
+                            ": Validation failed.", t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for all pending validations to complete and shuts down the
+     * pool. Validations still pending after the timeout are not counted.
+     * @param timeout The maximum time to wait, in seconds
+     */
+    void drain(int timeout) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, TimeUnit.SECONDS))
+                logger.warning(executor.getQueue().size() +
+                        " validations not completed after " + timeout +
+                        " seconds.");
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Moves the validation errors of a thread into its metrics.
+     * @param thread The driver thread
+     */
+    void fold(AgentThread thread) {
+        int base = (thread.id - agent.runInfo.agentInfo.startThreadNumber) *
+                txTypes * 2;
+        for (int i = 0; i < txTypes; i++) {
+            int total = errors.getAndSet(base + i * 2, 0);
+            int steady = errors.getAndSet(base + i * 2 + 1, 0);
+            if (total > 0)
+                thread.metrics.recordValidationErrors(i, steady, total);
+        }
+    }
+}
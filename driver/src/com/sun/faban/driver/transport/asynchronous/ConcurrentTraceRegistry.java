@@ -0,0 +1,343 @@
+package com.sun.faban.driver.transport.asynchronous;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.jms.Message;
+
+import com.sun.faban.driver.DriverContext;
+
+/**
+ * The {@link ConcurrentTraceRegistry} correlates requests and responses 
+ * within a JVM.  Pending traces are kept in a concurrent map shared by all
+ * driver threads.  The thread acknowledging a response removes the trace 
+ * from the map, stores the response in the trace, and unparks the waiting 
+ * driver thread.  There is no polling and no locking on the path of a 
+ * message.<p>
+ * 
+ * Traces nobody waits for, for example when the response never arrives 
+ * or arrives after the waiter gave up, are expired by a timing wheel.
+ * The timeout is taken from the <code>faban.async.traceTimeout</code> 
+ * system property in milliseconds and defaults to 60 seconds.<p>
+ * 
+ * Round trip times are measured from registering the request to the 
+ * arrival of the response and kept in a histogram per driver thread.
+ * The histograms are attached to the driver metrics as 
+ * {@link TraceStats} and show up in the summary report.<p>
+ * 
+ * Responses must arrive in the JVM that sent the request.  Use the 
+ * {@link MessageCacheTraceRegistry} if responses may be delivered to 
+ * other JVMs or hosts.
+ * 
+ * @param <T> result
+ * @param <K> message
+ */
+public class ConcurrentTraceRegistry<T, K extends Message> implements TraceRegistry<T, K> {
+	
+	static private Logger logger = Logger.getLogger(ConcurrentTraceRegistry.class.getName());
+	
+	static private AtomicLong traceCounter = new AtomicLong(100000);
+	
+	static private AtomicLong lateResponses = new AtomicLong();
+	
+	static private final long TRACE_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(
+			Long.getLong("faban.async.traceTimeout", 60000l));
+	
+	/** The pending traces of all registries in this JVM. */
+	static private final ConcurrentHashMap<String, Slot> pending = 
+		new ConcurrentHashMap<String, Slot>(1024);
+	
+	private DriverContext context;
+	
+	private TraceStats stats = new TraceStats();
+	
+	/**
+	 * Constructs the registry and attaches the round trip statistics 
+	 * to the driver metrics.
+	 * 
+	 * @param ctx The driver context
+	 */
+	public ConcurrentTraceRegistry(DriverContext ctx) {
+		this.context = ctx;
+		ctx.attachMetrics("Asynchronous Round Trips", stats);
+	}
+
+	/**
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#registerAndDye(java.lang.Object)
+	 */
+	public Trace<K> registerAndDye(K payload) throws DyeingException {
+		String correlationId;
+		try {
+			correlationId = payload.getJMSCorrelationID();
+			// set the JMSCorrelationID if it's not set.
+			if(correlationId == null) {
+				correlationId = context.getDriverName() + ":" + 
+				context.getAgentId() + ":" + 
+				Long.toString(traceCounter.incrementAndGet());
+				payload.setJMSCorrelationID(correlationId);
+			}
+		} catch (Exception e) {
+			throw new DyeingException(e);
+		}
+		Slot slot = new Slot(correlationId, stats);
+		if(pending.putIfAbsent(correlationId, slot) != null) {
+			throw new DyeingException("Trace " + correlationId + " already registered");
+		}
+		TimeoutWheel.INSTANCE.schedule(slot);
+		return new SlotTrace<K>(slot, payload);
+	}
+
+	/**
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#acknowledge(java.lang.String, java.lang.Object)
+	 */
+	public void acknowledge(String traceId, T response) throws MissingDyeException {
+		if(traceId == null || traceId.length() == 0) {
+			throw new MissingDyeException();
+		}
+		Slot slot = pending.remove(traceId);
+		if(slot == null) {
+			lateResponses.incrementAndGet();
+			if(logger.isLoggable(Level.FINE)) {
+				logger.fine("Response for unknown or expired trace " + traceId);
+			}
+			return;
+		}
+		slot.complete(response);
+	}
+
+	/**
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#waitForCompletion(com.sun.faban.driver.transport.asynchronous.Trace, int, java.util.concurrent.TimeUnit)
+	 */
+	public T waitForCompletion(Trace<K> trace, int time, TimeUnit unit) throws InterruptedException, ExecutionException {
+		Slot slot = ((SlotTrace<K>) trace).slot;
+		if(!slot.done) {
+			long deadline = System.nanoTime() + unit.toNanos(time);
+			slot.waiter = Thread.currentThread();
+			try {
+				while(!slot.done) {
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0) {
+						break;
+					}
+					LockSupport.parkNanos(this, remaining);
+					if(Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+				}
+			} finally {
+				slot.waiter = null;
+			}
+			// The response may race in after the timeout, check again.
+			if(!slot.done && pending.remove(slot.id, slot)) {
+				stats.timedOut();
+				return null;
+			}
+			while(!slot.done) {
+				Thread.yield(); // Acknowledge in progress.
+			}
+		}
+		if(slot.expired) {
+			return null;
+		}
+		if(context.isTxSteadyState()) {
+			stats.record(slot.ackTime - slot.startTime);
+		}
+		// Only acknowledge(String, T) sets the result.
+		@SuppressWarnings("unchecked")
+		T result = (T) slot.result;
+		slot.result = null; // Don't keep it around until the wheel drops the slot.
+		return result;
+	}
+
+	/**
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#isComplete(com.sun.faban.driver.transport.asynchronous.Trace)
+	 */
+	public boolean isComplete(Trace<K> trace) {
+		return ((SlotTrace<K>) trace).slot.done;
+	}
+
+	/**
+	 * Provides the round trip statistics of this registry.
+	 * 
+	 * @param time ignored
+	 * @param unit ignored
+	 * @return stats A copy of the {@link TraceStats}
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#compileResults(int, java.util.concurrent.TimeUnit)
+	 */
+	public Object compileResults(int time, TimeUnit unit) {
+		return stats.clone();
+	}
+	
+	/**
+	 * @return pending The number of traces pending in this JVM
+	 */
+	public static int getPendingTraces() {
+		return pending.size();
+	}
+	
+	/**
+	 * @return lateResponses The number of responses received in this JVM 
+	 * 	after the trace timed out or expired, or for unknown traces
+	 */
+	public static long getLateResponses() {
+		return lateResponses.get();
+	}
+
+	private static final Set<Partition> SUPPORTED_PARTITIONS = new HashSet<Partition>();
+	static {
+		Collections.addAll(SUPPORTED_PARTITIONS, Partition.THREAD, Partition.JVM);
+	}
+	
+	/**
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#getPartitionTolerance()
+	 */
+	public Set<Partition> getPartitionTolerance() {
+		return SUPPORTED_PARTITIONS;
+	}
+
+	/**
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#isSafe(com.sun.faban.driver.transport.asynchronous.Partition)
+	 */
+	public boolean isSafe(Partition partition) {
+		return SUPPORTED_PARTITIONS.contains(partition);
+	}
+	
+	/** The state of a pending trace. */
+	static final class Slot {
+		
+		final String id;
+		final TraceStats stats;
+		final long startTime = System.nanoTime();
+		final long deadline = startTime + TRACE_TIMEOUT;
+		
+		volatile boolean done;
+		volatile Thread waiter;
+		boolean expired;
+		Object result;
+		long ackTime;
+		
+		/** Next slot in the same wheel bucket. */
+		Slot next;
+		
+		Slot(String id, TraceStats stats) {
+			this.id = id;
+			this.stats = stats;
+		}
+		
+		void complete(Object response) {
+			ackTime = System.nanoTime();
+			result = response;
+			done = true; // Publishes the result and ack time.
+			Thread w = waiter;
+			if(w != null) {
+				LockSupport.unpark(w);
+			}
+		}
+	}
+
+	/** Message Trace **/
+	private static final class SlotTrace<K extends Message>
+			implements Trace<K> {
+
+		private final Slot slot;
+		private final K msg;
+		
+		private SlotTrace(Slot slot, K msg) {
+			this.slot = slot;
+			this.msg = msg;
+		}
+		
+		/**
+		 * @see com.sun.faban.driver.transport.asynchronous.Trace#getIdentifier()
+		 */
+		public String getIdentifier() {
+			return slot.id;
+		}
+
+		/**
+		 * @see com.sun.faban.driver.transport.asynchronous.Trace#getPayload()
+		 */
+		public K getPayload() {
+			return msg;
+		}
+	}
+	
+	/**
+	 * The timing wheel expiring pending traces.  Slots are pushed onto the
+	 * bucket of their deadline without locking.  The wheel thread takes
+	 * the whole bucket each tick, drops completed slots, expires the ones
+	 * past their deadline, and pushes back slots due in a later revolution.
+	 */
+	static final class TimeoutWheel implements Runnable {
+		
+		static final TimeoutWheel INSTANCE = new TimeoutWheel();
+		
+		private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+		
+		private static final int BUCKETS = 4096;
+		
+		private final AtomicReferenceArray<Slot> buckets = 
+			new AtomicReferenceArray<Slot>(BUCKETS);
+		
+		private final long start = System.nanoTime();
+		
+		private TimeoutWheel() {
+			Thread t = new Thread(this, "TraceTimeoutWheel");
+			t.setDaemon(true);
+			t.start();
+		}
+		
+		void schedule(Slot slot) {
+			int idx = (int) (((slot.deadline - start) / TICK) % BUCKETS);
+			Slot head;
+			do {
+				head = buckets.get(idx);
+				slot.next = head;
+			} while (!buckets.compareAndSet(idx, head, slot));
+		}
+		
+		/**
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			long tick = 0;
+			for (;;) {
+				long wakeup = start + (tick + 1) * TICK;
+				long now;
+				// Sleep until the end of this tick.
+				while ((now = System.nanoTime()) < wakeup) {
+					LockSupport.parkNanos(this, wakeup - now);
+				}
+				int idx = (int) (tick % BUCKETS);
+				Slot slot = buckets.getAndSet(idx, null);
+				while (slot != null) {
+					Slot next = slot.next;
+					slot.next = null;
+					if(!slot.done) {
+						if((slot.deadline - start) / TICK > tick) {
+							schedule(slot);
+						} else if(pending.remove(slot.id, slot)) {
+							slot.stats.expired();
+							slot.expired = true;
+							slot.complete(null);
+							if(logger.isLoggable(Level.FINE)) {
+								logger.fine("Trace " + slot.id + " expired");
+							}
+						}
+					}
+					slot = next;
+				}
+				++tick;
+			}
+		}
+	}
+}
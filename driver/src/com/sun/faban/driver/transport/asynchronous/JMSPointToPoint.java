@@ -26,7 +26,9 @@ import com.sun.faban.driver.DriverContext;
  * assumes that the message may not be delivered back to the same thread, jvm, or host
  * that originated the request.
  * 
- * A global cache is implemented that provide the mechanism to coordinate responses.
+ * By default, responses are correlated in memory by a {@link ConcurrentTraceRegistry}.
+ * A global cache implemented by the {@link MessageCacheTraceRegistry} can be used to
+ * coordinate responses across JVMs and hosts.
  * 
  * @author Noah Campbell
  * @param <T> response
@@ -57,12 +59,28 @@ public class JMSPointToPoint<T> implements AsynchronousTransport<T, Message>, Me
 	 * @throws RegistryConfigurationException 
 	 */
 	public JMSPointToPoint(DriverContext ctx, MessageProducer producer, MessageConsumer consumer) throws JMSException, RegistryConfigurationException {   
+		this(ctx, producer, consumer, new ConcurrentTraceRegistry<T, Message>(ctx));
+	}
+	
+	/**
+	 * Construct a {@link JMSPointToPoint} object using the given trace 
+	 * registry.  Use a {@link MessageCacheTraceRegistry} if responses
+	 * may be delivered to a different JVM or host than the request.
+	 * 
+	 * @param ctx 
+	 * @param producer 
+	 * @param consumer 
+	 * @param registry The trace registry correlating the responses
+	 * @throws JMSException 
+	 */
+	public JMSPointToPoint(DriverContext ctx, MessageProducer producer, MessageConsumer consumer, 
+			TraceRegistry<T, Message> registry) throws JMSException {
 
 		assert producer != null;
 		assert consumer != null;
 		assert ctx != null;
 		
-		this.traceRegistry = new MessageCacheTraceRegistry<T, Message>(ctx);
+		this.traceRegistry = registry;
 		
 		this.context = ctx;
 		
@@ -55,9 +55,10 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 	public MessageCacheTraceRegistry(DriverContext ctx) throws RegistryConfigurationException {
 		this.context = ctx;
 		
-		scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 4);
-		
 		synchronized (MessageCacheTraceRegistry.class) {
+			if(scheduler == null) {
+				scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+			}
 			if(responseCacheManager == null) {
 				InputStream ehcacheConfig= getClass().getResourceAsStream("/ehcache.xml");
 				if(ehcacheConfig == null) {
@@ -0,0 +1,118 @@
+package com.sun.faban.driver.transport.asynchronous;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.faban.driver.CustomMetrics;
+import com.sun.faban.driver.util.LatencyHistogram;
+
+/**
+ * The {@link TraceStats} keep the round trip times of the traces registered
+ * by one driver thread, from registering the request to the arrival of the
+ * response. Each thread keeps its own stats so recording does not contend.
+ * The stats are attached to the driver metrics and aggregated by Faban at
+ * the end of the run.
+ */
+public class TraceStats implements CustomMetrics {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private LatencyHistogram roundTrips = new LatencyHistogram();
+	
+	private AtomicLong timeouts = new AtomicLong();
+	
+	private AtomicLong expired = new AtomicLong();
+	
+	/**
+	 * Records the round trip time of a trace.
+	 * 
+	 * @param nanos The round trip time in nanoseconds
+	 */
+	void record(long nanos) {
+		roundTrips.record(nanos);
+	}
+	
+	/**
+	 * Counts a wait for a response that timed out.
+	 */
+	void timedOut() {
+		timeouts.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a trace expired by the timeout wheel without anybody waiting
+	 * for it. This may be called from the wheel thread.
+	 */
+	void expired() {
+		expired.incrementAndGet();
+	}
+	
+	/**
+	 * @return roundTrips The round trip histogram
+	 */
+	public LatencyHistogram getRoundTrips() {
+		return roundTrips;
+	}
+	
+	/**
+	 * @return timeouts The number of waits that timed out
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+	
+	/**
+	 * @return expired The number of traces that never got a response
+	 */
+	public long getExpired() {
+		return expired.get();
+	}
+
+	/**
+	 * @see com.sun.faban.driver.CustomMetrics#add(com.sun.faban.driver.CustomMetrics)
+	 */
+	public void add(CustomMetrics other) {
+		TraceStats o = (TraceStats) other;
+		roundTrips.add(o.roundTrips);
+		timeouts.addAndGet(o.timeouts.get());
+		expired.addAndGet(o.expired.get());
+	}
+
+	/**
+	 * @see com.sun.faban.driver.CustomMetrics#getResults()
+	 */
+	@SuppressWarnings("boxing")
+	public Element[] getResults() {
+		Element[] e = new Element[7];
+		for (int i = 0; i < e.length; i++) {
+			e[i] = new Element();
+		}
+		e[0].description = "Asynchronous round trips";
+		e[0].result = String.valueOf(roundTrips.getCount());
+		e[1].description = "Average round trip time (ms)";
+		e[1].result = String.format("%.3f", roundTrips.getMean() / 1e6d);
+		e[2].description = "90th percentile round trip time (ms)";
+		e[2].result = String.format("%.3f", 
+				roundTrips.getPercentile(90d) / 1e6d);
+		e[3].description = "99th percentile round trip time (ms)";
+		e[3].result = String.format("%.3f", 
+				roundTrips.getPercentile(99d) / 1e6d);
+		e[4].description = "Maximum round trip time (ms)";
+		e[4].result = String.format("%.3f", roundTrips.getMax() / 1e6d);
+		e[5].description = "Timed out waiting for response";
+		e[5].result = String.valueOf(timeouts.get());
+		e[6].description = "Traces expired without response";
+		e[6].result = String.valueOf(expired.get());
+		return e;
+	}
+
+	/**
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public Object clone() {
+		TraceStats clone = new TraceStats();
+		clone.add(this);
+		return clone;
+	}
+}
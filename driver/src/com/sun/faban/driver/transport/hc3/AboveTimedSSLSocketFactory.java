@@ -23,11 +23,12 @@
  */
 package com.sun.faban.driver.transport.hc3;
 
+import com.sun.faban.driver.transport.util.TimedSocket;
 import com.sun.faban.driver.transport.util.TimedSocketWrapper;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLSocket;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -42,16 +43,15 @@ import java.net.UnknownHostException;
  */
 public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
 
-    private static SSLSocketFactory sslFactory =
-            (SSLSocketFactory) SSLSocketFactory.getDefault();
-
     public Socket createSocket(String host, int port, InetAddress localAddress,
                                int localPort) throws IOException {
 
-        Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-        InetSocketAddress endpoint = new InetSocketAddress(host, port);
+        SSLSocket sslSocket = TimedSSLFactories.createSocket();
+        Socket socket = new TimedSocketWrapper(sslSocket);
+        InetSocketAddress endpoint = TimedSocket.lookup(host, port);
         socket.bind(new InetSocketAddress(localAddress, localPort));
         socket.connect(endpoint);
+        TimedSSLFactories.handshake(sslSocket, host, port);
         return socket;
     }
 
@@ -65,18 +65,22 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         if (timeout <= 0) {
             return createSocket(host, port, localAddress, localPort);
         } else {
-            Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-            InetSocketAddress endpoint = new InetSocketAddress(host, port);
+            SSLSocket sslSocket = TimedSSLFactories.createSocket();
+            Socket socket = new TimedSocketWrapper(sslSocket);
+            InetSocketAddress endpoint = TimedSocket.lookup(host, port);
             socket.bind(new InetSocketAddress(localAddress, localPort));
             socket.connect(endpoint, timeout);
+            TimedSSLFactories.handshake(sslSocket, host, port);
             return socket;
         }
     }
 
     public Socket createSocket(String host, int port) throws IOException {
-        Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-        InetSocketAddress endpoint = new InetSocketAddress(host, port);
+        SSLSocket sslSocket = TimedSSLFactories.createSocket();
+        Socket socket = new TimedSocketWrapper(sslSocket);
+        InetSocketAddress endpoint = TimedSocket.lookup(host, port);
         socket.connect(endpoint);
+        TimedSSLFactories.handshake(sslSocket, host, port);
         return socket;
     }
 
@@ -87,7 +91,10 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         // Starting the timer at this point is the most accurate we can do
         // with an existing socket - so the time includes createSocket.
         TimedSocketWrapper wrapper = new TimedSocketWrapper();
-        wrapper.setSocket(sslFactory.createSocket(socket, host, port, close));
+        SSLSocket sslSocket =
+                TimedSSLFactories.createSocket(socket, host, port, close);
+        wrapper.setSocket(sslSocket);
+        TimedSSLFactories.handshake(sslSocket, host, port);
         return wrapper;
     }
 
@@ -24,6 +24,7 @@
 package com.sun.faban.driver.transport.hc3;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.util.Payload;
 
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
@@ -81,7 +82,7 @@ public class ApacheHC3Transport extends HttpTransport {
                                         FabanCookieSpec.class);
     }
 
-    private HttpClient hc = new HttpClient();
+    private HttpClient hc;
 
 
     /** The main appendable buffer for the total results. */
@@ -113,7 +114,10 @@ public class ApacheHC3Transport extends HttpTransport {
      * Constructs a new ApacheHC3Transport object.
      */
     public ApacheHC3Transport() {
-        hc.getHttpConnectionManager().getParams().setConnectionTimeout(30000);
+        hc = new HttpClient(HttpConnectionPool.getManager());
+        hc.setState(new JarHttpState());
+        hc.getParams().setBooleanParameter(
+                HttpMethodParams.SINGLE_COOKIE_HEADER, true);
 
     	texttypes = new HashSet<String>();
         texttypes.add("application/json");
@@ -1394,6 +1398,73 @@ public class ApacheHC3Transport extends HttpTransport {
         return putURL(url.toString(), buffer, null, headers);
     }
 
+    /**
+     * Makes a PUT request to the URL, streaming the body from a shared
+     * payload instead of a byte array. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize() to
+     *  obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param payload The payload containing the PUT data
+     * @param contentType the content type, or null
+     * @param headers The request headers, or null
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws java.io.IOException
+     * @see com.sun.faban.driver.util.Payload
+     */
+    public StringBuilder putURL(String url, Payload payload,
+                                String contentType, Map<String, String> headers)
+            throws IOException {
+        PutMethod method = new PutMethod(url);
+        method.setFollowRedirects(followRedirects);
+        setHeaders(method, headers);
+        method.setRequestEntity(
+                new PayloadRequestEntity(payload, contentType));
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return fetchResponse(method);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Makes a PUT request to the URL, streaming the body from a shared
+     * payload. Reads data back and returns the data read.
+     *
+     * @param url The URL to read from
+     * @param payload The payload containing the PUT data
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws java.io.IOException
+     * @see #putURL(String, Payload, String, Map)
+     */
+    public StringBuilder putURL(String url, Payload payload)
+            throws IOException {
+        return putURL(url, payload, null, null);
+    }
+
+    /**
+     * Makes a PUT request to the URL, streaming the body from a shared
+     * payload. Reads data back and returns the data read.
+     *
+     * @param url The URL to read from
+     * @param payload The payload containing the PUT data
+     * @param contentType the content type, or null
+     * @param headers The request headers, or null
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws java.io.IOException
+     * @see #putURL(String, Payload, String, Map)
+     */
+    public StringBuilder putURL(URL url, Payload payload, String contentType,
+                                Map<String, String> headers)
+            throws IOException {
+        return putURL(url.toString(), payload, contentType, headers);
+    }
+
     /**
      * Makes a DELETE request to the URL. Reads data back and returns the data
      * read. Note that this method only works with text data as it does the
@@ -1582,9 +1653,12 @@ public class ApacheHC3Transport extends HttpTransport {
      * Close all connections currently not in use. If the only way of using
      * the Apache HttpClient is through this transport, connections will always
      * be released after a request. The close will close all connections in
-     * this case.
+     * this case. If the agent-wide connection pool is enabled, the
+     * connections are shared with other threads and are not closed. The
+     * pool evicts idle connections instead.
      */
     public void closeConnections() {
-        hc.getHttpConnectionManager().closeIdleConnections(0);
+        if (!HttpConnectionPool.isEnabled())
+            hc.getHttpConnectionManager().closeIdleConnections(0);
     }
 }
@@ -26,7 +26,7 @@ package com.sun.faban.driver.transport.hc3;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLSocket;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -43,14 +43,10 @@ import com.sun.faban.driver.transport.util.TimedSocket;
  */
 public class BelowTimedSSLSocketFactory implements SecureProtocolSocketFactory {
 
-    private static SSLSocketFactory sslFactory =
-            (SSLSocketFactory) SSLSocketFactory.getDefault();
-
     public Socket createSocket(String host, int port, InetAddress localAddress,
                                int localPort) throws IOException {
-        return sslFactory.createSocket(
-                new TimedSocket(host, port, localAddress, localPort),
-                host, port, true);
+        return layer(new TimedSocket(host, port, localAddress, localPort),
+                     host, port, true);
     }
 
     public Socket createSocket(String host, int port, InetAddress localAddress,
@@ -65,26 +61,36 @@ public class BelowTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         } else {
             TimedSocket socket = new TimedSocket();
             socket.bind(new InetSocketAddress(localAddress, localPort));
-            socket.connect(new InetSocketAddress(host, port), timeout);
-            return sslFactory.createSocket(socket, host, port, true);
+            socket.connect(TimedSocket.lookup(host, port), timeout);
+            return layer(socket, host, port, true);
         }
     }
 
     public Socket createSocket(String host, int port) throws IOException {
-        return sslFactory.createSocket(new TimedSocket(host, port),
-                                            host, port, true);
+        return layer(new TimedSocket(host, port), host, port, true);
     }
 
     public Socket createSocket(Socket socket, String host, int port,
                                boolean close)
             throws IOException, UnknownHostException {
         if (socket instanceof TimedSocket)
-            return sslFactory.createSocket(socket, host, port, close);
+            return layer(socket, host, port, close);
         else
             throw new IllegalStateException(
                     "Socket to use must already be a timed socket.");
     }
 
+    /**
+     * Layers the SSL socket over the timed socket and runs the handshake.
+     */
+    private Socket layer(Socket socket, String host, int port, boolean close)
+            throws IOException {
+        SSLSocket sslSocket =
+                TimedSSLFactories.createSocket(socket, host, port, close);
+        TimedSSLFactories.handshake(sslSocket, host, port);
+        return sslSocket;
+    }
+
     /**
      * All instances of ProtocolTimedSocketFactory are the same.
      * @param obj The other object to compare to
@@ -31,7 +31,8 @@ import java.util.logging.Logger;
 
 /**
  * The Faban cookie spec is even more liberal than Apache's CookieSpecBase.
- * It allows cookies with invalid paths to pass.
+ * It allows cookies with invalid paths to pass. Cookies kept in a
+ * {@link JarHttpState} are matched and formatted by the state's cookie jar.
  */
 public class FabanCookieSpec extends CookieSpecBase {
 
@@ -113,4 +114,49 @@ public class FabanCookieSpec extends CookieSpecBase {
             }
         }
     }
+
+    /**
+     * Returns the cookies matching the request. The cookies of a
+     * {@link JarHttpState} are matched by the state's cookie jar.
+     * @param host the host of the request
+     * @param port the port of the request
+     * @param path the path of the request
+     * @param secure whether the request uses a secure connection
+     * @param cookies the cookies to match
+     * @return the matching cookies, or null if none match
+     */
+    @Override
+    public Cookie[] match(String host, int port, String path,
+                          boolean secure, final Cookie[] cookies) {
+        if (cookies != null && cookies.length > 0 &&
+                cookies[0] instanceof JarHttpState.JarCookie)
+            return ((JarHttpState.JarCookie) cookies[0]).state.match(
+                    host.toLowerCase(), port, path, secure);
+        return super.match(host, port, path, secure, cookies);
+    }
+
+    /**
+     * Formats a cookie for the request header.
+     * @param cookie the cookie to format
+     * @return the formatted cookie
+     */
+    @Override
+    public String formatCookie(Cookie cookie) {
+        if (cookie instanceof JarHttpState.HeaderCookie)
+            return ((JarHttpState.HeaderCookie) cookie).header;
+        return super.formatCookie(cookie);
+    }
+
+    /**
+     * Formats the cookies for the request header.
+     * @param cookies the cookies to format
+     * @return the formatted cookies
+     */
+    @Override
+    public String formatCookies(Cookie[] cookies) {
+        if (cookies.length == 1 &&
+                cookies[0] instanceof JarHttpState.HeaderCookie)
+            return ((JarHttpState.HeaderCookie) cookies[0]).header;
+        return super.formatCookies(cookies);
+    }
 }
@@ -0,0 +1,303 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.hc3;
+
+import com.sun.faban.driver.transport.util.ConnectionStats;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HttpConnectionPool provides an agent-wide HTTP connection pool shared by
+ * all ApacheHC3Transport instances in the agent JVM. By default, each
+ * transport keeps its own connection, just like a browser would. For
+ * benchmarks simulating a large number of clients behind a few proxies, or
+ * service-to-service traffic, sharing connections between the driver
+ * threads saves a large number of connects and sockets. The pool is
+ * configured through system properties passed to the agent JVM:<ul>
+ * <li>faban.http.pool - true to enable the shared pool. Default false.</li>
+ * <li>faban.http.pool.maxPerHost - The default maximum connections per
+ *     host. Default 0, unlimited.</li>
+ * <li>faban.http.pool.maxTotal - The maximum connections in the pool.
+ *     Default 0, unlimited.</li>
+ * <li>faban.http.pool.hostLimits - Per-host limits overriding the default,
+ *     given as a comma-separated list of scheme://host:port=limit.</li>
+ * <li>faban.http.pool.idleTimeout - Time in ms after which idle
+ *     connections get closed. Default 60000, 0 to never evict.</li>
+ * <li>faban.http.pool.prewarm - Connections to open ahead of time, given
+ *     as a comma-separated list of scheme://host:port=count. The
+ *     connections are opened in the background as soon as the pool is
+ *     created, which is during ramp up.</li>
+ * </ul>
+ * Connections opened and reused are counted in the ConnectionStats
+ * and reported with the runtime stats.
+ */
+public class HttpConnectionPool {
+
+    private static Logger logger =
+            Logger.getLogger(HttpConnectionPool.class.getName());
+
+    private static final boolean enabled =
+            Boolean.getBoolean("faban.http.pool");
+
+    /** Connect and pool wait timeout, same as the per-transport default. */
+    private static final int TIMEOUT = 30000;
+
+    private static PooledManager manager;
+
+    private HttpConnectionPool() {
+    }
+
+    /**
+     * Checks whether the agent-wide connection pool is enabled.
+     * @return true if enabled, false otherwise
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Obtains the connection manager to be used by a new transport. This is
+     * the shared pooled manager if pooling is enabled. Otherwise it is a new
+     * manager keeping a single connection for the transport.
+     * @return The connection manager
+     */
+    static HttpConnectionManager getManager() {
+        if (!enabled) {
+            SingleManager single = new SingleManager();
+            single.getParams().setConnectionTimeout(TIMEOUT);
+            return single;
+        }
+        synchronized (HttpConnectionPool.class) {
+            if (manager == null)
+                manager = createManager();
+        }
+        return manager;
+    }
+
+    private static PooledManager createManager() {
+        PooledManager m = new PooledManager();
+        HttpConnectionManagerParams params = m.getParams();
+        params.setConnectionTimeout(TIMEOUT);
+        params.setDefaultMaxConnectionsPerHost(
+                getLimit("faban.http.pool.maxPerHost"));
+        params.setMaxTotalConnections(getLimit("faban.http.pool.maxTotal"));
+        for (Map.Entry<HostConfiguration, Integer> entry :
+                parseHosts("faban.http.pool.hostLimits").entrySet())
+            params.setMaxConnectionsPerHost(entry.getKey(),
+                    getLimit(entry.getValue()));
+
+        long idleTimeout = Long.getLong("faban.http.pool.idleTimeout", 60000l);
+        if (idleTimeout > 0l) {
+            IdleConnectionTimeoutThread evictor =
+                    new IdleConnectionTimeoutThread();
+            evictor.setName("HttpConnectionEvictor");
+            evictor.setConnectionTimeout(idleTimeout);
+            evictor.setTimeoutInterval(Math.max(idleTimeout / 2, 1000l));
+            evictor.addConnectionManager(m);
+            evictor.start();
+        }
+
+        Map<HostConfiguration, Integer> prewarm =
+                parseHosts("faban.http.pool.prewarm");
+        if (!prewarm.isEmpty())
+            new Prewarmer(m, prewarm).start();
+
+        logger.info("Agent-wide HTTP connection pool enabled. Max per host: " +
+                params.getDefaultMaxConnectionsPerHost() + ", max total: " +
+                params.getMaxTotalConnections() + ", idle timeout: " +
+                idleTimeout + " ms.");
+        return m;
+    }
+
+    private static int getLimit(String property) {
+        return getLimit(Integer.getInteger(property, 0));
+    }
+
+    private static int getLimit(int limit) {
+        return limit <= 0 ? Integer.MAX_VALUE : limit;
+    }
+
+    /**
+     * Parses a host list in the form of scheme://host:port=n,...
+     * @param property The system property holding the list
+     * @return The host configurations mapped to their value
+     */
+    static Map<HostConfiguration, Integer> parseHosts(String property) {
+        Map<HostConfiguration, Integer> hosts =
+                new LinkedHashMap<HostConfiguration, Integer>();
+        String value = System.getProperty(property);
+        if (value == null)
+            return hosts;
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.length() == 0)
+                continue;
+            int idx = entry.lastIndexOf('=');
+            try {
+                if (idx < 0)
+                    throw new NumberFormatException("No count given");
+                URL url = new URL(entry.substring(0, idx).trim());
+                int count = Integer.parseInt(entry.substring(idx + 1).trim());
+                HostConfiguration hostConfig = new HostConfiguration();
+                int port = url.getPort();
+                if (port == -1)
+                    port = url.getDefaultPort();
+                hostConfig.setHost(url.getHost(), port, url.getProtocol());
+                hosts.put(hostConfig, count);
+            } catch (MalformedURLException e) {
+                logger.warning(property + ": Invalid host " + entry +
+                        ", ignored.");
+            } catch (NumberFormatException e) {
+                logger.warning(property + ": Entry " + entry + " must be " +
+                        "in the form of scheme://host:port=n, ignored.");
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * The shared connection manager, counting the reuse of connections
+     * handed out from the pool.
+     */
+    static class PooledManager extends MultiThreadedHttpConnectionManager {
+
+        /**
+         * Obtains a connection from the pool.
+         * @param hostConfiguration The host configuration
+         * @param timeout The time to wait for a connection, in ms
+         * @return The connection
+         * @throws ConnectionPoolTimeoutException If timed out
+         */
+        @Override
+        public HttpConnection getConnectionWithTimeout(
+                HostConfiguration hostConfiguration, long timeout)
+                throws ConnectionPoolTimeoutException {
+            HttpConnection conn =
+                    super.getConnectionWithTimeout(hostConfiguration, timeout);
+            if (conn.isOpen())
+                ConnectionStats.recordReuse();
+            return conn;
+        }
+    }
+
+    /**
+     * The per-transport connection manager, counting the reuse of its
+     * single connection.
+     */
+    static class SingleManager extends SimpleHttpConnectionManager {
+
+        /**
+         * Obtains the connection of this manager.
+         * @param hostConfiguration The host configuration
+         * @param timeout Not used
+         * @return The connection
+         */
+        @Override
+        public HttpConnection getConnectionWithTimeout(
+                HostConfiguration hostConfiguration, long timeout) {
+            HttpConnection conn =
+                    super.getConnectionWithTimeout(hostConfiguration, timeout);
+            if (conn.isOpen())
+                ConnectionStats.recordReuse();
+            return conn;
+        }
+    }
+
+    /**
+     * The prewarmer opens the configured number of connections to each
+     * host and returns them to the pool so the first requests at the
+     * start of the run do not all pay for the connect.
+     */
+    static class Prewarmer extends Thread {
+
+        private HttpConnectionManager manager;
+        private Map<HostConfiguration, Integer> hosts;
+
+        /**
+         * Constructs the prewarmer.
+         * @param manager The pool to prewarm
+         * @param hosts The hosts and number of connections to open
+         */
+        Prewarmer(HttpConnectionManager manager,
+                  Map<HostConfiguration, Integer> hosts) {
+            this.manager = manager;
+            this.hosts = hosts;
+            setName("HttpConnectionPrewarmer");
+            setDaemon(true);
+        }
+
+        /**
+         * Opens the connections and releases them back to the pool.
+         */
+        @Override
+        public void run() {
+            for (Map.Entry<HostConfiguration, Integer> entry :
+                    hosts.entrySet()) {
+                HostConfiguration hostConfig = entry.getKey();
+                int count = entry.getValue();
+                ArrayList<HttpConnection> conns =
+                        new ArrayList<HttpConnection>(count);
+                try {
+                    // Hold on to all connections until all are open.
+                    // Otherwise we'd just open and reuse the same one.
+                    for (int i = 0; i < count; i++) {
+                        HttpConnection conn = manager.
+                                getConnectionWithTimeout(hostConfig, TIMEOUT);
+                        conns.add(conn);
+                        if (!conn.isOpen())
+                            conn.open();
+                    }
+                } catch (ConnectionPoolTimeoutException e) {
+                    logger.warning("Prewarming " + hostConfig.getHostURL() +
+                            ": Pool limit reached after " + conns.size() +
+                            " connections.");
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Prewarming " +
+                            hostConfig.getHostURL() + ": Error opening " +
+                            "connection.", e);
+                } finally {
+                    for (HttpConnection conn : conns)
+                        conn.releaseConnection();
+                }
+                logger.fine("Prewarmed " + conns.size() + " connections to " +
+                        hostConfig.getHostURL());
+            }
+        }
+    }
+}
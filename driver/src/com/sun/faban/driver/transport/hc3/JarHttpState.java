@@ -0,0 +1,198 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.hc3;
+
+import com.sun.faban.driver.transport.util.CookieJar;
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.HttpState;
+
+import java.util.Date;
+
+/**
+ * JarHttpState keeps the cookies of an Apache HttpClient 3 transport in a
+ * {@link CookieJar}, like the Sun HTTP transport does. HttpClient matches
+ * and formats the request cookies for each request through the cookie
+ * spec, passing the cookies obtained from the state. The cookies returned
+ * by this state are therefore recognized by the {@link FabanCookieSpec}
+ * which lets the jar select the cookies and hands back the jar's cached
+ * request header instead of matching and formatting each cookie.
+ * The cookie array returned from getCookies() is only rebuilt when the
+ * jar changes.
+ */
+class JarHttpState extends HttpState {
+
+    private static final Cookie[] NO_COOKIES = new Cookie[0];
+
+    private CookieJar jar = new CookieJar();
+    private Cookie[] cookies = NO_COOKIES;
+    private int modCount = -1;
+
+    /** The cached match result, holding the cached header. */
+    private HeaderCookie headerCookie = new HeaderCookie();
+    private Cookie[] matched = { headerCookie };
+
+    /**
+     * Obtains the cookie jar holding the cookies.
+     * @return The cookie jar
+     */
+    CookieJar getCookieJar() {
+        return jar;
+    }
+
+    /**
+     * Adds an HTTP cookie, replacing any existing equivalent cookies.
+     * If the given cookie has already expired it will not be added, but
+     * existing values will still be removed.
+     * @param cookie The cookie to add
+     */
+    @Override
+    public synchronized void addCookie(Cookie cookie) {
+        if (cookie == null)
+            return;
+        String domain = cookie.getDomain();
+        if (cookie.isDomainAttributeSpecified() && !domain.startsWith("."))
+            domain = '.' + domain;
+        String path = cookie.getPath();
+        if (path == null || path.length() == 0)
+            path = "/";
+        Date expiry = cookie.getExpiryDate();
+        jar.add(cookie.getName(), cookie.getValue(), domain, path,
+                expiry == null ? Long.MAX_VALUE : expiry.getTime(),
+                cookie.getSecure(), -1, null, null);
+    }
+
+    /**
+     * Adds an array of HTTP cookies.
+     * @param cookies The cookies to add
+     */
+    @Override
+    public synchronized void addCookies(Cookie[] cookies) {
+        if (cookies != null)
+            for (Cookie cookie : cookies)
+                addCookie(cookie);
+    }
+
+    /**
+     * Obtains all the cookies in this state. The returned array must not
+     * be modified.
+     * @return The cookies
+     */
+    @Override
+    public synchronized Cookie[] getCookies() {
+        if (modCount != jar.getModCount()) {
+            int size = jar.size();
+            if (size == 0) {
+                cookies = NO_COOKIES;
+            } else {
+                cookies = new Cookie[size];
+                for (int i = 0; i < size; i++)
+                    cookies[i] = new JarCookie(this, i);
+            }
+            modCount = jar.getModCount();
+        }
+        return cookies;
+    }
+
+    /**
+     * Removes all expired cookies.
+     * @return true if any cookies were purged
+     */
+    @Override
+    public synchronized boolean purgeExpiredCookies() {
+        int size = jar.size();
+        jar.purge();
+        return jar.size() < size;
+    }
+
+    /**
+     * Removes all cookies expired by the given date. The jar only knows
+     * about the current time, so the date is ignored.
+     * @param date The date
+     * @return true if any cookies were purged
+     */
+    @Override
+    public synchronized boolean purgeExpiredCookies(Date date) {
+        return purgeExpiredCookies();
+    }
+
+    /**
+     * Clears all cookies.
+     */
+    @Override
+    public synchronized void clearCookies() {
+        jar.clear();
+    }
+
+    /**
+     * Selects the cookies for a request.
+     * @param host The request host
+     * @param port The request port
+     * @param path The request path
+     * @param secure Whether the connection is secure
+     * @return A single cookie holding the request header, or null
+     */
+    synchronized Cookie[] match(String host, int port, String path,
+                                boolean secure) {
+        String[] headers = jar.getRequestHeaders(host, port, path, secure);
+        if (headers.length == 0)
+            return null;
+        // All cookies have the same version, so only one header line.
+        headerCookie.header = headers[0];
+        return matched;
+    }
+
+    /**
+     * A cookie in the jar.
+     */
+    static class JarCookie extends Cookie {
+
+        private static final long serialVersionUID = 1l;
+
+        /** The state holding the jar. */
+        final JarHttpState state;
+
+        JarCookie(JarHttpState state, int i) {
+            super(state.jar.getDomain(i), state.jar.getName(i),
+                    state.jar.getValue(i), state.jar.getPath(i),
+                    state.jar.getExpiry(i) == Long.MAX_VALUE ? null :
+                            new Date(state.jar.getExpiry(i)),
+                    state.jar.isSecure(i));
+            this.state = state;
+            setDomainAttributeSpecified(getDomain().startsWith("."));
+            setPathAttributeSpecified(true);
+        }
+    }
+
+    /**
+     * A placeholder cookie returned from matching, holding the formatted
+     * request header.
+     */
+    static class HeaderCookie extends Cookie {
+
+        private static final long serialVersionUID = 1l;
+
+        /** The formatted request header value. */
+        String header;
+    }
+}
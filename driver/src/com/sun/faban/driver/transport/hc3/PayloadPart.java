@@ -0,0 +1,100 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.hc3;
+
+import com.sun.faban.driver.util.Payload;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A file part of a multi-part request streaming its data from a shared
+ * Payload. Use it in place of a FilePart in the parts list of the
+ * multi-part readURL, fetchURL, and matchURL methods. The time to write
+ * the data is reported as upload throughput of the operation.
+ */
+public class PayloadPart extends FilePart {
+
+    private Payload payload;
+
+    /**
+     * Constructs a part with the default content type and charset.
+     * @param name The name of the part
+     * @param payload The payload to send
+     */
+    public PayloadPart(String name, Payload payload) {
+        this(name, payload, null, null);
+    }
+
+    /**
+     * Constructs a part.
+     * @param name The name of the part
+     * @param payload The payload to send
+     * @param contentType The content type, or null for the default
+     * @param charset The charset, or null for the default
+     */
+    public PayloadPart(String name, Payload payload, String contentType,
+                       String charset) {
+        super(name, new Source(payload), contentType, charset);
+        this.payload = payload;
+    }
+
+    /**
+     * Writes the payload to the request stream.
+     * @param out The request stream
+     * @throws IOException Error writing the request
+     */
+    @Override
+    protected void sendData(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        payload.writeTo(out);
+        PayloadRequestEntity.record(payload.length(), start,
+                                    System.nanoTime());
+    }
+
+    /** The part source describing the payload to the FilePart. */
+    private static class Source implements PartSource {
+
+        private Payload payload;
+
+        Source(Payload payload) {
+            this.payload = payload;
+        }
+
+        public long getLength() {
+            return payload.length();
+        }
+
+        public String getFileName() {
+            return payload.getName();
+        }
+
+        public InputStream createInputStream() {
+            return payload.getInputStream();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.hc3;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.Payload;
+import com.sun.faban.driver.util.TransferTable;
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request entity streaming its body from a shared Payload. Unlike the
+ * ByteArrayRequestEntity, the body is never copied onto the heap. The time
+ * to write the body is reported as upload throughput of the operation.
+ */
+public class PayloadRequestEntity implements RequestEntity {
+
+    /** The name of the upload throughput table in the report. */
+    static final String UPLOAD_TABLE = "Upload Throughput";
+
+    private Payload payload;
+    private String contentType;
+
+    /**
+     * Constructs a request entity.
+     * @param payload The payload to send
+     * @param contentType The content type, or null
+     */
+    public PayloadRequestEntity(Payload payload, String contentType) {
+        this.payload = payload;
+        this.contentType = contentType;
+    }
+
+    /**
+     * The payload can be sent any number of times.
+     * @return true
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Writes the payload to the request stream.
+     * @param out The request stream
+     * @throws IOException Error writing the request
+     */
+    public void writeRequest(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        payload.writeTo(out);
+        out.flush();
+        record(payload.length(), start, System.nanoTime());
+    }
+
+    /**
+     * Obtains the length of the payload.
+     * @return The content length
+     */
+    public long getContentLength() {
+        return payload.length();
+    }
+
+    /**
+     * Obtains the content type.
+     * @return The content type, or null
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Records an upload in steady state against the current operation.
+     * @param bytes The bytes uploaded
+     * @param start The nanotime the upload started
+     * @param end The nanotime the upload ended
+     */
+    static void record(long bytes, long start, long end) {
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null && ctx.getOperationId() >= 0 &&
+                ctx.isSteadyState(start, end))
+            TransferTable.getInstance(UPLOAD_TABLE, "Operation").record(
+                    ctx.getCurrentOperation(), bytes, end - start);
+    }
+}
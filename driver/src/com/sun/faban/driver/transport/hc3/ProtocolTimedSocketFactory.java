@@ -58,7 +58,7 @@ public class ProtocolTimedSocketFactory implements ProtocolSocketFactory {
         } else {
             TimedSocket socket = new TimedSocket();
             socket.bind(new InetSocketAddress(localAddress, localPort));
-            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.connect(TimedSocket.lookup(host, port), timeout);
             return socket;
         }
     }
@@ -23,8 +23,21 @@
  */
 package com.sun.faban.driver.transport.hc3;
 
+import com.sun.faban.driver.engine.DriverContext;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Enumeration;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -35,7 +48,15 @@ import java.util.logging.Level;
  * you may want to consider BELOW which times the traffic after encryption
  * and thus won't include the time used for encrypting/decrypting the payload.
  * The system property faban.ssl.autotiming may be set to "above" or "below"
- * to influence the behavior.
+ * to influence the behavior.<p>
+ * The TLS session caching is controlled by the system properties
+ * faban.ssl.sessionCache and faban.ssl.resumeRatio. The session cache
+ * can be "shared" by all users in the agent JVM, which is the default,
+ * kept per "user", emulating returning users resuming their own sessions,
+ * or "none", emulating every connection to be from a new user doing a full
+ * handshake. The resume ratio, from 0 to 1, sets the fraction of
+ * connections allowed to resume a cached session, whether by session id or
+ * session ticket. The rest do a full handshake. It defaults to 1.
  *
  * @author Akara Sucharitakul
  */
@@ -52,6 +73,46 @@ public enum TimedSSLFactories {
     BELOW (BelowTimedSSLSocketFactory.class);
 
 
+    /** The TLS session cache modes. */
+    enum SessionCache {
+
+        /** One session cache shared by all users in the agent. */
+        SHARED,
+
+        /** One session cache per user, or driver thread. */
+        USER,
+
+        /** No session caching, every connection does a full handshake. */
+        NONE
+    }
+
+    private static final SessionCache sessionCache = getSessionCache();
+
+    private static final double resumeRatio = getResumeRatio();
+
+    private static final KeyManager[] keyManagers = getKeyManagers();
+
+    // Our own contexts, so invalidating sessions does not affect other
+    // users of the JVM default context.
+    private static final SSLContext sharedContext = newContext();
+
+    private static final ThreadLocal<SSLContext> userContext =
+            new ThreadLocal<SSLContext>() {
+        @Override
+        protected SSLContext initialValue() {
+            // The session cache belongs to the SSLContext so each
+            // user needs its own context.
+            try {
+                return createContext();
+            } catch (GeneralSecurityException e) {
+                Logger.getLogger(TimedSSLFactories.class.getName()).
+                        log(Level.WARNING, "Cannot create per-user SSL " +
+                        "context, using shared session cache.", e);
+                return sharedContext;
+            }
+        }
+    };
+
     final Class<? extends SecureProtocolSocketFactory> factory;
 
     TimedSSLFactories(
@@ -74,6 +135,174 @@ public enum TimedSSLFactories {
         return ABOVE;
     }
 
+    private static SessionCache getSessionCache() {
+        String cacheStr = System.getProperty(
+                "faban.ssl.sessionCache", "shared").toUpperCase();
+        try {
+            return SessionCache.valueOf(cacheStr);
+        } catch (IllegalArgumentException e) {
+            Logger.getLogger(TimedSSLFactories.class.getName()).warning(
+                    "faban.ssl.sessionCache must be shared, user, or none. " +
+                    "Using shared.");
+            return SessionCache.SHARED;
+        }
+    }
+
+    /**
+     * Obtains the key managers for the key store given by the
+     * javax.net.ssl.keyStore properties, as the default context does.
+     * Client certificates would not be sent without them.
+     */
+    private static KeyManager[] getKeyManagers() {
+        String file = System.getProperty("javax.net.ssl.keyStore");
+        String pw = System.getProperty("javax.net.ssl.keyStorePassword");
+        char[] password = pw == null ? null : pw.toCharArray();
+        try {
+            KeyStore keyStore = null;
+            if (file != null && file.length() > 0 && !"NONE".equals(file)) {
+                keyStore = KeyStore.getInstance(System.getProperty(
+                        "javax.net.ssl.keyStoreType",
+                        KeyStore.getDefaultType()));
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    keyStore.load(in, password);
+                } finally {
+                    in.close();
+                }
+            }
+            KeyManagerFactory factory = KeyManagerFactory.getInstance(
+                    KeyManagerFactory.getDefaultAlgorithm());
+            factory.init(keyStore, password);
+            return factory.getKeyManagers();
+        } catch (Exception e) {
+            Logger.getLogger(TimedSSLFactories.class.getName()).
+                    log(Level.WARNING, "Cannot load key store " + file +
+                    ", client certificates will not be sent.", e);
+            return null;
+        }
+    }
+
+    private static SSLContext createContext()
+            throws GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers, null, null);
+        if (sessionCache == SessionCache.NONE)
+            context.getClientSessionContext().setSessionCacheSize(1);
+        return context;
+    }
+
+    private static SSLContext newContext() {
+        try {
+            return createContext();
+        } catch (GeneralSecurityException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static double getResumeRatio() {
+        String ratioStr = System.getProperty("faban.ssl.resumeRatio");
+        double ratio = 1d;
+        if (ratioStr != null)
+            try {
+                ratio = Double.parseDouble(ratioStr);
+            } catch (NumberFormatException e) {
+                ratio = Double.NaN;
+            }
+        if (!(ratio >= 0d && ratio <= 1d)) {
+            Logger.getLogger(TimedSSLFactories.class.getName()).warning(
+                    "faban.ssl.resumeRatio must be between 0 and 1. " +
+                    "Using 1.");
+            ratio = 1d;
+        }
+        return ratio;
+    }
+
+    /**
+     * Creates an unconnected SSL socket using the session cache of the
+     * configured session cache mode.
+     * @return The SSL socket
+     * @throws IOException If the socket cannot be created
+     */
+    static SSLSocket createSocket() throws IOException {
+        return (SSLSocket) getContext().getSocketFactory().createSocket();
+    }
+
+    /**
+     * Layers an SSL socket over an existing socket using the session cache
+     * of the configured session cache mode.
+     * @param socket The existing socket
+     * @param host The server host
+     * @param port The server port
+     * @param close Whether to close the underlying socket with this socket
+     * @return The SSL socket
+     * @throws IOException If the socket cannot be created
+     */
+    static SSLSocket createSocket(Socket socket, String host, int port,
+                                  boolean close) throws IOException {
+        return (SSLSocket) getContext().getSocketFactory().createSocket(
+                                                socket, host, port, close);
+    }
+
+    private static SSLContext getContext() {
+        if (sessionCache == SessionCache.USER)
+            return userContext.get();
+        return sharedContext;
+    }
+
+    /**
+     * Runs the SSL handshake on a newly connected socket and records the
+     * handshake time. The handshake would otherwise happen implicitly on
+     * the first read or write, making it indistinguishable from the
+     * request itself. If this connection is not supposed to resume a
+     * session, the cached sessions for the host are dropped before the
+     * handshake. A session created before the handshake started must have
+     * come from the session cache, so the handshake is recorded as a
+     * resumption.
+     * @param socket The SSL socket
+     * @param host The host name the socket is connected to
+     * @param port The port the socket is connected to
+     * @throws IOException If the handshake fails
+     */
+    static void handshake(SSLSocket socket, String host, int port)
+            throws IOException {
+        DriverContext ctx = DriverContext.getContext();
+        if (sessionCache != SessionCache.NONE && resumeRatio < 1d &&
+                (ctx == null ? Math.random() :
+                ctx.getRandom().drandom(0d, 1d)) >= resumeRatio)
+            forget(host, port);
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        socket.startHandshake();
+        long end = System.nanoTime();
+        SSLSession session = socket.getSession();
+        if (ctx != null)
+            ctx.recordHandshakeTime(start, end,
+                    session.getCreationTime() < startMillis);
+
+        // Without caching, drop the new session right away so no other
+        // connection can resume it. The context is used for nothing else.
+        if (sessionCache == SessionCache.NONE)
+            session.invalidate();
+    }
+
+    /**
+     * Invalidates the cached client sessions for a given host and port so
+     * the next handshake to that host is a full handshake.
+     * @param host The host name
+     * @param port The port
+     */
+    private static void forget(String host, int port) {
+        SSLSessionContext sessions = getContext().getClientSessionContext();
+        Enumeration<byte[]> ids = sessions.getIds();
+        while (ids.hasMoreElements()) {
+            SSLSession session = sessions.getSession(ids.nextElement());
+            if (session != null && session.getPeerPort() == port &&
+                    session.getPeerHost() != null &&
+                    session.getPeerHost().equalsIgnoreCase(host))
+                session.invalidate();
+        }
+    }
+
     SecureProtocolSocketFactory getInstance() {
         SecureProtocolSocketFactory instance = null;
         try {
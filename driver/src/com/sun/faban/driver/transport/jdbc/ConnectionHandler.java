@@ -0,0 +1,182 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.jdbc;
+
+import com.sun.faban.driver.engine.DriverContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The invocation handler of a timed connection. It creates timed
+ * statements, keeps the prepared statement cache, and times commits and
+ * rollbacks.
+ */
+class ConnectionHandler implements InvocationHandler {
+
+    private static Logger logger =
+            Logger.getLogger(ConnectionHandler.class.getName());
+
+    Connection target;
+    Connection proxy;
+
+    /** The prepared statement cache, least recently used first. */
+    private LinkedHashMap<String, StatementHandler> cache =
+            new LinkedHashMap<String, StatementHandler>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1l;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, StatementHandler> eldest) {
+            if (size() <= TimedJdbc.STATEMENT_CACHE_SIZE)
+                return false;
+            StatementHandler handler = eldest.getValue();
+            if (handler.inUse) // Closes itself when the user closes it.
+                handler.pooled = false;
+            else
+                handler.closeTarget();
+            return true;
+        }
+    };
+
+    /**
+     * Constructs the handler.
+     * @param target The connection to wrap
+     */
+    ConnectionHandler(Connection target) {
+        this.target = target;
+    }
+
+    /**
+     * Handles a call to the connection.
+     * @see InvocationHandler#invoke(Object, Method, Object[])
+     */
+    public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+        String name = method.getName();
+        if ("prepareStatement".equals(name) || "prepareCall".equals(name)) {
+            return prepare(method, args);
+        } else if ("createStatement".equals(name)) {
+            Statement s = (Statement) TimedJdbc.invoke(target, method, args);
+            return new StatementHandler(this, s, null, false).proxy;
+        } else if ("commit".equals(name) || "rollback".equals(name)) {
+            return timed(method, args, name.toUpperCase());
+        } else if ("close".equals(name)) {
+            closeStatements();
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        return TimedJdbc.invoke(target, method, args);
+    }
+
+    private Object prepare(Method method, Object[] args) throws Throwable {
+        String sql = (String) args[0];
+        // Calls and prepared statements differ in their proxy interface.
+        String key = method.getName() + '\u0000' + sql;
+        if (args.length > 1)
+            key += '\u0000' + Arrays.deepToString(
+                    Arrays.copyOfRange(args, 1, args.length));
+        StatementHandler handler = cache.get(key);
+        if (handler != null && !handler.inUse) {
+            handler.inUse = true;
+            return handler.proxy;
+        }
+        Statement s = (Statement) TimedJdbc.invoke(target, method, args);
+        // Only cache if no other statement for this SQL is in use.
+        boolean pooled = handler == null;
+        handler = new StatementHandler(this, s, sql, pooled);
+        if (pooled)
+            cache.put(key, handler);
+        return handler.proxy;
+    }
+
+    private Object timed(Method method, Object[] args, String template)
+            throws Throwable {
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null)
+            ctx.recordStartTime();
+        long start = System.nanoTime();
+        Object result = TimedJdbc.invoke(target, method, args);
+        long end = System.nanoTime();
+        if (ctx != null)
+            ctx.recordEndTime();
+        TimedJdbc.record("SQL Execution Latency", template, start, end);
+        return result;
+    }
+
+    private void closeStatements() {
+        for (Iterator<StatementHandler> iter = cache.values().iterator();
+             iter.hasNext();) {
+            iter.next().closeTarget();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Creates the proxy class for a statement.
+     * @param s The statement
+     * @return The interface to proxy
+     */
+    static Class<?> interfaceOf(Statement s) {
+        if (s instanceof CallableStatement)
+            return CallableStatement.class;
+        if (s instanceof PreparedStatement)
+            return PreparedStatement.class;
+        return Statement.class;
+    }
+
+    /**
+     * Creates a statement proxy.
+     * @param s The statement
+     * @param handler The handler
+     * @return The proxy
+     */
+    static Statement newProxy(Statement s, InvocationHandler handler) {
+        Class<?> iface = interfaceOf(s);
+        return (Statement) Proxy.newProxyInstance(iface.getClassLoader(),
+                new Class<?>[] { iface }, handler);
+    }
+
+    /**
+     * Logs an error closing a statement.
+     * @param e The error
+     */
+    static void closeError(SQLException e) {
+        logger.log(Level.FINE, "Error closing statement", e);
+    }
+}
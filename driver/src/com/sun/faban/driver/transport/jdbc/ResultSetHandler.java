@@ -0,0 +1,113 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.jdbc;
+
+import com.sun.faban.driver.engine.DriverContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The invocation handler of a timed result set. Each row fetched extends
+ * the response time of the operation. The fetch latency, from the end of
+ * the execution to the last row or the result set getting closed, is
+ * recorded by SQL template.
+ */
+class ResultSetHandler implements InvocationHandler {
+
+    StatementHandler statement;
+    ResultSet target;
+    ResultSet proxy;
+    String template;
+    long fetchStart;
+    boolean done;
+
+    /**
+     * Constructs the handler.
+     * @param statement The statement handler
+     * @param target The result set to wrap
+     * @param template The SQL template
+     * @param fetchStart The start of the fetch, in ns
+     */
+    ResultSetHandler(StatementHandler statement, ResultSet target,
+                     String template, long fetchStart) {
+        this.statement = statement;
+        this.target = target;
+        this.template = template;
+        this.fetchStart = fetchStart;
+        proxy = (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, this);
+    }
+
+    /**
+     * Handles a call to the result set.
+     * @see InvocationHandler#invoke(Object, Method, Object[])
+     */
+    public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+        String name = method.getName();
+        if ("next".equals(name)) {
+            Boolean hasNext = (Boolean) TimedJdbc.invoke(target, method, args);
+            DriverContext ctx = DriverContext.getContext();
+            if (ctx != null)
+                ctx.recordEndTime();
+            if (!hasNext.booleanValue())
+                finish();
+            return hasNext;
+        } else if ("close".equals(name)) {
+            close();
+            return null;
+        } else if ("getStatement".equals(name)) {
+            return statement.proxy;
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        return TimedJdbc.invoke(target, method, args);
+    }
+
+    private void finish() {
+        if (!done) {
+            done = true;
+            TimedJdbc.record("SQL Fetch Latency", template, fetchStart,
+                             System.nanoTime());
+        }
+    }
+
+    /**
+     * Closes the result set, recording the fetch latency if not yet done.
+     * @throws SQLException Error closing the result set
+     */
+    void close() throws SQLException {
+        finish();
+        if (statement.resultSet == this)
+            statement.resultSet = null;
+        target.close();
+    }
+}
@@ -0,0 +1,159 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.jdbc;
+
+import com.sun.faban.driver.engine.DriverContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The invocation handler of a timed statement. It times the statement
+ * executions and wraps the result sets for timing the fetches. Closing
+ * a pooled statement returns it to the statement cache of the connection.
+ */
+class StatementHandler implements InvocationHandler {
+
+    ConnectionHandler connection;
+    Statement target;
+    Statement proxy;
+
+    /** The SQL of a prepared statement, null for plain statements. */
+    String sql;
+
+    /** Whether the statement is in the connection's statement cache. */
+    boolean pooled;
+
+    /** Whether the statement is handed out to the user. */
+    boolean inUse = true;
+
+    /** The current result set, if not yet closed. */
+    ResultSetHandler resultSet;
+
+    /** The template of the last execution. */
+    private String template;
+
+    /** The end of the last execution, in ns. */
+    private long executeEnd;
+
+    /**
+     * Constructs the handler.
+     * @param connection The connection handler
+     * @param target The statement to wrap
+     * @param sql The SQL of a prepared statement, or null
+     * @param pooled Whether the statement is cached
+     */
+    StatementHandler(ConnectionHandler connection, Statement target,
+                     String sql, boolean pooled) {
+        this.connection = connection;
+        this.target = target;
+        this.sql = sql;
+        this.pooled = pooled;
+        proxy = ConnectionHandler.newProxy(target, this);
+    }
+
+    /**
+     * Handles a call to the statement.
+     * @see InvocationHandler#invoke(Object, Method, Object[])
+     */
+    public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+        String name = method.getName();
+        if (name.startsWith("execute")) {
+            return execute(method, args);
+        } else if ("getResultSet".equals(name)) {
+            Object result = TimedJdbc.invoke(target, method, args);
+            if (resultSet != null && resultSet.target == result)
+                return resultSet.proxy;
+            return wrap(result);
+        } else if ("close".equals(name)) {
+            close();
+            return null;
+        } else if ("isClosed".equals(name) && pooled) {
+            return !inUse;
+        } else if ("getConnection".equals(name)) {
+            return connection.proxy;
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        return TimedJdbc.invoke(target, method, args);
+    }
+
+    private Object execute(Method method, Object[] args) throws Throwable {
+        if (sql != null)
+            template = sql;
+        else if (args != null && args.length > 0 && args[0] instanceof String)
+            template = TimedJdbc.templateOf((String) args[0]);
+        else
+            template = "BATCH";
+        if (resultSet != null)
+            resultSet.close();
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null)
+            ctx.recordStartTime();
+        long start = System.nanoTime();
+        Object result = TimedJdbc.invoke(target, method, args);
+        executeEnd = System.nanoTime();
+        if (ctx != null)
+            ctx.recordEndTime();
+        TimedJdbc.record("SQL Execution Latency", template, start, executeEnd);
+        return wrap(result);
+    }
+
+    private Object wrap(Object result) {
+        if (!(result instanceof ResultSet))
+            return result;
+        resultSet = new ResultSetHandler(this, (ResultSet) result, template,
+                                         executeEnd);
+        return resultSet.proxy;
+    }
+
+    private void close() throws SQLException {
+        if (resultSet != null)
+            resultSet.close();
+        if (pooled) {
+            inUse = false;
+            ((PreparedStatement) target).clearParameters();
+        } else {
+            target.close();
+        }
+    }
+
+    /**
+     * Closes the underlying statement.
+     */
+    void closeTarget() {
+        try {
+            target.close();
+        } catch (SQLException e) {
+            ConnectionHandler.closeError(e);
+        }
+    }
+}
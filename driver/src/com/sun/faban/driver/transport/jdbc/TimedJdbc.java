@@ -0,0 +1,168 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.jdbc;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.LatencyTable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import javax.sql.DataSource;
+
+/**
+ * TimedJdbc wraps JDBC data sources and connections so database calls are
+ * timed by Faban like calls through the other Faban transports. Executing
+ * a statement records the start of the operation's response time and each
+ * row fetched extends it, so drivers can use automatic timing with JDBC.
+ * In addition, the execution and fetch latency of each statement are
+ * recorded by SQL template in the "SQL Execution Latency" and "SQL Fetch
+ * Latency" tables of the summary report. The template of a prepared
+ * statement is its SQL. For plain statements, literals are replaced by
+ * '?' to obtain the template.<p>
+ * Wrapped connections keep a cache of prepared statements. Preparing the
+ * same SQL again after closing the statement returns the cached statement
+ * with its parameters cleared, avoiding the round trip and the parsing in
+ * the database. The cache size is set by the faban.jdbc.statementCacheSize
+ * system property and defaults to 50 statements per connection. Each
+ * driver thread, or user, should use its own connection.<p>
+ * The wrappers are dynamic proxies, so they work with the JDBC version of
+ * any Java runtime.
+ */
+public class TimedJdbc {
+
+    /** The maximum number of cached statements per connection. */
+    static final int STATEMENT_CACHE_SIZE =
+            Integer.getInteger("faban.jdbc.statementCacheSize", 50);
+
+    private TimedJdbc() {
+    }
+
+    /**
+     * Wraps a data source. The connections obtained from the wrapped data
+     * source are timed connections.
+     * @param ds The data source
+     * @return The timed data source
+     */
+    public static DataSource wrap(final DataSource ds) {
+        return (DataSource) Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(),
+                new Class<?>[] { DataSource.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args)
+                    throws Throwable {
+                Object result = TimedJdbc.invoke(ds, method, args);
+                if (result instanceof Connection)
+                    result = wrap((Connection) result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Wraps a connection.
+     * @param connection The connection
+     * @return The timed connection
+     */
+    public static Connection wrap(Connection connection) {
+        if (Proxy.isProxyClass(connection.getClass()) &&
+                Proxy.getInvocationHandler(connection) instanceof
+                        ConnectionHandler)
+            return connection;
+        ConnectionHandler handler = new ConnectionHandler(connection);
+        Connection proxy = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
+        handler.proxy = proxy;
+        return proxy;
+    }
+
+    /**
+     * Invokes a method on the target, unwrapping the exception thrown
+     * by the target.
+     */
+    static Object invoke(Object target, Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Records a latency in the given table of the current thread if in
+     * steady state.
+     */
+    static void record(String table, String template, long start, long end) {
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null && ctx.getOperationId() >= 0 &&
+                ctx.isSteadyState(start, end))
+            LatencyTable.getInstance(table, "Statement").record(template,
+                    end - start);
+    }
+
+    /**
+     * Obtains the template of a SQL statement by replacing string and
+     * numeric literals with '?' and collapsing white space.
+     * @param sql The SQL statement
+     * @return The template
+     */
+    static String templateOf(String sql) {
+        StringBuilder b = new StringBuilder(sql.length());
+        int length = sql.length();
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = b.length() > 0;
+                continue;
+            }
+            if (space) {
+                b.append(' ');
+                space = false;
+            }
+            if (c == '\'') { // String literal, '' is an escaped quote.
+                for (++i; i < length; i++)
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'')
+                            ++i;
+                        else
+                            break;
+                    }
+                b.append('?');
+            } else if (Character.isDigit(c) && (b.length() == 0 ||
+                    !Character.isJavaIdentifierPart(b.charAt(b.length() - 1)))) {
+                while (i + 1 < length && (Character.isDigit(sql.charAt(i + 1))
+                        || sql.charAt(i + 1) == '.'))
+                    ++i;
+                b.append('?');
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
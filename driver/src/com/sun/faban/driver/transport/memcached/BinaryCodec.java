@@ -0,0 +1,208 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.memcached;
+
+import com.sun.faban.driver.transport.tcp.FrameCodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * The codec for the memcached binary protocol. A multi-get is sent as a
+ * series of quiet GETKQ requests terminated by a NOOP, so only hits are
+ * returned and the NOOP response marks the end of the multi-get.
+ */
+class BinaryCodec implements FrameCodec<Command, Response> {
+
+    private static final int REQUEST = 0x80;
+    private static final int RESPONSE = 0x81;
+
+    private static final int OP_SET = 0x01;
+    private static final int OP_DELETE = 0x04;
+    private static final int OP_NOOP = 0x0a;
+    private static final int OP_GETK = 0x0c;
+    private static final int OP_GETKQ = 0x0d;
+
+    private static final int STATUS_OK = 0x0000;
+    private static final int STATUS_NOT_FOUND = 0x0001;
+    private static final int STATUS_EXISTS = 0x0002;
+    private static final int STATUS_NOT_STORED = 0x0005;
+
+    private ArrayDeque<Command> sent = new ArrayDeque<Command>();
+    private byte[] header = new byte[24];
+
+    /** The status of the last packet read. */
+    private int status;
+
+    /**
+     * Writes a command.
+     * @param command The command
+     * @param out The buffered output stream
+     * @throws IOException Error writing the command
+     */
+    public void encode(Command command, OutputStream out) throws IOException {
+        switch (command.op) {
+            case Command.GET :
+                if (command.keys.length == 1) {
+                    writeRequest(out, OP_GETK, command.keys[0], null, null);
+                } else {
+                    for (String key : command.keys)
+                        writeRequest(out, OP_GETKQ, key, null, null);
+                    writeRequest(out, OP_NOOP, null, null, null);
+                }
+                break;
+            case Command.SET :
+                byte[] extras = new byte[8];
+                putInt(extras, 0, command.flags);
+                putInt(extras, 4, command.exptime);
+                writeRequest(out, OP_SET, command.keys[0], extras,
+                             command.value);
+                break;
+            case Command.DELETE :
+                writeRequest(out, OP_DELETE, command.keys[0], null, null);
+                break;
+            default :
+                throw new IllegalArgumentException("Unknown command " +
+                        command.op);
+        }
+        sent.add(command);
+    }
+
+    private void writeRequest(OutputStream out, int opcode, String key,
+                              byte[] extras, byte[] value)
+            throws IOException {
+        byte[] keyBytes = key == null ? null : key.getBytes("UTF-8");
+        int keyLength = keyBytes == null ? 0 : keyBytes.length;
+        int extLength = extras == null ? 0 : extras.length;
+        int valueLength = value == null ? 0 : value.length;
+        byte[] h = header;
+        for (int i = 0; i < h.length; i++)
+            h[i] = 0;
+        h[0] = (byte) REQUEST;
+        h[1] = (byte) opcode;
+        h[2] = (byte) (keyLength >>> 8);
+        h[3] = (byte) keyLength;
+        h[4] = (byte) extLength;
+        putInt(h, 8, extLength + keyLength + valueLength);
+        out.write(h);
+        if (extras != null)
+            out.write(extras);
+        if (keyBytes != null)
+            out.write(keyBytes);
+        if (value != null)
+            out.write(value);
+    }
+
+    /**
+     * Reads the response to the oldest outstanding command.
+     * @param in The buffered input stream
+     * @return The response
+     * @throws IOException Error reading the response, or a server error
+     */
+    public Response decode(InputStream in) throws IOException {
+        Command command = sent.poll();
+        if (command == null)
+            throw new IOException("Response without command");
+        if (command.op == Command.GET) {
+            Response response = new Response(Response.OK);
+            response.values = new HashMap<String, byte[]>();
+            for (;;) {
+                int opcode = readPacket(in, response);
+                if (opcode == OP_NOOP || command.keys.length == 1)
+                    return response;
+            }
+        }
+        readPacket(in, null);
+        return new Response(mapStatus(status));
+    }
+
+    /**
+     * Reads a response packet. The value of a successful get is put into
+     * the response. Sets the status of the packet.
+     * @return The opcode
+     */
+    private int readPacket(InputStream in, Response response)
+            throws IOException {
+        byte[] h = header;
+        TextCodec.readFully(in, h);
+        if ((h[0] & 0xff) != RESPONSE)
+            throw new IOException("Invalid response magic " +
+                    Integer.toHexString(h[0] & 0xff));
+        int opcode = h[1] & 0xff;
+        int keyLength = ((h[2] & 0xff) << 8) | (h[3] & 0xff);
+        int extLength = h[4] & 0xff;
+        status = ((h[6] & 0xff) << 8) | (h[7] & 0xff);
+        int bodyLength = getInt(h, 8);
+        if (bodyLength < 0)
+            throw new IOException("Invalid body length " + bodyLength);
+        byte[] body = new byte[bodyLength];
+        TextCodec.readFully(in, body);
+        if (status != STATUS_OK) {
+            mapStatus(status); // Throws on errors.
+            return opcode;
+        }
+        if (response != null && (opcode == OP_GETK || opcode == OP_GETKQ)) {
+            String key = new String(body, extLength, keyLength, "UTF-8");
+            int offset = extLength + keyLength;
+            byte[] value = new byte[bodyLength - offset];
+            System.arraycopy(body, offset, value, 0, value.length);
+            response.values.put(key, value);
+        }
+        return opcode;
+    }
+
+    private int mapStatus(int status) throws IOException {
+        switch (status) {
+            case STATUS_OK : return Response.OK;
+            case STATUS_NOT_FOUND : return Response.NOT_FOUND;
+            case STATUS_EXISTS :
+            case STATUS_NOT_STORED : return Response.NOT_STORED;
+            default : throw new IOException("Memcached error status 0x" +
+                    Integer.toHexString(status));
+        }
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16) |
+                ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+
+    /**
+     * Discards the commands still awaiting a response.
+     */
+    public void reset() {
+        sent.clear();
+    }
+}
@@ -0,0 +1,56 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.memcached;
+
+/**
+ * A memcached command as passed to the protocol codecs. A command sent to
+ * one server may address multiple keys, as in a multi-get.
+ */
+class Command {
+
+    /** Get one or more keys. */
+    static final int GET = 0;
+
+    /** Set a key. */
+    static final int SET = 1;
+
+    /** Delete a key. */
+    static final int DELETE = 2;
+
+    int op;
+    String[] keys;
+    byte[] value;
+    int flags;
+    int exptime;
+
+    /**
+     * Constructs a command.
+     * @param op The command type
+     * @param keys The keys
+     */
+    Command(int op, String... keys) {
+        this.op = op;
+        this.keys = keys;
+    }
+}
@@ -0,0 +1,114 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.memcached;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * KetamaRing distributes keys over servers by consistent hashing,
+ * compatible with the ketama scheme used by the common memcached clients.
+ * Each server is placed on the ring at 160 points derived from the MD5
+ * digest of its address. A key is mapped to the first server point at or
+ * after the key's hash. Adding or removing a server only moves the keys
+ * adjacent to its points. The ring is not thread safe.
+ */
+class KetamaRing {
+
+    private static final int DIGESTS_PER_SERVER = 40;
+
+    private long[] points;
+    private int[] servers;
+    private MessageDigest md5;
+
+    /**
+     * Constructs the ring.
+     * @param addresses The server addresses as host:port
+     */
+    KetamaRing(String[] addresses) {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int count = addresses.length * DIGESTS_PER_SERVER * 4;
+        long[] unsorted = new long[count];
+        int[] owner = new int[count];
+        int p = 0;
+        for (int i = 0; i < addresses.length; i++)
+            for (int j = 0; j < DIGESTS_PER_SERVER; j++) {
+                byte[] digest = digest(addresses[i] + '-' + j);
+                for (int h = 0; h < 4; h++) {
+                    unsorted[p] = point(digest, h);
+                    owner[p++] = i;
+                }
+            }
+
+        // Sort the points, keeping the owner alongside.
+        long[] keyed = new long[count];
+        for (int i = 0; i < count; i++)
+            keyed[i] = (unsorted[i] << 20) | i; // Point is 32 bits.
+        Arrays.sort(keyed);
+        points = new long[count];
+        servers = new int[count];
+        for (int i = 0; i < count; i++) {
+            int idx = (int) (keyed[i] & 0xfffff);
+            points[i] = unsorted[idx];
+            servers[i] = owner[idx];
+        }
+    }
+
+    /**
+     * Obtains the server index for a key.
+     * @param key The key
+     * @return The index into the server addresses
+     */
+    int getServer(String key) {
+        long hash = point(digest(key), 0);
+        int idx = Arrays.binarySearch(points, hash);
+        if (idx < 0) {
+            idx = -idx - 1;
+            if (idx == points.length)
+                idx = 0;
+        }
+        return servers[idx];
+    }
+
+    private byte[] digest(String s) {
+        try {
+            return md5.digest(s.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long point(byte[] digest, int h) {
+        return ((long) (digest[3 + h * 4] & 0xff) << 24) |
+                ((long) (digest[2 + h * 4] & 0xff) << 16) |
+                ((long) (digest[1 + h * 4] & 0xff) << 8) |
+                (digest[h * 4] & 0xff);
+    }
+}
@@ -0,0 +1,339 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.memcached;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.transport.tcp.FrameCodec;
+import com.sun.faban.driver.transport.tcp.TcpTransport;
+import com.sun.faban.driver.util.LatencyTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MemcachedTransport is a memcached client for Faban drivers. It talks
+ * the memcached text or binary protocol over the {@link TcpTransport}, so
+ * the connections are timed like any other Faban transport and the
+ * operation response times include the cache round trips.<p>
+ * Keys are distributed over the servers by consistent hashing. A
+ * multi-get sends one request to each server holding any of the keys,
+ * all before reading the first response, so the servers work in parallel.
+ * Multi-sets are pipelined the same way. The latency of each command is
+ * recorded in steady state in the "Memcached Command Latency" table of
+ * the summary report.<p>
+ * Each driver thread should use its own instance. The connections are
+ * opened on first use and reopened after an I/O error.
+ */
+public class MemcachedTransport {
+
+    /** The memcached wire protocols. */
+    public enum Protocol {
+        /** The text protocol. */
+        TEXT,
+        /** The binary protocol. */
+        BINARY
+    }
+
+    private static final int DEFAULT_PORT = 11211;
+
+    private Protocol protocol;
+    private String[] servers;
+    private String[] hosts;
+    private int[] ports;
+    private List<TcpTransport<Command, Response>> connections;
+    private KetamaRing ring;
+    private LatencyTable latencies;
+
+    /**
+     * Constructs a transport using the text protocol.
+     * @param servers The server addresses as host:port. The port defaults
+     *        to 11211
+     */
+    public MemcachedTransport(String... servers) {
+        this(Protocol.TEXT, servers);
+    }
+
+    /**
+     * Constructs a transport using the given protocol.
+     * @param protocol The protocol
+     * @param servers The server addresses as host:port. The port defaults
+     *        to 11211
+     */
+    public MemcachedTransport(Protocol protocol, String... servers) {
+        if (servers.length == 0)
+            throw new IllegalArgumentException("No memcached servers");
+        this.protocol = protocol;
+        this.servers = servers.clone();
+        hosts = new String[servers.length];
+        ports = new int[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            String server = servers[i].trim();
+            int idx = server.lastIndexOf(':');
+            if (idx < 0) {
+                hosts[i] = server;
+                ports[i] = DEFAULT_PORT;
+            } else {
+                hosts[i] = server.substring(0, idx);
+                ports[i] = Integer.parseInt(server.substring(idx + 1));
+            }
+        }
+        connections = new ArrayList<TcpTransport<Command, Response>>(
+                servers.length);
+        for (int i = 0; i < servers.length; i++)
+            connections.add(null);
+        if (servers.length > 1)
+            ring = new KetamaRing(this.servers);
+        latencies = LatencyTable.getInstance("Memcached Command Latency",
+                                             "Command");
+    }
+
+    /**
+     * Obtains the server responsible for a key.
+     * @param key The key
+     * @return The server address
+     */
+    public String getServer(String key) {
+        return servers[serverOf(key)];
+    }
+
+    private int serverOf(String key) {
+        return ring == null ? 0 : ring.getServer(key);
+    }
+
+    private TcpTransport<Command, Response> connection(int server)
+            throws IOException {
+        TcpTransport<Command, Response> connection = connections.get(server);
+        if (connection == null) {
+            FrameCodec<Command, Response> codec = protocol == Protocol.TEXT ?
+                    new TextCodec() : new BinaryCodec();
+            connection = new TcpTransport<Command, Response>(codec);
+            connections.set(server, connection);
+        }
+        if (!connection.isConnected())
+            connection.connect(hosts[server], ports[server]);
+        return connection;
+    }
+
+    private static void checkKey(String key) {
+        int length = key.length();
+        if (length == 0 || length > 250)
+            throw new IllegalArgumentException("Invalid key length " +
+                    length + ": " + key);
+        for (int i = 0; i < length; i++)
+            if (key.charAt(i) <= ' ')
+                throw new IllegalArgumentException(
+                        "Key contains whitespace or control characters: " +
+                        key);
+    }
+
+    /**
+     * Gets the value of a key.
+     * @param key The key
+     * @return The value, or null if the key is not cached
+     * @throws IOException Error talking to the server
+     */
+    public byte[] get(String key) throws IOException {
+        checkKey(key);
+        long start = System.nanoTime();
+        Response response = connection(serverOf(key)).call(
+                new Command(Command.GET, key));
+        record("get", start);
+        return response.values.get(key);
+    }
+
+    /**
+     * Gets the values of multiple keys.
+     * @param keys The keys
+     * @return The cached values by key. Keys not cached are absent
+     * @throws IOException Error talking to a server
+     */
+    public Map<String, byte[]> getMulti(String... keys) throws IOException {
+        List<List<String>> groups = group(keys);
+        long start = System.nanoTime();
+        HashMap<String, byte[]> values = null;
+        try {
+            for (int i = 0; i < groups.size(); i++) {
+                List<String> group = groups.get(i);
+                if (group != null)
+                    connection(i).send(new Command(Command.GET,
+                            group.toArray(new String[group.size()])));
+            }
+            flush(groups);
+            for (int i = 0; i < groups.size(); i++)
+                if (groups.get(i) != null) {
+                    Response response = connections.get(i).receive();
+                    if (values == null)
+                        values = response.values;
+                    else
+                        values.putAll(response.values);
+                }
+        } catch (IOException e) {
+            // Other servers may still have responses outstanding.
+            close();
+            throw e;
+        }
+        record("get_multi", start);
+        if (values == null)
+            values = new HashMap<String, byte[]>();
+        return values;
+    }
+
+    /**
+     * Gets the values of multiple keys.
+     * @param keys The keys
+     * @return The cached values by key. Keys not cached are absent
+     * @throws IOException Error talking to a server
+     */
+    public Map<String, byte[]> getMulti(Collection<String> keys)
+            throws IOException {
+        return getMulti(keys.toArray(new String[keys.size()]));
+    }
+
+    /**
+     * Groups keys by server. Servers holding none of the keys get null.
+     */
+    private List<List<String>> group(String[] keys) {
+        ArrayList<List<String>> groups =
+                new ArrayList<List<String>>(servers.length);
+        for (int i = 0; i < servers.length; i++)
+            groups.add(null);
+        for (String key : keys) {
+            checkKey(key);
+            int server = serverOf(key);
+            List<String> group = groups.get(server);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.set(server, group);
+            }
+            group.add(key);
+        }
+        return groups;
+    }
+
+    private void flush(List<List<String>> groups) throws IOException {
+        for (int i = 0; i < groups.size(); i++)
+            if (groups.get(i) != null)
+                connections.get(i).flush();
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key The key
+     * @param value The value
+     * @param exptime The expiration time in seconds, or 0 for none
+     * @return true if stored, false otherwise
+     * @throws IOException Error talking to the server
+     */
+    public boolean set(String key, byte[] value, int exptime)
+            throws IOException {
+        checkKey(key);
+        long start = System.nanoTime();
+        Response response = connection(serverOf(key)).call(
+                setCommand(key, value, exptime));
+        record("set", start);
+        return response.status == Response.OK;
+    }
+
+    private static Command setCommand(String key, byte[] value, int exptime) {
+        Command command = new Command(Command.SET, key);
+        command.value = value;
+        command.exptime = exptime;
+        return command;
+    }
+
+    /**
+     * Sets the values of multiple keys. The sets are pipelined to each
+     * server.
+     * @param values The values by key
+     * @param exptime The expiration time in seconds, or 0 for none
+     * @return The number of values stored
+     * @throws IOException Error talking to a server
+     */
+    public int setMulti(Map<String, byte[]> values, int exptime)
+            throws IOException {
+        List<List<String>> groups = group(
+                values.keySet().toArray(new String[values.size()]));
+        long start = System.nanoTime();
+        int stored = 0;
+        try {
+            for (int i = 0; i < groups.size(); i++)
+                if (groups.get(i) != null) {
+                    TcpTransport<Command, Response> connection =
+                            connection(i);
+                    for (String key : groups.get(i))
+                        connection.send(setCommand(key, values.get(key),
+                                                   exptime));
+                }
+            flush(groups);
+            for (int i = 0; i < groups.size(); i++)
+                if (groups.get(i) != null)
+                    for (int j = 0; j < groups.get(i).size(); j++)
+                        if (connections.get(i).receive().status ==
+                                Response.OK)
+                            ++stored;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        record("set_multi", start);
+        return stored;
+    }
+
+    /**
+     * Deletes a key.
+     * @param key The key
+     * @return true if deleted, false if the key was not found
+     * @throws IOException Error talking to the server
+     */
+    public boolean delete(String key) throws IOException {
+        checkKey(key);
+        long start = System.nanoTime();
+        Response response = connection(serverOf(key)).call(
+                new Command(Command.DELETE, key));
+        record("delete", start);
+        return response.status == Response.OK;
+    }
+
+    private void record(String command, long start) {
+        long end = System.nanoTime();
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null && ctx.getOperationId() >= 0 &&
+                ctx.isSteadyState(start, end))
+            latencies.record(command, end - start);
+    }
+
+    /**
+     * Closes all connections. Commands still in flight are discarded, so
+     * the connections can be reopened cleanly.
+     */
+    public void close() {
+        for (TcpTransport<Command, Response> connection : connections)
+            if (connection != null)
+                connection.close();
+    }
+}
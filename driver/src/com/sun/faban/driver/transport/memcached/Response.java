@@ -0,0 +1,54 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.memcached;
+
+import java.util.HashMap;
+
+/**
+ * The response to a memcached command, as returned by the codecs.
+ */
+class Response {
+
+    /** The command succeeded. */
+    static final int OK = 0;
+
+    /** The key was not found. */
+    static final int NOT_FOUND = 1;
+
+    /** The item was not stored. */
+    static final int NOT_STORED = 2;
+
+    int status;
+
+    /** The values returned by a get, by key. Missing keys are absent. */
+    HashMap<String, byte[]> values;
+
+    /**
+     * Constructs a response.
+     * @param status The status
+     */
+    Response(int status) {
+        this.status = status;
+    }
+}
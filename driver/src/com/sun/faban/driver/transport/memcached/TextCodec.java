@@ -0,0 +1,171 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.memcached;
+
+import com.sun.faban.driver.transport.tcp.FrameCodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * The codec for the memcached text protocol. The format of a response
+ * depends on the command, so the codec keeps the commands it encoded and
+ * decodes the responses in the same order.
+ */
+class TextCodec implements FrameCodec<Command, Response> {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private ArrayDeque<Command> sent = new ArrayDeque<Command>();
+    private byte[] line = new byte[256];
+
+    /**
+     * Writes a command.
+     * @param command The command
+     * @param out The buffered output stream
+     * @throws IOException Error writing the command
+     */
+    public void encode(Command command, OutputStream out) throws IOException {
+        switch (command.op) {
+            case Command.GET :
+                write("get", out);
+                for (String key : command.keys) {
+                    out.write(' ');
+                    write(key, out);
+                }
+                out.write(CRLF);
+                break;
+            case Command.SET :
+                write("set " + command.keys[0] + ' ' + command.flags + ' ' +
+                        command.exptime + ' ' + command.value.length, out);
+                out.write(CRLF);
+                out.write(command.value);
+                out.write(CRLF);
+                break;
+            case Command.DELETE :
+                write("delete " + command.keys[0], out);
+                out.write(CRLF);
+                break;
+            default :
+                throw new IllegalArgumentException("Unknown command " +
+                        command.op);
+        }
+        sent.add(command);
+    }
+
+    private static void write(String s, OutputStream out) throws IOException {
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+            out.write(s.charAt(i));
+    }
+
+    /**
+     * Reads the response to the oldest outstanding command.
+     * @param in The buffered input stream
+     * @return The response
+     * @throws IOException Error reading the response, or a server error
+     */
+    public Response decode(InputStream in) throws IOException {
+        Command command = sent.poll();
+        if (command == null)
+            throw new IOException("Response without command");
+        if (command.op == Command.GET) {
+            Response response = new Response(Response.OK);
+            response.values = new HashMap<String, byte[]>();
+            for (;;) {
+                String header = readLine(in);
+                if ("END".equals(header))
+                    return response;
+                if (!header.startsWith("VALUE "))
+                    throw error(header);
+                // VALUE <key> <flags> <bytes> [<cas unique>]
+                int keyEnd = header.indexOf(' ', 6);
+                int flagsEnd = header.indexOf(' ', keyEnd + 1);
+                int bytesEnd = header.indexOf(' ', flagsEnd + 1);
+                if (bytesEnd < 0)
+                    bytesEnd = header.length();
+                String key = header.substring(6, keyEnd);
+                int length = Integer.parseInt(
+                        header.substring(flagsEnd + 1, bytesEnd));
+                byte[] value = new byte[length];
+                readFully(in, value);
+                if (in.read() != '\r' || in.read() != '\n')
+                    throw new IOException("Value of " + key +
+                            " not terminated by CRLF");
+                response.values.put(key, value);
+            }
+        }
+        String status = readLine(in);
+        if ("STORED".equals(status) || "DELETED".equals(status))
+            return new Response(Response.OK);
+        if ("NOT_FOUND".equals(status))
+            return new Response(Response.NOT_FOUND);
+        if ("NOT_STORED".equals(status) || "EXISTS".equals(status))
+            return new Response(Response.NOT_STORED);
+        throw error(status);
+    }
+
+    private static IOException error(String status) {
+        return new IOException("Memcached error: " + status);
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                throw new EOFException("Connection closed by server");
+            if (length == line.length) {
+                byte[] newLine = new byte[length * 2];
+                System.arraycopy(line, 0, newLine, 0, length);
+                line = newLine;
+            }
+            line[length++] = (byte) b;
+        }
+        if (length > 0 && line[length - 1] == '\r')
+            --length;
+        return new String(line, 0, length, "ISO-8859-1");
+    }
+
+    static void readFully(InputStream in, byte[] b) throws IOException {
+        int offset = 0;
+        while (offset < b.length) {
+            int count = in.read(b, offset, b.length - offset);
+            if (count < 0)
+                throw new EOFException("Connection closed by server");
+            offset += count;
+        }
+    }
+
+    /**
+     * Discards the commands still awaiting a response.
+     */
+    public void reset() {
+        sent.clear();
+    }
+}
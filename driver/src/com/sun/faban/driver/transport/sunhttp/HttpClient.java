@@ -23,6 +23,8 @@
  */
 package com.sun.faban.driver.transport.sunhttp;
 
+import com.sun.faban.driver.transport.util.ConnectionStats;
+
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.*;
@@ -110,6 +112,7 @@ public class HttpClient extends sun.net.www.http.HttpClient {
         if (ret == null) {
             ret = new HttpClient(url, p, to);
         } else {
+            ConnectionStats.recordReuse();
             SecurityManager security = System.getSecurityManager();
             if (security != null) {
                 security.checkConnect(url.getHost(), url.getPort());
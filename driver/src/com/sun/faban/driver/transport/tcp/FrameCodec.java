@@ -0,0 +1,69 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.tcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A FrameCodec writes requests to and reads responses from a TCP stream,
+ * one frame at a time. Implement this interface to drive a custom protocol
+ * with the {@link TcpTransport}. The streams passed to the codec are
+ * buffered by the transport, so codecs can read and write small pieces
+ * without penalty. Codecs are used by one thread at a time. A codec may
+ * keep state across frames, such as the requests awaiting responses, as
+ * long as reset() clears it.
+ *
+ * @param <Q> The request type
+ * @param <R> The response type
+ */
+public interface FrameCodec<Q, R> {
+
+    /**
+     * Writes a request frame to the stream.
+     * @param request The request
+     * @param out The buffered output stream
+     * @throws IOException Error writing the request
+     */
+    void encode(Q request, OutputStream out) throws IOException;
+
+    /**
+     * Reads a response frame from the stream. This method blocks until a
+     * complete frame is read.
+     * @param in The buffered input stream
+     * @return The response
+     * @throws IOException Error reading the response, including an
+     *         EOFException if the stream ends before the frame is complete
+     */
+    R decode(InputStream in) throws IOException;
+
+    /**
+     * Discards any state kept about requests encoded but not yet decoded.
+     * The transport calls this when the connection is closed or dropped
+     * after an error, so the responses on the next connection are not
+     * matched to requests sent on the old one.
+     */
+    void reset();
+}
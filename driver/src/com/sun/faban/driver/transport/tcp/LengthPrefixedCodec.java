@@ -0,0 +1,119 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * LengthPrefixedCodec frames binary messages by a big-endian length
+ * prefix of 1, 2, or 4 bytes. The length does not include the prefix
+ * itself. Requests and responses are the message bodies as byte arrays.
+ */
+public class LengthPrefixedCodec implements FrameCodec<byte[], byte[]> {
+
+    private int prefixLength;
+    private int maxLength;
+
+    /**
+     * Constructs a codec with a 4 byte length prefix.
+     */
+    public LengthPrefixedCodec() {
+        this(4);
+    }
+
+    /**
+     * Constructs a codec with the given prefix length.
+     * @param prefixLength The length of the prefix, 1, 2, or 4 bytes
+     */
+    public LengthPrefixedCodec(int prefixLength) {
+        this(prefixLength, 16 * 1024 * 1024);
+    }
+
+    /**
+     * Constructs a codec with the given prefix and maximum frame length.
+     * @param prefixLength The length of the prefix, 1, 2, or 4 bytes
+     * @param maxLength The maximum length of a response frame. Frames
+     *        announcing a larger length are rejected as corrupt.
+     */
+    public LengthPrefixedCodec(int prefixLength, int maxLength) {
+        if (prefixLength != 1 && prefixLength != 2 && prefixLength != 4)
+            throw new IllegalArgumentException("Invalid prefix length " +
+                    prefixLength + ", must be 1, 2, or 4");
+        this.prefixLength = prefixLength;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Writes the length prefix followed by the request.
+     * @param request The request body
+     * @param out The buffered output stream
+     * @throws IOException Error writing the request
+     */
+    public void encode(byte[] request, OutputStream out) throws IOException {
+        int length = request.length;
+        if (prefixLength < 4 && length >= 1 << (prefixLength * 8))
+            throw new IOException("Request length " + length +
+                    " exceeds " + prefixLength + " byte prefix");
+        for (int shift = (prefixLength - 1) * 8; shift >= 0; shift -= 8)
+            out.write(length >>> shift);
+        out.write(request);
+    }
+
+    /**
+     * Does nothing, this codec keeps no state between frames.
+     */
+    public void reset() {
+    }
+
+    /**
+     * Reads the length prefix and the response.
+     * @param in The buffered input stream
+     * @return The response body
+     * @throws IOException Error reading the response
+     */
+    public byte[] decode(InputStream in) throws IOException {
+        int length = 0;
+        for (int i = 0; i < prefixLength; i++) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Stream ended reading frame length");
+            length = (length << 8) | b;
+        }
+        if (length < 0 || length > maxLength)
+            throw new IOException("Invalid frame length " + length);
+        byte[] response = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(response, offset, length - offset);
+            if (count < 0)
+                throw new EOFException("Stream ended after " + offset +
+                        " of " + length + " bytes");
+            offset += count;
+        }
+        return response;
+    }
+}
@@ -0,0 +1,115 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * LineCodec frames text messages by line. Requests are written with the
+ * configured line terminator, CRLF by default. Responses are read up to
+ * the next LF and returned without the line terminator, with or without
+ * a preceding CR.
+ */
+public class LineCodec implements FrameCodec<String, String> {
+
+    private Charset charset;
+    private byte[] terminator;
+    private int maxLength;
+    private ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+
+    /**
+     * Constructs a codec using UTF-8 and CRLF line terminators.
+     */
+    public LineCodec() {
+        this("UTF-8", "\r\n");
+    }
+
+    /**
+     * Constructs a codec using the given charset and line terminator.
+     * @param charset The name of the charset
+     * @param terminator The line terminator written after each request
+     */
+    public LineCodec(String charset, String terminator) {
+        this(charset, terminator, 1024 * 1024);
+    }
+
+    /**
+     * Constructs a codec using the given charset, line terminator, and
+     * maximum line length.
+     * @param charset The name of the charset
+     * @param terminator The line terminator written after each request
+     * @param maxLength The maximum length of a response line in bytes
+     */
+    public LineCodec(String charset, String terminator, int maxLength) {
+        this.charset = Charset.forName(charset);
+        this.terminator = terminator.getBytes(this.charset);
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Writes the request followed by the line terminator.
+     * @param request The request line
+     * @param out The buffered output stream
+     * @throws IOException Error writing the request
+     */
+    public void encode(String request, OutputStream out) throws IOException {
+        out.write(request.getBytes(charset.name()));
+        out.write(terminator);
+    }
+
+    /**
+     * Reads the next response line.
+     * @param in The buffered input stream
+     * @return The response line without the line terminator
+     * @throws IOException Error reading the response
+     */
+    public String decode(InputStream in) throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                throw new EOFException("Stream ended reading line");
+            if (line.size() >= maxLength)
+                throw new IOException("Line exceeds " + maxLength + " bytes");
+            line.write(b);
+        }
+        int length = line.size();
+        byte[] bytes = line.toByteArray();
+        if (length > 0 && bytes[length - 1] == '\r')
+            --length;
+        return new String(bytes, 0, length, charset.name());
+    }
+
+    /**
+     * Discards any partially read line.
+     */
+    public void reset() {
+        line.reset();
+    }
+}
@@ -0,0 +1,51 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.tcp;
+
+/**
+ * A TaggedFrameCodec is a codec for protocols carrying a tag or request
+ * id in each frame, allowing the server to respond out of order. The
+ * {@link TcpTransport} matches each response to its outstanding request
+ * by tag. Codecs not implementing this interface get their responses
+ * matched in request order.
+ *
+ * @param <Q> The request type
+ * @param <R> The response type
+ */
+public interface TaggedFrameCodec<Q, R> extends FrameCodec<Q, R> {
+
+    /**
+     * Obtains the tag of a request.
+     * @param request The request
+     * @return The tag, which must implement equals and hashCode
+     */
+    Object getTag(Q request);
+
+    /**
+     * Obtains the tag of a response.
+     * @param response The response
+     * @return The tag of the request this response belongs to
+     */
+    Object getResponseTag(R response);
+}
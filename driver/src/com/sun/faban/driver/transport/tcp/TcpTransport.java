@@ -0,0 +1,372 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.tcp;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.transport.util.TimedSocketFactory;
+import com.sun.faban.driver.util.LatencyTable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TcpTransport is a generic request/response transport for framed TCP
+ * protocols. The framing is done by a {@link FrameCodec}, such as the
+ * {@link LengthPrefixedCodec}, the {@link LineCodec}, or a custom codec.
+ * Requests can be pipelined: any number of requests can be sent before
+ * reading the responses, and they are written to the connection in one
+ * go on flush. Responses are matched to the outstanding requests in order,
+ * or by tag if the codec is a {@link TaggedFrameCodec}.<p>
+ * The connection is created by the {@link TimedSocketFactory}, so the
+ * operation's response time is captured just like with the HTTP
+ * transports: from the first byte written to the last byte read. In
+ * addition, the latency of each request from flush to the arrival of its
+ * response is recorded in steady state by operation in the "Request
+ * Latency" table of the summary report.<p>
+ * A transport instance and its codec are used by one thread at a time.
+ *
+ * @param <Q> The request type
+ * @param <R> The response type
+ */
+public class TcpTransport<Q, R> {
+
+    private static Logger logger =
+            Logger.getLogger(TcpTransport.class.getName());
+
+    private FrameCodec<Q, R> codec;
+    private TaggedFrameCodec<Q, R> taggedCodec;
+    private Socket socket;
+    private BufferedInputStream in;
+    private BufferedOutputStream out;
+    private int bufferSize = 8192;
+    private int connectTimeout = 30000;
+    private int readTimeout = 30000;
+
+    /** Outstanding requests in request order, for untagged codecs. */
+    private ArrayDeque<Pending> ordered = new ArrayDeque<Pending>();
+
+    /** Outstanding requests by tag, for tagged codecs. */
+    private HashMap<Object, Pending> tagged;
+
+    /** Requests sent but not yet flushed. */
+    private ArrayList<Pending> unflushed = new ArrayList<Pending>();
+
+    /** Pending entries for reuse. */
+    private ArrayDeque<Pending> pool = new ArrayDeque<Pending>();
+
+    private int outstanding;
+    private long lastLatency = -1l;
+    private LatencyTable latencies;
+
+    /**
+     * Constructs a transport using the given codec.
+     * @param codec The codec framing requests and responses
+     */
+    @SuppressWarnings("unchecked")
+    public TcpTransport(FrameCodec<Q, R> codec) {
+        this.codec = codec;
+        if (codec instanceof TaggedFrameCodec) {
+            taggedCodec = (TaggedFrameCodec<Q, R>) codec;
+            tagged = new HashMap<Object, Pending>();
+        }
+        latencies = LatencyTable.getInstance("Request Latency", "Operation");
+    }
+
+    /**
+     * Sets the connect timeout for subsequent connects.
+     * @param millis The timeout in milliseconds
+     */
+    public void setConnectTimeout(int millis) {
+        connectTimeout = millis;
+    }
+
+    /**
+     * Sets the read timeout. A response not arriving within this time
+     * fails the receive with a SocketTimeoutException.
+     * @param millis The timeout in milliseconds, 0 for no timeout
+     * @throws IOException Error setting the timeout on the connection
+     */
+    public void setReadTimeout(int millis) throws IOException {
+        readTimeout = millis;
+        if (socket != null)
+            socket.setSoTimeout(millis);
+    }
+
+    /**
+     * Sets the size of the stream buffers for subsequent connects. The
+     * buffer should hold a pipelined batch of requests.
+     * @param size The buffer size in bytes
+     */
+    public void setBufferSize(int size) {
+        bufferSize = size;
+    }
+
+    /**
+     * Connects to the server, closing any existing connection.
+     * @param host The server host
+     * @param port The server port
+     * @throws IOException Error connecting
+     */
+    public void connect(String host, int port) throws IOException {
+        close();
+        Socket s = TimedSocketFactory.getInstance().createSocket();
+        s.setTcpNoDelay(true);
+        s.connect(new InetSocketAddress(host, port), connectTimeout);
+        s.setSoTimeout(readTimeout);
+        in = new BufferedInputStream(s.getInputStream(), bufferSize);
+        out = new BufferedOutputStream(s.getOutputStream(), bufferSize);
+        socket = s;
+    }
+
+    /**
+     * Checks whether the transport is connected.
+     * @return true if connected, false otherwise
+     */
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+    /**
+     * Obtains the underlying socket, for setting socket options.
+     * @return The socket, or null if not connected
+     */
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Sends a request. The request is buffered and only written to the
+     * connection on flush, or when the buffer fills up. Call receive()
+     * to obtain the response.
+     * @param request The request
+     * @throws IOException Error writing the request
+     */
+    public void send(Q request) throws IOException {
+        if (socket == null)
+            throw new IOException("Not connected");
+        Object tag = null;
+        if (taggedCodec != null) {
+            tag = taggedCodec.getTag(request);
+            if (tagged.containsKey(tag))
+                throw new IllegalArgumentException("Request tag " + tag +
+                        " already outstanding");
+        }
+        try {
+            codec.encode(request, out);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        Pending p = pool.poll();
+        if (p == null)
+            p = new Pending();
+        p.tag = tag;
+        p.sent = System.nanoTime();
+        unflushed.add(p);
+        if (tagged != null)
+            tagged.put(tag, p);
+        else
+            ordered.add(p);
+        ++outstanding;
+    }
+
+    /**
+     * Writes all buffered requests to the connection. The latency of
+     * these requests is measured from here.
+     * @throws IOException Error writing the requests
+     */
+    public void flush() throws IOException {
+        if (socket == null)
+            throw new IOException("Not connected");
+        try {
+            out.flush();
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < unflushed.size(); i++)
+            unflushed.get(i).sent = now;
+        unflushed.clear();
+    }
+
+    /**
+     * Receives the next response, flushing buffered requests first.
+     * Responses are returned in the order they arrive. For untagged codecs
+     * this is the order of the requests.
+     * @return The response
+     * @throws IOException Error reading the response
+     */
+    public R receive() throws IOException {
+        if (outstanding == 0)
+            throw new IllegalStateException("No outstanding request");
+        if (!unflushed.isEmpty())
+            flush();
+        R response;
+        try {
+            response = codec.decode(in);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        long now = System.nanoTime();
+        Pending p;
+        if (tagged != null) {
+            Object tag = taggedCodec.getResponseTag(response);
+            p = tagged.remove(tag);
+            if (p == null) {
+                abort();
+                throw new IOException("Response tag " + tag +
+                        " does not match any outstanding request");
+            }
+        } else {
+            p = ordered.poll();
+        }
+        --outstanding;
+        lastLatency = now - p.sent;
+        record(p.sent, now);
+        release(p);
+        return response;
+    }
+
+    private void record(long sent, long received) {
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx == null)
+            return;
+        String operation = ctx.getCurrentOperation();
+        if (operation != null && ctx.isSteadyState(sent, received))
+            latencies.record(operation, received - sent);
+    }
+
+    /**
+     * Sends a request and waits for its response. Outstanding requests
+     * sent before are received and discarded first.
+     * @param request The request
+     * @return The response
+     * @throws IOException Error sending the request or reading the response
+     */
+    public R call(Q request) throws IOException {
+        while (outstanding > 0)
+            receive();
+        send(request);
+        return receive();
+    }
+
+    /**
+     * Sends all requests in one batch and receives their responses.
+     * @param requests The requests
+     * @return The responses, in the order received
+     * @throws IOException Error sending the requests or reading responses
+     */
+    public List<R> pipeline(List<Q> requests) throws IOException {
+        for (Q request : requests)
+            send(request);
+        flush();
+        ArrayList<R> responses = new ArrayList<R>(requests.size());
+        for (int i = 0; i < requests.size(); i++)
+            responses.add(receive());
+        return responses;
+    }
+
+    /**
+     * Obtains the number of requests sent but not yet answered.
+     * @return The number of outstanding requests
+     */
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Obtains the latency of the last response received, from flushing
+     * its request to reading its last byte.
+     * @return The latency in nanoseconds, or -1 if none received yet
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * Closes the connection. Outstanding requests are discarded, and so is
+     * the codec's state about them.
+     */
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing connection", e);
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }
+        discard();
+    }
+
+    /**
+     * After an I/O error, the state of the pipeline is unknown. We close
+     * the connection and reset the codec so the next send fails or
+     * reconnects cleanly.
+     */
+    private void abort() {
+        logger.fine("I/O error, closing connection");
+        close();
+    }
+
+    /**
+     * Discards the outstanding requests, here and in the codec.
+     */
+    private void discard() {
+        while (!ordered.isEmpty())
+            release(ordered.poll());
+        if (tagged != null) {
+            for (Pending p : tagged.values())
+                release(p);
+            tagged.clear();
+        }
+        unflushed.clear();
+        outstanding = 0;
+        codec.reset();
+    }
+
+    private void release(Pending p) {
+        p.tag = null;
+        pool.add(p);
+    }
+
+    /** An outstanding request. */
+    private static class Pending {
+        Object tag;
+        long sent;
+    }
+}
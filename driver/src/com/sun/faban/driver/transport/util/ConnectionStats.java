@@ -0,0 +1,85 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConnectionStats keeps the agent-wide connection counters. Connections
+ * opened are counted by the timed sockets, together with the time taken to
+ * connect. Connection reuse is counted by the transports and connection
+ * pools whenever a request is sent over an already open connection. The
+ * counters are cumulative over the life of the agent JVM and are sampled by
+ * the agent for the runtime stats.
+ */
+public class ConnectionStats {
+
+    private static final AtomicLong opened = new AtomicLong();
+    private static final AtomicLong reused = new AtomicLong();
+    private static final AtomicLong connectTime = new AtomicLong();
+
+    private ConnectionStats() {
+    }
+
+    /**
+     * Records a newly opened connection.
+     * @param start The system nanotime the connect started
+     * @param end The system nanotime the connection got established
+     */
+    public static void recordConnect(long start, long end) {
+        opened.incrementAndGet();
+        connectTime.addAndGet(end - start);
+    }
+
+    /**
+     * Records the reuse of an already open connection.
+     */
+    public static void recordReuse() {
+        reused.incrementAndGet();
+    }
+
+    /**
+     * Obtains the number of connections opened.
+     * @return The connections opened
+     */
+    public static long getOpened() {
+        return opened.get();
+    }
+
+    /**
+     * Obtains the number of times an open connection got reused.
+     * @return The connection reuse count
+     */
+    public static long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * Obtains the accumulated time taken to open connections.
+     * @return The total connect time, in nanoseconds
+     */
+    public static long getConnectTime() {
+        return connectTime.get();
+    }
+}
@@ -0,0 +1,687 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * CookieJar is a compact cookie store for one emulated user, shared by the
+ * HTTP transport providers. With tens of thousands of users in an agent,
+ * the cookie state and the building of the Cookie request headers easily
+ * become the top allocation site. The jar therefore keeps the cookies in
+ * flat arrays rather than cookie objects, interns the cookie names,
+ * domains, and paths across all jars in the agent, and caches the request
+ * header strings. The header cache is keyed by host and by the set of
+ * cookies matching the request path, so a cache hit does not allocate.
+ * Any change to the jar invalidates the cache.<p>
+ * Cookies are selected according to RFC 2965 and 6265 domain, port, path,
+ * and secure matching. The selected cookies are ordered by longest path
+ * first, then by the time they were set. Cookies without a version are
+ * formatted according to Netscape's original proposal. Cookies with a
+ * version are formatted according to RFC 2965, in a separate header line
+ * for each version.<p>
+ * The jar is not thread safe. Each user keeps its own jar.
+ */
+public class CookieJar {
+
+    private static Logger logger = Logger.getLogger(CookieJar.class.getName());
+
+    /**
+     * The intern pool for cookie names, domains, and paths. The strings
+     * are weakly held, so strings no longer kept by any jar get dropped.
+     */
+    private static final Map<String, WeakReference<String>> pool =
+            new WeakHashMap<String, WeakReference<String>>();
+
+    /** Parser for the Netscape Expires attribute, one per thread. */
+    private static final ThreadLocal<SimpleDateFormat> dateParser =
+            new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            // The Netscape cookie spec takes this format:
+            // "EEE, d-MMM-yyyy HH:mm:ss z" but we've seen cases of
+            // "EEE, d MMM yyyy HH:mm:ss z". Due to ease of
+            // conversion, we replace the '-' with ' ' and parse
+            // the format without the '-'.
+            return new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z");
+        }
+    };
+
+    private static final String[] NO_HEADERS = new String[0];
+
+    /** Expiry time of session cookies. */
+    private static final long SESSION = Long.MAX_VALUE;
+
+    /** Number of hosts kept in the header cache. */
+    private static final int CACHED_HOSTS = 4;
+
+    private int size;
+    private String[] names = new String[4];
+    private String[] values = new String[4];
+
+    /** Lower case domain, with a leading '.' unless host only. */
+    private String[] domains = new String[4];
+    private String[] paths = new String[4];
+    private long[] expires = new long[4];
+    private int[] versions = new int[4];
+
+    /** Preformatted RFC 2965 attributes, null if not needed. */
+    private String[] attrs = new String[4];
+
+    /** Allowed ports, null for any port. */
+    private int[][] ports = new int[4][];
+    private boolean[] secure = new boolean[4];
+
+    /** Sequence in which the cookies were set, for ordering. */
+    private int[] order = new int[4];
+    private int sequence;
+
+    private long nextExpiry = SESSION;
+    private int modCount;
+
+    /* The header cache, by host. */
+    private String[] cacheHost = new String[CACHED_HOSTS];
+    private int[] cachePort = new int[CACHED_HOSTS];
+    private boolean[] cacheSecure = new boolean[CACHED_HOSTS];
+    private HostCache[] cache = new HostCache[CACHED_HOSTS];
+    private int cacheSize;
+    private int cacheNext;
+
+    /**
+     * Interns a string in the agent-wide pool.
+     * @param s The string
+     * @return The pooled instance of the string
+     */
+    static String intern(String s) {
+        if (s == null)
+            return null;
+        synchronized (pool) {
+            WeakReference<String> ref = pool.get(s);
+            String pooled = ref == null ? null : ref.get();
+            if (pooled == null) {
+                pool.put(s, new WeakReference<String>(s));
+                pooled = s;
+            }
+            return pooled;
+        }
+    }
+
+    /**
+     * Adds a cookie to the jar, replacing a cookie with the same name,
+     * domain, and path. A cookie that already expired removes the
+     * existing cookie instead.
+     * @param name The cookie name
+     * @param value The cookie value
+     * @param domain The domain, starting with '.' to also match sub-domains
+     * @param path The path
+     * @param expiry The expiry time in ms since the epoch, or
+     *        Long.MAX_VALUE for a session cookie
+     * @param secure Whether the cookie is only sent over secure connections
+     * @param version The cookie version, or -1 for a Netscape cookie
+     * @param ports The allowed ports, or null for any port
+     * @param attrs The preformatted RFC 2965 attributes, or null
+     */
+    public void add(String name, String value, String domain, String path,
+                    long expiry, boolean secure, int version, int[] ports,
+                    String attrs) {
+        name = intern(name);
+        domain = intern(domain.toLowerCase());
+        path = intern(path);
+        int i = indexOf(name, domain, path);
+        if (expiry <= System.currentTimeMillis()) {
+            if (i >= 0)
+                remove(i);
+            return;
+        }
+        if (i < 0) {
+            if (size == names.length)
+                grow();
+            i = size++;
+            names[i] = name;
+            domains[i] = domain;
+            paths[i] = path;
+            order[i] = sequence++;
+        }
+        values[i] = value;
+        expires[i] = expiry;
+        this.secure[i] = secure;
+        versions[i] = version;
+        this.ports[i] = ports;
+        this.attrs[i] = attrs;
+        if (expiry < nextExpiry)
+            nextExpiry = expiry;
+        changed();
+    }
+
+    /**
+     * Parses a Set-Cookie or Set-Cookie2 response header and adds the
+     * cookie to the jar. Missing domain, path, and port values are taken
+     * from the request.
+     * @param cookieString The header value
+     * @param request The request URI
+     */
+    public void parse(String cookieString, URI request) {
+        StringTokenizer tokenizer = new StringTokenizer(
+                cookieString, ";", false);
+        if (!tokenizer.hasMoreTokens())
+            return;
+        String nameValue = tokenizer.nextToken();
+        int idx = nameValue.indexOf('=');
+        if (idx == -1)
+            return;
+
+        String name = nameValue.substring(0, idx).trim();
+        if (name.startsWith("$"))
+            return;
+        String value = nameValue.substring(idx + 1).trim();
+
+        long now = System.currentTimeMillis();
+        long expiry = SESSION;
+        boolean maxAgeSet = false;
+        String domain = null;
+        String domainString = null;
+        String path = null;
+        String pathString = null;
+        String portString = null;
+        int[] ports = null;
+        boolean secure = false;
+        int version = -1;
+
+        // Now deal with all attributes
+        while (tokenizer.hasMoreTokens()) {
+            nameValue = tokenizer.nextToken();
+            String token;
+            idx = nameValue.indexOf('=');
+            if (idx != -1) {
+                token = unquote(nameValue.substring(idx + 1).trim());
+                nameValue = nameValue.substring(0, idx).trim();
+            } else {
+                nameValue = nameValue.trim();
+                token = null;
+            }
+
+            if ("Domain".equalsIgnoreCase(nameValue) && token != null) {
+                domainString = token;
+                domain = token.startsWith(".") ? token : "." + token;
+            } else if ("Expires".equalsIgnoreCase(nameValue) &&
+                    token != null) {
+                // Max-Age takes precedence over Expires.
+                if (!maxAgeSet)
+                    try {
+                        expiry = dateParser.get().parse(
+                                token.replace('-', ' ')).getTime();
+                    } catch (ParseException e) {
+                        throw new IllegalArgumentException(e);
+                    }
+            } else if ("Max-Age".equalsIgnoreCase(nameValue) &&
+                    token != null) {
+                maxAgeSet = true;
+                expiry = now + Integer.parseInt(token) * 1000l;
+            } else if ("Path".equalsIgnoreCase(nameValue) && token != null) {
+                pathString = token;
+                path = token;
+            } else if ("Port".equalsIgnoreCase(nameValue)) {
+                if (token == null) { // Port attribute without value
+                    ports = new int[] { getPort(request) };
+                    continue;
+                }
+                portString = token;
+                StringTokenizer t = new StringTokenizer(token, ", ", false);
+                ports = new int[t.countTokens()];
+                for (int i = 0; i < ports.length; i++)
+                    ports[i] = Integer.parseInt(t.nextToken());
+            } else if ("Secure".equalsIgnoreCase(nameValue)) {
+                secure = true;
+            } else if ("Version".equalsIgnoreCase(nameValue) &&
+                    token != null) {
+                version = Integer.parseInt(token);
+                if (version < 0)
+                    throw new IllegalArgumentException("Cookie version " +
+                            "must be greater than 0, received " +
+                            version + '.');
+            }
+        }
+
+        if (domain == null)
+            domain = request.getHost();
+        if (path == null) {
+            path = request.getPath();
+            if (path == null || path.length() == 0)
+                path = "/";
+            else
+                path = path.substring(0, path.lastIndexOf('/') + 1);
+        }
+
+        String attrs = null;
+        if (version >= 0 && (pathString != null || domainString != null ||
+                portString != null)) {
+            StringBuilder b = new StringBuilder();
+            if (pathString != null)
+                b.append("; $Path=").append(path);
+            if (domainString != null)
+                b.append("; $Domain=").append(domain);
+            if (portString != null)
+                b.append("; $Port=").append(portString);
+            attrs = b.toString();
+        }
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("Cookie " + name + '=' + value + ", domain: " +
+                    domain + ", path: " + path);
+        add(name, value, domain, path, expiry, secure, version, ports,
+            attrs);
+    }
+
+    private static String unquote(String token) {
+        if (token.length() > 1 && token.startsWith("\"") &&
+                token.endsWith("\""))
+            return token.substring(1, token.length() - 1).trim();
+        return token;
+    }
+
+    private static int getPort(URI request) {
+        int port = request.getPort();
+        if (port == -1)
+            port = "https".equalsIgnoreCase(request.getScheme()) ? 443 : 80;
+        return port;
+    }
+
+    /**
+     * Obtains the Cookie request header lines for a request. The returned
+     * array is cached and must not be modified.
+     * @param host The request host
+     * @param port The request port
+     * @param path The request path
+     * @param secure Whether the request is sent over a secure connection
+     * @return The header lines, one for each cookie version, or an empty
+     *         array if no cookies apply
+     */
+    public String[] getRequestHeaders(String host, int port, String path,
+                                      boolean secure) {
+        if (size == 0)
+            return NO_HEADERS;
+        if (System.currentTimeMillis() >= nextExpiry)
+            purge();
+        if (path == null || path.length() == 0)
+            path = "/";
+        HostCache hostCache = getHostCache(host, port, secure);
+        int[] candidates = hostCache.candidates;
+        if (candidates.length == 0)
+            return NO_HEADERS;
+        if (candidates.length > 64) // Too many to cache, just format.
+            return format(candidates, path, -1l);
+
+        // The path match mask is the cache key.
+        long mask = 0l;
+        for (int i = 0; i < candidates.length; i++)
+            if (path.startsWith(paths[candidates[i]]))
+                mask |= 1l << i;
+        if (mask == 0l)
+            return NO_HEADERS;
+        for (int i = 0; i < hostCache.size; i++)
+            if (hostCache.masks[i] == mask)
+                return hostCache.headers[i];
+        String[] headers = format(candidates, path, mask);
+        hostCache.add(mask, headers);
+        return headers;
+    }
+
+    private HostCache getHostCache(String host, int port, boolean secure) {
+        for (int i = 0; i < cacheSize; i++)
+            if (cachePort[i] == port && cacheSecure[i] == secure &&
+                    cacheHost[i].equals(host))
+                return cache[i];
+
+        // Not cached, find all cookies for this host, port, and security.
+        String lowerHost = host.toLowerCase();
+        int count = 0;
+        int[] match = new int[size];
+        for (int i = 0; i < size; i++)
+            if (matchDomain(domains[i], lowerHost) &&
+                    (secure || !this.secure[i]) &&
+                    matchPort(ports[i], port))
+                match[count++] = i;
+
+        // Sort by path length descending, then by order set.
+        for (int i = 1; i < count; i++) {
+            int c = match[i];
+            int j = i - 1;
+            for (; j >= 0 && precedes(c, match[j]); j--)
+                match[j + 1] = match[j];
+            match[j + 1] = c;
+        }
+        int[] candidates = new int[count];
+        System.arraycopy(match, 0, candidates, 0, count);
+
+        int slot;
+        if (cacheSize < CACHED_HOSTS) {
+            slot = cacheSize++;
+        } else {
+            slot = cacheNext;
+            cacheNext = (cacheNext + 1) % CACHED_HOSTS;
+        }
+        cacheHost[slot] = host;
+        cachePort[slot] = port;
+        cacheSecure[slot] = secure;
+        cache[slot] = new HostCache(candidates);
+        return cache[slot];
+    }
+
+    private boolean precedes(int c1, int c2) {
+        int diff = paths[c1].length() - paths[c2].length();
+        if (diff != 0)
+            return diff > 0;
+        return order[c1] < order[c2];
+    }
+
+    private static boolean matchDomain(String domain, String host) {
+        if (domain.charAt(0) != '.')
+            return domain.equals(host);
+        // Domain .example.com matches example.com and any sub-domain.
+        return host.endsWith(domain) || host.regionMatches(0, domain, 1,
+                domain.length() - 1) && host.length() == domain.length() - 1;
+    }
+
+    private static boolean matchPort(int[] ports, int port) {
+        if (ports == null)
+            return true;
+        for (int allowed : ports)
+            if (allowed == port)
+                return true;
+        return false;
+    }
+
+    /**
+     * Formats the header lines for the candidates matching the path mask.
+     */
+    private String[] format(int[] candidates, String path, long mask) {
+        StringBuilder b = new StringBuilder();
+        String[] headers = NO_HEADERS;
+        // One line for each version, lowest version first.
+        int version = Integer.MIN_VALUE;
+        while (true) {
+            int next = Integer.MAX_VALUE;
+            for (int i = 0; i < candidates.length; i++) {
+                int c = candidates[i];
+                int v = versions[c];
+                if (v > version && v < next && selected(i, c, path, mask))
+                    next = v;
+            }
+            if (next == Integer.MAX_VALUE)
+                break;
+            version = next;
+            b.setLength(0);
+            if (version >= 0)
+                b.append("$Version=\"").append(version).append('"');
+            for (int i = 0; i < candidates.length; i++) {
+                int c = candidates[i];
+                if (versions[c] != version || !selected(i, c, path, mask))
+                    continue;
+                if (b.length() > 0)
+                    b.append("; ");
+                b.append(names[c]).append('=').append(values[c]);
+                if (attrs[c] != null)
+                    b.append(attrs[c]);
+            }
+            String[] newHeaders = new String[headers.length + 1];
+            System.arraycopy(headers, 0, newHeaders, 0, headers.length);
+            newHeaders[headers.length] = b.toString();
+            headers = newHeaders;
+        }
+        return headers;
+    }
+
+    private boolean selected(int i, int c, String path, long mask) {
+        if (mask == -1l)
+            return path.startsWith(paths[c]);
+        return (mask & (1l << i)) != 0l;
+    }
+
+    /**
+     * Obtains the highest cookie version in the jar.
+     * @return The highest version, or -1 if all are Netscape cookies
+     */
+    public int getMaxVersion() {
+        int max = -1;
+        for (int i = 0; i < size; i++)
+            if (versions[i] > max)
+                max = versions[i];
+        return max;
+    }
+
+    /**
+     * Obtains the value of all cookies in the jar by the name of the
+     * cookie.
+     * @param name The cookie name
+     * @return The values of all cookies matching this name, no duplicates
+     */
+    public String[] getValuesByName(String name) {
+        HashSet<String> valueSet = new HashSet<String>();
+        for (int i = 0; i < size; i++)
+            if (names[i].equals(name))
+                valueSet.add(values[i]);
+        return valueSet.toArray(new String[valueSet.size()]);
+    }
+
+    /**
+     * Obtains the number of cookies in the jar.
+     * @return The number of cookies
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Obtains the modification count of this jar. The count changes
+     * whenever cookies are added, replaced, or removed.
+     * @return The modification count
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Obtains the name of a cookie.
+     * @param i The cookie index, from 0 to size() - 1
+     * @return The name
+     */
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * Obtains the value of a cookie.
+     * @param i The cookie index, from 0 to size() - 1
+     * @return The value
+     */
+    public String getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Obtains the domain of a cookie. Domains starting with '.' also match
+     * the sub-domains.
+     * @param i The cookie index, from 0 to size() - 1
+     * @return The domain
+     */
+    public String getDomain(int i) {
+        return domains[i];
+    }
+
+    /**
+     * Obtains the path of a cookie.
+     * @param i The cookie index, from 0 to size() - 1
+     * @return The path
+     */
+    public String getPath(int i) {
+        return paths[i];
+    }
+
+    /**
+     * Obtains the expiry time of a cookie.
+     * @param i The cookie index, from 0 to size() - 1
+     * @return The expiry time in ms, or Long.MAX_VALUE for session cookies
+     */
+    public long getExpiry(int i) {
+        return expires[i];
+    }
+
+    /**
+     * Checks whether a cookie is only sent over secure connections.
+     * @param i The cookie index, from 0 to size() - 1
+     * @return true if secure, false otherwise
+     */
+    public boolean isSecure(int i) {
+        return secure[i];
+    }
+
+    /**
+     * Removes all cookies from the jar.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            names[i] = values[i] = domains[i] = paths[i] = attrs[i] = null;
+            ports[i] = null;
+        }
+        size = 0;
+        nextExpiry = SESSION;
+        changed();
+    }
+
+    /**
+     * Removes all expired cookies from the jar.
+     */
+    public void purge() {
+        long now = System.currentTimeMillis();
+        nextExpiry = SESSION;
+        for (int i = size - 1; i >= 0; i--)
+            if (expires[i] <= now)
+                remove(i);
+            else if (expires[i] < nextExpiry)
+                nextExpiry = expires[i];
+    }
+
+    private int indexOf(String name, String domain, String path) {
+        // All interned, compare by reference.
+        for (int i = 0; i < size; i++)
+            if (names[i] == name && domains[i] == domain && paths[i] == path)
+                return i;
+        return -1;
+    }
+
+    private void remove(int i) {
+        int last = --size;
+        if (i < last) {
+            int len = last - i;
+            System.arraycopy(names, i + 1, names, i, len);
+            System.arraycopy(values, i + 1, values, i, len);
+            System.arraycopy(domains, i + 1, domains, i, len);
+            System.arraycopy(paths, i + 1, paths, i, len);
+            System.arraycopy(expires, i + 1, expires, i, len);
+            System.arraycopy(versions, i + 1, versions, i, len);
+            System.arraycopy(attrs, i + 1, attrs, i, len);
+            System.arraycopy(ports, i + 1, ports, i, len);
+            System.arraycopy(secure, i + 1, secure, i, len);
+            System.arraycopy(order, i + 1, order, i, len);
+        }
+        names[last] = values[last] = domains[last] = paths[last] = null;
+        attrs[last] = null;
+        ports[last] = null;
+        changed();
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        names = copy(names, new String[capacity]);
+        values = copy(values, new String[capacity]);
+        domains = copy(domains, new String[capacity]);
+        paths = copy(paths, new String[capacity]);
+        attrs = copy(attrs, new String[capacity]);
+        ports = copy(ports, new int[capacity][]);
+        long[] newExpires = new long[capacity];
+        System.arraycopy(expires, 0, newExpires, 0, size);
+        expires = newExpires;
+        int[] newVersions = new int[capacity];
+        System.arraycopy(versions, 0, newVersions, 0, size);
+        versions = newVersions;
+        boolean[] newSecure = new boolean[capacity];
+        System.arraycopy(secure, 0, newSecure, 0, size);
+        secure = newSecure;
+        int[] newOrder = new int[capacity];
+        System.arraycopy(order, 0, newOrder, 0, size);
+        order = newOrder;
+    }
+
+    private <T> T[] copy(T[] from, T[] to) {
+        System.arraycopy(from, 0, to, 0, size);
+        return to;
+    }
+
+    private void changed() {
+        ++modCount;
+        for (int i = 0; i < cacheSize; i++) {
+            cacheHost[i] = null;
+            cache[i] = null;
+        }
+        cacheSize = 0;
+        cacheNext = 0;
+    }
+
+    /**
+     * The cached headers for one host, keyed by the path match mask.
+     */
+    static class HostCache {
+
+        /** The cookies for the host, in header order. */
+        int[] candidates;
+        long[] masks = new long[2];
+        String[][] headers = new String[2][];
+        int size;
+
+        HostCache(int[] candidates) {
+            this.candidates = candidates;
+        }
+
+        void add(long mask, String[] header) {
+            if (size == masks.length) {
+                long[] newMasks = new long[size * 2];
+                System.arraycopy(masks, 0, newMasks, 0, size);
+                masks = newMasks;
+                String[][] newHeaders = new String[size * 2][];
+                System.arraycopy(headers, 0, newHeaders, 0, size);
+                headers = newHeaders;
+            }
+            masks[size] = mask;
+            headers[size++] = header;
+        }
+    }
+}
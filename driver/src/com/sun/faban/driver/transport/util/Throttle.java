@@ -25,8 +25,31 @@ package com.sun.faban.driver.transport.util;
 
 import com.sun.faban.driver.engine.DriverContext;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
 /**
- * A helper class to provide throttling on sockets
+ * A helper class to provide throttling and link emulation on sockets.
+ * Besides the per-user bandwidth, the throttle emulates a WAN link with
+ * round trip latency, jitter, and packet loss, and a bandwidth cap shared
+ * by all users in the agent. Per-user settings are taken from the
+ * DriverContext, defaulting to these system properties:<ul>
+ * <li>faban.link.rtt - The round trip time in ms.</li>
+ * <li>faban.link.jitter - The jitter in ms.</li>
+ * <li>faban.link.jitterDistribution - uniform, normal, or exponential.
+ *     Default normal.</li>
+ * <li>faban.link.loss - The packet loss rate, from 0 to 1.</li>
+ * </ul>
+ * The shared bandwidth cap is set by faban.link.upload and
+ * faban.link.download in kilobytes per second, or by calling
+ * setAggregateSpeed.<p>
+ * Each request/response exchange costs one round trip, added when the first
+ * response data arrives after a request got sent. Connects also cost one
+ * round trip. Lost packets stall the transfer for a retransmission timeout
+ * the same way TCP would. The shared cap is scheduled as a virtual link
+ * without locks: each transfer reserves its time slot on the link and
+ * sleeps until the slot ends.
  *
  * @author Scott Oaks
  */
@@ -34,6 +57,53 @@ public class Throttle {
     public static final int UP = 0;
     public static final int DOWN = 1;
 
+    /** The jitter distributions. */
+    public enum Jitter {
+
+        /** Uniformly distributed within +/- jitter of the RTT. */
+        UNIFORM,
+
+        /** Normally distributed with jitter as the standard deviation. */
+        NORMAL,
+
+        /** Exponentially distributed over the RTT with jitter as mean. */
+        EXPONENTIAL
+    }
+
+    /** Payload bytes per packet, used to estimate packets for loss. */
+    private static final int MSS = 1460;
+
+    /** Minimum retransmission timeout, in ns, as used by TCP stacks. */
+    private static final long MIN_RTO = 200000000l;
+
+    /** Initial retransmission timeout for a lost SYN, in ns. */
+    private static final long SYN_RTO = 1000000000l;
+
+    private static final int defaultRtt = Integer.getInteger(
+                                                    "faban.link.rtt", 0);
+    private static final int defaultJitter = Integer.getInteger(
+                                                    "faban.link.jitter", 0);
+    private static final double defaultLoss = getLossProperty();
+    private static final Jitter jitterDistribution = getJitterProperty();
+
+    /**
+     * Time to transfer one byte on the shared link, by direction. The
+     * array is replaced, never modified, so a reconfiguration is seen by
+     * all threads.
+     */
+    private static volatile double[] linkNanoPerByte = {
+        calcLinkNanoPerByte(Integer.getInteger("faban.link.upload", -1)),
+        calcLinkNanoPerByte(Integer.getInteger("faban.link.download", -1))
+    };
+
+    /**
+     * The time the shared link becomes free, by direction. Starts before
+     * any System.nanoTime() value, which may well be negative.
+     */
+    private static final AtomicLong[] linkFree = {
+        new AtomicLong(Long.MIN_VALUE), new AtomicLong(Long.MIN_VALUE)
+    };
+
 	private DriverContext ctx;
 
 	/* Time it should take to process 1 byte */
@@ -47,6 +117,16 @@ public class Throttle {
 	 */
 	private long[] pendingNanoSleep = new long[2];
 
+    /* Round trip time and jitter in ns, and loss rate currently in effect */
+    private long rtt;
+    private long jitter;
+    private double loss;
+
+    /* Whether we sent data and wait for the response to arrive */
+    private boolean awaitingResponse;
+
+    private Random random = new Random();
+
     /**
      * Constructs a throttle.
      * @param ctx The driver context
@@ -57,13 +137,58 @@ public class Throttle {
 		checkForChange(DOWN);
 	}
 
+    private static double getLossProperty() {
+        String lossStr = System.getProperty("faban.link.loss");
+        double loss = 0d;
+        if (lossStr != null)
+            try {
+                loss = Double.parseDouble(lossStr);
+            } catch (NumberFormatException e) {
+                loss = Double.NaN;
+            }
+        if (!(loss >= 0d && loss < 1d)) {
+            Logger.getLogger(Throttle.class.getName()).warning(
+                    "faban.link.loss must be between 0 and 1. Using 0.");
+            loss = 0d;
+        }
+        return loss;
+    }
+
+    private static Jitter getJitterProperty() {
+        String jitterStr = System.getProperty(
+                "faban.link.jitterDistribution", "normal").toUpperCase();
+        try {
+            return Jitter.valueOf(jitterStr);
+        } catch (IllegalArgumentException e) {
+            Logger.getLogger(Throttle.class.getName()).warning(
+                    "faban.link.jitterDistribution must be uniform, normal, " +
+                    "or exponential. Using normal.");
+            return Jitter.NORMAL;
+        }
+    }
+
     /**
-     * Checks whether the bandwidth is throttled for the given direction
+     * Sets the bandwidth of the link shared by all users in this agent.
+     * @param direction The direction, up or down
+     * @param kbps The speed in kilobytes per second, or < 0 for unlimited
+     */
+    public static synchronized void setAggregateSpeed(int direction,
+                                                      int kbps) {
+        double[] nanoPerByte = linkNanoPerByte.clone();
+        nanoPerByte[direction] = calcLinkNanoPerByte(kbps);
+        linkNanoPerByte = nanoPerByte;
+    }
+
+    /**
+     * Checks whether the bandwidth is throttled or the link is emulated
+     * for the given direction.
      * @param direction The direction to check
      * @return Whether the bandwidth is throttled
      */
 	public boolean isThrottled(int direction) {
-		return lastSpeed[direction] > 0;
+        checkForChange(direction);
+		return lastSpeed[direction] > 0 || linkNanoPerByte[direction] > 0d ||
+                rtt > 0l || loss > 0d || awaitingResponse;
 	}
 
     /**
@@ -75,16 +200,97 @@ public class Throttle {
      */
 	public void throttle(int bytes, long startTime, int direction) {
 		checkForChange(direction);
-		double expectedTime = bytes * desiredNanoPerByte[direction];
-        long wakeupTime = startTime + (long) expectedTime +
-                        pendingNanoSleep[direction];
+        boolean metered = lastSpeed[direction] > 0;
+        long wakeupTime = startTime;
+        if (metered) {
+		    double expectedTime = bytes * desiredNanoPerByte[direction];
+            wakeupTime += (long) expectedTime + pendingNanoSleep[direction];
+        }
+        long linkTime = schedule(bytes, startTime, direction);
+        if (linkTime > wakeupTime)
+            wakeupTime = linkTime;
+        if (direction == UP) {
+            awaitingResponse = true;
+        } else if (awaitingResponse) {
+            // The first response data only gets here a round trip later.
+            awaitingResponse = false;
+            wakeupTime = Math.max(wakeupTime, System.nanoTime()) + delay();
+        }
+        if (loss > 0d && lost(bytes))
+            wakeupTime += Math.max(MIN_RTO, rtt + 4 * jitter);
         ctx.wakeupAt(wakeupTime);
         // If slept too long, the pendingNanoSleep will go negative.
         // If it wakes up too early, the pendingNanoSleep will go positive
         // needing to add a little more delay to the subsequent sleep.
-        pendingNanoSleep[direction] = wakeupTime - System.nanoTime();
+        if (metered)
+            pendingNanoSleep[direction] = wakeupTime - System.nanoTime();
 	}
 
+    /**
+     * Emulates the round trip of the TCP connection setup. This is called
+     * right after the connection got established.
+     */
+    public void connect() {
+        checkForChange(DOWN);
+        awaitingResponse = false;
+        if (rtt <= 0l && loss <= 0d)
+            return;
+        long wakeupTime = System.nanoTime() + delay();
+        if (loss > 0d && lost(1))
+            wakeupTime += SYN_RTO;
+        ctx.wakeupAt(wakeupTime);
+    }
+
+    /**
+     * Reserves the time slot for the transfer on the shared link.
+     * @return The end of the time slot, or 0 if the link is not capped
+     */
+    private static long schedule(int bytes, long startTime, int direction) {
+        double nanoPerByte = linkNanoPerByte[direction];
+        if (nanoPerByte <= 0d)
+            return 0l;
+        long cost = (long) (bytes * nanoPerByte);
+        AtomicLong free = linkFree[direction];
+        long freeAt, endTime;
+        do {
+            freeAt = free.get();
+            endTime = Math.max(freeAt, startTime) + cost;
+        } while (!free.compareAndSet(freeAt, endTime));
+        return endTime;
+    }
+
+    /**
+     * Calculates the round trip delay including jitter.
+     * @return The delay in ns
+     */
+    private long delay() {
+        if (jitter <= 0l)
+            return rtt;
+        double deviation;
+        switch (jitterDistribution) {
+            case UNIFORM :
+                deviation = (2d * random.nextDouble() - 1d) * jitter;
+                break;
+            case EXPONENTIAL :
+                deviation = -Math.log(1d - random.nextDouble()) * jitter;
+                break;
+            default :
+                deviation = random.nextGaussian() * jitter;
+        }
+        long delay = rtt + (long) deviation;
+        return delay < 0l ? 0l : delay;
+    }
+
+    /**
+     * Decides whether any of the packets carrying the data got lost.
+     * @param bytes The size of the data
+     * @return Whether a packet got lost
+     */
+    private boolean lost(int bytes) {
+        int packets = (bytes + MSS - 1) / MSS;
+        return random.nextDouble() < 1d - Math.pow(1d - loss, packets);
+    }
+
 	private void checkForChange(int direction) {
         int last;
 	    if (direction == UP)
@@ -96,9 +302,21 @@ public class Throttle {
             desiredNanoPerByte[direction] = calcNanoPerByte(last);
             lastSpeed[direction] = last;
         }
+
+        int latency = ctx.getLatency();
+        rtt = (latency < 0 ? defaultRtt : latency) * 1000000l;
+        int jitterMillis = ctx.getJitter();
+        jitter = (jitterMillis < 0 ? defaultJitter : jitterMillis) * 1000000l;
+        double packetLoss = ctx.getPacketLoss();
+        loss = packetLoss < 0d ? defaultLoss : packetLoss;
 	}
 
-	private double calcNanoPerByte(int kbps) {
+    private static double calcLinkNanoPerByte(int kbps) {
+        // Zero would mean a dead link. We treat it as unlimited.
+        return kbps > 0 ? calcNanoPerByte(kbps) : -1d;
+    }
+
+	private static double calcNanoPerByte(int kbps) {
         /*  
          * Convert the given unit (kilobytes per second) to
          * the amount of time (in nanoseconds) it takes to
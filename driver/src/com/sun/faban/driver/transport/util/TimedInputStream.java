@@ -78,7 +78,21 @@ public class TimedInputStream extends FilterInputStream {
         super(in);
         ctx = DriverContext.getContext();
         if (ctx != null)
-            throttle = new Throttle(ctx);
+            throttle = ctx.getThrottle();
+    }
+
+    /**
+     * Binds this stream to the driver context of the calling thread.
+     * Pooled connections are used by different threads over their
+     * lifetime so the context captured at construction may no longer
+     * be the one doing the I/O.
+     */
+    private void bind() {
+        DriverContext current = DriverContext.getContext();
+        if (current != ctx) {
+            ctx = current;
+            throttle = current == null ? null : current.getThrottle();
+        }
     }
 
     /**
@@ -100,6 +114,7 @@ public class TimedInputStream extends FilterInputStream {
      */
     @Override
 	public int read() throws IOException {
+        bind();
         long startReadAt = 0L;
         boolean isThrottled = false;
         if (ctx != null) {
@@ -109,9 +124,10 @@ public class TimedInputStream extends FilterInputStream {
         }
         int b = super.read();
         if (ctx != null && b != -1) {
-            ctx.recordEndTime();
+            // Throttle first so the emulated delay counts as response time.
 			if (isThrottled)
 	    		throttle.throttle(1, startReadAt, Throttle.DOWN);
+            ctx.recordEndTime();
         }
         return b;
     }
@@ -161,6 +177,7 @@ public class TimedInputStream extends FilterInputStream {
      */
     @Override
 	public int read(byte b[], int off, int len) throws IOException {
+        bind();
         long startReadAt = 0L;
         boolean isThrottled = false;
         if (ctx != null) {
@@ -171,9 +188,10 @@ public class TimedInputStream extends FilterInputStream {
         }
         int bytes = super.read(b, off, len);
         if (ctx != null && bytes > 0) {
-            ctx.recordEndTime();
+            // Throttle first so the emulated delay counts as response time.
             if (isThrottled)
                 throttle.throttle(bytes, startReadAt, Throttle.DOWN);
+            ctx.recordEndTime();
         }
         return bytes;
     }
@@ -53,7 +53,21 @@ public class TimedOutputStream extends FilterOutputStream {
         super(out);
         ctx = DriverContext.getContext();
         if (ctx != null)
-            throttle = new Throttle(ctx);
+            throttle = ctx.getThrottle();
+    }
+
+    /**
+     * Binds this stream to the driver context of the calling thread.
+     * Pooled connections are used by different threads over their
+     * lifetime so the context captured at construction may no longer
+     * be the one doing the I/O.
+     */
+    private void bind() {
+        DriverContext current = DriverContext.getContext();
+        if (current != ctx) {
+            ctx = current;
+            throttle = current == null ? null : current.getThrottle();
+        }
     }
 
     /**
@@ -70,6 +84,7 @@ public class TimedOutputStream extends FilterOutputStream {
      */
     @Override
 	public void write(int b) throws IOException {
+        bind();
         long startWriteAt = 0L;
         boolean isThrottled = false;
         if (ctx != null) {
@@ -119,6 +134,7 @@ public class TimedOutputStream extends FilterOutputStream {
      */
     @Override
     public void write(byte b[], int off, int len) throws IOException {
+        bind();
         long startWriteAt = 0L;
         boolean isThrottled = false;
         if (ctx != null && b.length > 0 && len > 0) {
@@ -202,7 +202,13 @@ public class TimedSocket extends Socket {
      * @see SecurityManager#checkConnect
      */
     public TimedSocket(String host, int port) throws UnknownHostException, IOException {
-        super(host, port);
+        super();
+        try {
+            connect(lookup(host, port));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
     }
 
     /**
@@ -231,7 +237,39 @@ public class TimedSocket extends Socket {
      * @since JDK1.1
      */
     public TimedSocket(String host, int port, InetAddress localAddr, int localPort) throws IOException {
-        super(host, port, localAddr, localPort);
+        super();
+        try {
+            bind(new InetSocketAddress(localAddr, localPort));
+            connect(lookup(host, port));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Resolves the host name into a socket address and records the time
+     * taken for the lookup into the driver context. Like the InetSocketAddress
+     * constructor, an unresolvable host results in an unresolved address
+     * which fails at connect time.
+     *
+     * @param host the host name, or <code>null</code> for the loopback address.
+     * @param port the port number.
+     * @return The socket address
+     * @throws UnknownHostException Should never happen, but if the
+     *                              loopback address cannot be determined
+     */
+    public static InetSocketAddress lookup(String host, int port)
+            throws UnknownHostException {
+        if (host == null)
+            return new InetSocketAddress(InetAddress.getByName(null), port);
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx == null)
+            return new InetSocketAddress(host, port);
+        long start = System.nanoTime();
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        ctx.recordLookupTime(start, System.nanoTime());
+        return address;
     }
 
     /**
@@ -289,7 +327,14 @@ public class TimedSocket extends Socket {
             ctx.recordStartTime();
         if (timeout <= 0)
             timeout = 30000; // 30 second connect timeout.
+        long connectStart = System.nanoTime();
         super.connect(endpoint, timeout);
+        if (ctx != null)
+            ctx.getThrottle().connect();
+        long connectEnd = System.nanoTime();
+        ConnectionStats.recordConnect(connectStart, connectEnd);
+        if (ctx != null)
+            ctx.recordConnectTime(connectStart, connectEnd);
         setSoTimeout(30000); // 30 second socket read timeout.
     }
 
@@ -762,7 +762,14 @@ public class TimedSocketWrapper extends Socket {
             ctx.recordStartTime();
         if (timeout <= 0)
             timeout = 30000; // 30 second connect timeout.
+        long connectStart = System.nanoTime();
         delegate.connect(endpoint, timeout);
+        if (ctx != null)
+            ctx.getThrottle().connect();
+        long connectEnd = System.nanoTime();
+        ConnectionStats.recordConnect(connectStart, connectEnd);
+        if (ctx != null)
+            ctx.recordConnectTime(connectStart, connectEnd);
         delegate.setSoTimeout(30000); // 30 second socket read timeout.
     }
 
@@ -0,0 +1,531 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * DataFeeder feeds rows of test data, such as user ids, product ids, or
+ * search terms, to the driver. The data file is memory mapped once per
+ * JVM and shared by all users, so large data sets neither get loaded into
+ * the heap nor duplicated for each user. Each user obtains its own feeder
+ * from DriverContext.getDataFeeder and moves through the rows with
+ * {@link #next()} using one of the access modes:<ul>
+ * <li>UNIQUE: The rows are partitioned across all users of all agents.
+ *     Each row is fed exactly once in the whole run. next() returns false
+ *     once the partition of the user is used up.</li>
+ * <li>SEQUENTIAL: Like UNIQUE, but each user wraps around to the start of
+ *     its partition when it reaches the end.</li>
+ * <li>RANDOM: Rows are picked from the whole data set at random.</li>
+ * <li>ZIPFIAN: Rows are picked from the whole data set following a zipfian
+ *     distribution. The first rows in the file are the most popular.</li>
+ * </ul>
+ * Data files are either text files with one row per line and fields
+ * separated by commas, or binary files with fixed length records. A first
+ * line of a text file starting with '#' is taken as header and skipped.
+ * Fields are not quoted and cannot contain commas or line breaks.<p>
+ * The row accessors read straight from the mapping and do not allocate,
+ * except for the getString convenience method. A feeder is not thread
+ * safe and is meant to be used by its user only.
+ */
+public class DataFeeder {
+
+    /** The access modes. */
+    public enum Access {
+        /** Each row fed once, partitioned across users. */
+        UNIQUE,
+        /** Rows fed in order, partitioned across users, wrapping around. */
+        SEQUENTIAL,
+        /** Rows picked at random. */
+        RANDOM,
+        /** Rows picked following a zipfian distribution. */
+        ZIPFIAN
+    }
+
+    /** The skew of the zipfian distribution. */
+    static final double ZIPF_THETA = 0.99d;
+
+    private static final long SEGMENT_SIZE = 1l << 30;
+
+    /** Only every INDEX_STRIDE'th row offset of a text file is indexed. */
+    private static final int INDEX_STRIDE = 16;
+
+    /** The run the open data files belong to, guarded by files. */
+    private static Object run;
+
+    private static HashMap<String, Data> files = new HashMap<String, Data>();
+
+    private Data data;
+    private Access access;
+    private Random random;
+
+    /** The partition of the user, for UNIQUE and SEQUENTIAL access. */
+    private long first;
+    private long end;
+    private long cursor;
+
+    /** The current row and its bounds in the file. */
+    private long row = -1l;
+    private long rowStart;
+    private long rowEnd;
+
+    /** Field start positions, the last entry is past the last field. */
+    private long[] bounds = new long[16];
+    private int fieldCount = -1;
+
+    private DataFeeder(Data data, Access access, int users, int user,
+                       Random random) {
+        this.data = data;
+        this.access = access;
+        this.random = random;
+        first = data.rows * user / users;
+        end = data.rows * (user + 1) / users;
+        if (first == end && access == Access.SEQUENTIAL &&
+                data.rows > 0) {
+            // More users than rows, share the rows.
+            first = user % data.rows;
+            end = first + 1;
+        }
+        cursor = first;
+    }
+
+    /**
+     * Obtains a feeder for a user, opening the data file if not yet open
+     * for the run. Data files of previous runs get released when a new run
+     * opens its data.
+     * @param file The data file
+     * @param recordLength The record length of binary files, or 0 for text
+     * @param access The access mode
+     * @param run The run, only compared by identity
+     * @param users The total number of users in the run
+     * @param user The user
+     * @param random The random value generator of the user
+     * @return The feeder
+     * @throws IOException Error opening the data file
+     */
+    public static DataFeeder getInstance(File file, int recordLength,
+                                         Access access, Object run,
+                                         int users, int user, Random random)
+            throws IOException {
+        String key = file.getCanonicalPath() + ':' + recordLength;
+        Data data;
+        synchronized (files) {
+            if (DataFeeder.run != run) {
+                files.clear();
+                DataFeeder.run = run;
+            }
+            data = files.get(key);
+            if (data == null) {
+                data = new Data(file, recordLength);
+                files.put(key, data);
+            }
+        }
+        return new DataFeeder(data, access, users, user, random);
+    }
+
+    /**
+     * Moves to the next row.
+     * @return true if there is a row, false if the data is used up
+     */
+    public boolean next() {
+        long next;
+        switch (access) {
+            case UNIQUE:
+                if (cursor >= end)
+                    return false;
+                next = cursor++;
+                break;
+            case SEQUENTIAL:
+                if (first == end)
+                    return false;
+                if (cursor >= end)
+                    cursor = first;
+                next = cursor++;
+                break;
+            case RANDOM:
+                if (data.rows == 0)
+                    return false;
+                next = random.lrandom(0l, data.rows - 1);
+                break;
+            default:
+                if (data.rows == 0)
+                    return false;
+                next = data.zipf(random.drandom(0d, 1d));
+        }
+        if (next == row + 1 && row >= 0 && data.recordLength == 0)
+            rowStart = data.skipLine(rowEnd); // Saves the index lookup.
+        else
+            rowStart = data.rowStart(next);
+        rowEnd = data.rowEnd(rowStart);
+        row = next;
+        fieldCount = -1;
+        return true;
+    }
+
+    /**
+     * Obtains the number of rows in the data file.
+     * @return The row count
+     */
+    public long getRowCount() {
+        return data.rows;
+    }
+
+    /**
+     * Obtains the number of the current row, starting from 0.
+     * @return The row number, or -1 before the first call to next()
+     */
+    public long getRow() {
+        return row;
+    }
+
+    /**
+     * Obtains the length of the current row, without the line break.
+     * @return The row length in bytes
+     */
+    public int getRowLength() {
+        return (int) (rowEnd - rowStart);
+    }
+
+    /**
+     * Obtains the number of fields in the current row of a text file.
+     * @return The field count
+     */
+    public int getFieldCount() {
+        if (fieldCount < 0)
+            parseFields();
+        return fieldCount;
+    }
+
+    private void parseFields() {
+        int count = 0;
+        bounds[0] = rowStart;
+        for (long pos = rowStart; pos < rowEnd; pos++)
+            if (data.byteAt(pos) == ',') {
+                if (++count + 1 >= bounds.length) {
+                    long[] b = new long[bounds.length * 2];
+                    System.arraycopy(bounds, 0, b, 0, bounds.length);
+                    bounds = b;
+                }
+                bounds[count] = pos + 1;
+            }
+        bounds[++count] = rowEnd + 1;
+        fieldCount = count;
+    }
+
+    private long fieldStart(int field) {
+        if (fieldCount < 0)
+            parseFields();
+        if (field < 0 || field >= fieldCount)
+            throw new IndexOutOfBoundsException("Field " + field +
+                    " not in row " + row + " of " + fieldCount + " fields");
+        return bounds[field];
+    }
+
+    /**
+     * Obtains the length of a field in the current row.
+     * @param field The field index, starting from 0
+     * @return The field length in bytes
+     */
+    public int getFieldLength(int field) {
+        long start = fieldStart(field);
+        return (int) (bounds[field + 1] - 1 - start);
+    }
+
+    /**
+     * Parses a field of the current row as int.
+     * @param field The field index, starting from 0
+     * @return The value
+     * @throws NumberFormatException The field is not a number
+     */
+    public int getInt(int field) {
+        long value = getLong(field);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new NumberFormatException("Field " + field + " of row " +
+                    row + " out of int range");
+        return (int) value;
+    }
+
+    /**
+     * Parses a field of the current row as long.
+     * @param field The field index, starting from 0
+     * @return The value
+     * @throws NumberFormatException The field is not a number
+     */
+    public long getLong(int field) {
+        long pos = fieldStart(field);
+        long limit = bounds[field + 1] - 1;
+        while (pos < limit && data.byteAt(pos) == ' ')
+            ++pos;
+        while (limit > pos && data.byteAt(limit - 1) == ' ')
+            --limit;
+        boolean negative = false;
+        if (pos < limit && data.byteAt(pos) == '-') {
+            negative = true;
+            ++pos;
+        }
+        if (pos == limit)
+            throw new NumberFormatException("Field " + field + " of row " +
+                    row + " is not a number");
+        long value = 0l;
+        for (; pos < limit; pos++) {
+            int digit = data.byteAt(pos) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Field " + field +
+                        " of row " + row + " is not a number");
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Copies a field of the current row into a byte array. At most the
+     * remaining space of the array is copied.
+     * @param field The field index, starting from 0
+     * @param buffer The target array
+     * @param offset The offset in the array
+     * @return The number of bytes copied
+     */
+    public int getBytes(int field, byte[] buffer, int offset) {
+        long pos = fieldStart(field);
+        int length = Math.min(getFieldLength(field), buffer.length - offset);
+        for (int i = 0; i < length; i++)
+            buffer[offset + i] = data.byteAt(pos + i);
+        return length;
+    }
+
+    /**
+     * Appends a field of the current row to a StringBuilder. Each byte is
+     * appended as one character, so this is for ASCII or ISO-8859-1 data.
+     * Use getBytes for other encodings.
+     * @param field The field index, starting from 0
+     * @param buffer The buffer to append to
+     * @return The buffer
+     */
+    public StringBuilder appendField(int field, StringBuilder buffer) {
+        long pos = fieldStart(field);
+        long limit = bounds[field + 1] - 1;
+        for (; pos < limit; pos++)
+            buffer.append((char) (data.byteAt(pos) & 0xff));
+        return buffer;
+    }
+
+    /**
+     * Obtains a field of the current row as UTF-8 string. Unlike the other
+     * accessors, this method allocates.
+     * @param field The field index, starting from 0
+     * @return The field value
+     */
+    public String getString(int field) {
+        byte[] b = new byte[getFieldLength(field)];
+        getBytes(field, b, 0);
+        try {
+            return new String(b, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // UTF-8 is always supported.
+        }
+    }
+
+    /**
+     * Reads a big-endian int from the current row or record.
+     * @param offset The offset in the row
+     * @return The value
+     */
+    public int readInt(int offset) {
+        long pos = checkRange(offset, 4);
+        return (data.byteAt(pos) & 0xff) << 24 |
+               (data.byteAt(pos + 1) & 0xff) << 16 |
+               (data.byteAt(pos + 2) & 0xff) << 8 |
+               (data.byteAt(pos + 3) & 0xff);
+    }
+
+    /**
+     * Reads a big-endian long from the current row or record.
+     * @param offset The offset in the row
+     * @return The value
+     */
+    public long readLong(int offset) {
+        return ((long) readInt(offset)) << 32 |
+               (readInt(offset + 4) & 0xffffffffl);
+    }
+
+    /**
+     * Copies bytes from the current row or record into a byte array.
+     * @param offset The offset in the row
+     * @param buffer The target array
+     * @param bufferOffset The offset in the array
+     * @param length The number of bytes to copy
+     */
+    public void readBytes(int offset, byte[] buffer, int bufferOffset,
+                          int length) {
+        long pos = checkRange(offset, length);
+        for (int i = 0; i < length; i++)
+            buffer[bufferOffset + i] = data.byteAt(pos + i);
+    }
+
+    private long checkRange(int offset, int length) {
+        if (row < 0)
+            throw new IllegalStateException("No current row");
+        if (offset < 0 || offset + length > rowEnd - rowStart)
+            throw new IndexOutOfBoundsException("Range " + offset + '+' +
+                    length + " outside row of " + (rowEnd - rowStart) +
+                    " bytes");
+        return rowStart + offset;
+    }
+
+    /** The mapped data file, shared by all feeders. */
+    static class Data {
+
+        MappedByteBuffer[] segments;
+        long size;
+        int recordLength;
+        long rows;
+
+        /** Sparse row index of a text file, every INDEX_STRIDE'th row. */
+        long[] index;
+
+        /** The zipfian constants. */
+        double zetan;
+        double zeta2;
+        double alpha;
+        double eta;
+
+        Data(File file, int recordLength) throws IOException {
+            this.recordLength = recordLength;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                size = channel.size();
+                segments = new MappedByteBuffer[
+                        (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+                for (int i = 0; i < segments.length; i++) {
+                    long start = i * SEGMENT_SIZE;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            start, Math.min(SEGMENT_SIZE, size - start));
+                }
+            } finally {
+                raf.close(); // The mappings stay valid.
+            }
+            if (recordLength > 0)
+                rows = size / recordLength;
+            else
+                buildIndex();
+            initZipf();
+        }
+
+        private void buildIndex() {
+            long pos = 0l;
+            if (size > 0 && byteAt(0) == '#')
+                pos = skipLine(0l);
+            long[] idx = new long[1024];
+            long count = 0l;
+            while (pos < size) {
+                if (count % INDEX_STRIDE == 0) {
+                    int slot = (int) (count / INDEX_STRIDE);
+                    if (slot == idx.length) {
+                        long[] i = new long[idx.length * 2];
+                        System.arraycopy(idx, 0, i, 0, idx.length);
+                        idx = i;
+                    }
+                    idx[slot] = pos;
+                }
+                ++count;
+                pos = skipLine(pos);
+            }
+            rows = count;
+            index = new long[(int) ((count + INDEX_STRIDE - 1) /
+                                    INDEX_STRIDE)];
+            System.arraycopy(idx, 0, index, 0, index.length);
+        }
+
+        /**
+         * Computes the constants of the zipfian generator after Gray et al.,
+         * Quickly Generating Billion-Record Synthetic Databases. The zeta
+         * sum is exact for the first 10000 terms and approximated by its
+         * integral beyond, so large data sets open quickly.
+         */
+        private void initZipf() {
+            long exact = Math.min(rows, 10000l);
+            for (long i = 1; i <= exact; i++)
+                zetan += 1d / Math.pow(i, ZIPF_THETA);
+            if (rows > exact)
+                zetan += (Math.pow(rows + 0.5d, 1d - ZIPF_THETA) -
+                          Math.pow(exact + 0.5d, 1d - ZIPF_THETA)) /
+                         (1d - ZIPF_THETA);
+            zeta2 = 1d + 1d / Math.pow(2d, ZIPF_THETA);
+            alpha = 1d / (1d - ZIPF_THETA);
+            eta = (1d - Math.pow(2d / rows, 1d - ZIPF_THETA)) /
+                  (1d - zeta2 / zetan);
+        }
+
+        /** Maps a uniform random value from 0 to 1 to a zipfian row. */
+        long zipf(double u) {
+            double uz = u * zetan;
+            if (uz < 1d || rows == 1)
+                return 0l;
+            if (uz < 1d + Math.pow(0.5d, ZIPF_THETA))
+                return 1l;
+            long r = (long) (rows * Math.pow(eta * u - eta + 1d, alpha));
+            return r < rows ? r : rows - 1;
+        }
+
+        byte byteAt(long pos) {
+            return segments[(int) (pos / SEGMENT_SIZE)].get(
+                    (int) (pos % SEGMENT_SIZE));
+        }
+
+        /** Obtains the position after the line break of a line. */
+        long skipLine(long pos) {
+            while (pos < size && byteAt(pos) != '\n')
+                ++pos;
+            return pos + 1;
+        }
+
+        long rowStart(long row) {
+            if (recordLength > 0)
+                return row * recordLength;
+            long pos = index[(int) (row / INDEX_STRIDE)];
+            for (long i = row % INDEX_STRIDE; i > 0; i--)
+                pos = skipLine(pos);
+            return pos;
+        }
+
+        /** Obtains the end of a row, excluding the line break. */
+        long rowEnd(long start) {
+            if (recordLength > 0)
+                return start + recordLength;
+            long pos = start;
+            while (pos < size && byteAt(pos) != '\n')
+                ++pos;
+            if (pos > start && byteAt(pos - 1) == '\r')
+                --pos;
+            return pos;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.CustomMetrics;
+import com.sun.faban.driver.DriverContext;
+import com.sun.faban.driver.Result;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The DriverCpuStats collects the CPU time the driver threads spend per
+ * request in steady state. The driver calls record() at the end of each
+ * operation. The CPU time of the thread between two consecutive steady
+ * state operations gets accounted to the later one. This covers the whole
+ * cycle including the transport, the driver code, and the engine
+ * overhead between operations, but not the CPU used by other threads of
+ * the agent. It is used by the FabanHTTPBench to size agent systems and
+ * to compare the overhead of the transport providers. If the JVM does not
+ * support thread CPU time, no statistics are reported.
+ */
+public class DriverCpuStats implements CustomMetrics {
+
+    private static final long serialVersionUID = 1l;
+
+    private static ThreadMXBean threadBean =
+            ManagementFactory.getThreadMXBean();
+
+    private transient DriverContext ctx;
+    private transient long lastCpuTime = -1l;
+
+    /** The thread CPU time accounted to the requests, in ns. */
+    private long cpuTime;
+
+    /** The number of requests the CPU time is accounted to. */
+    private int count;
+
+    /**
+     * Constructs the DriverCpuStats for the calling driver thread.
+     */
+    public DriverCpuStats() {
+        ctx = DriverContext.getContext();
+        if (threadBean.isCurrentThreadCpuTimeSupported() &&
+                !threadBean.isThreadCpuTimeEnabled())
+            threadBean.setThreadCpuTimeEnabled(true);
+    }
+
+    /**
+     * Records the end of an operation. Must be called from the driver
+     * thread.
+     */
+    public void record() {
+        if (!ctx.isTxSteadyState()) {
+            lastCpuTime = -1l;
+            return;
+        }
+        long now = threadBean.getCurrentThreadCpuTime();
+        if (now < 0l)
+            return;
+        if (lastCpuTime >= 0l) {
+            cpuTime += now - lastCpuTime;
+            ++count;
+        }
+        lastCpuTime = now;
+    }
+
+    /**
+     * Aggregates the DriverCpuStats from another source or thread with
+     * the current one.
+     * @param other The stats from another source
+     */
+    public void add(CustomMetrics other) {
+        DriverCpuStats o = (DriverCpuStats) other;
+        cpuTime += o.cpuTime;
+        count += o.count;
+    }
+
+    /**
+     * The metrics need to be cloneable and not throw any exceptions.
+     * @return The DriverCpuStats clone
+     */
+    public Object clone() {
+        DriverCpuStats o = new DriverCpuStats();
+        o.cpuTime = cpuTime;
+        o.count = count;
+        return o;
+    }
+
+    /**
+     * Obtains the results of this DriverCpuStats as to be reported.
+     * @return The result elements for each metric.
+     */
+    public Element[] getResults() {
+        if (count == 0)
+            return new Element[0];
+        Element[] e = new Element[2];
+        e[0] = new Element();
+        e[0].description = "Driver CPU per request (us)";
+        e[0].result = String.format("%.2f", cpuTime / (count * 1000d));
+        e[1] = new Element();
+        e[1].description = "Driver CPU utilization (cores)";
+        e[1].result = String.format("%.3f", cpuTime /
+                (Result.getInstance().getSteadyState() * 1e9d));
+        return e;
+    }
+}
@@ -25,8 +25,12 @@ package com.sun.faban.driver.util;
 
 import com.sun.faban.driver.engine.RunInfo;
 import com.sun.faban.driver.ConfigurationException;
+import com.sun.faban.common.Command;
+import com.sun.faban.common.CommandHandle;
 import com.sun.faban.common.TextTable;
 import com.sun.faban.common.ParamReader;
+import com.sun.faban.common.Registry;
+import com.sun.faban.common.RegistryLocator;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -48,12 +52,21 @@ import javax.xml.xpath.XPathFactory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.ServerSocket;
 import java.net.URL;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is the "common driver" for simple HTTP benchmarking. It allows a
@@ -72,15 +85,44 @@ import java.util.StringTokenizer;
  *
  * The above command runs 500 simlutaneous connections to PingServlet, which
  * served 7169 operations per second with an average time of 0.21 seconds.
+ * <p>
+ * For high request rates, the fhb can also drive a target request rate
+ * instead of a fixed think time, spread a weighted list of URLs over the
+ * operations, and split the load over multiple agent JVMs on the local
+ * system: e.g
+ *
+ * <pre>
+ * %java [jvmargs] com.sun.faban.driver.util.FabanHTTPBench -c 200 -R 20000 -d 60 -a 4 -u urls.txt
+ * </pre>
+ *
+ * The above command runs 200 connections from 4 agent JVMs for 60 seconds
+ * at a target of 20000 requests per second. Each line in urls.txt contains
+ * a URL, optionally preceded by its relative weight in the mix. In this
+ * mode, the response time percentiles up to the 99.99th are reported in
+ * milliseconds, together with the throughput for each second of the run.
+ * <p>
+ * To find out how much load a driver system can generate, the fhb can run
+ * against an embedded stub server that is never the bottleneck. The
+ * driver CPU time per request is reported for each run. Compare the
+ * transport providers by setting the fhb.http.provider system property
+ * to sun or apache3: e.g
+ *
+ * <pre>
+ * %java -Dfhb.http.provider=sun com.sun.faban.driver.util.FabanHTTPBench -c 50 -d 60 -L 1024
+ * </pre>
+ *
+ * The above command runs 50 connections for 60 seconds against a stub
+ * server responding with 1024 bytes without delay.
  *
  * @author Scott Oaks
  */
 public class FabanHTTPBench {
 
-    // TODO: For real scaling, we need multiple agents on multiple machines.
-    // Faban handles that quite well, but can we make a standalone program for
-    // that? For more sophisticated (i.e., *real*) benchmarking, people should
-    // just use Faban directly.
+    // TODO: The -a option only starts agents on the local system. For real
+    // scaling, we need multiple agents on multiple machines. Faban handles
+    // that quite well, but can we make a standalone program for that? For
+    // more sophisticated (i.e., *real*) benchmarking, people should just use
+    // Faban directly.
 
     private static int numThreads = 1;
     private static String rampUp = "300";
@@ -88,7 +130,8 @@ public class FabanHTTPBench {
     private static String steadyState = "300";
     private static double ninetyPct = 1.0;
     private static boolean postRequest = false;
-    private static String path;
+    private static ArrayList<Target> targets = new ArrayList<Target>();
+    private static String urlFile;
     private static String queryString;
     private static String outputDirectory;
     private static String runXmlFileName;
@@ -98,8 +141,24 @@ public class FabanHTTPBench {
     private static String accept = null;
     private static boolean isBinary = false;
     private static String thinkTime = "0";
+    private static double rate = 0d;
+    private static int cycleMean = 0;
+    private static boolean rampSet = false;
+    private static int agents = 1;
+    private static String driverName = "http_driver1";
+    private static CommandHandle registryHandle;
+    private static ArrayList<CommandHandle> agentHandles =
+                                            new ArrayList<CommandHandle>();
+    private static StubServer stubServer;
     private static final int CYCLE_DEVIATION = 1;
 
+    /** The percentiles reported by the generated driver. */
+    private static final String PERCENTILES =
+                                    "50th, 90th, 95th, 99th, 99.9th, 99.99th";
+
+    /** The time to wait for the agent JVMs to register, in ms. */
+    private static final long AGENT_TIMEOUT = 60000l;
+
     private static final String DEFAULT_OUTPUT_DIR = defaultOutput();
 
     private static String defaultOutput() {
@@ -128,6 +187,9 @@ public class FabanHTTPBench {
             }
    
             saveRunXml(doc);
+
+            if (agents > 1)
+                startAgents(doc);
    
             run();
             reportResults();
@@ -190,82 +252,130 @@ public class FabanHTTPBench {
         ts.appendChild(tmp);
         root.appendChild(ts);
 
+        // Report the throughput graphs per second.
+        Element stats = doc.createElementNS(RunInfo.DRIVERURI, "stats");
+        stats.setPrefix("");
+        tmp = doc.createElementNS(RunInfo.DRIVERURI, "interval");
+        tmp.setPrefix("");
+        tmp.appendChild(doc.createTextNode("1"));
+        stats.appendChild(tmp);
+        root.appendChild(stats);
+
         Element dc = doc.createElementNS(RunInfo.DRIVERURI, "driverConfig");
         dc.setPrefix("");
-        dc.setAttributeNS(null, "name", "http_driver1");
+        dc.setAttributeNS(null, "name", driverName);
+        tmp = doc.createElementNS(RunInfo.DRIVERURI, "agents");
+        tmp.setPrefix("");
+        tmp.appendChild(doc.createTextNode("" + agents));
+        dc.appendChild(tmp);
         tmp = doc.createElementNS(RunInfo.DRIVERURI, "threads");
         tmp.setPrefix("");
         tmp.appendChild(doc.createTextNode("" + numThreads));
         dc.appendChild(tmp);
-        Element rlt = doc.createElementNS(RunInfo.DRIVERURI, "requestLagTime");
-        rlt.setPrefix("");
-        Element u = doc.createElementNS(RunInfo.DRIVERURI, "uniform");
-        u.setPrefix("");
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleType");
-        tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode("thinktime"));
-        u.appendChild(tmp);
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleMin");
+        tmp = doc.createElementNS(RunInfo.DRIVERURI, "percentiles");
         tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode(thinkTime));
-        u.appendChild(tmp);
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleMax");
+        tmp.appendChild(doc.createTextNode(PERCENTILES));
+        dc.appendChild(tmp);
+        tmp = doc.createElementNS(RunInfo.DRIVERURI, "responseTimeUnit");
         tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode(thinkTime));
-        u.appendChild(tmp);
+        tmp.appendChild(doc.createTextNode("MILLISECONDS"));
+        dc.appendChild(tmp);
+        Element rlt = doc.createElementNS(RunInfo.DRIVERURI, "requestLagTime");
+        rlt.setPrefix("");
+        Element u;
+        if (rate > 0d) {
+            // Each connection issues requests at negative exponentially
+            // distributed intervals, measured from the start of the previous
+            // request. Together this gives a Poisson arrival at the
+            // target rate as long as the responses keep up.
+            u = doc.createElementNS(RunInfo.DRIVERURI, "negativeExponential");
+            u.setPrefix("");
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleType");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode("cycletime"));
+            u.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleMean");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode("" + cycleMean));
+            u.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleMax");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode("" + cycleMean * 5));
+            u.appendChild(tmp);
+        } else {
+            u = doc.createElementNS(RunInfo.DRIVERURI, "uniform");
+            u.setPrefix("");
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleType");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode("thinktime"));
+            u.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleMin");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode(thinkTime));
+            u.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleMax");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode(thinkTime));
+            u.appendChild(tmp);
+        }
         tmp = doc.createElementNS(RunInfo.DRIVERURI, "cycleDeviation");
         tmp.setPrefix("");
         tmp.appendChild(doc.createTextNode("" + CYCLE_DEVIATION));
         u.appendChild(tmp);
         rlt.appendChild(u);
         dc.appendChild(rlt);
-        Element op = doc.createElementNS(RunInfo.DRIVERURI, "operation");
-        op.setPrefix("");
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "name");
-        tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode("test"));
-        op.appendChild(tmp);
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "url");
-        tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode(path));
-        op.appendChild(tmp);
-		tmp = doc.createElementNS(RunInfo.DRIVERURI, "kbps");
-		tmp.setPrefix("");
-		tmp.appendChild(doc.createTextNode(kbps));
-		op.appendChild(tmp);
-        if (accept != null) { 
-            tmp = doc.createElementNS(RunInfo.DRIVERURI, "accept");
+        for (Target target : targets) {
+            Element op = doc.createElementNS(RunInfo.DRIVERURI, "operation");
+            op.setPrefix("");
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "name");
             tmp.setPrefix("");
-            tmp.appendChild(doc.createTextNode(accept));
+            tmp.appendChild(doc.createTextNode(target.name));
             op.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "url");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode(target.path));
+            op.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "kbps");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode(kbps));
+            op.appendChild(tmp);
+            if (accept != null) {
+                tmp = doc.createElementNS(RunInfo.DRIVERURI, "accept");
+                tmp.setPrefix("");
+                tmp.appendChild(doc.createTextNode(accept));
+                op.appendChild(tmp);
+            }
+            if (postRequest) {
+                tmp = doc.createElementNS(RunInfo.DRIVERURI, "post");
+                tmp.setAttributeNS(null, "binary", Boolean.toString(isBinary));
+                tmp.setAttributeNS(null, "file", "true");
+            } else {
+                tmp = doc.createElementNS(RunInfo.DRIVERURI, "get");
+            }
+            tmp.setPrefix("");
+            tmp.setAttributeNS(null, "subst", Boolean.toString(substitute));
+            tmp.appendChild(doc.createCDATASection(target.query));
+            op.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "max90th");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode("" + ninetyPct));
+            op.appendChild(tmp);
+            dc.appendChild(op);
         }
-        if (postRequest) {
-            tmp = doc.createElementNS(RunInfo.DRIVERURI, "post");
-            tmp.setAttributeNS(null, "binary", Boolean.toString(isBinary));
-            tmp.setAttributeNS(null, "file", "true");
-        } else {
-            tmp = doc.createElementNS(RunInfo.DRIVERURI, "get");
+        for (Target target : targets) {
+            Element om = doc.createElementNS(RunInfo.DRIVERURI,
+                                             "operationMix");
+            om.setPrefix("");
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "name");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode(target.name));
+            om.appendChild(tmp);
+            tmp = doc.createElementNS(RunInfo.DRIVERURI, "r");
+            tmp.setPrefix("");
+            tmp.appendChild(doc.createTextNode("" + target.weight));
+            om.appendChild(tmp);
+            dc.appendChild(om);
         }
-        tmp.setPrefix("");
-        tmp.setAttributeNS(null, "subst", Boolean.toString(substitute));
-        tmp.appendChild(doc.createCDATASection(queryString));
-        op.appendChild(tmp);
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "max90th");
-        tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode("" + ninetyPct));
-        op.appendChild(tmp);
-        dc.appendChild(op);
-        Element om = doc.createElementNS(RunInfo.DRIVERURI, "operationmix");
-        om.setPrefix("");
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "name");
-        tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode("test"));
-        om.appendChild(tmp);
-        tmp = doc.createElementNS(RunInfo.DRIVERURI, "r");
-        tmp.setPrefix("");
-        tmp.appendChild(doc.createTextNode("1"));
-        om.appendChild(tmp);
-        dc.appendChild(om);
         root.appendChild(dc);
         doc.appendChild(root);
         return doc;
@@ -324,6 +434,122 @@ public class FabanHTTPBench {
         t.transform(src, dest);
     }
 
+    /**
+     * Starts a registry and the agent JVMs on the local system and waits
+     * for all the agents to register. The master will then pick up the
+     * agents from the registry instead of running the driver in-process.
+     * The output of each JVM goes to the output directory.
+     * @param doc The run configuration
+     * @throws Exception Could not start the agents
+     */
+    private static void startAgents(Document doc) throws Exception {
+        Element dc = (Element) doc.getElementsByTagNameNS(
+                                RunInfo.DRIVERURI, "driverConfig").item(0);
+        if (dc != null && dc.getAttribute("name").length() > 0)
+            driverName = dc.getAttribute("name");
+
+        // Find a free port for the registry.
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        System.setProperty("faban.registry.port", String.valueOf(port));
+
+        File policy = new File(outputDirectory, "fhb.policy");
+        PrintWriter pw = new PrintWriter(new FileWriter(policy));
+        pw.println("grant {");
+        pw.println("    permission java.security.AllPermission;");
+        pw.println("};");
+        pw.close();
+
+        // The agents run with the same JVM options and class path as we do.
+        ArrayList<String> java = new ArrayList<String>();
+        java.add(System.getProperty("java.home") + File.separator + "bin" +
+                 File.separator + "java");
+        for (String arg : ManagementFactory.getRuntimeMXBean().
+                                                        getInputArguments())
+            if (!arg.startsWith("-agentlib") && !arg.startsWith("-Xrunjdwp") &&
+                    !arg.startsWith("-Xdebug"))
+                java.add(arg);
+        java.add("-Djava.security.policy=" + policy.getPath());
+        java.add("-Dfaban.registry.port=" + port);
+        java.add("-Djava.io.tmpdir=" + System.getProperty("java.io.tmpdir"));
+        // The generated driver class gets compiled into the temp directory.
+        String tmpDir = System.getProperty("faban.tmpdir");
+        if (tmpDir == null)
+            tmpDir = System.getProperty("java.io.tmpdir");
+        java.add("-cp");
+        java.add(System.getProperty("java.class.path") + File.pathSeparator +
+                 tmpDir);
+
+        ArrayList<String> cmd = new ArrayList<String>(java);
+        cmd.add("com.sun.faban.common.RegistryImpl");
+        registryHandle = startJVM(cmd, "registry");
+
+        Registry registry = null;
+        long timeout = System.currentTimeMillis() + AGENT_TIMEOUT;
+        while (registry == null) {
+            try {
+                registry = RegistryLocator.getRegistry();
+            } catch (Exception e) {
+                if (System.currentTimeMillis() > timeout)
+                    throw new IOException("Timed out starting the registry: " +
+                                          e.getMessage());
+                Thread.sleep(200);
+            }
+        }
+
+        for (int i = 0; i < agents; i++) {
+            cmd = new ArrayList<String>(java);
+            cmd.add("com.sun.faban.driver.engine.AgentImpl");
+            cmd.add(driverName);
+            cmd.add(String.valueOf(i));
+            cmd.add("localhost");
+            agentHandles.add(startJVM(cmd, "agent" + i));
+        }
+
+        Remote[] refs = null;
+        while ((refs = registry.getServices(driverName + "Agent")) == null ||
+                refs.length < agents) {
+            if (System.currentTimeMillis() > timeout)
+                throw new IOException("Timed out waiting for agents, " +
+                        (refs == null ? 0 : refs.length) + " of " + agents +
+                        " registered. See the agent logs in " +
+                        outputDirectory);
+            Thread.sleep(200);
+        }
+    }
+
+    private static CommandHandle startJVM(List<String> cmd, String name)
+            throws IOException, InterruptedException {
+        Command c = new Command(cmd);
+        c.setSynchronous(false);
+        c.setStreamHandling(Command.STDOUT, Command.CAPTURE);
+        c.setStreamHandling(Command.STDERR, Command.CAPTURE);
+        c.setOutputFile(Command.STDOUT,
+                new File(outputDirectory, name + ".out").getPath());
+        c.setOutputFile(Command.STDERR,
+                new File(outputDirectory, name + ".log").getPath());
+        return c.execute();
+    }
+
+    private static void stopAgents() {
+        for (CommandHandle handle : agentHandles)
+            try {
+                handle.destroy();
+            } catch (RemoteException e) {
+                // Local handle, does not happen.
+            }
+        agentHandles.clear();
+        if (registryHandle != null) {
+            try {
+                registryHandle.destroy();
+            } catch (RemoteException e) {
+                // Local handle, does not happen.
+            }
+            registryHandle = null;
+        }
+    }
+
     private static void run() throws NoSuchMethodException,
             IllegalAccessException, InvocationTargetException {
         System.setProperty("benchmark.config", runXmlFileName);
@@ -384,54 +610,79 @@ public class FabanHTTPBench {
                 (1 - ((((double) total - fails) / (double) total))) * 100.;
         System.out.println("% errors: " + errors);
 
+        // The -t target is given in seconds, scale it to the reported unit.
+        String unit = xPath.evaluate("//responseTimes/@unit", doc);
+        double target = ninetyPct;
+        if (unit.length() > 0)
+            target = ninetyPct * TimeUnit.SECONDS.toNanos(1l) /
+                    TimeUnit.valueOf(unit.toUpperCase()).toNanos(1l);
+        else
+            unit = "seconds";
+
         NodeList nodeList = (NodeList) xPath.evaluate(
                 "//responseTimes/operation", doc, XPathConstants.NODESET);
         int txCount = nodeList.getLength();
+        NodeList pctList = (NodeList) xPath.evaluate(
+                "//responseTimes/operation[1]/percentile", doc,
+                XPathConstants.NODESET);
+        int pctCount = pctList.getLength();
+        String[] pctNames = new String[pctCount];
+        for (int i = 0; i < pctCount; i++)
+            pctNames[i] = xPath.evaluate("@nth", pctList.item(i)) +
+                          xPath.evaluate("@suffix", pctList.item(i));
         if (txCount <= 1) {
-            System.out.println("avg. time: " + getValue(doc, "avg"));
-            System.out.println("max time: " + getValue(doc, "max"));
-            String percentile = (String) xPath.evaluate(
-               "//responseTimes/operation/percentile[@nth='90']", doc,
-                  XPathConstants.STRING);
-            System.out.println("90th %: " + percentile);
-            if (percentile.startsWith(">") || Double.parseDouble(percentile) > ninetyPct)
-                System.out.println("ERROR: Missed target 90% of " + ninetyPct);
-            percentile = (String) xPath.evaluate(
-            "//responseTimes/operation/percentile[@nth='95']", doc, 
-               XPathConstants.STRING);
-            System.out.println("95th %: " + percentile);
-            percentile = (String) xPath.evaluate(
-            "//responseTimes/operation/percentile[@nth='99']", doc,
-               XPathConstants.STRING);
-			System.out.println("99th %: " + percentile);
+            System.out.println("avg. time: " + getValue(doc, "avg") + ' ' +
+                               unit);
+            System.out.println("max time: " + getValue(doc, "max") + ' ' +
+                               unit);
+            for (int i = 0; i < pctCount; i++) {
+                String percentile = pctList.item(i).getTextContent().trim();
+                System.out.println(pctNames[i] + " %: " + percentile + ' ' +
+                                   unit);
+                if ("90".equals(xPath.evaluate("@nth", pctList.item(i))) &&
+                        (percentile.startsWith(">") ||
+                         Double.parseDouble(percentile) > target))
+                    System.out.println("ERROR: Missed target 90% of " +
+                                       ninetyPct);
+            }
         } else {
-            TextTable table = new TextTable(txCount, 7);
-            table.setHeader(0, "Response Times");
+            TextTable table = new TextTable(txCount, pctCount + 4);
+            table.setHeader(0, "Response Times (" + unit + ')');
             table.setHeader(1, "Avg");
             table.setHeader(2, "Max");
-            table.setHeader(3, "90th%");
-            table.setHeader(4, "95th%");
-            table.setHeader(5, "99th%");
-            table.setHeader(6, "");
+            for (int j = 0; j < pctCount; j++)
+                table.setHeader(j + 3, pctNames[j] + '%');
+            table.setHeader(pctCount + 3, "");
 
             for (int i = 0; i < txCount; i++) {
                 Node opNode = nodeList.item(i);
                 table.setField(i, 0, xPath.evaluate("@name", opNode));
                 table.setField(i, 1, xPath.evaluate("avg", opNode));
                 table.setField(i, 2, xPath.evaluate("max", opNode));
-                table.setField(i, 3, getValue(opNode, "percentile", "nth", "90"));
-                table.setField(i, 4, getValue(opNode, "percentile", "nth", "95"));
-                table.setField(i, 5, getValue(opNode, "percentile", "nth", "99"));
+                for (int j = 0; j < pctCount; j++)
+                    table.setField(i, j + 3, xPath.evaluate(
+                            "percentile[" + (j + 1) + "]", opNode).trim());
                 boolean passed = Boolean.parseBoolean(
                                     xPath.evaluate("passed", opNode));
                 if (passed)
-                    table.setField(i, 6, "PASSED");
+                    table.setField(i, pctCount + 3, "PASSED");
                 else
-                    table.setField(i, 6, "FAILED");
+                    table.setField(i, pctCount + 3, "FAILED");
             }
             table.format(System.out);
         }
 
+        reportThroughput(new File(f.getParentFile(), "detail.xan"));
+
+        String cpu = xPath.evaluate("//customStats/stat[description=" +
+                "'Driver CPU per request (us)']/result", doc);
+        if (cpu.length() > 0)
+            System.out.println("driver cpu/request: " + cpu + " us");
+        cpu = xPath.evaluate("//customStats/stat[description=" +
+                "'Driver CPU utilization (cores)']/result", doc);
+        if (cpu.length() > 0)
+            System.out.println("driver cpu utilization: " + cpu + " cores");
+
         int users = Integer.parseInt(getValue(doc, "users"));
         double rt = Double.parseDouble(getValue(doc, "rtXtps"));
         if (users * .975 > rt)
@@ -440,9 +691,65 @@ public class FabanHTTPBench {
                     " users simulated");
         double ta = Double.parseDouble(getValue(doc, "targetedAvg"));
         double aa = Double.parseDouble(getValue(doc, "actualAvg"));
-        if (Math.abs(aa - ta)/ta > (CYCLE_DEVIATION / 100d))
-            System.out.println("ERROR: Think time deviation is too high; " +
-                    "requested " + thinkTime + "; actual is " + (aa * 1000));
+        if (Math.abs(aa - ta)/ta > (CYCLE_DEVIATION / 100d)) {
+            if (rate > 0d)
+                System.out.println("ERROR: Cycle time deviation is too " +
+                        "high; requested " + cycleMean + "; actual is " +
+                        (aa * 1000));
+            else
+                System.out.println("ERROR: Think time deviation is too " +
+                        "high; requested " + thinkTime + "; actual is " +
+                        (aa * 1000));
+        }
+    }
+
+    /**
+     * Prints the total throughput over the course of the run from the
+     * throughput graph in the detail file.
+     * @param detail The detail file
+     * @throws IOException Error reading the detail file
+     */
+    private static void reportThroughput(File detail) throws IOException {
+        if (!detail.exists())
+            return;
+        BufferedReader reader = new BufferedReader(new FileReader(detail));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null)
+                if (line.startsWith("Section: ") &&
+                        line.endsWith(" Throughput"))
+                    break;
+            if (line == null)
+                return;
+            // Skip the display, header, and separator lines.
+            for (int i = 0; i < 3 && line != null; i++)
+                line = reader.readLine();
+            ArrayList<String[]> rows = new ArrayList<String[]>();
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0)
+                    break;
+                StringTokenizer tok = new StringTokenizer(line);
+                String time = tok.nextToken();
+                double total = 0d;
+                while (tok.hasMoreTokens())
+                    total += Double.parseDouble(tok.nextToken());
+                rows.add(new String[] { time,
+                                        String.format("%.2f", total) });
+            }
+            if (rows.isEmpty())
+                return;
+            TextTable table = new TextTable(rows.size(), 2);
+            table.setHeader(0, "Time (s)");
+            table.setHeader(1, "ops/sec");
+            for (int i = 0; i < rows.size(); i++) {
+                table.setField(i, 0, rows.get(i)[0]);
+                table.setField(i, 1, rows.get(i)[1]);
+            }
+            table.format(System.out);
+        } finally {
+            reader.close();
+        }
     }
 
     private static int sumValues(XPath xPath, Document doc, String expression)
@@ -485,6 +792,9 @@ public class FabanHTTPBench {
     }
 
     private static void cleanUp() {
+        stopAgents();
+        if (stubServer != null)
+            stubServer.stop();
         if (save) {
             System.out.println("Saving output from run in " + outputDirectory);
             return;
@@ -506,7 +816,7 @@ public class FabanHTTPBench {
         return dir.delete();
     }
 
-    private static void parseArgs(String[] args) throws MalformedURLException {
+    private static void parseArgs(String[] args) throws IOException {
         int i;
         String optArg = null;
         for (i = 0; i < args.length; i++) {
@@ -533,6 +843,36 @@ public class FabanHTTPBench {
                     rampUp = tok.nextToken();
                     steadyState = tok.nextToken();
                     rampDown = tok.nextToken();
+                    rampSet = true;
+                    break;
+                case 'd':
+                    steadyState =
+                            c.length > 2 ? args[i].substring(2) : args[++i];
+                    if (!rampSet) {
+                        rampUp = "10";
+                        rampDown = "5";
+                    }
+                    break;
+                case 'R':
+                    optArg = c.length > 2 ? args[i].substring(2) : args[++i];
+                    rate = Double.parseDouble(optArg);
+                    if (rate <= 0d)
+                        throw new IllegalArgumentException(
+                                                "Invalid rate " + optArg);
+                    break;
+                case 'u':
+                    urlFile = c.length > 2 ? args[i].substring(2) : args[++i];
+                    break;
+                case 'a':
+                    optArg = c.length > 2 ? args[i].substring(2) : args[++i];
+                    agents = Integer.parseInt(optArg);
+                    if (agents < 1)
+                        throw new IllegalArgumentException(
+                                        "Invalid number of agents " + optArg);
+                    break;
+                case 'L':
+                    optArg = c.length > 2 ? args[i].substring(2) : args[++i];
+                    startStub(optArg);
                     break;
                 case 'W':
                     thinkTime = c.length > 2 ? args[i].substring(2) : args[++i];
@@ -569,34 +909,158 @@ public class FabanHTTPBench {
             }
         }
         if (runXmlFileName == null) {
-            if (i == args.length)
+            if (urlFile != null)
+                readUrlFile(urlFile);
+            for (; i < args.length; i++)
+                addTarget(args[i], 1d);
+            if (targets.isEmpty() && stubServer != null)
+                addTarget("http://localhost:" + stubServer.getPort() + '/',
+                          1d);
+            if (targets.isEmpty())
                 usage();
-            URL u = new URL(args[i]);
-            String proto = u.getProtocol();
-            if (!proto.equals("http") && !(proto.equals("https")))
-                throw new IllegalArgumentException(
-                                            "Unsupported protocol " + proto);
-            path = proto + "://" + u.getAuthority() + u.getPath();
-            if (!postRequest) {
-                String q = u.getQuery();
-                if (q == null)
-                    queryString = "";
-                else queryString = "?" + q;
+
+            // A single URL keeps the operation name of previous versions.
+            // Otherwise we print a legend mapping the names to the URLs.
+            if (targets.size() == 1) {
+                targets.get(0).name = "test";
+            } else {
+                for (int j = 0; j < targets.size(); j++) {
+                    Target target = targets.get(j);
+                    target.name = "url" + (j + 1);
+                    System.out.println(target.name + ": " + target.path +
+                            (postRequest ? "" : target.query) +
+                            " (weight " + target.weight + ')');
+                }
             }
+
+            if (rate > 0d)
+                computeCycle();
+            if (numThreads < agents)
+                throw new IllegalArgumentException("Cannot run " + agents +
+                        " agents with only " + numThreads + " connections");
         }
+    }
 
+    /**
+     * Starts the embedded stub server. The specification contains the
+     * response size in bytes, optionally followed by the delay in ms and
+     * the error rate, separated by commas.
+     * @param spec The stub server specification
+     * @throws IOException Error starting the stub server
+     */
+    private static void startStub(String spec) throws IOException {
+        StringTokenizer tok = new StringTokenizer(spec, ",");
+        StubServer stub = new StubServer(StubServer.Mode.HTTP, 0);
+        stub.setResponseSize(Integer.parseInt(tok.nextToken().trim()));
+        if (tok.hasMoreTokens())
+            stub.setDelay(Integer.parseInt(tok.nextToken().trim()));
+        if (tok.hasMoreTokens())
+            stub.setErrorRate(Double.parseDouble(tok.nextToken().trim()));
+        stub.start();
+        stubServer = stub;
+        System.out.println("Stub server listening on port " +
+                           stub.getPort());
+    }
 
+    /**
+     * Reads the URLs from a file. Each line contains a URL optionally
+     * preceded by its weight, separated by white space. Empty lines and
+     * lines starting with '#' are ignored.
+     * @param fileName The name of the URL file
+     * @throws IOException Error reading the file
+     */
+    private static void readUrlFile(String fileName) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+                StringTokenizer tok = new StringTokenizer(line);
+                String first = tok.nextToken();
+                if (tok.hasMoreTokens()) {
+                    double weight;
+                    try {
+                        weight = Double.parseDouble(first);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid weight " +
+                                first + " in " + fileName);
+                    }
+                    addTarget(tok.nextToken(), weight);
+                } else {
+                    addTarget(first, 1d);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void addTarget(String url, double weight)
+            throws MalformedURLException {
+        URL u = new URL(url);
+        String proto = u.getProtocol();
+        if (!proto.equals("http") && !(proto.equals("https")))
+            throw new IllegalArgumentException(
+                                        "Unsupported protocol " + proto);
+        if (weight <= 0d)
+            throw new IllegalArgumentException("Invalid weight " + weight +
+                                               " for " + url);
+        Target target = new Target();
+        target.path = proto + "://" + u.getAuthority() + u.getPath();
+        if (postRequest) {
+            target.query = queryString;
+        } else {
+            String q = u.getQuery();
+            if (q == null)
+                target.query = "";
+            else
+                target.query = "?" + q;
+        }
+        target.weight = weight;
+        targets.add(target);
+    }
+
+    /**
+     * Computes the mean cycle time each connection needs to achieve the
+     * target rate. The cycle time is in whole milliseconds so at high rates
+     * the number of connections gets adjusted to keep the total rate
+     * within 1% of the target.
+     */
+    private static void computeCycle() {
+        int mean = (int) Math.round(numThreads * 1000d / rate);
+        if (mean < 1)
+            mean = 1;
+        int threads = (int) Math.round(rate * mean / 1000d);
+        int maxMean = mean * 10;
+        while (threads < 1 || Math.abs(threads * 1000d / mean - rate) >
+                rate / 100d) {
+            if (mean >= maxMean)
+                break;
+            ++mean;
+            threads = (int) Math.round(rate * mean / 1000d);
+        }
+        if (threads < 1)
+            threads = 1;
+        if (threads != numThreads) {
+            System.out.println("Using " + threads + " connections to " +
+                    "achieve a rate of " + rate + " requests/sec.");
+            numThreads = threads;
+        }
+        cycleMean = mean;
     }
 
     private static void usage() {
         String cmd = System.getProperty("faban.cli.command");
         if (cmd == null) {
             System.err.println("usage: java [jvm options] com.sun.faban." +
-                            "driver.util.FabanHTTPBench [program options] URL");
+                            "driver.util.FabanHTTPBench [program options] URL...");
             System.err.println("Use standard options (including -server) for " +
                                         "jvm options");
         } else {
-            System.err.println("usage: " + cmd + " [program options] URL");
+            System.err.println("usage: " + cmd + " [program options] URL...");
+            System.err.println("       " + cmd + " [program options] -u file");
             System.err.println("       " + cmd + " -f file");
         }
         System.err.println("Supported program options are: ");
@@ -614,6 +1078,24 @@ public class FabanHTTPBench {
         System.err.println("\t\tRun for given ramup, steady state, and " +
                                                             "rampdown seconds");
         System.err.println("\t\tDefaults are 300/300/120");
+        System.err.println("\t-d secs : Run for given steady state seconds");
+        System.err.println("\t\tRampup and rampdown default to 10 and 5 " +
+                                                        "unless -r is given");
+        System.err.println("\t-u file : Test the URLs listed in file, " +
+                                                        "one per line");
+        System.err.println("\t\tEach URL may be preceded by its weight " +
+                                                        "in the mix");
+        System.err.println("\t-R rate : Target rate in requests/sec " +
+                                                        "instead of -W");
+        System.err.println("\t\tThe number of clients may be adjusted " +
+                                                        "to reach the rate");
+        System.err.println("\t-a agents : Split the clients over the given " +
+                                                        "number of JVMs");
+        System.err.println("\t-L size[,delay[,errorRate]] : Run against " +
+                                                "an embedded stub server");
+        System.err.println("\t\tThe server responds with size bytes " +
+                                        "after delay ms,\n\t\tfailing the " +
+                                        "given fraction of requests");
         System.err.println("\t-W millisecs : Use millisecs pause time between" +
                                                             " requests");
         System.err.println("\t-s : Save all faban output files in temporary " +
@@ -631,4 +1113,12 @@ public class FabanHTTPBench {
         System.err.println("\t-z mime-type :  Include the given mime-type(s) in the accept-headers");
         System.exit(-1);
     }
+
+    /** A URL to test and its weight in the operation mix. */
+    private static class Target {
+        String name;
+        String path;
+        String query;
+        double weight;
+    }
 }
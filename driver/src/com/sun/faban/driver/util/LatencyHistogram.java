@@ -0,0 +1,215 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.Serializable;
+
+/**
+ * A compact log-linear latency histogram. Values are recorded in nanoseconds
+ * and kept in microsecond resolution. The first 16 buckets are linear, one
+ * microsecond each. From there on, each power of two is split into 8
+ * sub-buckets, giving a relative precision of 12.5% or better across the
+ * whole range up to about 19 hours in only 272 buckets. This makes the
+ * histogram cheap enough to keep per thread and per operation while still
+ * covering sub-millisecond connection times and multi-second responses
+ * alike.<p>
+ * The histogram is not thread safe. Like the Metrics, each thread should
+ * keep its own and the histograms are aggregated at the end of the run.
+ */
+public class LatencyHistogram implements Serializable, Cloneable {
+
+    private static final long serialVersionUID = 1l;
+
+    /** The number of linear buckets at the bottom of the histogram. */
+    private static final int LINEAR_BUCKETS = 16;
+
+    /** The number of sub-buckets per power of two. */
+    private static final int SUB_BUCKETS = 8;
+
+    /** The highest power of two, in microseconds, covered by the histogram. */
+    private static final int MAX_MAGNITUDE = 36;
+
+    /** The total number of buckets. */
+    public static final int BUCKETS = LINEAR_BUCKETS +
+                                (MAX_MAGNITUDE - 4) * SUB_BUCKETS;
+
+    private int[] buckets = new int[BUCKETS];
+    private int count;
+    private double sum;
+    private long max;
+    private long min = Long.MAX_VALUE;
+
+    /**
+     * Records a value into the histogram.
+     * @param nanos The value to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        ++buckets[bucketOf(nanos / 1000l)];
+        ++count;
+        sum += nanos;
+        if (nanos > max)
+            max = nanos;
+        if (nanos < min)
+            min = nanos;
+    }
+
+    /**
+     * Obtains the bucket index for a given value in microseconds.
+     * @param micros The value
+     * @return The bucket index
+     */
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS)
+            return (int) micros;
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude >= MAX_MAGNITUDE)
+            return BUCKETS - 1;
+        int shift = magnitude - 3;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS +
+                (int) (micros >> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Obtains the upper bound of a bucket, in microseconds.
+     * @param bucket The bucket index
+     * @return The lowest value of the next bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS)
+            return bucket + 1;
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return (sub + 1) << shift;
+    }
+
+    /**
+     * Aggregates another histogram into this one.
+     * @param other The other histogram
+     */
+    public void add(LatencyHistogram other) {
+        if (other == null)
+            return;
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] += other.buckets[i];
+        count += other.count;
+        sum += other.sum;
+        if (other.max > max)
+            max = other.max;
+        if (other.min < min)
+            min = other.min;
+    }
+
+    /**
+     * Resets the histogram to its initial, empty state.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = 0;
+        count = 0;
+        sum = 0d;
+        max = 0l;
+        min = Long.MAX_VALUE;
+    }
+
+    /**
+     * Obtains the number of recorded values.
+     * @return The count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Obtains the mean of all recorded values.
+     * @return The mean in nanoseconds, or 0 if no values are recorded
+     */
+    public double getMean() {
+        if (count == 0)
+            return 0d;
+        return sum / count;
+    }
+
+    /**
+     * Obtains the maximum recorded value.
+     * @return The max in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Obtains the minimum recorded value.
+     * @return The min in nanoseconds, or 0 if no values are recorded
+     */
+    public long getMin() {
+        if (count == 0)
+            return 0l;
+        return min;
+    }
+
+    /**
+     * Obtains the value at the given percentile. Like the response time
+     * histogram in the Metrics, we report the base of the next bucket so
+     * the reported value is never lower than the actual percentile. The
+     * result is capped at the maximum recorded value.
+     * @param pct The percentile, from 0 to 100
+     * @return The percentile value in nanoseconds
+     */
+    public long getPercentile(double pct) {
+        if (count == 0)
+            return 0l;
+        long target = (long) Math.ceil(count * (pct / 100d));
+        if (target < 1)
+            target = 1;
+        long sumCnt = 0l;
+        int i = 0;
+        for (; i < BUCKETS - 1; i++) {
+            sumCnt += buckets[i];
+            if (sumCnt >= target)
+                break;
+        }
+        long value = upperBound(i) * 1000l;
+        if (value > max)
+            value = max;
+        return value;
+    }
+
+    /**
+     * Makes a deep copy of this histogram.
+     * @return The copy
+     */
+    @Override
+    public Object clone() {
+        LatencyHistogram clone = null;
+        try {
+            clone = (LatencyHistogram) super.clone();
+            clone.buckets = buckets.clone();
+        } catch (CloneNotSupportedException e) {
+            // This should not happen as we already implement cloneable.
+        }
+        return clone;
+    }
+}
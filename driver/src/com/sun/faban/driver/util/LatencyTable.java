@@ -0,0 +1,180 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.common.TableModel;
+import com.sun.faban.common.Utilities;
+import com.sun.faban.driver.CustomTableMetrics;
+import com.sun.faban.driver.engine.DriverContext;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LatencyTable keeps a latency histogram for each key, such as a request
+ * type or a statement, and reports them as a custom table in the summary
+ * report. Transports use it to report latencies at a finer grain than the
+ * operation, for example each request of a pipelined operation. Like all
+ * metrics, each thread keeps its own table and the tables get aggregated
+ * at the end of the run. Use getInstance(String, String) to obtain the
+ * table of the current thread, attached to the driver metrics.
+ */
+public class LatencyTable implements CustomTableMetrics {
+
+    private static final long serialVersionUID = 1l;
+
+    private static ThreadLocal<HashMap<String, LatencyTable>> localTables =
+            new ThreadLocal<HashMap<String, LatencyTable>>() {
+        @Override
+        protected HashMap<String, LatencyTable> initialValue() {
+            return new HashMap<String, LatencyTable>();
+        }
+    };
+
+    private String keyHeader;
+    private LinkedHashMap<String, LatencyHistogram> histograms =
+            new LinkedHashMap<String, LatencyHistogram>();
+
+    /** Last key looked up, saves the map lookup for repeated keys. */
+    private transient String lastKey;
+    private transient LatencyHistogram lastHistogram;
+
+    /**
+     * Constructs an empty latency table.
+     * @param keyHeader The header of the key column in the report
+     */
+    public LatencyTable(String keyHeader) {
+        this.keyHeader = keyHeader;
+    }
+
+    /**
+     * Obtains the latency table by the given name for the current thread.
+     * The table is created and attached to the metrics of the thread's
+     * driver context on first use. Outside a driver context, the table is
+     * created but not attached.
+     * @param name The table name as shown in the report
+     * @param keyHeader The header of the key column
+     * @return The latency table
+     */
+    public static LatencyTable getInstance(String name, String keyHeader) {
+        HashMap<String, LatencyTable> tables = localTables.get();
+        LatencyTable table = tables.get(name);
+        if (table == null) {
+            table = new LatencyTable(keyHeader);
+            tables.put(name, table);
+            DriverContext ctx = DriverContext.getContext();
+            if (ctx != null)
+                ctx.attachMetrics(name, table);
+        }
+        return table;
+    }
+
+    /**
+     * Records a latency for the given key.
+     * @param key The key
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(String key, long nanos) {
+        LatencyHistogram h;
+        if (key == lastKey) {
+            h = lastHistogram;
+        } else {
+            h = histograms.get(key);
+            if (h == null) {
+                h = new LatencyHistogram();
+                histograms.put(key, h);
+            }
+            lastKey = key;
+            lastHistogram = h;
+        }
+        h.record(nanos);
+    }
+
+    /**
+     * Obtains the histogram for a key.
+     * @param key The key
+     * @return The histogram, or null if nothing got recorded for the key
+     */
+    public LatencyHistogram getHistogram(String key) {
+        return histograms.get(key);
+    }
+
+    /**
+     * Aggregates the table of another thread into this one.
+     * @param other The other table
+     */
+    public void add(CustomTableMetrics other) {
+        LatencyTable o = (LatencyTable) other;
+        for (Map.Entry<String, LatencyHistogram> entry :
+                o.histograms.entrySet()) {
+            LatencyHistogram h = histograms.get(entry.getKey());
+            if (h == null)
+                histograms.put(entry.getKey(),
+                        (LatencyHistogram) entry.getValue().clone());
+            else
+                h.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Obtains the table to be reported. Times are in milliseconds.
+     * @return The table model
+     */
+    @SuppressWarnings("boxing")
+    public TableModel getResults() {
+        TableModel table = new TableModel(6, histograms.size());
+        table.setHeader(0, keyHeader);
+        table.setHeader(1, "Count");
+        table.setHeader(2, "Avg (ms)");
+        table.setHeader(3, "90th% (ms)");
+        table.setHeader(4, "99th% (ms)");
+        table.setHeader(5, "Max (ms)");
+        for (Map.Entry<String, LatencyHistogram> entry :
+                histograms.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            if (h.getCount() == 0)
+                continue;
+            Comparable<?>[] row = table.newRow();
+            row[0] = Utilities.escapeXML(entry.getKey());
+            row[1] = h.getCount();
+            row[2] = String.format("%.3f", h.getMean() / 1e6d);
+            row[3] = String.format("%.3f", h.getPercentile(90d) / 1e6d);
+            row[4] = String.format("%.3f", h.getPercentile(99d) / 1e6d);
+            row[5] = String.format("%.3f", h.getMax() / 1e6d);
+        }
+        return table;
+    }
+
+    /**
+     * Makes a deep copy of this table.
+     * @return The copy
+     */
+    @Override
+    public Object clone() {
+        LatencyTable clone = new LatencyTable(keyHeader);
+        clone.add(this);
+        return clone;
+    }
+}
@@ -0,0 +1,279 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Payload is a read-only region of a file used as a request body. The
+ * file is memory mapped once and the mapping is shared by all users in
+ * the JVM, so large uploads do not need a copy of the payload on the heap
+ * for each user. Use region(long, long) to send different parts of the
+ * same file.<p>
+ * Writing to a file or NIO channel uses FileChannel.transferTo so the data
+ * does not pass through the Java heap at all. Writing to a stream copies
+ * the data from the mapping in chunks of a per-thread buffer.
+ */
+public class Payload {
+
+    private static final long SEGMENT_SIZE = 1l << 30;
+
+    private static final int CHUNK_SIZE = 65536;
+
+    private static ConcurrentHashMap<String, Payload> payloads =
+            new ConcurrentHashMap<String, Payload>();
+
+    private static ThreadLocal<byte[]> localChunk = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    private final String name;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long offset;
+    private final long length;
+
+    private Payload(String name, FileChannel channel,
+                    MappedByteBuffer[] segments, long offset, long length) {
+        this.name = name;
+        this.channel = channel;
+        this.segments = segments;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Obtains the payload for the whole file. The file is mapped on first
+     * use and the payload is shared from then on. The file must not change
+     * while it is in use.
+     * @param file The file
+     * @return The payload
+     * @throws IOException Error opening or mapping the file
+     */
+    public static Payload getInstance(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        Payload payload = payloads.get(path);
+        if (payload == null) {
+            payload = map(file);
+            Payload existing = payloads.putIfAbsent(path, payload);
+            if (existing != null)
+                payload = existing;
+        }
+        return payload;
+    }
+
+    /**
+     * Obtains the payload for the whole file.
+     * @param path The file path
+     * @return The payload
+     * @throws IOException Error opening or mapping the file
+     * @see #getInstance(File)
+     */
+    public static Payload getInstance(String path) throws IOException {
+        return getInstance(new File(path));
+    }
+
+    /**
+     * Obtains a payload of random data of the given size. The data is
+     * written to a temporary file on first use, which gets removed when the
+     * JVM exits. Payloads of the same size are shared.
+     * @param size The payload size in bytes
+     * @return The payload
+     * @throws IOException Error creating the temporary file
+     */
+    public static Payload getInstance(long size) throws IOException {
+        String key = "random:" + size;
+        Payload payload = payloads.get(key);
+        if (payload == null) {
+            synchronized (payloads) {
+                payload = payloads.get(key);
+                if (payload == null) {
+                    File file = File.createTempFile("payload", ".bin");
+                    file.deleteOnExit();
+                    FileOutputStream out = new FileOutputStream(file);
+                    try {
+                        java.util.Random random = new java.util.Random(size);
+                        byte[] chunk = new byte[CHUNK_SIZE];
+                        for (long i = 0; i < size; i += CHUNK_SIZE) {
+                            random.nextBytes(chunk);
+                            out.write(chunk, 0,
+                                    (int) Math.min(CHUNK_SIZE, size - i));
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    payload = map(file);
+                    payloads.put(key, payload);
+                }
+            }
+        }
+        return payload;
+    }
+
+    private static Payload map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        long size = channel.size();
+        MappedByteBuffer[] segments = new MappedByteBuffer[
+                (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        // The channel stays open for transferTo for the life of the JVM.
+        return new Payload(file.getName(), channel, segments, 0l, size);
+    }
+
+    /**
+     * Obtains a region of this payload. The region shares the mapping.
+     * @param offset The offset of the region in this payload
+     * @param length The length of the region
+     * @return The region
+     */
+    public Payload region(long offset, long length) {
+        if (offset < 0l || length < 0l || offset + length > this.length)
+            throw new IndexOutOfBoundsException("Region " + offset + '+' +
+                    length + " outside payload of " + this.length +
+                    " bytes");
+        return new Payload(name, channel, segments, this.offset + offset,
+                           length);
+    }
+
+    /**
+     * Obtains the name of the file backing this payload.
+     * @return The file name, without the directory
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Obtains the length of this payload.
+     * @return The length in bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Writes the payload to a channel using FileChannel.transferTo.
+     * @param target The target channel
+     * @throws IOException Error writing the payload
+     */
+    public void writeTo(WritableByteChannel target) throws IOException {
+        long position = offset;
+        long end = offset + length;
+        while (position < end)
+            position += channel.transferTo(position, end - position, target);
+    }
+
+    /**
+     * Writes the payload to a stream. File streams get the data transferred
+     * through their channel. Other streams get the data copied from the
+     * mapping.
+     * @param out The target stream
+     * @throws IOException Error writing the payload
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (out instanceof FileOutputStream) {
+            writeTo(((FileOutputStream) out).getChannel());
+            return;
+        }
+        byte[] chunk = localChunk.get();
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)].
+                    duplicate();
+            segment.position((int) (position % SEGMENT_SIZE));
+            int count = (int) Math.min(segment.remaining(), end - position);
+            position += count;
+            while (count > 0) {
+                int n = Math.min(count, CHUNK_SIZE);
+                segment.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+                count -= n;
+            }
+        }
+    }
+
+    /**
+     * Obtains a stream reading the payload from the mapping. Each call
+     * returns a new, independent stream.
+     * @return The stream
+     */
+    public InputStream getInputStream() {
+        return new InputStream() {
+            long position = offset;
+            final long end = offset + length;
+
+            @Override
+            public int read() {
+                if (position >= end)
+                    return -1;
+                MappedByteBuffer segment =
+                        segments[(int) (position / SEGMENT_SIZE)];
+                return segment.get((int) (position++ % SEGMENT_SIZE)) & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= end)
+                    return -1;
+                ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)].
+                        duplicate();
+                segment.position((int) (position % SEGMENT_SIZE));
+                int n = (int) Math.min(Math.min(len, segment.remaining()),
+                                       end - position);
+                segment.get(b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, end - position);
+            }
+        };
+    }
+}
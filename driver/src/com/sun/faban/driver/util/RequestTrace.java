@@ -0,0 +1,503 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.HashMap;
+
+/**
+ * RequestTrace reads a timestamped request trace for replay. The trace is
+ * a text file with one request per line:
+ * <pre>
+ * timestamp sessionKey method url [body]
+ * </pre>
+ * The timestamp is in milliseconds, fractions are allowed. Requests must
+ * be ordered by timestamp. The session key, such as a client address or
+ * session cookie, decides which user replays the request so all requests
+ * of a session are replayed in order by the same user. Blank lines and
+ * lines starting with '#' are ignored. The {@link #main(String[])} method
+ * converts web server access logs in common or combined log format to a
+ * trace.<p>
+ * The trace is memory mapped and read in a single streaming pass shared
+ * by all users in the JVM. Users obtain their requests through their
+ * {@link Partition}. While a user looks for its next request, the
+ * requests of the other users it passes are queued for them by their
+ * file position only, so the trace is never loaded into the heap.
+ * Requests of users in other agents are skipped. All agents hash the
+ * session keys the same way, so each session is replayed exactly once
+ * across the whole run.<p>
+ * Once the replay schedule is set, the read-ahead is bounded by trace
+ * time. Requests are only read up to the faban.trace.readAhead window,
+ * 10000 ms of trace time by default, past the current schedule. A user
+ * whose next request lies beyond the window waits until the schedule
+ * reaches it. The queues therefore only hold the requests due within
+ * the window plus those of users lagging behind, which are replayed
+ * late but never dropped.
+ */
+public class RequestTrace {
+
+    private static final long SEGMENT_SIZE = 1l << 30;
+
+    /** The read-ahead window past the schedule, in microseconds. */
+    static long readAhead =
+            Long.getLong("faban.trace.readAhead", 10000l) * 1000l;
+
+    /** The run the open traces belong to, guarded by traces. */
+    private static Object run;
+
+    private static HashMap<String, RequestTrace> traces =
+            new HashMap<String, RequestTrace>();
+
+    private static ThreadLocal<Partition> current =
+            new ThreadLocal<Partition>();
+
+    private MappedByteBuffer[] segments;
+    private long size;
+    private long position;  // The shared read position, guarded by this.
+    private long baseTime = -1l;
+    private int users;
+    private int firstUser;
+    private Partition[] partitions;
+
+    // The replay schedule, guarded by this.
+    private long startNanos = Long.MIN_VALUE;
+    private double speedUp = 1d;
+
+    private RequestTrace(File file, int users, int firstUser, int localUsers)
+            throws IOException {
+        this.users = users;
+        this.firstUser = firstUser;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            size = channel.size();
+            segments = new MappedByteBuffer[
+                    (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } finally {
+            raf.close(); // The mappings stay valid.
+        }
+        partitions = new Partition[localUsers];
+        for (int i = 0; i < localUsers; i++)
+            partitions[i] = new Partition(this, firstUser + i);
+    }
+
+    /**
+     * Obtains the partition of a user, opening the trace if not yet open
+     * for the run. The partition becomes the current partition of the
+     * calling thread. All users of a run in this JVM must pass the same
+     * user layout. Traces of previous runs get released when a new run
+     * opens its trace.
+     * @param file The trace file
+     * @param run The run, only compared by identity
+     * @param users The total number of users replaying the trace
+     * @param firstUser The first user in this JVM
+     * @param localUsers The number of users in this JVM
+     * @param user The user
+     * @return The partition of the user
+     * @throws IOException Error opening the trace
+     */
+    public static Partition getPartition(File file, Object run, int users,
+                                         int firstUser, int localUsers,
+                                         int user) throws IOException {
+        String path = file.getCanonicalPath();
+        RequestTrace trace;
+        synchronized (traces) {
+            if (RequestTrace.run != run) {
+                traces.clear();
+                RequestTrace.run = run;
+            }
+            trace = traces.get(path);
+            if (trace == null) {
+                trace = new RequestTrace(file, users, firstUser, localUsers);
+                traces.put(path, trace);
+            }
+        }
+        if (user < trace.firstUser ||
+                user >= trace.firstUser + trace.partitions.length)
+            throw new IllegalArgumentException("User " + user +
+                    " not in this JVM");
+        Partition partition = trace.partitions[user - trace.firstUser];
+        current.set(partition);
+        return partition;
+    }
+
+    /**
+     * Obtains the partition of the calling thread.
+     * @return The current partition, or null if the thread does not replay
+     */
+    public static Partition getCurrentPartition() {
+        return current.get();
+    }
+
+    /**
+     * Sets the replay schedule bounding the read-ahead. The first call
+     * for the trace sets the schedule, later calls are ignored. Without
+     * a schedule, the trace is read ahead as far as needed.
+     * @param startNanos The start of the replay, as System.nanoTime()
+     * @param speedUp The factor the replay is sped up by
+     */
+    private synchronized void setSchedule(long startNanos, double speedUp) {
+        if (this.startNanos == Long.MIN_VALUE) {
+            this.startNanos = startNanos;
+            this.speedUp = speedUp;
+        }
+    }
+
+    /**
+     * Obtains the time a request becomes eligible for read-ahead.
+     * @param time The request time relative to the start of the trace
+     * @return The wait in ms before the request may be read, 0 if now
+     */
+    private long readAheadWait(long time) {
+        if (startNanos == Long.MIN_VALUE)
+            return 0l;
+        long due = startNanos + (long) ((time - readAhead) * 1000d / speedUp);
+        long wait = due - System.nanoTime();
+        return wait <= 0l ? 0l : wait / 1000000l + 1l;
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos / SEGMENT_SIZE)].get(
+                (int) (pos % SEGMENT_SIZE));
+    }
+
+    /**
+     * Reads ahead in the trace until the given partition has a request
+     * or the end of the trace is reached. Requests beyond the read-ahead
+     * window are not read until the schedule reaches them.
+     */
+    private synchronized long poll(Partition p) {
+        while (p.head == p.tail && position < size) {
+            long line = position;
+            long end = line;
+            while (end < size && byteAt(end) != '\n')
+                ++end;
+
+            // Skip the timestamp, then hash the session key.
+            long pos = skipSpace(line, end);
+            if (pos == end || byteAt(pos) == '#') {
+                position = end + 1;
+                continue;
+            }
+            long time = parseTime(pos, end);
+            if (baseTime < 0l)
+                baseTime = time;
+            long wait = readAheadWait(time - baseTime);
+            if (wait > 0l) {
+                try {
+                    wait(wait); // Others may read on in the meantime.
+                } catch (InterruptedException e) { // Run is killed.
+                    Thread.currentThread().interrupt();
+                    return -1l;
+                }
+                continue;
+            }
+            position = end + 1;
+            pos = skipSpace(skipField(pos, end), end);
+            int hash = 0x811c9dc5; // FNV-1a
+            for (; pos < end && !isSpace(byteAt(pos)); pos++) {
+                hash ^= byteAt(pos) & 0xff;
+                hash *= 0x01000193;
+            }
+            int user = (hash & Integer.MAX_VALUE) % users - firstUser;
+            if (user >= 0 && user < partitions.length)
+                partitions[user].offer(line);
+        }
+        if (p.head == p.tail)
+            return -1l;
+        return p.queue[p.head++ & (p.queue.length - 1)];
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private long skipSpace(long pos, long end) {
+        while (pos < end && isSpace(byteAt(pos)))
+            ++pos;
+        return pos;
+    }
+
+    private long skipField(long pos, long end) {
+        while (pos < end && !isSpace(byteAt(pos)))
+            ++pos;
+        return pos;
+    }
+
+    /** Parses a millisecond timestamp into microseconds. */
+    private long parseTime(long pos, long end) {
+        long micros = 0l;
+        int fraction = -1;
+        for (; pos < end && !isSpace(byteAt(pos)); pos++) {
+            byte b = byteAt(pos);
+            if (b == '.') {
+                fraction = 0;
+            } else if (b >= '0' && b <= '9') {
+                if (fraction < 0) {
+                    micros = micros * 10 + (b - '0');
+                } else if (fraction < 3) {
+                    micros = micros * 10 + (b - '0');
+                    ++fraction;
+                }
+            } else {
+                throw new NumberFormatException("Bad timestamp at offset " +
+                        pos + " of request trace");
+            }
+        }
+        for (fraction = Math.max(fraction, 0); fraction < 3; fraction++)
+            micros *= 10;
+        return micros;
+    }
+
+    private String readField(long pos, long end) {
+        char[] c = new char[(int) (end - pos)];
+        for (int i = 0; i < c.length; i++)
+            c[i] = (char) (byteAt(pos + i) & 0xff);
+        return new String(c);
+    }
+
+    /**
+     * The requests of one user. A partition is used by a single thread.
+     */
+    public static class Partition {
+
+        private RequestTrace trace;
+        private int user;
+        long[] queue = new long[16];
+        int head;
+        int tail;
+        private Record record = new Record();
+        private boolean peeked;
+
+        Partition(RequestTrace trace, int user) {
+            this.trace = trace;
+            this.user = user;
+        }
+
+        /** Queues a request, called with the trace locked. */
+        void offer(long line) {
+            if (tail - head == queue.length) {
+                long[] q = new long[queue.length * 2];
+                for (int i = head; i != tail; i++)
+                    q[i - head] = queue[i & (queue.length - 1)];
+                tail -= head;
+                head = 0;
+                queue = q;
+            }
+            queue[tail++ & (queue.length - 1)] = line;
+        }
+
+        /**
+         * Sets the replay schedule of the trace, bounding the read-ahead
+         * of all partitions to the window past the schedule. Only the
+         * first call for the trace takes effect.
+         * @param startNanos The start of the replay, as System.nanoTime()
+         * @param speedUp The factor the replay is sped up by
+         */
+        public void setSchedule(long startNanos, double speedUp) {
+            trace.setSchedule(startNanos, speedUp);
+        }
+
+        /**
+         * Obtains the user replaying this partition.
+         * @return The user
+         */
+        public int getUser() {
+            return user;
+        }
+
+        /**
+         * Obtains the next request without consuming it. The returned
+         * record is reused by later calls.
+         * @return The next request, or null at the end of the trace
+         */
+        public Record peek() {
+            if (!peeked) {
+                long line = trace.poll(this);
+                if (line < 0l)
+                    return null;
+                trace.parse(line, record);
+                peeked = true;
+            }
+            return record;
+        }
+
+        /**
+         * Obtains and consumes the next request. The returned record is
+         * reused by later calls.
+         * @return The next request, or null at the end of the trace
+         */
+        public Record next() {
+            Record r = peek();
+            peeked = false;
+            return r;
+        }
+    }
+
+    private void parse(long line, Record r) {
+        long end = line;
+        while (end < size && byteAt(end) != '\n')
+            ++end;
+        while (end > line && isSpace(byteAt(end - 1)))
+            --end;
+        long pos = skipSpace(line, end);
+        // The base time is set by the poll returning the line.
+        r.time = parseTime(pos, end) - baseTime;
+        long[] fields = new long[4];
+        for (int i = 0; i < 4; i++) {
+            pos = skipSpace(skipField(pos, end), end);
+            fields[i] = pos;
+        }
+        if (fields[2] == end)
+            throw new IllegalArgumentException("Incomplete request at " +
+                    "offset " + line + " of request trace");
+        r.sessionKey = readField(fields[0], skipField(fields[0], end));
+        r.method = readField(fields[1], skipField(fields[1], end));
+        r.url = readField(fields[2], skipField(fields[2], end));
+        r.body = fields[3] == end ? null : readField(fields[3], end);
+    }
+
+    /**
+     * A request in the trace.
+     */
+    public static class Record {
+
+        long time;
+        String sessionKey;
+        String method;
+        String url;
+        String body;
+
+        /**
+         * Obtains the time of the request relative to the first request
+         * in the trace.
+         * @return The relative time, in microseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Obtains the session key.
+         * @return The session key
+         */
+        public String getSessionKey() {
+            return sessionKey;
+        }
+
+        /**
+         * Obtains the request method.
+         * @return The method, such as GET or POST
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Obtains the request URL. This may be relative to a base URL.
+         * @return The URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Obtains the request body.
+         * @return The body, or null if the request has none
+         */
+        public String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Converts an access log in common or combined log format to a
+     * request trace. The client address is used as session key.
+     * @param args The access log and the trace file
+     * @throws IOException Error reading the log or writing the trace
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java " + RequestTrace.class.getName() +
+                    " access_log trace");
+            System.exit(1);
+        }
+        SimpleDateFormat format = new SimpleDateFormat(
+                "dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+        BufferedReader in = new BufferedReader(new FileReader(args[0]));
+        PrintWriter out = new PrintWriter(new FileWriter(args[1]));
+        int skipped = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                // host ident user [date] "method url protocol" status size
+                int dateStart = line.indexOf('[');
+                int dateEnd = line.indexOf(']', dateStart + 1);
+                int reqStart = line.indexOf('"', dateEnd + 1);
+                int reqEnd = line.indexOf('"', reqStart + 1);
+                int hostEnd = line.indexOf(' ');
+                if (hostEnd <= 0 || dateStart < 0 || dateEnd < 0 ||
+                        reqStart < 0 || reqEnd < 0) {
+                    ++skipped;
+                    continue;
+                }
+                String[] request = line.substring(reqStart + 1, reqEnd).
+                        split(" ");
+                if (request.length < 2) {
+                    ++skipped;
+                    continue;
+                }
+                try {
+                    long time = format.parse(
+                            line.substring(dateStart + 1, dateEnd)).getTime();
+                    out.println(time + " " + line.substring(0, hostEnd) + ' ' +
+                                request[0] + ' ' + request[1]);
+                } catch (ParseException e) {
+                    ++skipped;
+                }
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        if (skipped > 0)
+            System.err.println("Skipped " + skipped + " unrecognized lines.");
+    }
+}
@@ -0,0 +1,646 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The StubServer is a lightweight NIO server used as a load target that is
+ * never the bottleneck. It helps to find out how much load a driver system
+ * can generate and to regression-test the transports. In HTTP mode it
+ * answers each request with a fixed size response, after an optional
+ * delay, and fails a given fraction of the requests with a 500 status.
+ * The response size and delay can be overridden per request with the
+ * size and delay query parameters, i.e. /any/path?size=4096&amp;delay=10.
+ * In echo mode it writes back any data it receives on a TCP connection,
+ * and resets a given fraction of the connections instead.<p>
+ * Connections are spread over a number of selector threads, one per
+ * processor by default. Request bodies are only supported with a
+ * Content-Length. The server can be embedded, as done by FabanHTTPBench,
+ * or run standalone:
+ *
+ * <pre>
+ * %java com.sun.faban.driver.util.StubServer -p 8080 -s 1024 -d 5 -e 0.01
+ * </pre>
+ */
+public class StubServer {
+
+    /** The protocol served by the stub server. */
+    public enum Mode {
+        /** Answer HTTP requests. */
+        HTTP,
+        /** Echo data received on TCP connections. */
+        ECHO
+    }
+
+    private static final byte[] OK_STATUS = "200 OK".getBytes();
+    private static final byte[] ERROR_STATUS =
+                                        "500 Internal Server Error".getBytes();
+    private static final byte[] BAD_REQUEST_STATUS =
+                                        "400 Bad Request".getBytes();
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_SIZE = 65536;
+
+    private static Logger logger = Logger.getLogger(StubServer.class.getName());
+
+    private Mode mode;
+    private int port;
+    private volatile int responseSize = 0;
+    private volatile int delay = 0;
+    private volatile double errorRate = 0d;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private ServerSocketChannel serverChannel;
+    private SelectorThread[] selectorThreads;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    /** Read-only response bodies, by size. */
+    private ConcurrentHashMap<Integer, ByteBuffer> bodies =
+            new ConcurrentHashMap<Integer, ByteBuffer>();
+
+    /**
+     * Constructs a stub server. Use port 0 to listen on any free port.
+     * @param mode The protocol to serve
+     * @param port The port to listen to
+     */
+    public StubServer(Mode mode, int port) {
+        this.mode = mode;
+        this.port = port;
+    }
+
+    /**
+     * Sets the default size of the response bodies in HTTP mode.
+     * @param responseSize The response size in bytes
+     */
+    public void setResponseSize(int responseSize) {
+        if (responseSize < 0)
+            throw new IllegalArgumentException("Invalid response size " +
+                                               responseSize);
+        this.responseSize = responseSize;
+    }
+
+    /**
+     * Sets the default delay before responding.
+     * @param delay The delay in milliseconds
+     */
+    public void setDelay(int delay) {
+        if (delay < 0)
+            throw new IllegalArgumentException("Invalid delay " + delay);
+        this.delay = delay;
+    }
+
+    /**
+     * Sets the fraction of requests to fail in HTTP mode, or the fraction
+     * of reads resetting the connection in echo mode.
+     * @param errorRate The error rate, between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        if (errorRate < 0d || errorRate > 1d)
+            throw new IllegalArgumentException("Invalid error rate " +
+                                               errorRate);
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the number of selector threads serving the connections.
+     * @param threads The number of selector threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid thread count " +
+                                               threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Starts listening and serving connections.
+     * @throws IOException Cannot listen to the port
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port), 1024);
+        port = serverChannel.socket().getLocalPort();
+        running = true;
+        selectorThreads = new SelectorThread[threads];
+        for (int i = 0; i < threads; i++) {
+            selectorThreads[i] = new SelectorThread(i);
+            selectorThreads[i].start();
+        }
+        acceptor = new Thread("StubServer.acceptor") {
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops the server and closes all connections.
+     */
+    public void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, e.getMessage(), e);
+        }
+        for (SelectorThread t : selectorThreads)
+            t.selector.wakeup();
+    }
+
+    /**
+     * Obtains the port the server listens to. This is the actual port if
+     * the server was constructed with port 0.
+     * @return The port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Obtains the number of requests or echoed reads served.
+     * @return The request count
+     */
+    public long getRequests() {
+        long count = 0l;
+        for (SelectorThread t : selectorThreads)
+            count += t.requests;
+        return count;
+    }
+
+    /**
+     * Obtains the number of injected errors.
+     * @return The error count
+     */
+    public long getErrors() {
+        long count = 0l;
+        for (SelectorThread t : selectorThreads)
+            count += t.errors;
+        return count;
+    }
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                channel.configureBlocking(false);
+                selectorThreads[next].register(channel);
+                if (++next == selectorThreads.length)
+                    next = 0;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running)
+                    logger.log(Level.WARNING, "Error accepting connection.",
+                               e);
+            }
+        }
+    }
+
+    /**
+     * Obtains a read-only response body of the given size. The bodies are
+     * shared by all connections.
+     * @param size The body size
+     * @return A new view of the body
+     */
+    private ByteBuffer getBody(int size) {
+        ByteBuffer body = bodies.get(size);
+        if (body == null) {
+            ByteBuffer b = ByteBuffer.allocateDirect(size);
+            for (int i = 0; i < size; i++)
+                b.put((byte) ('a' + i % 26));
+            b.flip();
+            body = b.asReadOnlyBuffer();
+            ByteBuffer old = bodies.putIfAbsent(size, body);
+            if (old != null)
+                body = old;
+        }
+        return body.duplicate();
+    }
+
+    /** The state of a connection. */
+    private static class Connection implements Comparable<Connection> {
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        int scanned;
+        long bodyLeft;
+        boolean keepAlive;
+        boolean error;
+        boolean badRequest;
+        int size;
+        int delay;
+        ByteBuffer[] out;
+        boolean closeAfterWrite;
+        long due;
+
+        public int compareTo(Connection o) {
+            return due < o.due ? -1 : (due == o.due ? 0 : 1);
+        }
+    }
+
+    /** A selector thread serving its share of the connections. */
+    private class SelectorThread extends Thread {
+
+        Selector selector;
+        ConcurrentLinkedQueue<SocketChannel> newChannels =
+                new ConcurrentLinkedQueue<SocketChannel>();
+        PriorityQueue<Connection> delayed = new PriorityQueue<Connection>();
+        Random random = new Random();
+        volatile long requests;
+        volatile long errors;
+
+        SelectorThread(int id) throws IOException {
+            super("StubServer.selector." + id);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (running) {
+                try {
+                    long timeout = 0l;
+                    Connection first = delayed.peek();
+                    if (first != null) {
+                        timeout = (first.due - System.nanoTime()) / 1000000l;
+                        if (timeout < 1l)
+                            timeout = 1l;
+                    }
+                    selector.select(timeout);
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        Connection c = new Connection();
+                        c.channel = channel;
+                        c.key = channel.register(selector,
+                                                 SelectionKey.OP_READ, c);
+                    }
+                    Iterator<SelectionKey> iter =
+                            selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (!key.isValid())
+                                continue;
+                            if (key.isReadable())
+                                read(c);
+                            else if (key.isWritable())
+                                write(c);
+                        } catch (IOException e) {
+                            close(c);
+                        } catch (RuntimeException e) {
+                            logger.log(Level.WARNING, getName() +
+                                       ": Error serving connection.", e);
+                            close(c);
+                        }
+                    }
+                    long now = System.nanoTime();
+                    while ((first = delayed.peek()) != null &&
+                            first.due <= now) {
+                        delayed.poll();
+                        if (!first.key.isValid())
+                            continue;
+                        try {
+                            write(first);
+                        } catch (IOException e) {
+                            close(first);
+                        } catch (RuntimeException e) {
+                            logger.log(Level.WARNING, getName() +
+                                       ": Error serving connection.", e);
+                            close(first);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, getName() + ": Select failed.",
+                               e);
+                }
+            }
+            for (SelectionKey key : selector.keys())
+                close((Connection) key.attachment());
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, e.getMessage(), e);
+            }
+        }
+
+        private void read(Connection c) throws IOException {
+            if (!c.in.hasRemaining()) {
+                if (c.in.capacity() >= MAX_HEADER_SIZE) {
+                    close(c);
+                    return;
+                }
+                ByteBuffer in = ByteBuffer.allocate(c.in.capacity() * 2);
+                c.in.flip();
+                in.put(c.in);
+                c.in = in;
+            }
+            if (c.channel.read(c.in) < 0) {
+                close(c);
+                return;
+            }
+            if (mode == Mode.ECHO)
+                echo(c);
+            else
+                process(c);
+        }
+
+        private void echo(Connection c) throws IOException {
+            if (c.in.position() == 0)
+                return;
+            ++requests;
+            if (errorRate > 0d && random.drandom(0d, 1d) < errorRate) {
+                ++errors;
+                c.channel.socket().setSoLinger(true, 0);
+                close(c);
+                return;
+            }
+            c.in.flip();
+            c.out = new ByteBuffer[] { c.in };
+            respond(c, delay);
+        }
+
+        /**
+         * Processes the buffered requests of a connection until a response
+         * is pending or more data is needed.
+         */
+        private void process(Connection c) throws IOException {
+            while (c.out == null) {
+                if (c.bodyLeft == 0l && !parseHeader(c))
+                    return;
+                if (c.bodyLeft > 0l) {
+                    int avail = c.in.position();
+                    int skip = (int) Math.min(c.bodyLeft, avail);
+                    consume(c, skip);
+                    c.bodyLeft -= skip;
+                    if (c.bodyLeft > 0l)
+                        return;
+                }
+                buildResponse(c);
+                respond(c, c.delay);
+            }
+        }
+
+        /**
+         * Parses the next request header from the input buffer.
+         * @return true if a header got parsed, false if more data is needed
+         */
+        private boolean parseHeader(Connection c) throws IOException {
+            byte[] buf = c.in.array();
+            int limit = c.in.position();
+            int end = -1;
+            for (int i = Math.max(c.scanned, 3); i < limit; i++)
+                if (buf[i] == '\n' && buf[i - 1] == '\r' &&
+                        buf[i - 2] == '\n' && buf[i - 3] == '\r') {
+                    end = i + 1;
+                    break;
+                }
+            if (end < 0) {
+                c.scanned = limit;
+                return false;
+            }
+            c.scanned = 0;
+            String header = new String(buf, 0, end, "ISO-8859-1");
+            consume(c, end);
+
+            int lineEnd = header.indexOf('\r');
+            String requestLine = header.substring(0, lineEnd);
+            c.keepAlive = requestLine.endsWith("HTTP/1.1");
+            c.size = responseSize;
+            c.delay = delay;
+            c.bodyLeft = 0l;
+            c.badRequest = false;
+            int q = requestLine.indexOf('?');
+            if (q > 0) {
+                int uriEnd = requestLine.indexOf(' ', q);
+                if (uriEnd < 0)
+                    uriEnd = requestLine.length();
+                parseQuery(c, requestLine.substring(q + 1, uriEnd));
+            }
+            int start = lineEnd + 2;
+            while (start < header.length() - 2) {
+                lineEnd = header.indexOf('\r', start);
+                int colon = header.indexOf(':', start);
+                if (colon > 0 && colon < lineEnd) {
+                    String name = header.substring(start, colon).trim();
+                    String value = header.substring(colon + 1, lineEnd).trim();
+                    if ("Content-Length".equalsIgnoreCase(name))
+                        c.bodyLeft = parseLength(value);
+                    else if ("Connection".equalsIgnoreCase(name))
+                        c.keepAlive = "keep-alive".equalsIgnoreCase(value);
+                }
+                start = lineEnd + 2;
+            }
+            if (c.bodyLeft < 0l) {
+                // We cannot tell where the next request starts.
+                c.badRequest = true;
+                c.bodyLeft = 0l;
+            }
+            c.error = errorRate > 0d && random.drandom(0d, 1d) < errorRate;
+            return true;
+        }
+
+        /**
+         * Parses a Content-Length header value.
+         * @return The length, or -1 if the value is not a valid length
+         */
+        private long parseLength(String value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return -1l;
+            }
+        }
+
+        private void parseQuery(Connection c, String query) {
+            int start = 0;
+            while (start < query.length()) {
+                int end = query.indexOf('&', start);
+                if (end < 0)
+                    end = query.length();
+                int eq = query.indexOf('=', start);
+                if (eq > start && eq < end) {
+                    String name = query.substring(start, eq);
+                    try {
+                        int value = Integer.parseInt(
+                                query.substring(eq + 1, end));
+                        if (value >= 0) {
+                            if ("size".equals(name))
+                                c.size = value;
+                            else if ("delay".equals(name))
+                                c.delay = value;
+                        }
+                    } catch (NumberFormatException e) {
+                        // Not one of ours, just ignore.
+                    }
+                }
+                start = end + 1;
+            }
+        }
+
+        private void buildResponse(Connection c) {
+            ++requests;
+            int size = c.size;
+            byte[] status = OK_STATUS;
+            if (c.badRequest) {
+                status = BAD_REQUEST_STATUS;
+                size = 0;
+                c.keepAlive = false;
+            } else if (c.error) {
+                ++errors;
+                status = ERROR_STATUS;
+                size = 0;
+            }
+            StringBuilder b = new StringBuilder(128);
+            b.append("HTTP/1.1 ").append(new String(status)).
+                    append("\r\nContent-Type: application/octet-stream").
+                    append("\r\nContent-Length: ").append(size);
+            if (!c.keepAlive)
+                b.append("\r\nConnection: close");
+            b.append("\r\n\r\n");
+            ByteBuffer head = ByteBuffer.wrap(b.toString().getBytes());
+            if (size > 0)
+                c.out = new ByteBuffer[] { head, getBody(size) };
+            else
+                c.out = new ByteBuffer[] { head };
+            c.closeAfterWrite = !c.keepAlive;
+        }
+
+        private void consume(Connection c, int count) {
+            c.in.flip();
+            c.in.position(count);
+            c.in.compact();
+        }
+
+        private void respond(Connection c, int delay) throws IOException {
+            if (delay > 0) {
+                c.due = System.nanoTime() + delay * 1000000l;
+                c.key.interestOps(0);
+                delayed.add(c);
+            } else {
+                write(c);
+            }
+        }
+
+        private void write(Connection c) throws IOException {
+            c.channel.write(c.out);
+            if (c.out[c.out.length - 1].hasRemaining()) {
+                c.key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            c.out = null;
+            if (c.closeAfterWrite) {
+                close(c);
+                return;
+            }
+            c.key.interestOps(SelectionKey.OP_READ);
+            if (mode == Mode.ECHO)
+                c.in.clear();
+            else
+                process(c);
+        }
+
+        private void close(Connection c) {
+            c.key.cancel();
+            try {
+                c.channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs the stub server standalone until killed.
+     * @param args The command line arguments
+     * @throws Exception Error starting the server
+     */
+    public static void main(String[] args) throws Exception {
+        Mode mode = Mode.HTTP;
+        int port = 8080;
+        int size = 0;
+        int delay = 0;
+        double errorRate = 0d;
+        int threads = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.length() != 2 || arg.charAt(0) != '-' ||
+                        i + 1 >= args.length)
+                    throw new IllegalArgumentException(arg);
+                String value = args[++i];
+                switch (arg.charAt(1)) {
+                    case 'm': mode = Mode.valueOf(value.toUpperCase()); break;
+                    case 'p': port = Integer.parseInt(value); break;
+                    case 's': size = Integer.parseInt(value); break;
+                    case 'd': delay = Integer.parseInt(value); break;
+                    case 'e': errorRate = Double.parseDouble(value); break;
+                    case 't': threads = Integer.parseInt(value); break;
+                    default : throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid argument " + e.getMessage());
+            System.err.println("usage: java com.sun.faban.driver.util." +
+                    "StubServer [-m http|echo] [-p port] [-s size] " +
+                    "[-d delay_ms] [-e error_rate] [-t threads]");
+            System.exit(1);
+        }
+        StubServer server = new StubServer(mode, port);
+        server.setResponseSize(size);
+        server.setDelay(delay);
+        server.setErrorRate(errorRate);
+        if (threads > 0)
+            server.setThreads(threads);
+        server.start();
+        System.out.println("Stub server serving " + mode + " on port " +
+                           server.getPort());
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,135 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.driver.BenchmarkDefinition;
+import com.sun.faban.driver.BenchmarkDriver;
+import com.sun.faban.driver.BenchmarkOperation;
+import com.sun.faban.driver.DriverContext;
+import com.sun.faban.driver.ExpectedException;
+import com.sun.faban.driver.FlatMix;
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.Replay;
+import com.sun.faban.driver.Timing;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TraceReplayDriver replays a recorded HTTP request trace, such as a
+ * production access log converted by {@link RequestTrace}. Each thread
+ * replays the sessions hashed to it at their original relative times.
+ * Each session uses its own HttpTransport so cookies of concurrent
+ * sessions do not mix. To use it, set the run configuration's definition
+ * to this class and set the following driver properties:
+ * <ul>
+ * <li>traceFile - the request trace, relative to the resource directory
+ *     if not absolute</li>
+ * <li>baseURL - prepended to relative URLs in the trace, such as
+ *     http://host:8080</li>
+ * <li>maxSessions - optional, the number of concurrent sessions a thread
+ *     keeps transports for, defaults to 32</li>
+ * </ul>
+ * The speed-up factor is set in the run configuration using a cycleTime
+ * element for the com.sun.faban.driver.engine.Replay class.
+ */
+@BenchmarkDefinition (
+    name = "Trace Replay",
+    version = "1.0",
+    configPrecedence = true
+)
+@BenchmarkDriver (
+    name = "ReplayDriver",
+    threadPerScale = 1
+)
+@FlatMix (
+    operations = { "Replay" },
+    mix = { 1d }
+)
+@Replay
+public class TraceReplayDriver {
+
+    private DriverContext ctx;
+    private String baseURL;
+    private Map<String, HttpTransport> sessions;
+    private ContentSizeStats contentStats;
+
+    /**
+     * Constructs the driver.
+     */
+    public TraceReplayDriver() {
+        ctx = DriverContext.getContext();
+        baseURL = ctx.getProperty("baseURL");
+        if (baseURL != null && baseURL.endsWith("/"))
+            baseURL = baseURL.substring(0, baseURL.length() - 1);
+        String s = ctx.getProperty("maxSessions");
+        final int maxSessions = s == null || s.length() == 0 ? 32 :
+                                Integer.parseInt(s);
+        sessions = new LinkedHashMap<String, HttpTransport>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1l;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, HttpTransport> eldest) {
+                return size() > maxSessions;
+            }
+        };
+        contentStats = new ContentSizeStats(ctx.getOperationCount());
+        ctx.attachMetrics(contentStats);
+    }
+
+    /**
+     * Replays the next request of this thread's trace partition.
+     * @throws IOException Error replaying the request
+     */
+    @BenchmarkOperation (
+        name = "Replay",
+        max90th = 2,
+        timing = Timing.AUTO
+    )
+    public void replay() throws IOException {
+        RequestTrace.Partition partition = RequestTrace.getCurrentPartition();
+        RequestTrace.Record record = partition == null ? null :
+                                     partition.next();
+        if (record == null)
+            throw new ExpectedException("Request trace exhausted");
+        HttpTransport http = sessions.get(record.getSessionKey());
+        if (http == null) {
+            http = HttpTransport.newInstance();
+            sessions.put(record.getSessionKey(), http);
+        }
+        String url = record.getUrl();
+        if (baseURL != null && url.startsWith("/"))
+            url = baseURL + url;
+        int size;
+        if ("POST".equalsIgnoreCase(record.getMethod()))
+            size = http.readURL(url, record.getBody() == null ? "" :
+                                     record.getBody());
+        else
+            size = http.readURL(url);
+        if (ctx.isTxSteadyState())
+            contentStats.sumContentSize[ctx.getOperationId()] += size;
+    }
+}
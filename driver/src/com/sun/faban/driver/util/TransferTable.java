@@ -0,0 +1,204 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.common.TableModel;
+import com.sun.faban.common.Utilities;
+import com.sun.faban.driver.CustomTableMetrics;
+import com.sun.faban.driver.engine.DriverContext;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TransferTable keeps the bytes and times of data transfers for each key,
+ * such as an operation, and reports the transfer throughput as a custom
+ * table in the summary report. Transports use it to report upload
+ * throughput separate from the response time of the operation. Like the
+ * LatencyTable, each thread keeps its own table and the tables get
+ * aggregated at the end of the run.
+ */
+public class TransferTable implements CustomTableMetrics {
+
+    private static final long serialVersionUID = 1l;
+
+    private static ThreadLocal<HashMap<String, TransferTable>> localTables =
+            new ThreadLocal<HashMap<String, TransferTable>>() {
+        @Override
+        protected HashMap<String, TransferTable> initialValue() {
+            return new HashMap<String, TransferTable>();
+        }
+    };
+
+    private String keyHeader;
+    private LinkedHashMap<String, Transfers> transfers =
+            new LinkedHashMap<String, Transfers>();
+
+    /**
+     * Constructs an empty transfer table.
+     * @param keyHeader The header of the key column in the report
+     */
+    public TransferTable(String keyHeader) {
+        this.keyHeader = keyHeader;
+    }
+
+    /**
+     * Obtains the transfer table by the given name for the current thread.
+     * The table is created and attached to the metrics of the thread's
+     * driver context on first use.
+     * @param name The table name as shown in the report
+     * @param keyHeader The header of the key column
+     * @return The transfer table
+     */
+    public static TransferTable getInstance(String name, String keyHeader) {
+        HashMap<String, TransferTable> tables = localTables.get();
+        TransferTable table = tables.get(name);
+        if (table == null) {
+            table = new TransferTable(keyHeader);
+            tables.put(name, table);
+            DriverContext ctx = DriverContext.getContext();
+            if (ctx != null)
+                ctx.attachMetrics(name, table);
+        }
+        return table;
+    }
+
+    /**
+     * Records a transfer for the given key.
+     * @param key The key
+     * @param bytes The number of bytes transferred
+     * @param nanos The transfer time in nanoseconds
+     */
+    public void record(String key, long bytes, long nanos) {
+        Transfers t = transfers.get(key);
+        if (t == null) {
+            t = new Transfers();
+            transfers.put(key, t);
+        }
+        ++t.count;
+        t.bytes += bytes;
+        t.nanos += nanos;
+        t.times.record(nanos);
+    }
+
+    /**
+     * Obtains the number of transfers recorded for a key.
+     * @param key The key
+     * @return The count
+     */
+    public int getCount(String key) {
+        Transfers t = transfers.get(key);
+        return t == null ? 0 : t.count;
+    }
+
+    /**
+     * Obtains the number of bytes recorded for a key.
+     * @param key The key
+     * @return The bytes transferred
+     */
+    public long getBytes(String key) {
+        Transfers t = transfers.get(key);
+        return t == null ? 0l : t.bytes;
+    }
+
+    /**
+     * Aggregates the table of another thread into this one.
+     * @param other The other table
+     */
+    public void add(CustomTableMetrics other) {
+        TransferTable o = (TransferTable) other;
+        for (Map.Entry<String, Transfers> entry : o.transfers.entrySet()) {
+            Transfers t = transfers.get(entry.getKey());
+            if (t == null) {
+                t = new Transfers();
+                transfers.put(entry.getKey(), t);
+            }
+            t.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Obtains the table to be reported. The throughput is the total bytes
+     * over the total transfer time of the key, the rate a single user
+     * sees. Times are in milliseconds.
+     * @return The table model
+     */
+    @SuppressWarnings("boxing")
+    public TableModel getResults() {
+        TableModel table = new TableModel(7, transfers.size());
+        table.setHeader(0, keyHeader);
+        table.setHeader(1, "Count");
+        table.setHeader(2, "Avg Size (KB)");
+        table.setHeader(3, "Total (MB)");
+        table.setHeader(4, "Avg Time (ms)");
+        table.setHeader(5, "90th% Time (ms)");
+        table.setHeader(6, "Throughput (MB/s)");
+        for (Map.Entry<String, Transfers> entry : transfers.entrySet()) {
+            Transfers t = entry.getValue();
+            if (t.count == 0)
+                continue;
+            Comparable[] row = table.newRow();
+            row[0] = Utilities.escapeXML(entry.getKey());
+            row[1] = t.count;
+            row[2] = String.format("%.3f", t.bytes / 1024d / t.count);
+            row[3] = String.format("%.3f", t.bytes / 1048576d);
+            row[4] = String.format("%.3f", t.nanos / 1e6d / t.count);
+            row[5] = String.format("%.3f",
+                                   t.times.getPercentile(90d) / 1e6d);
+            row[6] = t.nanos == 0l ? "N/A" : String.format("%.3f",
+                                   t.bytes * 1e9d / 1048576d / t.nanos);
+        }
+        return table;
+    }
+
+    /**
+     * Makes a deep copy of this table.
+     * @return The copy
+     */
+    @Override
+    public Object clone() {
+        TransferTable clone = new TransferTable(keyHeader);
+        clone.add(this);
+        return clone;
+    }
+
+    /** The accumulated transfers for one key. */
+    private static class Transfers implements java.io.Serializable {
+
+        private static final long serialVersionUID = 1l;
+
+        int count;
+        long bytes;
+        long nanos;
+        LatencyHistogram times = new LatencyHistogram();
+
+        void add(Transfers o) {
+            count += o.count;
+            bytes += o.bytes;
+            nanos += o.nanos;
+            times.add(o.times);
+        }
+    }
+}
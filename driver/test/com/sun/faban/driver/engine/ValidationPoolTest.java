@@ -0,0 +1,105 @@
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.BenchmarkDriver;
+import com.sun.faban.driver.BenchmarkOperation;
+import com.sun.faban.driver.FixedTime;
+import com.sun.faban.driver.RunControl;
+import com.sun.faban.driver.Validator;
+import junit.framework.TestCase;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.logging.Logger;
+
+/**
+ * Test class for the ValidationPool.
+ */
+public class ValidationPoolTest extends TestCase {
+
+    /** A driver with a single operation. */
+    @com.sun.faban.driver.BenchmarkDefinition(name = "Test", version = "1")
+    @BenchmarkDriver(name = "TestDriver")
+    @FixedTime(cycleTime = 1000, cycleDeviation = 2)
+    public static class TestDriver {
+        @BenchmarkOperation(name = "Op", max90th = 1)
+        public void doOp() {
+        }
+    }
+
+    /** A driver thread that never runs. */
+    static class Thread extends AgentThread {
+        void initTimes() {
+        }
+        void doRun() {
+        }
+        void checkRamp() {
+        }
+        boolean isSteadyState() {
+            return true;
+        }
+        boolean isSteadyState(long start, long end) {
+            return true;
+        }
+    }
+
+    public void testValidationErrors() throws Exception {
+        Constructor<RunInfo> c = RunInfo.class.getDeclaredConstructor();
+        c.setAccessible(true);
+        RunInfo runInfo = c.newInstance();
+        runInfo.rampUp = 10;
+        runInfo.stdyState = 60;
+        runInfo.rampDown = 10;
+        runInfo.agentInfo = new RunInfo.AgentInfo();
+        runInfo.driverConfig = new RunInfo.DriverConfig(BenchmarkDefinition.
+                read(TestDriver.class.getName()).drivers[0]);
+        runInfo.driverConfig.runControl = RunControl.TIME;
+        runInfo.driverConfig.graphInterval = 30;
+        Field instance = RunInfo.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, runInfo);
+
+        AgentImpl agent = new AgentImpl("TestDriver", "0");
+        agent.runInfo = runInfo;
+        try {
+            Thread thread = new Thread();
+            thread.agent = agent;
+            thread.name = "TestDriver.0";
+            thread.driverConfig = runInfo.driverConfig;
+            thread.logger = Logger.getLogger(getClass().getName());
+            Metrics metrics = new Metrics(thread);
+            thread.metrics = metrics;
+
+            // Ten operations succeeded in steady state, two in ramp up.
+            metrics.txCntStdy[0] = 10;
+            metrics.txCntTotal[0] = 12;
+            metrics.respSumStdy[0] = 10d;
+            metrics.respSumTotal[0] = 12d;
+
+            // Three responses fail validation, one of them in ramp up.
+            Validator<Boolean> validator = new Validator<Boolean>() {
+                public void validate(Boolean valid) {
+                    if (!valid.booleanValue())
+                        throw new IllegalStateException("Invalid response");
+                }
+            };
+            ValidationPool pool = new ValidationPool(agent, 1, 1);
+            pool.submit(thread, 0, true, Boolean.FALSE, validator);
+            pool.submit(thread, 0, true, Boolean.TRUE, validator);
+            pool.submit(thread, 0, true, Boolean.FALSE, validator);
+            pool.submit(thread, 0, false, Boolean.FALSE, validator);
+            pool.drain(10);
+            pool.fold(thread);
+
+            assertEquals(8, metrics.txCntStdy[0]);
+            assertEquals(9, metrics.txCntTotal[0]);
+            assertEquals(2, metrics.errCntStdy[0]);
+            assertEquals(3, metrics.errCntTotal[0]);
+            assertEquals(8d, metrics.respSumStdy[0], 1e-9);
+            assertEquals(9d, metrics.respSumTotal[0], 1e-9);
+        } finally {
+            UnicastRemoteObject.unexportObject(agent, true);
+            instance.set(null, null);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.sun.faban.driver.transport.jdbc;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import javax.sql.DataSource;
+
+/**
+ * Test class for the TimedJdbc wrappers. No embedded database ships with
+ * Faban, so the test runs against a minimal stand-in database serving
+ * three rows for any query.
+ */
+public class TimedJdbcTest extends TestCase {
+
+    /** Number of statements prepared by the stand-in database. */
+    int prepared;
+
+    /** Number of statements closed in the stand-in database. */
+    int closed;
+
+    private Object standIn(final Class<?> iface) {
+        return Proxy.newProxyInstance(iface.getClassLoader(),
+                new Class<?>[] { iface }, new InvocationHandler() {
+            int row;
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("getConnection".equals(name))
+                    return standIn(Connection.class);
+                if ("prepareStatement".equals(name)) {
+                    ++prepared;
+                    return standIn(PreparedStatement.class);
+                }
+                if ("prepareCall".equals(name)) {
+                    ++prepared;
+                    return standIn(CallableStatement.class);
+                }
+                if ("createStatement".equals(name))
+                    return standIn(Statement.class);
+                if ("executeQuery".equals(name))
+                    return standIn(ResultSet.class);
+                if ("next".equals(name))
+                    return ++row <= 3;
+                if ("getInt".equals(name))
+                    return row;
+                if ("close".equals(name) && iface != ResultSet.class)
+                    ++closed;
+                Class<?> type = method.getReturnType();
+                if (type == boolean.class)
+                    return false;
+                if (type == int.class)
+                    return 0;
+                return null;
+            }
+        });
+    }
+
+    public void testStatementCache() throws Exception {
+        DataSource ds = TimedJdbc.wrap((DataSource) standIn(DataSource.class));
+        Connection c = ds.getConnection();
+        String sql = "SELECT name FROM item WHERE id = ?";
+
+        PreparedStatement s1 = c.prepareStatement(sql);
+        s1.setInt(1, 1);
+        ResultSet rs = s1.executeQuery();
+        int sum = 0;
+        while (rs.next())
+            sum += rs.getInt(1);
+        assertEquals(6, sum);
+        assertTrue(rs.getStatement() == s1);
+        s1.close();
+        assertTrue(s1.isClosed());
+
+        // Preparing again reuses the cached statement.
+        PreparedStatement s2 = c.prepareStatement(sql);
+        assertTrue(s1 == s2);
+        assertEquals(1, prepared);
+
+        // A statement in use must not be shared.
+        PreparedStatement s3 = c.prepareStatement(sql);
+        assertTrue(s2 != s3);
+        assertEquals(2, prepared);
+        s3.close();
+        s2.close();
+        assertEquals(1, closed); // Only the uncached statement.
+
+        c.close();
+        assertEquals(3, closed); // Plus the cached one and the connection.
+    }
+
+    public void testCacheKeys() throws Exception {
+        DataSource ds = TimedJdbc.wrap((DataSource) standIn(DataSource.class));
+        Connection c = ds.getConnection();
+        String sql = "{call update_item(?)}";
+
+        // A call is not served from the prepared statement of its SQL.
+        c.prepareStatement(sql).close();
+        CallableStatement call = c.prepareCall(sql);
+        assertEquals(2, prepared);
+        call.close();
+        assertTrue(c.prepareCall(sql) == call);
+        call.close();
+        assertEquals(2, prepared);
+
+        // Array arguments are part of the key by value.
+        PreparedStatement s1 = c.prepareStatement(sql, new int[] { 1 });
+        s1.close();
+        assertTrue(c.prepareStatement(sql, new int[] { 1 }) == s1);
+        s1.close();
+        PreparedStatement s2 = c.prepareStatement(sql, new String[] { "id" });
+        s2.close();
+        assertTrue(c.prepareStatement(sql, new String[] { "id" }) == s2);
+        s2.close();
+        assertEquals(4, prepared);
+        c.close();
+    }
+
+    public void testTemplate() {
+        assertEquals("SELECT * FROM t1 WHERE a = ? AND b = ? AND c IN (?, ?)",
+                TimedJdbc.templateOf("SELECT *\n  FROM t1 WHERE a = 'it''s' " +
+                "AND b = 42.5 AND c IN (1, 2)"));
+        assertEquals("UPDATE t SET x = ?",
+                TimedJdbc.templateOf("  UPDATE t SET x = 'y'  "));
+    }
+}
@@ -0,0 +1,304 @@
+package com.sun.faban.driver.transport.memcached;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Test class for the MemcachedTransport, against stand-in servers
+ * speaking a subset of the text and binary protocols.
+ */
+public class MemcachedTransportTest extends TestCase {
+
+    private StandIn[] servers;
+    private String[] addresses;
+
+    @Override
+    protected void setUp() throws Exception {
+        servers = new StandIn[3];
+        addresses = new String[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = new StandIn();
+            addresses[i] = "localhost:" + servers[i].getPort();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (StandIn server : servers)
+            server.close();
+    }
+
+    public void testText() throws Exception {
+        exercise(new MemcachedTransport(addresses));
+    }
+
+    public void testBinary() throws Exception {
+        exercise(new MemcachedTransport(MemcachedTransport.Protocol.BINARY,
+                                        addresses));
+    }
+
+    private void exercise(MemcachedTransport mc) throws Exception {
+        assertNull(mc.get("missing"));
+        assertTrue(mc.set("k", "hello".getBytes(), 0));
+        assertEquals("hello", new String(mc.get("k")));
+
+        HashMap<String, byte[]> values = new HashMap<String, byte[]>();
+        for (int i = 0; i < 100; i++)
+            values.put("key" + i, ("value" + i).getBytes());
+        assertEquals(100, mc.setMulti(values, 0));
+
+        // The keys must be spread over all servers.
+        for (StandIn server : servers)
+            assertTrue(server.data.size() > 10);
+
+        Map<String, byte[]> result = mc.getMulti("key1", "key50", "key99",
+                                                 "nokey");
+        assertEquals(3, result.size());
+        assertEquals("value50", new String(result.get("key50")));
+
+        assertTrue(mc.delete("key50"));
+        assertFalse(mc.delete("key50"));
+        assertNull(mc.get("key50"));
+        assertEquals(mc.getServer("key1"), mc.getServer("key1"));
+        mc.close();
+    }
+
+    public void testTextBrokenMultiGet() throws Exception {
+        breakMultiGet(new MemcachedTransport(addresses));
+    }
+
+    public void testBinaryBrokenMultiGet() throws Exception {
+        breakMultiGet(new MemcachedTransport(
+                MemcachedTransport.Protocol.BINARY, addresses));
+    }
+
+    /**
+     * Drops a connection in the middle of a multi-get. The first server
+     * drops, so the multi-get is abandoned with the commands to the other
+     * servers still in flight. The responses on the new connections must
+     * then go with the right commands.
+     */
+    private void breakMultiGet(MemcachedTransport mc) throws Exception {
+        String dropKey = null;
+        for (int i = 0; dropKey == null; i++)
+            if (addresses[0].equals(mc.getServer(StandIn.DROP + i)))
+                dropKey = StandIn.DROP + i;
+        ArrayList<String> keys = new ArrayList<String>();
+        for (int i = 0; keys.size() < 10; i++)
+            if (!addresses[0].equals(mc.getServer("key" + i)))
+                keys.add("key" + i);
+        HashMap<String, byte[]> values = new HashMap<String, byte[]>();
+        for (String key : keys)
+            values.put(key, ("value of " + key).getBytes());
+        assertEquals(keys.size(), mc.setMulti(values, 0));
+
+        keys.add(dropKey);
+        try {
+            mc.getMulti(keys);
+            fail("Dropped connection not detected");
+        } catch (IOException e) {
+            // Expected.
+        }
+        keys.remove(dropKey);
+
+        for (String key : keys) {
+            assertEquals("value of " + key, new String(mc.get(key)));
+            assertTrue(mc.set(key, ("new " + key).getBytes(), 0));
+        }
+        Map<String, byte[]> result = mc.getMulti(keys);
+        assertEquals(keys.size(), result.size());
+        for (String key : keys)
+            assertEquals("new " + key, new String(result.get(key)));
+        mc.close();
+    }
+
+    /**
+     * A minimal memcached stand-in. The protocol is detected from the
+     * first byte of each request. Any request for a key starting with
+     * DROP drops the connection without responding.
+     */
+    static class StandIn extends Thread {
+
+        static final String DROP = "drop";
+
+        ConcurrentHashMap<String, byte[]> data =
+                new ConcurrentHashMap<String, byte[]>();
+        ServerSocket ss;
+
+        StandIn() throws IOException {
+            ss = new ServerSocket(0);
+            setDaemon(true);
+            start();
+        }
+
+        int getPort() {
+            return ss.getLocalPort();
+        }
+
+        void close() throws IOException {
+            ss.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final Socket s = ss.accept();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(s);
+                            } catch (IOException e) {
+                                // Connection closed or dropped.
+                            } finally {
+                                try {
+                                    s.close();
+                                } catch (IOException e) {
+                                    // Ignore.
+                                }
+                            }
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                // Server closed.
+            }
+        }
+
+        void serve(Socket s) throws IOException {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            for (;;) {
+                in.mark(1);
+                int first = in.read();
+                if (first < 0)
+                    return;
+                in.reset();
+                if (first == 0x80)
+                    binary(in, out);
+                else
+                    text(in, out);
+                if (in.available() == 0)
+                    out.flush();
+            }
+        }
+
+        void text(DataInputStream in, DataOutputStream out)
+                throws IOException {
+            String[] cmd = readLine(in).split(" ");
+            for (String word : cmd)
+                if (word.startsWith(DROP))
+                    throw new IOException("Dropping connection");
+            if ("get".equals(cmd[0])) {
+                for (int i = 1; i < cmd.length; i++) {
+                    byte[] v = data.get(cmd[i]);
+                    if (v != null) {
+                        out.writeBytes("VALUE " + cmd[i] + " 0 " + v.length +
+                                "\r\n");
+                        out.write(v);
+                        out.writeBytes("\r\n");
+                    }
+                }
+                out.writeBytes("END\r\n");
+            } else if ("set".equals(cmd[0])) {
+                byte[] v = new byte[Integer.parseInt(cmd[4])];
+                in.readFully(v);
+                readLine(in);
+                data.put(cmd[1], v);
+                out.writeBytes("STORED\r\n");
+            } else if ("delete".equals(cmd[0])) {
+                out.writeBytes(data.remove(cmd[1]) == null ?
+                        "NOT_FOUND\r\n" : "DELETED\r\n");
+            } else {
+                out.writeBytes("ERROR\r\n");
+            }
+        }
+
+        static String readLine(DataInputStream in) throws IOException {
+            StringBuilder b = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n')
+                if (c != '\r')
+                    b.append((char) c);
+            return b.toString();
+        }
+
+        void binary(DataInputStream in, DataOutputStream out)
+                throws IOException {
+            in.readByte();
+            int opcode = in.readUnsignedByte();
+            int keyLength = in.readUnsignedShort();
+            int extLength = in.readUnsignedByte();
+            in.skipBytes(3);
+            int bodyLength = in.readInt();
+            in.skipBytes(12);
+            in.skipBytes(extLength);
+            byte[] k = new byte[keyLength];
+            in.readFully(k);
+            String key = new String(k, "UTF-8");
+            if (key.startsWith(DROP))
+                throw new IOException("Dropping connection");
+            byte[] v = new byte[bodyLength - extLength - keyLength];
+            in.readFully(v);
+            switch (opcode) {
+                case 0x01 : // SET
+                    data.put(key, v);
+                    respond(out, opcode, 0, null, null);
+                    break;
+                case 0x04 : // DELETE
+                    respond(out, opcode, data.remove(key) == null ? 1 : 0,
+                            null, null);
+                    break;
+                case 0x0a : // NOOP
+                    respond(out, opcode, 0, null, null);
+                    break;
+                case 0x0c : // GETK
+                case 0x0d : // GETKQ
+                    byte[] value = data.get(key);
+                    if (value != null)
+                        respond(out, opcode, 0, k, value);
+                    else if (opcode == 0x0c)
+                        respond(out, opcode, 1, k, null);
+                    break;
+                default :
+                    respond(out, opcode, 0x81, null, null);
+            }
+        }
+
+        static void respond(DataOutputStream out, int opcode, int status,
+                            byte[] key, byte[] value) throws IOException {
+            int keyLength = key == null ? 0 : key.length;
+            int extLength = value == null ? 0 : 4;
+            int valueLength = value == null ? 0 : value.length;
+            out.writeByte(0x81);
+            out.writeByte(opcode);
+            out.writeShort(keyLength);
+            out.writeByte(extLength);
+            out.writeByte(0);
+            out.writeShort(status);
+            out.writeInt(extLength + keyLength + valueLength);
+            out.writeInt(0);
+            out.writeLong(0l);
+            if (value != null)
+                out.writeInt(0); // flags
+            if (key != null)
+                out.write(key);
+            if (value != null)
+                out.write(value);
+        }
+    }
+}
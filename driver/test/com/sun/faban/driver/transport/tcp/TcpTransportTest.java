@@ -0,0 +1,286 @@
+package com.sun.faban.driver.transport.tcp;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test class for the TcpTransport, covering framing, pipelining, tagged
+ * responses, and reconnecting after the connection is dropped.
+ */
+public class TcpTransportTest extends TestCase {
+
+    private LineServer lineServer;
+    private FrameServer frameServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        lineServer = new LineServer();
+        frameServer = new FrameServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        lineServer.close();
+        frameServer.close();
+    }
+
+    public void testLengthPrefixed() throws Exception {
+        int[] prefixes = { 1, 2, 4 };
+        int[] maxSizes = { 255, 65535, 70000 };
+        for (int i = 0; i < prefixes.length; i++) {
+            int prefix = prefixes[i];
+            TcpTransport<byte[], byte[]> t = new TcpTransport<byte[], byte[]>(
+                    new LengthPrefixedCodec(prefix));
+            t.connect("localhost", frameServer.getPort());
+            byte[] empty = new byte[0];
+            byte[] big = new byte[maxSizes[i]];
+            Arrays.fill(big, (byte) 7);
+            assertTrue(Arrays.equals(empty, t.call(empty)));
+            assertTrue(Arrays.equals(big, t.call(big)));
+            assertTrue(t.getLastLatency() > 0l);
+            t.close();
+        }
+        try {
+            new LengthPrefixedCodec(1).encode(new byte[256],
+                                              new DataOutputStream(null));
+            fail("Oversized frame encoded");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    public void testPipeline() throws Exception {
+        TcpTransport<String, String> t =
+                new TcpTransport<String, String>(new LineCodec());
+        t.connect("localhost", lineServer.getPort());
+        List<String> requests = new ArrayList<String>();
+        for (int i = 0; i < 50; i++)
+            requests.add("echo " + i);
+        List<String> responses = t.pipeline(requests);
+        assertEquals(50, responses.size());
+        for (int i = 0; i < 50; i++)
+            assertEquals(String.valueOf(i), responses.get(i));
+
+        // call() drains what is still outstanding first.
+        t.send("echo a");
+        t.send("echo b");
+        assertEquals(2, t.getOutstanding());
+        assertEquals("c", t.call("echo c"));
+        assertEquals(0, t.getOutstanding());
+        t.close();
+    }
+
+    public void testTagged() throws Exception {
+        TcpTransport<String, String> t =
+                new TcpTransport<String, String>(new TaggedLineCodec());
+        t.connect("localhost", lineServer.getPort());
+        for (int i = 0; i < 5; i++)
+            t.send("tag" + i + " x" + i);
+        t.flush();
+        // The server answers the batch in reverse.
+        for (int i = 4; i >= 0; i--)
+            assertEquals("tag" + i + " x" + i, t.receive());
+        try {
+            t.send("tag1 y");
+            t.send("tag1 z");
+            fail("Duplicate tag accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        t.close();
+    }
+
+    public void testReconnect() throws Exception {
+        CountingCodec codec = new CountingCodec();
+        TcpTransport<String, String> t =
+                new TcpTransport<String, String>(codec);
+        t.connect("localhost", lineServer.getPort());
+        assertEquals("1", t.call("echo 1"));
+        int resets = codec.resets;
+
+        // The server drops the connection with requests outstanding.
+        t.send("echo 2");
+        t.send("quit");
+        t.send("echo 3");
+        assertEquals("2", t.receive());
+        try {
+            t.receive();
+            fail("Dropped connection not detected");
+        } catch (EOFException e) {
+            // Expected.
+        }
+        assertFalse(t.isConnected());
+        assertEquals(0, t.getOutstanding());
+        assertTrue(codec.resets > resets);
+        assertTrue(codec.pending.isEmpty());
+
+        try {
+            t.send("echo 4");
+            fail("Sent while not connected");
+        } catch (IOException e) {
+            // Expected.
+        }
+        t.connect("localhost", lineServer.getPort());
+        assertEquals("5", t.call("echo 5"));
+        assertTrue(codec.pending.isEmpty());
+        t.close();
+    }
+
+    /** A line codec keeping the requests awaiting a response. */
+    static class CountingCodec extends LineCodec {
+
+        int resets;
+        List<String> pending = new ArrayList<String>();
+
+        @Override
+        public void encode(String request, OutputStream out)
+                throws IOException {
+            super.encode(request, out);
+            pending.add(request);
+        }
+
+        @Override
+        public String decode(InputStream in) throws IOException {
+            String response = super.decode(in);
+            pending.remove(0);
+            return response;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            pending.clear();
+            ++resets;
+        }
+    }
+
+    /** A line codec tagging each line with its first word. */
+    static class TaggedLineCodec extends LineCodec
+            implements TaggedFrameCodec<String, String> {
+
+        public Object getTag(String request) {
+            return request.substring(0, request.indexOf(' '));
+        }
+
+        public Object getResponseTag(String response) {
+            return getTag(response);
+        }
+    }
+
+    /** A test server accepting connections, one thread each. */
+    abstract static class Server extends Thread {
+
+        ServerSocket ss;
+
+        Server() throws IOException {
+            ss = new ServerSocket(0);
+            setDaemon(true);
+            start();
+        }
+
+        int getPort() {
+            return ss.getLocalPort();
+        }
+
+        void close() throws IOException {
+            ss.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final Socket s = ss.accept();
+                    Thread t = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                serve(s);
+                            } catch (IOException e) {
+                                // Connection closed.
+                            } finally {
+                                try {
+                                    s.close();
+                                } catch (IOException e) {
+                                    // Ignore.
+                                }
+                            }
+                        }
+                    };
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException e) {
+                // Server closed.
+            }
+        }
+
+        abstract void serve(Socket s) throws IOException;
+    }
+
+    /**
+     * Answers "echo x" with "x", drops the connection on "quit", and
+     * answers batches of tagged lines in reverse order.
+     */
+    static class LineServer extends Server {
+
+        LineServer() throws IOException {
+        }
+
+        void serve(Socket s) throws IOException {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(s.getInputStream(), "UTF-8"));
+            PrintWriter out = new PrintWriter(s.getOutputStream());
+            ArrayList<String> batch = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if ("quit".equals(line)) {
+                    out.flush();
+                    return;
+                } else if (line.startsWith("echo ")) {
+                    out.print(line.substring(5) + "\r\n");
+                } else {
+                    batch.add(line);
+                    if (in.ready())
+                        continue;
+                    for (int i = batch.size() - 1; i >= 0; i--)
+                        out.print(batch.get(i) + "\r\n");
+                    batch.clear();
+                }
+                if (!in.ready())
+                    out.flush();
+            }
+        }
+    }
+
+    /** Echoes all bytes, so any length prefixed frame comes back as is. */
+    static class FrameServer extends Server {
+
+        FrameServer() throws IOException {
+        }
+
+        void serve(Socket s) throws IOException {
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.sun.faban.driver.transport.util;
+
+import junit.framework.TestCase;
+
+import java.net.URI;
+
+/**
+ * Test class for the CookieJar.
+ */
+public class CookieJarTest extends TestCase {
+
+    public void testSelect() throws Exception {
+        CookieJar jar = new CookieJar();
+        URI uri = new URI("http://www.example.com/shop/cart");
+        jar.parse("a=1", uri);
+        jar.parse("b=2; Path=/", uri);
+        jar.parse("c=3; Path=/shop/cart; Domain=example.com", uri);
+        jar.parse("d=4; Path=/; Secure", uri);
+
+        String[] h = jar.getRequestHeaders("www.example.com", 80,
+                "/shop/cart", false);
+        assertEquals(1, h.length);
+        // Longest path first, then in the order set.
+        assertEquals("c=3; a=1; b=2", h[0]);
+        // Cached headers are returned on the same matching path.
+        assertTrue(h == jar.getRequestHeaders("www.example.com", 80,
+                "/shop/cart/view", false));
+        assertEquals("b=2", jar.getRequestHeaders("www.example.com", 80,
+                "/other", false)[0]);
+        assertEquals("b=2; d=4", jar.getRequestHeaders("www.example.com",
+                443, "/", true)[0]);
+        assertEquals("c=3", jar.getRequestHeaders("img.example.com", 80,
+                "/shop/cart", false)[0]);
+        assertEquals(0, jar.getRequestHeaders("www.example.org", 80,
+                "/", false).length);
+    }
+
+    public void testIntern() throws Exception {
+        String s = CookieJar.intern(new String("JSESSIONID"));
+        assertTrue(s == CookieJar.intern(new String("JSESSIONID")));
+        assertEquals("JSESSIONID", s);
+        assertNull(CookieJar.intern(null));
+    }
+
+    public void testReplaceAndExpire() throws Exception {
+        CookieJar jar = new CookieJar();
+        URI uri = new URI("http://host/");
+        jar.parse("s=1", uri);
+        jar.parse("t=1", uri);
+        String[] h = jar.getRequestHeaders("host", 80, "/", false);
+        assertEquals("s=1; t=1", h[0]);
+        jar.parse("s=2", uri);
+        assertEquals(2, jar.size());
+        assertEquals("s=2; t=1",
+                jar.getRequestHeaders("host", 80, "/", false)[0]);
+        jar.parse("t=x; Max-Age=0", uri);
+        assertEquals(1, jar.size());
+        assertEquals("s=2", jar.getRequestHeaders("host", 80, "/", false)[0]);
+        assertEquals("2", jar.getValuesByName("s")[0]);
+    }
+
+    public void testVersions() throws Exception {
+        CookieJar jar = new CookieJar();
+        URI uri = new URI("http://host:8080/app/");
+        jar.parse("n=1", uri);
+        jar.parse("v=2; Version=1; Path=/app; Port=8080", uri);
+        String[] h = jar.getRequestHeaders("host", 8080, "/app/x", false);
+        assertEquals(2, h.length);
+        assertEquals("n=1", h[0]);
+        assertEquals("$Version=\"1\"; v=2; $Path=/app; $Port=8080", h[1]);
+        assertEquals(1, jar.getRequestHeaders("host", 80, "/app/x",
+                false).length);
+    }
+}
@@ -0,0 +1,118 @@
+package com.sun.faban.driver.util;
+
+import junit.framework.TestCase;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+
+/**
+ * Test class for the DataFeeder.
+ */
+public class DataFeederTest extends TestCase {
+
+    private static final int ROWS = 1000;
+
+    private File csv;
+    private File bin;
+    private Object run = new Object();
+
+    @Override
+    protected void setUp() throws Exception {
+        csv = File.createTempFile("feedertest", ".csv");
+        PrintWriter w = new PrintWriter(csv);
+        w.print("# id,name,score\r\n");
+        for (int i = 0; i < ROWS; i++)
+            w.print(i + ",user" + i + ", -" + (i * 3) + "\r\n");
+        w.close();
+        bin = File.createTempFile("feedertest", ".bin");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(bin));
+        for (int i = 0; i < ROWS; i++) {
+            out.writeInt(i);
+            out.writeLong(i * 1000000000l);
+        }
+        out.close();
+    }
+
+    @Override
+    protected void tearDown() {
+        csv.delete();
+        bin.delete();
+    }
+
+    public void testFields() throws Exception {
+        DataFeeder f = DataFeeder.getInstance(csv, 0,
+                DataFeeder.Access.SEQUENTIAL, run, 1, 0, new Random());
+        assertEquals(ROWS, f.getRowCount());
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(f.next());
+            assertEquals(i, f.getRow());
+            assertEquals(3, f.getFieldCount());
+            assertEquals(i, f.getInt(0));
+            b.setLength(0);
+            assertEquals("user" + i, f.appendField(1, b).toString());
+            assertEquals(-i * 3l, f.getLong(2));
+        }
+        assertTrue(f.next()); // Wraps around.
+        assertEquals(0, f.getRow());
+        assertEquals("user0", f.getString(1));
+        byte[] buf = new byte[2];
+        assertEquals(2, f.getBytes(1, buf, 0));
+        assertEquals('u', buf[0]);
+        try {
+            f.getInt(1);
+            fail("Not a number");
+        } catch (NumberFormatException e) {
+            // Expected.
+        }
+    }
+
+    public void testUnique() throws Exception {
+        boolean[] seen = new boolean[ROWS];
+        int users = 7;
+        for (int u = 0; u < users; u++) {
+            DataFeeder f = DataFeeder.getInstance(csv, 0,
+                    DataFeeder.Access.UNIQUE, run, users, u, new Random());
+            while (f.next()) {
+                int id = f.getInt(0);
+                assertEquals(f.getRow(), id);
+                assertFalse(seen[id]);
+                seen[id] = true;
+            }
+        }
+        for (boolean s : seen)
+            assertTrue(s);
+    }
+
+    public void testRandomAccess() throws Exception {
+        DataFeeder r = DataFeeder.getInstance(csv, 0,
+                DataFeeder.Access.RANDOM, run, 4, 1, new Random(1));
+        DataFeeder z = DataFeeder.getInstance(csv, 0,
+                DataFeeder.Access.ZIPFIAN, run, 4, 1, new Random(1));
+        int[] hits = new int[ROWS];
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(r.next());
+            assertEquals(r.getRow(), r.getInt(0));
+            assertTrue(z.next());
+            assertEquals(z.getRow(), z.getInt(0));
+            ++hits[(int) z.getRow()];
+        }
+        // The first rows are the most popular.
+        assertTrue(hits[0] > hits[1] && hits[1] > hits[10] &&
+                   hits[10] > hits[500]);
+    }
+
+    public void testBinary() throws Exception {
+        DataFeeder f = DataFeeder.getInstance(bin, 12,
+                DataFeeder.Access.RANDOM, run, 1, 0, new Random());
+        assertEquals(ROWS, f.getRowCount());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(f.next());
+            assertEquals(12, f.getRowLength());
+            assertEquals(f.getRow(), f.readInt(0));
+            assertEquals(f.getRow() * 1000000000l, f.readLong(4));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.sun.faban.driver.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Test class for the LatencyHistogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBuckets() {
+        long last = 0l;
+        for (long micros = 0l; micros < 1000000l; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(bucket >= 0 && bucket < LatencyHistogram.BUCKETS);
+            // The value must be below the bucket's upper bound and the
+            // buckets must increase monotonically.
+            assertTrue(micros < LatencyHistogram.upperBound(bucket));
+            assertTrue(bucket >= last);
+            last = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1,
+                LatencyHistogram.bucketOf(Long.MAX_VALUE / 1000l));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            h.record(i * 1000000l); // 1 to 1000 ms
+        assertEquals(1000, h.getCount());
+        assertEquals(500.5e6d, h.getMean(), 1d);
+        assertEquals(1000000000l, h.getMax());
+        assertEquals(1000000l, h.getMin());
+
+        // Relative error of the percentiles must be within 12.5%.
+        long p90 = h.getPercentile(90d);
+        assertTrue(p90 >= 900000000l && p90 <= 900000000l * 1.125d);
+        long p50 = h.getPercentile(50d);
+        assertTrue(p50 >= 500000000l && p50 <= 500000000l * 1.125d);
+        assertEquals(h.getMax(), h.getPercentile(100d));
+    }
+
+    public void testAdd() {
+        LatencyHistogram h1 = new LatencyHistogram();
+        LatencyHistogram h2 = new LatencyHistogram();
+        h1.record(1000l);
+        h2.record(5000000l);
+        LatencyHistogram clone = (LatencyHistogram) h1.clone();
+        h1.add(h2);
+        assertEquals(2, h1.getCount());
+        assertEquals(5000000l, h1.getMax());
+        assertEquals(1000l, h1.getMin());
+        assertEquals(1, clone.getCount());
+    }
+}
@@ -0,0 +1,101 @@
+package com.sun.faban.driver.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+/**
+ * Test class for the Payload.
+ */
+public class PayloadTest extends TestCase {
+
+    private File file;
+    private byte[] data;
+
+    @Override
+    protected void setUp() throws Exception {
+        data = new byte[200000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i * 31);
+        file = File.createTempFile("payloadtest", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testShared() throws Exception {
+        Payload p = Payload.getInstance(file);
+        assertTrue(p == Payload.getInstance(file.getPath()));
+        assertEquals(data.length, p.length());
+        assertEquals(file.getName(), p.getName());
+    }
+
+    public void testWriteTo() throws Exception {
+        Payload p = Payload.getInstance(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        p.writeTo(out);
+        assertTrue(java.util.Arrays.equals(data, out.toByteArray()));
+
+        // Regions through the stream and the channel.
+        Payload r = p.region(70000, 100000);
+        out.reset();
+        r.writeTo(out);
+        checkRegion(out.toByteArray(), 70000, 100000);
+        out.reset();
+        r.writeTo(Channels.newChannel(out));
+        checkRegion(out.toByteArray(), 70000, 100000);
+
+        // And to a file, by transferTo.
+        File copy = File.createTempFile("payloadtest", ".bin");
+        try {
+            FileOutputStream fout = new FileOutputStream(copy);
+            r.region(10, 20).writeTo(fout);
+            fout.close();
+            assertEquals(20, copy.length());
+            FileInputStream in = new FileInputStream(copy);
+            byte[] b = new byte[20];
+            assertEquals(20, in.read(b));
+            in.close();
+            checkRegion(b, 70010, 20);
+        } finally {
+            copy.delete();
+        }
+    }
+
+    public void testInputStream() throws Exception {
+        InputStream in = Payload.getInstance(file).region(5, 70000).
+                getInputStream();
+        assertEquals(data[5] & 0xff, in.read());
+        byte[] b = new byte[100000];
+        int n, total = 0;
+        while ((n = in.read(b, total, b.length - total)) > 0)
+            total += n;
+        assertEquals(69999, total);
+        assertEquals(-1, in.read());
+    }
+
+    public void testBadRegion() throws Exception {
+        try {
+            Payload.getInstance(file).region(data.length - 1, 2);
+            fail("Region outside the payload");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    private void checkRegion(byte[] b, int offset, int length) {
+        assertEquals(length, b.length);
+        for (int i = 0; i < length; i++)
+            assertEquals(data[offset + i], b[i]);
+    }
+}
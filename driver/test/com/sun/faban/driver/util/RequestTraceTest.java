@@ -0,0 +1,101 @@
+package com.sun.faban.driver.util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test class for the RequestTrace.
+ */
+public class RequestTraceTest extends TestCase {
+
+    public void testPartitions() throws Exception {
+        File file = File.createTempFile("trace", ".txt");
+        file.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.println("# time session method url body");
+        for (int i = 0; i < 200; i++)
+            out.println((1000000 + i * 10) + ".5 s" + (i % 17) + " " +
+                    (i % 5 == 0 ? "POST /post/" + i + " a=b&c=d" :
+                                  "GET /get/" + i));
+        out.println();
+        out.close();
+
+        // Two agents with two users each must replay every request once,
+        // and all requests of a session by the same user.
+        HashMap<String, Integer> sessionUsers = new HashMap<String, Integer>();
+        Set<String> urls = new HashSet<String>();
+        for (int agent = 0; agent < 2; agent++) {
+            Object run = new Object();
+            for (int user = agent * 2; user < agent * 2 + 2; user++) {
+                RequestTrace.Partition p = RequestTrace.getPartition(file,
+                        run, 4, agent * 2, 2, user);
+                assertTrue(p == RequestTrace.getCurrentPartition());
+                long last = -1l;
+                RequestTrace.Record r;
+                while ((r = p.next()) != null) {
+                    assertTrue(r.getTime() > last);
+                    last = r.getTime();
+                    Integer u = sessionUsers.put(r.getSessionKey(), user);
+                    assertTrue(u == null || u.intValue() == user);
+                    assertTrue(urls.add(r.getUrl()));
+                    int i = Integer.parseInt(r.getUrl().substring(
+                            r.getUrl().lastIndexOf('/') + 1));
+                    assertEquals(i * 10000l, r.getTime());
+                    if (i % 5 == 0) {
+                        assertEquals("POST", r.getMethod());
+                        assertEquals("a=b&c=d", r.getBody());
+                    } else {
+                        assertEquals("GET", r.getMethod());
+                        assertNull(r.getBody());
+                    }
+                }
+            }
+        }
+        assertEquals(200, urls.size());
+        assertEquals(17, sessionUsers.size());
+    }
+
+    public void testReadAhead() throws Exception {
+        File file = File.createTempFile("trace", ".txt");
+        file.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        for (int i = 0; i < 100; i++)
+            out.println((1000 + i * 100) + " s" + i + " GET /get/" + i);
+        out.close();
+
+        // One user reads the whole trace while the other does not read
+        // until the end. The trace spans 9.9 s, replayed 10 times faster
+        // with a read-ahead of 1 s.
+        long limit = RequestTrace.readAhead;
+        RequestTrace.readAhead = 1000000l;
+        try {
+            Object run = new Object();
+            RequestTrace.Partition reader =
+                    RequestTrace.getPartition(file, run, 2, 0, 2, 0);
+            RequestTrace.Partition idle =
+                    RequestTrace.getPartition(file, run, 2, 0, 2, 1);
+            long start = System.nanoTime();
+            reader.setSchedule(start, 10d);
+            assertNotNull(reader.next());
+            assertTrue(idle.tail - idle.head <= 11);
+            int read = 1;
+            while (reader.next() != null)
+                ++read;
+            assertTrue(System.nanoTime() - start >= 800000000l);
+
+            // The lagging user still gets all its requests.
+            int queued = 0;
+            while (idle.next() != null)
+                ++queued;
+            assertEquals(100, read + queued);
+        } finally {
+            RequestTrace.readAhead = limit;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.sun.faban.driver.util;
+
+import junit.framework.TestCase;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Test class for the StubServer.
+ */
+public class StubServerTest extends TestCase {
+
+    private static String readResponse(InputStream in) throws Exception {
+        StringBuilder header = new StringBuilder();
+        while (!header.toString().endsWith("\r\n\r\n"))
+            header.append((char) in.read());
+        String h = header.toString();
+        int idx = h.indexOf("Content-Length: ") + 16;
+        int length = Integer.parseInt(h.substring(idx, h.indexOf('\r', idx)));
+        for (int i = 0; i < length; i++)
+            assertTrue(in.read() >= 0);
+        return h.substring(9, 12) + ' ' + length;
+    }
+
+    public void testHttp() throws Exception {
+        StubServer server = new StubServer(StubServer.Mode.HTTP, 0);
+        server.setResponseSize(100);
+        server.setThreads(1);
+        server.start();
+        try {
+            Socket s = new Socket("localhost", server.getPort());
+            OutputStream out = s.getOutputStream();
+            InputStream in = s.getInputStream();
+            // Two pipelined requests, the first one with a body.
+            out.write(("POST / HTTP/1.1\r\nHost: x\r\nContent-Length: 5" +
+                    "\r\n\r\nhelloGET /a?size=70000&delay=10 HTTP/1.1\r\n" +
+                    "Host: x\r\n\r\n").getBytes());
+            out.flush();
+            assertEquals("200 100", readResponse(in));
+            assertEquals("200 70000", readResponse(in));
+            s.close();
+            assertEquals(2, server.getRequests());
+
+            server.setErrorRate(1d);
+            s = new Socket("localhost", server.getPort());
+            s.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes());
+            assertEquals("500 0", readResponse(s.getInputStream()));
+            s.close();
+            assertEquals(1, server.getErrors());
+        } finally {
+            server.stop();
+        }
+    }
+
+    public void testBadContentLength() throws Exception {
+        StubServer server = new StubServer(StubServer.Mode.HTTP, 0);
+        server.setThreads(1);
+        server.start();
+        try {
+            String[] lengths = { "abc", "-1", "99999999999999999999" };
+            for (String length : lengths) {
+                Socket s = new Socket("localhost", server.getPort());
+                s.getOutputStream().write(("POST / HTTP/1.1\r\n" +
+                        "Content-Length: " + length + "\r\n\r\n").getBytes());
+                InputStream in = s.getInputStream();
+                assertEquals("400 0", readResponse(in));
+                assertEquals(-1, in.read());
+                s.close();
+            }
+
+            // The selector thread must still serve new connections.
+            Socket s = new Socket("localhost", server.getPort());
+            s.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes());
+            assertEquals("200 0", readResponse(s.getInputStream()));
+            s.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    public void testEcho() throws Exception {
+        StubServer server = new StubServer(StubServer.Mode.ECHO, 0);
+        server.start();
+        try {
+            Socket s = new Socket("localhost", server.getPort());
+            s.getOutputStream().write("ping".getBytes());
+            byte[] b = new byte[4];
+            InputStream in = s.getInputStream();
+            for (int i = 0; i < b.length; i++)
+                b[i] = (byte) in.read();
+            assertEquals("ping", new String(b));
+            s.close();
+        } finally {
+            server.stop();
+        }
+    }
+}
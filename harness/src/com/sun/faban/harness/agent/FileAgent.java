@@ -157,4 +157,13 @@ public interface FileAgent extends Remote {
      */
     FileTransfer get(String srcFile, String destFile)
             throws IOException;
+
+    /**
+     * Obtains the endpoint of the transfer server on this agent's host.
+     * Files are streamed to and from this endpoint by the TransferClient,
+     * without going through RMI.
+     * @return The transfer endpoint
+     * @throws IOException If the transfer server cannot be started
+     */
+    TransferEndpoint getTransferEndpoint() throws IOException;
 }
@@ -318,6 +318,17 @@ public class FileAgentImpl extends UnicastRemoteObject
         return t;
     }
 
+    /**
+     * Obtains the endpoint of the transfer server on this agent's host.
+     * The server is started on first use.
+     *
+     * @return The transfer endpoint
+     * @throws IOException If the transfer server cannot be started
+     */
+    public TransferEndpoint getTransferEndpoint() throws IOException {
+        return TransferServer.getInstance().getEndpoint();
+    }
+
     // Registration for RMI serving - used only for stand-alone testing.
 
     /**
@@ -309,9 +309,15 @@ public class ToolAgentImpl extends UnicastRemoteObject implements ToolAgent, Unr
     }
 
     /**
-     * This method is responsible for post processing tools.
+     * This method is responsible for post processing tools. All tools
+     * get post processed even if some fail. Tools already done are
+     * skipped if this is called again to retry the failed tools.
+     * @throws RemoteException If any tool failed, with the first failure
+     *         as cause
      */
-    public void postprocess() {
+    public void postprocess() throws RemoteException {
+        Exception failure = null;
+        int failed = 0;
         for (int i = 0; i < tools.length; i++) {
             if (tools[i] != null){
                 try {
@@ -320,10 +326,16 @@ public class ToolAgentImpl extends UnicastRemoteObject implements ToolAgent, Unr
                 }
                 catch (Exception e) {
                     logger.log(Level.WARNING, "ToolAgent: toolName = " +
-                            toolNames[i] + " cannot stop", e);
+                            toolNames[i] + " cannot postprocess", e);
+                    if (failure == null)
+                        failure = e;
+                    ++failed;
                 }
             }
         }
+        if (failure != null)
+            throw new RemoteException(failed + " tools failed to " +
+                    "postprocess", failure);
     }
 
     /**
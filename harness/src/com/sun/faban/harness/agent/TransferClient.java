@@ -0,0 +1,375 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.agent;
+
+import com.sun.faban.common.FileTransfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.sun.faban.harness.agent.TransferServer.*;
+
+/**
+ * The client side of the transfer server. The methods taking a file agent
+ * obtain the transfer endpoint from the agent and stream the file. A
+ * transfer failing after it got started is resumed up to RESUMES times.
+ * Only these retries resume from the data received, a new transfer
+ * always starts over. The output collection on the master retries
+ * whole hosts on top of this, as set by outputCollection/retries in
+ * harness.xml. If the agent has no transfer server or it cannot be
+ * reached, the file is moved over RMI by FileTransfer instead.<p>
+ * Transfers are compressed unless the file name suggests the file is
+ * compressed already. Setting the system property faban.transfer.compress
+ * to false turns compression off, which is preferable on fast networks.
+ */
+public class TransferClient {
+
+    /** The connect timeout, in ms. */
+    static final int CONNECT_TIMEOUT = 10000;
+
+    /** The number of times a transfer failing part way is resumed. */
+    static final int RESUMES = 2;
+
+    /** The delay before retrying a transfer, growing with each retry. */
+    static final int RETRY_DELAY = 1000;
+
+    private static final String[] COMPRESSED = { ".gz", ".tgz", ".z",
+            ".zip", ".jar", ".bz2", ".xz", ".png", ".jpg", ".gif" };
+
+    private static final boolean COMPRESS_ENABLED = !"false".
+            equalsIgnoreCase(System.getProperty("faban.transfer.compress"));
+
+    private static Logger logger =
+            Logger.getLogger(TransferClient.class.getName());
+
+    /**
+     * An error reported by the transfer server. Retrying does not help.
+     */
+    static class TransferError extends IOException {
+
+        private static final long serialVersionUID = 1l;
+
+        /**
+         * Constructs the error.
+         * @param message The message from the server
+         */
+        TransferError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Checks whether a file should be compressed for transfer.
+     * @param fileName The file name
+     * @return Whether to compress the file
+     */
+    public static boolean isCompressible(String fileName) {
+        if (!COMPRESS_ENABLED)
+            return false;
+        String name = fileName.toLowerCase();
+        for (String suffix : COMPRESSED)
+            if (name.endsWith(suffix))
+                return false;
+        return true;
+    }
+
+    /**
+     * Gets a file from the host of a file agent.
+     * @param agent The file agent
+     * @param srcFile The file on the agent host
+     * @param destFile The file on this host
+     * @return The size of the file
+     * @throws IOException If the transfer fails
+     */
+    public static long get(FileAgent agent, String srcFile, String destFile)
+            throws IOException {
+        TransferEndpoint endpoint = getEndpoint(agent);
+        if (endpoint != null) {
+            boolean compress = isCompressible(srcFile);
+            for (int attempt = 0;; attempt++) {
+                SocketChannel channel = connect(endpoint, attempt);
+                if (channel == null)
+                    break;
+                try {
+                    return get(channel, endpoint, srcFile, destFile,
+                               compress, attempt > 0);
+                } catch (TransferError e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (attempt >= RESUMES)
+                        throw e;
+                    logger.log(Level.WARNING, "Resuming transfer of " +
+                               srcFile + " from " + endpoint, e);
+                } finally {
+                    close(channel);
+                }
+                pause(attempt);
+            }
+        }
+        FileTransfer transfer = agent.get(srcFile, destFile);
+        if (transfer.getSize() != transfer.getTransferSize())
+            throw new IOException("Received " + transfer.getSource() +
+                    "->" + transfer.getDest() + ", " +
+                    transfer.getTransferSize() + " out of " +
+                    transfer.getSize() + " bytes");
+        return transfer.getSize();
+    }
+
+    /**
+     * Pushes a file from this host to the host of a file agent.
+     * @param agent The file agent
+     * @param srcFile The file on this host
+     * @param destFile The file on the agent host
+     * @return The size of the file
+     * @throws IOException If the transfer fails
+     */
+    public static long push(FileAgent agent, String srcFile, String destFile)
+            throws IOException {
+        TransferEndpoint endpoint = getEndpoint(agent);
+        if (endpoint != null) {
+            boolean compress = isCompressible(srcFile);
+            for (int attempt = 0;; attempt++) {
+                SocketChannel channel = connect(endpoint, attempt);
+                if (channel == null)
+                    break;
+                try {
+                    return put(channel, endpoint, srcFile, destFile,
+                               compress, attempt > 0);
+                } catch (TransferError e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (attempt >= RESUMES)
+                        throw e;
+                    logger.log(Level.WARNING, "Resuming transfer of " +
+                               srcFile + " to " + endpoint, e);
+                } finally {
+                    close(channel);
+                }
+                pause(attempt);
+            }
+        }
+        FileTransfer transfer = new FileTransfer(srcFile, destFile);
+        if (agent.push(transfer) != transfer.getSize())
+            throw new IOException("Invalid transfer size");
+        return transfer.getSize();
+    }
+
+    /**
+     * Copies a file from the host of a file agent to a stream.
+     * @param agent The file agent
+     * @param srcFile The file on the agent host
+     * @param out The stream to copy to
+     * @return The size of the file, or -1 if the agent has no reachable
+     *         transfer server and nothing got copied
+     * @throws IOException If the transfer fails
+     */
+    public static long copy(FileAgent agent, String srcFile,
+                            OutputStream out) throws IOException {
+        TransferEndpoint endpoint = getEndpoint(agent);
+        if (endpoint == null)
+            return -1l;
+        SocketChannel channel = connect(endpoint, 0);
+        if (channel == null)
+            return -1l;
+        try {
+            writeRequest(channel, endpoint, GET,
+                         isCompressible(srcFile) ? COMPRESS : 0, srcFile, 0l);
+            DataInputStream in = readStatus(channel);
+            long size = in.readLong();
+            in.readLong(); // Always starts at 0.
+            return receive(in, out, size, isCompressible(srcFile));
+        } finally {
+            close(channel);
+        }
+    }
+
+    private static void pause(int attempt) throws IOException {
+        try {
+            Thread.sleep(RETRY_DELAY * (attempt + 1));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted retrying transfer");
+        }
+    }
+
+    private static TransferEndpoint getEndpoint(FileAgent agent) {
+        try {
+            return agent.getTransferEndpoint();
+        } catch (IOException e) {
+            // Older agents do not have a transfer server.
+            logger.log(Level.FINE, "No transfer endpoint, using RMI.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Connects to the endpoint. The first attempt returns null if the
+     * endpoint cannot be reached, so the caller falls back to RMI.
+     */
+    private static SocketChannel connect(TransferEndpoint endpoint,
+                                         int attempt) throws IOException {
+        try {
+            return connect(endpoint);
+        } catch (IOException e) {
+            if (attempt > 0)
+                throw e;
+            logger.log(Level.FINE, "Cannot reach transfer server at " +
+                       endpoint + ", using RMI.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Connects to a transfer server.
+     * @param endpoint The endpoint of the server
+     * @return The connected channel
+     * @throws IOException If the server cannot be reached
+     */
+    static SocketChannel connect(TransferEndpoint endpoint)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(endpoint.host,
+                                        endpoint.port), CONNECT_TIMEOUT);
+            channel.socket().setSoTimeout(TIMEOUT);
+        } catch (IOException e) {
+            close(channel);
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Gets a file over a connected channel.
+     * @param channel The channel
+     * @param endpoint The endpoint of the server
+     * @param srcFile The file on the server host
+     * @param destFile The file on this host
+     * @param compress Whether to compress the transfer
+     * @param resume Whether to resume from the partially received file
+     *        of a failed attempt, false to discard any partial file
+     * @return The size of the file
+     * @throws IOException If the transfer fails
+     */
+    static long get(SocketChannel channel, TransferEndpoint endpoint,
+                    String srcFile, String destFile, boolean compress,
+                    boolean resume) throws IOException {
+        File part = new File(destFile + PART_SUFFIX);
+        writeRequest(channel, endpoint, GET, compress ? COMPRESS : 0,
+                     srcFile, resume ? part.length() : 0l);
+        DataInputStream in = readStatus(channel);
+        long size = in.readLong();
+        long start = in.readLong();
+        RandomAccessFile raf = new RandomAccessFile(part, "rw");
+        try {
+            raf.setLength(start);
+            FileChannel file = raf.getChannel();
+            file.position(start);
+            receive(in, Channels.newOutputStream(file), size - start,
+                    compress);
+        } finally {
+            raf.close();
+        }
+        complete(part, new File(destFile));
+        logger.finer("Received " + srcFile + " from " + endpoint + ", " +
+                     (size - start) + " of " + size + " bytes.");
+        return size;
+    }
+
+    /**
+     * Puts a file over a connected channel.
+     * @param channel The channel
+     * @param endpoint The endpoint of the server
+     * @param srcFile The file on this host
+     * @param destFile The file on the server host
+     * @param compress Whether to compress the transfer
+     * @param resume Whether the server resumes from its partially
+     *        received file of a failed attempt, false to discard it
+     * @return The size of the file
+     * @throws IOException If the transfer fails
+     */
+    static long put(SocketChannel channel, TransferEndpoint endpoint,
+                    String srcFile, String destFile, boolean compress,
+                    boolean resume) throws IOException {
+        FileInputStream fileIn = new FileInputStream(srcFile);
+        try {
+            FileChannel file = fileIn.getChannel();
+            long size = file.size();
+            writeRequest(channel, endpoint, PUT,
+                         (compress ? COMPRESS : 0) | (resume ? RESUME : 0),
+                         destFile, size);
+            DataInputStream in = readStatus(channel);
+            long start = in.readLong();
+            send(file, start, size - start, channel, compress);
+            readStatus(channel);
+            long received = in.readLong();
+            if (received != size)
+                throw new IOException("Sent " + srcFile + "->" + destFile +
+                        ", " + received + " out of " + size + " bytes");
+            logger.finer("Sent " + srcFile + " to " + endpoint + ", " +
+                         (size - start) + " of " + size + " bytes.");
+            return size;
+        } finally {
+            fileIn.close();
+        }
+    }
+
+    private static void writeRequest(SocketChannel channel,
+                                     TransferEndpoint endpoint, byte op,
+                                     int flags, String fileName,
+                                     long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(endpoint.token);
+        out.writeByte(op);
+        out.writeByte(flags);
+        out.writeUTF(fileName);
+        out.writeLong(value);
+        writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private static DataInputStream readStatus(SocketChannel channel)
+            throws IOException {
+        DataInputStream in =
+                new DataInputStream(channel.socket().getInputStream());
+        if (in.readByte() != OK)
+            throw new TransferError(in.readUTF());
+        return in;
+    }
+}
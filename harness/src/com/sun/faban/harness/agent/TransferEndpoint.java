@@ -0,0 +1,66 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.agent;
+
+import java.io.Serializable;
+
+/**
+ * The address and access token of the transfer server of a file agent.
+ * The endpoint is obtained from the file agent through RMI so only
+ * parties able to call the file agent can use its transfer server.
+ */
+public class TransferEndpoint implements Serializable {
+
+    private static final long serialVersionUID = 1l;
+
+    /** The host name or address of the transfer server. */
+    public final String host;
+
+    /** The port of the transfer server. */
+    public final int port;
+
+    /** The access token expected on each transfer request. */
+    public final long token;
+
+    /**
+     * Constructs the endpoint.
+     * @param host The host name or address
+     * @param port The port
+     * @param token The access token
+     */
+    TransferEndpoint(String host, int port, long token) {
+        this.host = host;
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * Returns the address of the endpoint.
+     * @return The host and port
+     */
+    @Override
+    public String toString() {
+        return host + ':' + port;
+    }
+}
@@ -0,0 +1,412 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.agent;
+
+import com.sun.faban.common.Utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The transfer server streams files to and from the host it runs on. It
+ * complements the file agent for large files, which RMI would otherwise
+ * move in small serialized chunks. Each transfer uses its own connection
+ * and thread, so transfers from many hosts run concurrently.<p>
+ *
+ * A request consists of a magic number, the access token, the operation,
+ * the flags, the file name, and the offset to resume a get or the size
+ * of a put. Uncompressed files are sent with FileChannel.transferTo,
+ * avoiding copies in user space. Compressed transfers use deflate.
+ * Received data goes to a &lt;file&gt;.part file which is renamed when
+ * complete. A retry of an interrupted transfer sets the resume flag and
+ * continues from the data received. Without the flag, a .part file left
+ * by an earlier transfer is discarded.
+ *
+ * @see TransferClient
+ */
+public class TransferServer implements Runnable {
+
+    /** The magic number starting each request. */
+    static final int MAGIC = 0x46425846;
+
+    /** Gets a file from the server. */
+    static final byte GET = 1;
+
+    /** Puts a file to the server. */
+    static final byte PUT = 2;
+
+    /** The status of a successful request. */
+    static final byte OK = 0;
+
+    /** The status of a failed request, followed by the message. */
+    static final byte ERROR = 1;
+
+    /** Flag requesting the data be compressed. */
+    static final byte COMPRESS = 1;
+
+    /** Flag requesting a put to resume from the partially received file. */
+    static final byte RESUME = 2;
+
+    /** The suffix of partially received files. */
+    static final String PART_SUFFIX = ".part";
+
+    /** The I/O buffer size. */
+    static final int BUFFER_SIZE = 65536;
+
+    /** The read timeout, in ms. */
+    static final int TIMEOUT = 300000;
+
+    private static Logger logger =
+            Logger.getLogger(TransferServer.class.getName());
+    private static TransferServer instance;
+
+    private ServerSocketChannel server;
+    private TransferEndpoint endpoint;
+    private ExecutorService pool;
+
+    /**
+     * Obtains the transfer server of this JVM, starting it if needed.
+     * @return The transfer server
+     * @throws IOException If the server cannot be started
+     */
+    public static synchronized TransferServer getInstance()
+            throws IOException {
+        if (instance == null) {
+            TransferServer s = new TransferServer();
+            s.start();
+            instance = s;
+        }
+        return instance;
+    }
+
+    private void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(0));
+
+        // Use the same host name as the RMI stubs, if set.
+        String host = System.getProperty("java.rmi.server.hostname");
+        if (host == null)
+            host = InetAddress.getLocalHost().getHostAddress();
+        endpoint = new TransferEndpoint(host, server.socket().getLocalPort(),
+                                        new SecureRandom().nextLong());
+        pool = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "FileTransfer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Thread acceptor = new Thread(this, "FileTransferAcceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.fine("Transfer server listening at " + endpoint);
+    }
+
+    /**
+     * Obtains the endpoint of this server.
+     * @return The endpoint
+     */
+    public TransferEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Accepts connections, handing each to a transfer thread.
+     */
+    public void run() {
+        for (;;) {
+            final SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Transfer server stopped.", e);
+                return;
+            }
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        serve(channel);
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Transfer failed.", e);
+                    } finally {
+                        close(channel);
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(SocketChannel channel) throws IOException {
+        Socket socket = channel.socket();
+        socket.setSoTimeout(TIMEOUT);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        if (in.readInt() != MAGIC || in.readLong() != endpoint.token) {
+            logger.warning("Rejected transfer request from " +
+                           socket.getRemoteSocketAddress());
+            return;
+        }
+        byte op = in.readByte();
+        byte flags = in.readByte();
+        boolean compress = (flags & COMPRESS) != 0;
+        String fileName = Utilities.convertPath(in.readUTF());
+        long value = in.readLong();
+        if (op == GET)
+            serveGet(channel, fileName, value, compress);
+        else if (op == PUT)
+            servePut(channel, in, fileName, value, compress,
+                     (flags & RESUME) != 0);
+        else
+            writeStatus(channel, ERROR, "Invalid operation " + op);
+    }
+
+    private void serveGet(SocketChannel channel, String fileName,
+                          long offset, boolean compress) throws IOException {
+        FileInputStream fileIn;
+        try {
+            fileIn = new FileInputStream(fileName);
+        } catch (FileNotFoundException e) {
+            writeStatus(channel, ERROR, e.getMessage());
+            return;
+        }
+        try {
+            FileChannel file = fileIn.getChannel();
+            long size = file.size();
+            if (offset < 0 || offset > size)
+                offset = 0l; // Cannot resume, start over.
+            writeStatus(channel, OK, null, size, offset);
+            logger.finer("Sending " + fileName + " from " + offset +
+                         " of " + size + " bytes.");
+            send(file, offset, size - offset, channel, compress);
+        } finally {
+            fileIn.close();
+        }
+    }
+
+    private void servePut(SocketChannel channel, InputStream in,
+                          String fileName, long size, boolean compress,
+                          boolean resume) throws IOException {
+        File part = new File(fileName + PART_SUFFIX);
+        RandomAccessFile raf;
+        try {
+            File dir = part.getParentFile();
+            if (dir != null && !dir.isDirectory())
+                dir.mkdirs();
+            raf = new RandomAccessFile(part, "rw");
+        } catch (FileNotFoundException e) {
+            writeStatus(channel, ERROR, e.getMessage());
+            return;
+        }
+        long received;
+        try {
+            long offset = resume ? raf.length() : 0l;
+            if (offset > size)
+                offset = 0l;
+            raf.setLength(offset);
+            writeStatus(channel, OK, null, offset);
+            logger.finer("Receiving " + fileName + " from " + offset +
+                         " of " + size + " bytes.");
+            FileChannel file = raf.getChannel();
+            file.position(offset);
+            received = offset + receive(in, Channels.newOutputStream(file),
+                                        size - offset, compress);
+        } finally {
+            raf.close();
+        }
+        try {
+            complete(part, new File(fileName));
+        } catch (IOException e) {
+            writeStatus(channel, ERROR, e.getMessage());
+            return;
+        }
+        writeStatus(channel, OK, null, received);
+    }
+
+    /**
+     * Renames a completely received file to its destination.
+     * @param part The received file
+     * @param dest The destination
+     * @throws IOException If the file cannot be renamed
+     */
+    static void complete(File part, File dest) throws IOException {
+        if (dest.exists() && !dest.delete())
+            throw new IOException("Cannot replace " + dest);
+        if (!part.renameTo(dest))
+            throw new IOException("Cannot rename " + part + " to " + dest);
+    }
+
+    /**
+     * Sends a region of a file to a channel.
+     * @param file The file
+     * @param position The start of the region
+     * @param count The size of the region
+     * @param channel The channel
+     * @param compress Whether to compress the data
+     * @throws IOException If the file ends early or the send fails
+     */
+    static void send(FileChannel file, long position, long count,
+                     SocketChannel channel, boolean compress)
+            throws IOException {
+        long end = position + count;
+        if (!compress) {
+            while (position < end) {
+                long sent = file.transferTo(position, end - position,
+                                            channel);
+                if (sent <= 0 && position >= file.size())
+                    throw new EOFException("File truncated at " + position);
+                position += sent;
+            }
+            return;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        DeflaterOutputStream out = new DeflaterOutputStream(
+                Channels.newOutputStream(channel), deflater, BUFFER_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            while (position < end) {
+                buffer.clear();
+                if (end - position < buffer.capacity())
+                    buffer.limit((int) (end - position));
+                int read = file.read(buffer, position);
+                if (read < 0)
+                    throw new EOFException("File truncated at " + position);
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+            out.finish();
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Receives data from a stream.
+     * @param in The stream
+     * @param out Where the data goes
+     * @param count The number of bytes to receive, uncompressed
+     * @param compress Whether the data is compressed
+     * @return The number of bytes received
+     * @throws IOException If the stream ends early or cannot be read
+     */
+    static long receive(InputStream in, OutputStream out, long count,
+                        boolean compress) throws IOException {
+        // Do not close the inflater stream, it would close the connection.
+        Inflater inflater = null;
+        if (compress) {
+            inflater = new Inflater();
+            in = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count;
+        try {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, remaining < buffer.length ?
+                                              (int) remaining : buffer.length);
+                if (read < 0)
+                    throw new EOFException("Transfer ended after " +
+                                           (count - remaining) + " of " +
+                                           count + " bytes");
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            out.flush();
+        } finally {
+            if (inflater != null)
+                inflater.end();
+        }
+        return count - remaining;
+    }
+
+    /**
+     * Writes a status reply, followed by the given numbers.
+     * @param channel The channel
+     * @param status OK or ERROR
+     * @param message The error message, or null
+     * @param values The numbers following the status
+     * @throws IOException If the reply cannot be sent
+     */
+    static void writeStatus(SocketChannel channel, byte status,
+                            String message, long... values)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(status);
+        if (status == ERROR)
+            out.writeUTF(message == null ? "Unknown error" : message);
+        for (long value : values)
+            out.writeLong(value);
+        writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * Writes a buffer fully to a channel.
+     * @param channel The channel
+     * @param buffer The buffer
+     * @throws IOException If the write fails
+     */
+    static void writeFully(SocketChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Closes a channel, ignoring errors.
+     * @param channel The channel
+     */
+    static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINER, "Error closing transfer channel.", e);
+        }
+    }
+}
@@ -224,6 +224,16 @@ public class Config {
     /** Generic thread pool. */
     public static ExecutorService THREADPOOL;
 
+    /** The number of hosts run output is collected from at a time. */
+    public static int COLLECT_THREADS = 8;
+
+    /**
+     * The number of times the master retries collecting the output of a
+     * host after the run, set by outputCollection/retries. Each transfer
+     * also resumes by itself, see TransferClient.RESUMES.
+     */
+    public static int COLLECT_RETRIES = 2;
+
     // Configuration from the file
     /** Whether or not security is enabled. */
     public static boolean SECURITY_ENABLED = false;
@@ -615,6 +625,20 @@ public class Config {
                         AGENT_PORT = Integer.parseInt(v);
                     }
                 }
+                v = xPath.evaluate("outputCollection/threads", root);
+                if (v != null) {
+                    v = v.trim();
+                    if (v.length() > 0) {
+                        COLLECT_THREADS = Math.max(1, Integer.parseInt(v));
+                    }
+                }
+                v = xPath.evaluate("outputCollection/retries", root);
+                if (v != null) {
+                    v = v.trim();
+                    if (v.length() > 0) {
+                        COLLECT_RETRIES = Math.max(0, Integer.parseInt(v));
+                    }
+                }
             } catch (Exception e) {
                 logger.log(Level.SEVERE,
                         "Error reading Faban harness configuration.", e);
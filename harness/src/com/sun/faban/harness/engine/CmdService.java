@@ -31,6 +31,7 @@ import com.sun.faban.harness.ConfigurationException;
 import com.sun.faban.harness.agent.CmdAgent;
 import com.sun.faban.harness.agent.FileAgent;
 import com.sun.faban.harness.agent.FileService;
+import com.sun.faban.harness.agent.TransferClient;
 import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.common.HostRoles;
 import com.sun.faban.harness.util.CmdMap;
@@ -1320,7 +1321,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name
      * @return true if successful, false otherwise
      */
-    public synchronized boolean push(String srcfile,
+    public boolean push(String srcfile,
             String destmachine, String destfile) {
         int didx = machinesList.indexOf(destmachine);
         if (didx == -1) {
@@ -1352,13 +1353,9 @@ final public class CmdService { 	// The final keyword prevents clones
 
         FileAgent destf = filep.get(didx);
         try {
-            FileTransfer transfer = new FileTransfer(srcfile, destfile);
-            logger.fine("Transferring " + transfer.getSource() + "->" +
-                    transfer.getDest() + " size " +
-                    transfer.getSize() + " bytes.");
-            if (destf.push(transfer) != transfer.getSize()) {
-                throw new IOException("Invalid transfer size");
-            }
+            long size = TransferClient.push(destf, srcfile, destfile);
+            logger.fine("Transferred " + srcfile + "->" + destmachine + ':' +
+                    destfile + " size " + size + " bytes.");
         } catch (RemoteException e) {
             Throwable t = e;
             Throwable cause = t.getCause();
@@ -1385,7 +1382,7 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param destfile The destination file name, always full path
      * @return true if successful, false otherwise
      */
-    public synchronized boolean get(String srcmachine, String srcfile,
+    public boolean get(String srcmachine, String srcfile,
             String destfile) {
         int sidx = machinesList.indexOf(srcmachine);
         if (sidx == -1) {
@@ -1410,13 +1407,9 @@ final public class CmdService { 	// The final keyword prevents clones
 
         FileAgent srcf = filep.get(sidx);
         try {
-            FileTransfer transfer = srcf.get(srcfile, destfile);
-            if (transfer.getSize() != transfer.getTransferSize()) {
-                throw new IOException("Received " + transfer.getSource() +
-                        "->" + transfer.getDest() + ", " +
-                        transfer.getTransferSize() + " out of " +
-                        transfer.getSize() + " bytes");
-            }
+            long size = TransferClient.get(srcf, srcfile, destfile);
+            logger.fine("Transferred " + srcmachine + ':' + srcfile + "->" +
+                    destfile + " size " + size + " bytes.");
         } catch (RemoteException e) {
             Throwable t = e;
             Throwable cause = t.getCause();
@@ -1605,21 +1598,31 @@ final public class CmdService { 	// The final keyword prevents clones
      * @param stream The stream to copy the content to
      * @return true/false if copy was successful/failed
      */
-    public synchronized boolean copyToStream(String srcmachine, String srcfile,
+    public boolean copyToStream(String srcmachine, String srcfile,
             OutputStream stream) {
+        FileAgent srcf = findFileAgent(srcmachine);
+        try {
+            // Without a transfer server, read through the file service.
+            if (TransferClient.copy(srcf, srcfile, stream) < 0)
+                return readToStream(srcf, srcmachine, srcfile, stream);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "CmdService: Could not copy " +
+                    srcmachine + ":" + srcfile, e);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean readToStream(FileAgent srcf, String srcmachine,
+                                 String srcfile, OutputStream stream) {
         FileService srcfilep = null;
         byte[] buf = null;
-
-        FileAgent srcf = findFileAgent(srcmachine);
         try {
             srcfilep = srcf.open(srcfile, FileAgent.READ);
 
             // Now loop, reading from src and writing to dest
             while (true) {
                 buf = srcfilep.readBytes(1000000);
-                //	logger.info("           Read " + buf);
-                //	logger.info(buf);
-                //		logger.info(buf.length);
                 stream.write(buf);
                 if (buf.length < 1000000) {
                     break;
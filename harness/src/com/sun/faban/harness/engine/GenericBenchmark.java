@@ -305,6 +305,9 @@ public class GenericBenchmark {
                 return;
             }
 
+            // Tool output and service logs are collected from here on.
+            long collectStart = System.currentTimeMillis();
+
             // s represents the string value of steady state.
             // We only call stop here for benchmarks that do not have
             // a firm length, i.e. no steady state.
@@ -323,6 +326,9 @@ public class GenericBenchmark {
 
             serviceMgr.getLogs();
             needLogs=false;
+            logger.info("Run output collection took " +
+                    (System.currentTimeMillis() - collectStart) / 100 / 10d +
+                    " s.");
 
             try {
                 // Postprocessing may need tools output. So the postRun
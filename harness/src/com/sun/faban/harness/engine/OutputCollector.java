@@ -0,0 +1,187 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.engine;
+
+import com.sun.faban.harness.common.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the run output, such as tool output and service logs, from
+ * all hosts or services in parallel after the run. At most
+ * Config.COLLECT_THREADS sources are collected from at a time, and a
+ * collection task throwing an exception is retried up to
+ * Config.COLLECT_RETRIES times unless the collector is constructed with
+ * its own number of retries. The progress of each source and the
+ * total collection time go to the run log.
+ */
+public class OutputCollector {
+
+    /** The delay before retrying, growing with each retry. */
+    static final int RETRY_DELAY = 1000;
+
+    private static Logger logger =
+            Logger.getLogger(OutputCollector.class.getName());
+
+    private String what;
+    private String unit;
+    private int retries = -1;
+    private List<String> hosts = new ArrayList<String>();
+    private List<Callable<?>> tasks = new ArrayList<Callable<?>>();
+
+    /**
+     * Constructs a collector collecting from hosts.
+     * @param what What is collected, for the log
+     */
+    public OutputCollector(String what) {
+        this(what, "hosts");
+    }
+
+    /**
+     * Constructs a collector.
+     * @param what What is collected, for the log
+     * @param unit What the tasks collect from, in plural, for the log
+     */
+    public OutputCollector(String what, String unit) {
+        this.what = what;
+        this.unit = unit;
+    }
+
+    /**
+     * Constructs a collector with its own number of retries. Tasks that
+     * cannot safely be repeated are collected without retries.
+     * @param what What is collected, for the log
+     * @param unit What the tasks collect from, in plural, for the log
+     * @param retries The number of retries of a failed task
+     */
+    public OutputCollector(String what, String unit, int retries) {
+        this(what, unit);
+        this.retries = retries;
+    }
+
+    /**
+     * Adds a collection task. The task must throw an exception if the
+     * collection failed, so it gets retried and counted as failed.
+     * @param host The host, or any other name the task reports progress as
+     * @param task The task collecting the output of the host
+     */
+    public void add(String host, Callable<?> task) {
+        hosts.add(host);
+        tasks.add(task);
+    }
+
+    /**
+     * Runs the collection tasks and waits for all of them to finish.
+     * @return The number of tasks that failed
+     */
+    public int collect() {
+        final int count = tasks.size();
+        if (count == 0)
+            return 0;
+        long start = System.currentTimeMillis();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    long taskStart = System.currentTimeMillis();
+                    boolean ok = collect(hosts.get(i), tasks.get(i));
+                    String elapsed = seconds(System.currentTimeMillis() -
+                                             taskStart);
+                    int n = done.incrementAndGet();
+                    if (ok) {
+                        logger.info("Collected " + what + " from " +
+                                    hosts.get(i) + " (" + n + '/' + count +
+                                    ") in " + elapsed + " s.");
+                    } else {
+                        failed.incrementAndGet();
+                        logger.warning("Failed collecting " + what +
+                                " from " + hosts.get(i) + " (" + n + '/' +
+                                count + ") after " + elapsed + " s.");
+                    }
+                }
+            }
+        };
+
+        ExecutorService pool = Config.THREADPOOL;
+        int workers = Math.min(count, Config.COLLECT_THREADS) - 1;
+        logger.info("Collecting " + what + " from " + count + ' ' + unit +
+                    ", " + (pool == null ? 1 : workers + 1) + " at a time.");
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        if (pool != null)
+            for (int i = 0; i < workers; i++)
+                futures.add(pool.submit(worker));
+        worker.run();
+        for (Future<?> future : futures)
+            try {
+                future.get();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Error collecting " + what, e);
+            }
+        logger.info("Collected " + what + " from " + count + ' ' + unit +
+                    " in " + seconds(System.currentTimeMillis() - start) +
+                    " s, " +
+                    failed.get() + " failed.");
+        return failed.get();
+    }
+
+    private boolean collect(String host, Callable<?> task) {
+        int retries = this.retries < 0 ? Config.COLLECT_RETRIES :
+                                         this.retries;
+        for (int attempt = 0;; attempt++) {
+            try {
+                task.call();
+                return true;
+            } catch (Exception e) {
+                if (attempt >= retries) {
+                    logger.log(Level.WARNING, "Error collecting " + what +
+                               " from " + host, e);
+                    return false;
+                }
+                logger.log(Level.WARNING, "Error collecting " + what +
+                           " from " + host + ", retrying.", e);
+            }
+            try {
+                Thread.sleep(RETRY_DELAY * (attempt + 1));
+            } catch (InterruptedException e) {
+                logger.warning("Interrupted collecting " + what + " from " +
+                               host);
+                return false;
+            }
+        }
+    }
+
+    private static String seconds(long millis) {
+        return String.valueOf(millis / 100 / 10d);
+    }
+}
@@ -30,6 +30,8 @@ import com.sun.faban.harness.common.Run;
 import com.sun.faban.harness.common.RunId;
 import com.sun.faban.harness.logging.XMLFormatter;
 import com.sun.faban.harness.util.FileHelper;
+import com.sun.faban.harness.webclient.MetricStore;
+import com.sun.faban.harness.webclient.RunIndex;
 import com.sun.faban.harness.webclient.RunRetriever;
 import com.sun.faban.harness.webclient.RunUploader;
 
@@ -336,6 +338,8 @@ public class RunDaemon implements Runnable {
                 currRun = run;
                 gb = new GenericBenchmark(currRun);
                 gb.start();
+                RunIndex.getInstance().update(run.getRunId());
+                MetricStore.getInstance().add(run.getRunId());
 
                 // We could have done the uploads in GenericBenchmark.
                 // But we fetched the remote run here, so we should return it
@@ -33,6 +33,7 @@ import com.sun.faban.harness.tools.MasterToolContext;
 
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,6 +57,7 @@ final public class ToolService {
     private String[] hostNames;
     private Logger logger;
     private boolean runTools;
+    private boolean collected;
 
     private static ToolService toolService;
    
@@ -225,6 +227,7 @@ final public class ToolService {
         }
 
         runTools = true;
+        collected = false;
         return (true);
     }
 
@@ -287,16 +290,21 @@ final public class ToolService {
                         "machine " + hostNames[i] + ".", e);
             }
         }
+
+        // Post-processing transfers the tool output, do all hosts at once.
+        OutputCollector collector = new OutputCollector("tool output");
         for (int i = 0; i < toolAgents.length; i++) {
-            try {
-                if (toolAgents[i] != null)
-                    logger.fine("Post-processing tools on " + hostNames[i]);
-                    toolAgents[i].postprocess();
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Error in post-processing tools on " +
-                        "machine " + hostNames[i] + ".", e);
-            }
+            final ToolAgent toolAgent = toolAgents[i];
+            if (toolAgent != null)
+                collector.add(hostNames[i], new Callable<Object>() {
+                    public Object call() throws RemoteException {
+                        toolAgent.postprocess();
+                        return null;
+                    }
+                });
         }
+        collector.collect();
+        collected = true;
     }
 
     /**
@@ -325,14 +333,33 @@ final public class ToolService {
         if (!runTools || toolAgents == null || toolAgents.length <= 0)
             return;
 
-        for (int i = 0; i < toolAgents.length; i++) {
-            try {
-                if (toolAgents[i] != null)
-                    toolAgents[i].waitFor();
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Error in Stopping tools on " +
-                        "machine " + hostNames[i] + ".", e);
+        // Output was already collected if the tools got stopped.
+        if (collected) {
+            for (int i = 0; i < toolAgents.length; i++) {
+                try {
+                    if (toolAgents[i] != null)
+                        toolAgents[i].waitFor();
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Error in Stopping tools on " +
+                            "machine " + hostNames[i] + ".", e);
+                }
             }
+            return;
+        }
+
+        // Tools finishing by themselves transfer their output before
+        // they are done.
+        OutputCollector collector = new OutputCollector("tool output");
+        for (int i = 0; i < toolAgents.length; i++) {
+            final ToolAgent toolAgent = toolAgents[i];
+            if (toolAgent != null)
+                collector.add(hostNames[i], new Callable<Object>() {
+                    public Object call() throws RemoteException {
+                        toolAgent.waitFor();
+                        return null;
+                    }
+                });
         }
+        collector.collect();
     }
 }
\ No newline at end of file
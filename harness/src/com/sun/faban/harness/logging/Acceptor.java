@@ -28,30 +28,27 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.Selector;
 import java.nio.channels.AsynchronousCloseException;
 import java.util.logging.Logger;
 import java.util.logging.Level;
-import java.util.Queue;
 
 /**
  * The acceptor thread does nothing but accepts incoming network connections.
+ * Each connection is handed to the listener serving the fewest
+ * connections at the time.
  */
 public class Acceptor implements Runnable {
 
     Logger logger = Logger.getLogger(this.getClass().getName());
     ServerSocketChannel acceptChannel;
-    Queue<SocketChannel> acceptQueue;
-    Selector selector;
+    Listener[] listeners;
+    int next = 0;
     boolean isShutdown = false;
 
 
-    Acceptor(LogConfig config, Queue<SocketChannel> acceptQueue,
-             Selector selector)
-            throws IOException {
+    Acceptor(LogConfig config, Listener[] listeners) throws IOException {
 
-        this.acceptQueue = acceptQueue;
-        this.selector = selector;
+        this.listeners = listeners;
         acceptChannel = ServerSocketChannel.open();
         ServerSocket serverSocket = acceptChannel.socket();
         if (config.listenQSize == -1)
@@ -69,8 +66,7 @@ public class Acceptor implements Runnable {
         while (!isShutdown) {
             try {
                 SocketChannel channel = acceptChannel.accept();
-                acceptQueue.add(channel);
-                selector.wakeup();
+                selectListener().accept(channel);
             } catch (AsynchronousCloseException e) {
                 // This happens if another thread calls shutdown.
                 // Do nothing - the accept loop will terminate.
@@ -80,6 +76,26 @@ public class Acceptor implements Runnable {
         }
     }
 
+    /**
+     * Selects the listener with the fewest connections. Ties are broken
+     * round robin so connections arriving together still get spread.
+     * @return The listener to serve the next connection
+     */
+    private Listener selectListener() {
+        Listener selected = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < listeners.length; i++) {
+            Listener listener = listeners[(next + i) % listeners.length];
+            int connections = listener.getConnections();
+            if (connections < min) {
+                min = connections;
+                selected = listener;
+            }
+        }
+        next = (next + 1) % listeners.length;
+        return selected;
+    }
+
     void shutdown() throws IOException {
         isShutdown = true;
         acceptChannel.close();
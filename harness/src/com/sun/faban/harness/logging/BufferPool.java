@@ -0,0 +1,105 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.logging;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct byte buffers used for reading from the agent
+ * connections. Direct buffers are expensive to allocate and are only
+ * reclaimed with the full garbage collection. So rather than having each
+ * connection own a buffer, a buffer is only taken from the pool while a
+ * service thread processes a request on the connection. The buffers are
+ * allocated in slabs and sliced, to keep the number of native allocations
+ * low. Buffers beyond the maximum pool size are not pooled on release
+ * and are left for the garbage collector.
+ */
+public class BufferPool {
+
+    /** The number of buffers allocated together. */
+    static final int SLAB_SIZE = 16;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> pool =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+
+    /**
+     * Constructs the buffer pool.
+     * @param bufferSize The size of each buffer
+     * @param maxPooled The maximum number of buffers kept in the pool
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = Math.max(maxPooled, SLAB_SIZE);
+    }
+
+    /**
+     * Obtains a cleared buffer from the pool, allocating a new slab of
+     * buffers if the pool is empty.
+     * @return The buffer
+     */
+    public ByteBuffer get() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect(bufferSize * SLAB_SIZE);
+        for (int i = 0; i < SLAB_SIZE; i++) {
+            slab.limit((i + 1) * bufferSize);
+            slab.position(i * bufferSize);
+            ByteBuffer slice = slab.slice();
+            if (i == 0)
+                buffer = slice;
+            else
+                release(slice);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * @param buffer The buffer obtained from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.offer(buffer);
+    }
+
+    /**
+     * Obtains the size of the buffers in this pool.
+     * @return The buffer size
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
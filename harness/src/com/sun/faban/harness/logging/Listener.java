@@ -29,12 +29,16 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The generic listener listens to incoming requests and handles them
- * appropriately.
+ * appropriately. Each listener thread owns its selector. The acceptor
+ * hands each new connection to the least loaded listener, which then
+ * serves the connection for its lifetime.
  *
  * @author Akara Sucharitakul
  */
@@ -50,22 +54,22 @@ public class Listener implements Runnable {
 
     private Logger logger;
     private String className;
-    Queue<SocketChannel> acceptQueue;
+    Queue<SocketChannel> acceptQueue =
+            new ConcurrentLinkedQueue<SocketChannel>();
+    private Queue<Registration> registerQueue =
+            new ConcurrentLinkedQueue<Registration>();
+    private AtomicInteger connections = new AtomicInteger();
     private ArrayList taskList = new ArrayList();
-    private boolean isShutdown = false;
+    private volatile boolean isShutdown = false;
 
     /**
-     * Constructs a new listener with this selector. The selector is shared
-     * between multiple listener threads.
-     * @param selector The selector
+     * Constructs a new listener with its own selector.
      * @param config The log configuration
-     * @param acceptQueue The queue for accepted connections
+     * @throws IOException Error opening the selector
      */
-    public Listener(Selector selector, LogConfig config,
-                    Queue<SocketChannel> acceptQueue) {
-        this.selector = selector;
+    public Listener(LogConfig config) throws IOException {
+        this.selector = Selector.open();
         this.config = config;
-        this.acceptQueue = acceptQueue;
         className = this.getClass().getName();
         logger = Logger.getLogger(className);
     }
@@ -85,6 +89,8 @@ public class Listener implements Runnable {
                 selectorOps(selector);
             } catch (CancelledKeyException e) {
                 logger.log(Level.FINER, "Error in selector operation", e);
+            } catch (ClosedSelectorException e) {
+                break;
             } catch (Exception e) {
                 logger.log(Level.SEVERE,  "Error in selector operation", e);
             }
@@ -128,6 +134,13 @@ public class Listener implements Runnable {
                 acceptNewClient(channel);
             } catch (IOException e) {
                 logger.log(Level.WARNING, "Error accepting new client", e);
+                closed();
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.log(Level.FINE, "Error closing socket channel",
+                               ex);
+                }
             }
     }
 
@@ -148,10 +161,50 @@ public class Listener implements Runnable {
     void acceptNewClient(SocketChannel channel) throws IOException {
         channel.configureBlocking(false);
         SelectionKey readKey = channel.register(selector, SelectionKey.OP_READ);
-        RequestProxy proxy = new RequestProxy(config, readKey);
+        RequestProxy proxy = new RequestProxy(config, this, readKey);
         readKey.attach(proxy);
     }
 
+    /**
+     * Hands a newly accepted connection to this listener. The connection
+     * gets registered with the selector from the listener thread.
+     * @param channel The accepted channel
+     */
+    void accept(SocketChannel channel) {
+        connections.incrementAndGet();
+        acceptQueue.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Notifies the listener that one of its connections got closed.
+     */
+    void closed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Obtains the number of open connections served by this listener.
+     * @return The number of connections
+     */
+    int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Adds/changes the channel registration from another thread. The
+     * registration is done by the listener thread before it goes back
+     * to select.
+     * @param channel The channel to register
+     * @param operation The operation of interest
+     * @param attachment The attachment
+     */
+    public void register(SelectableChannel channel, int operation,
+                         Object attachment) {
+        registerQueue.add(new Registration(channel, operation, attachment));
+        selector.wakeup();
+    }
+
 
     /**
      * Hook for additional operations to be taken before the selector goes
@@ -161,6 +214,14 @@ public class Listener implements Runnable {
      * @throws IOException An I/O error occurred
      */
     protected void selectorOps(Selector selector) throws IOException {
+        Registration r;
+        while ((r = registerQueue.poll()) != null)
+            try {
+                r.channel.register(selector, r.operation, r.attachment);
+            } catch (ClosedChannelException e) {
+                logger.log(Level.FINER, "Channel closed before registration",
+                           e);
+            }
     }
 
     void shutdown() {
@@ -178,5 +239,26 @@ public class Listener implements Runnable {
                 logger.log(Level.FINE, "Exception", e);
             }
         }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing selector", e);
+        }
+    }
+
+    /**
+     * A pending channel registration.
+     */
+    private static class Registration {
+        SelectableChannel channel;
+        int operation;
+        Object attachment;
+
+        Registration(SelectableChannel channel, int operation,
+                     Object attachment) {
+            this.channel = channel;
+            this.operation = operation;
+            this.attachment = attachment;
+        }
     }
 }
@@ -74,6 +74,18 @@ public class LogConfig {
     /** The read buffer size. */
     public int readBufferSize = 2048;
 
+    /** The pool of direct buffers for reading from the connections. */
+    public BufferPool bufferPool = null;
+
+    /** The size of the log file append buffer. */
+    public int writeBufferSize = 262144;
+
+    /** The maximum time records stay in the append buffer, in ms. */
+    public int flushInterval = 200;
+
+    /** The writer shared by all log handlers. */
+    public LogWriter logWriter = null;
+
     /**
      * Constructs the log server configuration.
      */
@@ -121,6 +133,14 @@ public class LogConfig {
                 if (v != null && v.length() > 0)
                     readBufferSize = Integer.parseInt(v);
 
+                v = xPath.evaluate("writeBufferSize", logServer);
+                if (v != null && v.length() > 0)
+                    writeBufferSize = Integer.parseInt(v);
+
+                v = xPath.evaluate("flushInterval", logServer);
+                if (v != null && v.length() > 0)
+                    flushInterval = Integer.parseInt(v);
+
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Error reading harness " +
                                             "configuration file. " +
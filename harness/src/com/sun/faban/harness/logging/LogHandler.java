@@ -23,9 +23,6 @@
  */
 package com.sun.faban.harness.logging;
 
-import com.sun.faban.harness.common.Config;
-
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
@@ -36,8 +33,12 @@ import java.nio.channels.SelectionKey;
  */
 public class LogHandler implements ProtocolHandler {
 
+    private static final byte[] RECORD_END = "</record>\n".getBytes();
+    private static final byte[] LOG_END = "</log>\n".getBytes();
+
     private FlexBuffer xBuffer;
     private byte[] writeBuffer;
+    private LogWriter logWriter;
 
     /**
      * Sets the config object.
@@ -45,6 +46,7 @@ public class LogHandler implements ProtocolHandler {
      */
     public void setConfig(LogConfig config) {
         xBuffer = new FlexBuffer(config.readBufferSize);
+        logWriter = config.logWriter;
    }
 
     /**
@@ -52,7 +54,9 @@ public class LogHandler implements ProtocolHandler {
      * @param key The nio selection key
      */
     public void setKey(SelectionKey key) {
-
+        // A new request. Drop any partial record left by a request
+        // on another connection that timed out or got closed.
+        xBuffer.clear();
     }
 
     /**
@@ -66,6 +70,14 @@ public class LogHandler implements ProtocolHandler {
             // Buffer has been written to. Prepare the buffer for reading.
             buffer.flip();
 
+            // If the read holds complete records, as most reads do, hand
+            // the read buffer to the writer as is.
+            if (xBuffer.size() == 0 && (endsWith(buffer, RECORD_END) ||
+                    endsWith(buffer, LOG_END))) {
+                logWriter.write(buffer);
+                return false;
+            }
+
             // Get the data from the direct buffer.
             xBuffer.appendDirect(buffer, count);
 
@@ -83,32 +95,22 @@ public class LogHandler implements ProtocolHandler {
                 //debug.println(xBuffer.toString() + " {end of partial read}");
                 return true;
             }
-            try {
-                /*
-                debug.println(xBuffer.toString() + " {end of read}");
-                debug.flush();
-                debug.close();
-                */
-
-                // Copy out the whole record in one piece
-                int writeSize = xBuffer.size();
-                if (writeBuffer == null || writeBuffer.length < writeSize)
-                    writeBuffer = new byte[(int) (writeSize * 1.25)];
-
-                xBuffer.getBytes(0, writeBuffer, 0, writeSize);
-
-                //Open the log file and dump the record/s
-                String logFile = System.getProperty("faban.log.file");
-                if(logFile == null)
-                    logFile = Config.TMP_DIR + "log.xml";
-                FileOutputStream logStream = new FileOutputStream(logFile, true);
-                logStream.write(writeBuffer, 0, writeSize);
-                logStream.flush();
-                logStream.close();
-            } catch(IOException e) {
-                // if (debug != null)
-                //    e.printStackTrace(debug);
-            }
+            /*
+            debug.println(xBuffer.toString() + " {end of read}");
+            debug.flush();
+            debug.close();
+            */
+
+            // Copy out the whole record in one piece
+            int writeSize = xBuffer.size();
+            if (writeBuffer == null || writeBuffer.length < writeSize)
+                writeBuffer = new byte[(int) (writeSize * 1.25)];
+
+            xBuffer.getBytes(0, writeBuffer, 0, writeSize);
+
+            // Hand the record/s to the shared writer. It keeps the log
+            // file open and writes the records in groups.
+            logWriter.write(writeBuffer, 0, writeSize);
             xBuffer.clear();
         }
         // Return false as we don't care which instance of Handler writes the
@@ -116,6 +118,22 @@ public class LogHandler implements ProtocolHandler {
         return false;
     }
 
+    /**
+     * Checks whether the data in the buffer ends with the given bytes.
+     * @param buffer The buffer, ready for reading
+     * @param end The bytes to check for
+     * @return True if the buffer ends with the bytes, false otherwise
+     */
+    private static boolean endsWith(ByteBuffer buffer, byte[] end) {
+        int offset = buffer.limit() - end.length;
+        if (offset < buffer.position())
+            return false;
+        for (int i = 0; i < end.length; i++)
+            if (buffer.get(offset + i) != end[i])
+                return false;
+        return true;
+    }
+
     /**
      * Creates and writes the response to the channel. Returns write
      * active status. This method should return true if and only if
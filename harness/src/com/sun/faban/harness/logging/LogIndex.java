@@ -0,0 +1,420 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * The LogIndex is the side index of a run log. For each log record, it
+ * keeps the byte offset of the record in the log file together with the
+ * record's level and whether the record carries an exception. The index
+ * is kept in a file next to the log, log.xml.idx, with fixed size entries
+ * so the offset of any record can be found with a single seek.<p>
+ * The log file is written by the log server for the remote records and
+ * by the harness' own file handler for the local ones. Therefore, the
+ * index is not built from the writes but by scanning the complete records
+ * appended to the log file since the last update. The log writer updates
+ * the index after each flush and readers update it before reading, so
+ * only the tail since the last update ever gets scanned. An index that
+ * does not match its log file gets rebuilt.
+ */
+public class LogIndex {
+
+    /** The suffix of the index file name. */
+    public static final String SUFFIX = ".idx";
+
+    /** The exception marker bit in the record markers. */
+    public static final int EXCEPTION = 0x80000000;
+
+    private static final int MAGIC = 0x46424c49;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 12;
+    private static final int CHUNK_SIZE = 65536;
+
+    private static final byte[] RECORD_START = "<record>".getBytes();
+    private static final byte[] RECORD_END = "</record>".getBytes();
+    private static final byte[] LEVEL_START = "<level>".getBytes();
+    private static final byte[] EXCEPTION_START = "<exception>".getBytes();
+
+    private static ConcurrentHashMap<String, LogIndex> indexes =
+            new ConcurrentHashMap<String, LogIndex>();
+
+    private File logFile;
+    private File indexFile;
+
+    /** The offset in the log file up to which records are indexed. */
+    private long indexedTo;
+
+    /** The number of indexed records. */
+    private long recordCount;
+
+    /** The length of the log file header, before the first record. */
+    private long headerLength = -1l;
+
+    private LogIndex(File logFile) {
+        this.logFile = logFile;
+        indexFile = new File(logFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Obtains the index for a log file. All users of the same log file
+     * share the same instance.
+     * @param logFile The log file
+     * @return The index
+     */
+    public static LogIndex getInstance(File logFile) {
+        String path = logFile.getAbsolutePath();
+        LogIndex index = indexes.get(path);
+        if (index == null) {
+            index = new LogIndex(logFile.getAbsoluteFile());
+            LogIndex old = indexes.putIfAbsent(path, index);
+            if (old != null)
+                index = old;
+        }
+        return index;
+    }
+
+    /**
+     * Brings the index up to date with the records appended to the log
+     * file. The trailing record is not indexed until it is complete.
+     * @return The number of records in the log
+     * @throws IOException Error reading the log or writing the index
+     */
+    public synchronized long update() throws IOException {
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        try {
+            FileChannel log;
+            try {
+                log = new FileInputStream(logFile).getChannel();
+            } catch (IOException e) { // No log, no records.
+                index.setLength(0l);
+                indexedTo = 0l;
+                recordCount = 0l;
+                return 0l;
+            }
+            try {
+                long logLength = log.size();
+                readHeader(index);
+                if (indexedTo > logLength) { // Log got replaced.
+                    indexedTo = 0l;
+                    recordCount = 0l;
+                }
+                if (recordCount == 0l)
+                    headerLength = -1l;
+                if (logLength > indexedTo)
+                    scan(log, index, logLength);
+                writeHeader(index);
+            } finally {
+                log.close();
+            }
+        } finally {
+            index.close();
+        }
+        return recordCount;
+    }
+
+    private void readHeader(RandomAccessFile index) throws IOException {
+        long length = index.length();
+        if (length < HEADER_SIZE) {
+            indexedTo = 0l;
+            recordCount = 0l;
+            return;
+        }
+        index.seek(0l);
+        if (index.readInt() != MAGIC || index.readInt() != ENTRY_SIZE) {
+            indexedTo = 0l;
+            recordCount = 0l;
+            return;
+        }
+        indexedTo = index.readLong();
+        recordCount = (length - HEADER_SIZE) / ENTRY_SIZE;
+    }
+
+    private void writeHeader(RandomAccessFile index) throws IOException {
+        index.setLength(HEADER_SIZE + recordCount * ENTRY_SIZE);
+        index.seek(0l);
+        index.writeInt(MAGIC);
+        index.writeInt(ENTRY_SIZE);
+        index.writeLong(indexedTo);
+    }
+
+    /**
+     * Scans the log from the indexed offset and appends the entries of all
+     * complete records to the index.
+     */
+    private void scan(FileChannel log, RandomAccessFile index, long logLength)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        ByteBuffer entries = ByteBuffer.allocate(ENTRY_SIZE * 1024);
+        index.seek(HEADER_SIZE + recordCount * ENTRY_SIZE);
+        long position = indexedTo;
+        while (position < logLength) {
+            buffer.clear();
+            log.read(buffer, position);
+            byte[] b = buffer.array();
+            int limit = buffer.position();
+            int idx = 0;
+            for (;;) {
+                int start = indexOf(b, RECORD_START, idx, limit);
+                if (start < 0) {
+                    // Skip all but a partial start tag at the end.
+                    idx = Math.max(idx, limit - RECORD_START.length + 1);
+                    break;
+                }
+                if (headerLength < 0l && recordCount == 0l)
+                    headerLength = position + start;
+                int end = indexOf(b, RECORD_END, start, limit);
+                if (end < 0) {
+                    idx = start;
+                    break;
+                }
+                int marker = level(b, start, end);
+                if (indexOf(b, EXCEPTION_START, start, end) >= 0)
+                    marker |= EXCEPTION;
+                if (entries.remaining() < ENTRY_SIZE) {
+                    index.write(entries.array(), 0, entries.position());
+                    entries.clear();
+                }
+                entries.putLong(position + start);
+                entries.putInt(marker);
+                ++recordCount;
+                idx = end + RECORD_END.length;
+            }
+            if (idx == 0) { // Record larger than the buffer.
+                if (position + limit >= logLength)
+                    break; // Incomplete, wait for the rest.
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                continue;
+            }
+            position += idx;
+            indexedTo = position;
+        }
+        index.write(entries.array(), 0, entries.position());
+    }
+
+    private static int indexOf(byte[] b, byte[] pattern, int from, int to) {
+        int last = to - pattern.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < pattern.length; j++)
+                if (b[i + j] != pattern[j])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    private static int level(byte[] b, int start, int end) {
+        int idx = indexOf(b, LEVEL_START, start, end);
+        if (idx < 0)
+            return 0;
+        idx += LEVEL_START.length;
+        int levelEnd = idx;
+        while (levelEnd < end && b[levelEnd] != '<')
+            ++levelEnd;
+        try {
+            return Level.parse(new String(b, idx, levelEnd - idx).trim()).
+                    intValue() & ~EXCEPTION;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Obtains the number of indexed records.
+     * @return The record count
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Obtains the offset in the log file up to which the records are
+     * indexed. Bytes after this offset belong to incomplete records.
+     * @return The indexed offset
+     */
+    public synchronized long getIndexedTo() {
+        return indexedTo;
+    }
+
+    /**
+     * Finds the first record starting at or after a given byte offset.
+     * @param offset The byte offset in the log file
+     * @return The record id, or the record count if there is none
+     * @throws IOException Error reading the index
+     */
+    public synchronized long findByOffset(long offset) throws IOException {
+        long low = 0l;
+        long high = recordCount;
+        if (high == 0l)
+            return 0l;
+        RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+        try {
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                index.seek(HEADER_SIZE + mid * ENTRY_SIZE);
+                if (index.readLong() < offset)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+        } finally {
+            index.close();
+        }
+        return low;
+    }
+
+    /**
+     * Reads a range of index entries.
+     * @param from The first record id to read
+     * @param offsets Receives the byte offsets of the records
+     * @param markers Receives the level and exception markers
+     * @return The number of entries read
+     * @throws IOException Error reading the index
+     */
+    public synchronized int read(long from, long[] offsets, int[] markers)
+            throws IOException {
+        if (from < 0l || from >= recordCount)
+            return 0;
+        int count = (int) Math.min(offsets.length, recordCount - from);
+        RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(count * ENTRY_SIZE);
+            FileChannel channel = index.getChannel();
+            long position = HEADER_SIZE + from * ENTRY_SIZE;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0)
+                    break;
+            }
+            buffer.flip();
+            count = buffer.remaining() / ENTRY_SIZE;
+            for (int i = 0; i < count; i++) {
+                offsets[i] = buffer.getLong();
+                markers[i] = buffer.getInt();
+            }
+        } finally {
+            index.close();
+        }
+        return count;
+    }
+
+    /**
+     * Obtains the byte offset of a record in the log file.
+     * @param id The record id, starting at 0
+     * @return The offset, or -1 if the record is not indexed
+     * @throws IOException Error reading the index
+     */
+    public synchronized long getOffset(long id) throws IOException {
+        if (id < 0l || id >= recordCount)
+            return -1l;
+        RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+        try {
+            index.seek(HEADER_SIZE + id * ENTRY_SIZE);
+            return index.readLong();
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Finds the first record at or after the given one with at least the
+     * given level, or carrying an exception.
+     * @param from The record id to start from
+     * @param level The minimum level, i.e. Level.WARNING.intValue()
+     * @return The record id, or -1 if there is none
+     * @throws IOException Error reading the index
+     */
+    public synchronized long find(long from, int level) throws IOException {
+        if (from < 0l)
+            from = 0l;
+        if (from >= recordCount)
+            return -1l;
+        RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = index.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+            long id = from;
+            while (id < recordCount) {
+                buffer.clear();
+                channel.read(buffer, HEADER_SIZE + id * ENTRY_SIZE);
+                buffer.flip();
+                while (buffer.remaining() >= ENTRY_SIZE && id < recordCount) {
+                    buffer.getLong();
+                    int marker = buffer.getInt();
+                    if ((marker & EXCEPTION) != 0 ||
+                            (marker & ~EXCEPTION) >= level)
+                        return id;
+                    ++id;
+                }
+            }
+        } finally {
+            index.close();
+        }
+        return -1l;
+    }
+
+    /**
+     * Opens the log for reading from a given record. The stream starts
+     * with the header of the log file so it can be parsed as XML and the
+     * first record is the requested one.
+     * @param id The record id to start from
+     * @return The input stream, or null if the record is not indexed
+     * @throws IOException Error reading the index or the log
+     */
+    public InputStream getInputStream(long id) throws IOException {
+        long offset;
+        long header;
+        synchronized (this) {
+            offset = getOffset(id);
+            if (offset < 0l)
+                return null;
+            header = headerLength;
+            if (header < 0l)
+                header = headerLength = getOffset(0l);
+        }
+        FileInputStream in = new FileInputStream(logFile);
+        byte[] head = new byte[(int) header];
+        int read = 0;
+        while (read < head.length) {
+            int count = in.read(head, read, head.length - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        in.getChannel().position(offset);
+        return new SequenceInputStream(new ByteArrayInputStream(head, 0, read),
+                                       in);
+    }
+}
@@ -24,9 +24,6 @@
 package com.sun.faban.harness.logging;
 
 import java.io.IOException;
-import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -44,7 +41,6 @@ public class LogServer extends Thread {
     public LogConfig config;
 
     private Logger logger;
-    private Selector selector;
     private Listener[] listeners;
     private Acceptor acceptor;
 
@@ -53,6 +49,8 @@ public class LogServer extends Thread {
      * Constructs the server. This will setup all server facilities. If only
      * one listener thread is configured, the main thread will act as the
      * listener thread. Otherwise additional listener threads are started.
+     * Each listener thread has its own selector and the acceptor spreads
+     * the connections across the listeners.
      * @param conf The singleton config object
      * @exception IOException The log server cannot bind socket
      */
@@ -61,27 +59,19 @@ public class LogServer extends Thread {
         this.logger = Logger.getLogger(this.getClass().getName());
         int numListeners = config.listenerThreads - 1;
 
-        ConcurrentLinkedQueue<SocketChannel> acceptQueue =
-                new ConcurrentLinkedQueue<SocketChannel>();
-
-        selector = Selector.open();
-        logger.finer("Selector created");
-
         if (numListeners > 0) {
             listeners = new Listener[numListeners];
 
             for (int i = 0; i < listeners.length; i++) {
-                listeners[i] = new Listener(selector, config, acceptQueue);
+                listeners[i] = new Listener(config);
                 Thread t = new Thread(listeners[i]);
                 listeners[i].listenerThread = t;
                 t.setName("Listener-" + i);
                 t.setDaemon(true);
-                t.start();
             }
         }
 
-        config.primaryListener = new PrimaryListener(selector, config,
-                                                     acceptQueue);
+        config.primaryListener = new PrimaryListener(config);
         logger.finer("Listeners created.");
 
         if (config.threadPool == null) {
@@ -92,7 +82,24 @@ public class LogServer extends Thread {
         logger.finer("Service thread pool created.");
         }
 
-        acceptor = new Acceptor(conf, acceptQueue, selector);
+        if (config.bufferPool == null) {
+            config.bufferPool = new BufferPool(config.readBufferSize,
+                                               config.maxServiceThreads);
+            logger.finer("Read buffer pool created.");
+        }
+
+        if (config.logWriter == null) {
+            config.logWriter = new LogWriter(config);
+            logger.finer("Log writer created.");
+        }
+
+        Listener[] allListeners = new Listener[1];
+        if (listeners != null) {
+            allListeners = new Listener[listeners.length + 1];
+            System.arraycopy(listeners, 0, allListeners, 1, listeners.length);
+        }
+        allListeners[0] = config.primaryListener;
+        acceptor = new Acceptor(conf, allListeners);
         Thread t = new Thread(acceptor);
         t.setName("Acceptor");
         t.setDaemon(true);
@@ -140,13 +147,13 @@ public class LogServer extends Thread {
                     listeners[i].shutdown();
                 logger.fine("Listener Threads Shutdown.");
             }            
-            selector.close();
             logger.fine("Socket Shutdown.");
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Exception shutting down socket.", e);
         }
 
         config.threadPool.shutdown();
+        config.logWriter.close();
 
         logger.info("LogServer Shutdown Complete");
     }
@@ -0,0 +1,274 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.logging;
+
+import com.sun.faban.harness.common.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The LogWriter is the long-lived writer shared by all log handlers. It
+ * keeps the log file of the current run open and collects the records
+ * from all agents in an append buffer. The buffer is written out in one
+ * piece when it reaches the configured size or when the flush interval
+ * expires, whichever comes first. Two buffers are used so handlers can
+ * keep appending while the previous group of records is being written.
+ * <p>
+ * The log file is given by the faban.log.file system property set by
+ * the run daemon for each run. The writer switches to the new file on
+ * the first write after the property changes. Handlers only append
+ * complete records and the file is opened in append mode, so the records
+ * do not interleave with the ones written by the harness' own file
+ * handler. After each write, the side index of the log file is brought
+ * up to date.
+ *
+ * @see LogIndex
+ */
+public class LogWriter {
+
+    private static Logger logger = Logger.getLogger(LogWriter.class.getName());
+
+    private String fileName;
+    private String bufferFile;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private ByteBuffer spare;
+    private int flushSize;
+    private final Object flushLock = new Object();
+    private Thread flusher;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs the log writer and starts its flusher thread.
+     * @param config The log server configuration
+     */
+    public LogWriter(LogConfig config) {
+        buffer = ByteBuffer.allocateDirect(config.writeBufferSize);
+        spare = ByteBuffer.allocateDirect(config.writeBufferSize);
+        flushSize = config.writeBufferSize * 3 / 4;
+        final long interval = config.flushInterval;
+        flusher = new Thread("LogWriter") {
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(interval);
+                        flush();
+                        release();
+                    } catch (InterruptedException e) {
+                        logger.log(Level.FINE, e.getMessage(), e);
+                    }
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Obtains the log file of the current run.
+     * @return The log file name
+     */
+    private static String currentLogFile() {
+        String logFile = System.getProperty("faban.log.file");
+        if (logFile == null)
+            logFile = Config.TMP_DIR + "log.xml";
+        return logFile;
+    }
+
+    /**
+     * Appends complete log records to the log file of the current run.
+     * @param b The byte array containing the records
+     * @param off The offset into the array
+     * @param len The number of bytes to write
+     */
+    public void write(byte[] b, int off, int len) {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Appends complete log records to the log file of the current run.
+     * The records are taken from the position to the limit of the given
+     * buffer. Handlers pass their direct read buffers here so the records
+     * move straight into the append buffer without going through the
+     * heap. The buffer is consumed by the time this method returns.
+     * @param records The buffer containing the records
+     */
+    public void write(ByteBuffer records) {
+        String logFile = currentLogFile();
+        int len = records.remaining();
+        boolean switched;
+        synchronized (this) {
+            switched = !logFile.equals(bufferFile);
+        }
+        if (switched) {
+            // Records of the previous run still buffered go to the
+            // previous log file. Always lock flushLock before this.
+            synchronized (flushLock) {
+                flush();
+                synchronized (this) {
+                    bufferFile = logFile;
+                }
+            }
+        }
+        boolean full;
+        synchronized (this) {
+            full = len > buffer.remaining();
+            if (!full) {
+                buffer.put(records);
+                if (buffer.position() < flushSize)
+                    return;
+            }
+        }
+        if (!full) {
+            flush();
+            return;
+        }
+
+        // The records do not fit. Flush what we have and retry. Records
+        // larger than the buffer get written through.
+        synchronized (flushLock) {
+            flush();
+            synchronized (this) {
+                if (len <= buffer.remaining()) {
+                    buffer.put(records);
+                    return;
+                }
+            }
+            try {
+                FileChannel c = getChannel(logFile);
+                while (records.hasRemaining())
+                    c.write(records);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error writing log file " +
+                        logFile + '.', e);
+            }
+            updateIndex(logFile);
+        }
+    }
+
+    /**
+     * Writes out the buffered records. The buffers are swapped under the
+     * lock so other threads can continue appending while the write is in
+     * progress.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            ByteBuffer out;
+            String logFile;
+            synchronized (this) {
+                if (buffer.position() == 0)
+                    return;
+                logFile = bufferFile;
+                out = buffer;
+                buffer = spare;
+                spare = out;
+            }
+            out.flip();
+            try {
+                FileChannel c = getChannel(logFile);
+                while (out.hasRemaining())
+                    c.write(out);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error writing log file " +
+                        logFile + '.', e);
+            }
+            out.clear();
+            updateIndex(logFile);
+        }
+    }
+
+    /**
+     * Brings the side index of the log file up to date after a write.
+     * @param logFile The log file name
+     */
+    private void updateIndex(String logFile) {
+        try {
+            LogIndex.getInstance(new File(logFile)).update();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error indexing log file " +
+                    logFile + '.', e);
+        }
+    }
+
+    /**
+     * Obtains the channel to the given log file, reopening the channel
+     * if the log file has changed. Must be called holding the flush lock.
+     * @param logFile The log file name
+     * @return The file channel
+     * @throws IOException Error opening the log file
+     */
+    private FileChannel getChannel(String logFile) throws IOException {
+        if (channel != null && logFile.equals(fileName))
+            return channel;
+        closeChannel();
+        channel = new FileOutputStream(logFile, true).getChannel();
+        fileName = logFile;
+        return channel;
+    }
+
+    /**
+     * Closes the log file once the run is over, so the file of a finished
+     * run is not held open until the next run starts logging.
+     */
+    private void release() {
+        String logFile = currentLogFile();
+        synchronized (flushLock) {
+            if (channel != null && !fileName.equals(logFile))
+                synchronized (this) {
+                    if (buffer.position() == 0)
+                        closeChannel();
+                }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing log file " +
+                        fileName + '.', e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Flushes all buffered records and closes the log file.
+     */
+    public void close() {
+        closed = true;
+        flusher.interrupt();
+        synchronized (flushLock) {
+            flush();
+            closeChannel();
+        }
+    }
+}
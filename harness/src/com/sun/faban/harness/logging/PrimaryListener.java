@@ -23,72 +23,22 @@
  */
 package com.sun.faban.harness.logging;
 
-import java.nio.channels.Selector;
-import java.nio.channels.SelectableChannel;
-import java.nio.channels.SocketChannel;
 import java.io.IOException;
-import java.util.Queue;
 
 /**
- * The primary selector is the single entry point another thread may use
- * to modify the select channels and configurations. Otherwise it behaves
- * just like any other listener.
+ * The primary listener is the listener run by the log server thread
+ * itself. Other than that, it behaves just like any other listener.
  *
  * @author Akara Sucharitakul
  */
 public class PrimaryListener extends Listener {
 
-    private SelectableChannel channelToRegister = null;
-    private int operationToRegister = Integer.MIN_VALUE;
-    private Object attachmentToRegister = null;
-
     /**
-     * Constructs the primary listener with this selector.
-     * @param selector The selector
+     * Constructs the primary listener with its own selector.
      * @param config The log configuration
-     * @param acceptQueue The accept queue
-     */
-    public PrimaryListener(Selector selector, LogConfig config,
-                           Queue<SocketChannel> acceptQueue) {
-        super(selector, config, acceptQueue);
-    }
-
-    /**
-     * Hook for additional operations to be taken before the selector goes
-     * back to block on select. All changes to the channels/keys should
-     * be called here. The implementation in this class logs changes to
-     * the channel.
-     * @param selector The selector
-     * @throws IOException Error registering the selector with the channel
-     */
-    protected void selectorOps(Selector selector) throws IOException {
-        super.selectorOps(selector);
-        if (channelToRegister != null) { // Register a pending channel
-            synchronized (this) {
-                try {
-                    channelToRegister.register(selector, operationToRegister,
-                            attachmentToRegister);
-                } finally {
-                    // Reset the values.
-                    channelToRegister = null;
-                    operationToRegister = Integer.MIN_VALUE;
-                    attachmentToRegister = null;
-                }
-            }
-        }
-    }
-
-    /**
-     * Adds/changes the channel registration from another thread.
-     * @param channel The channel to register
-     * @param operation The operation of interest
-     * @param attachment The attachment
+     * @throws IOException Error opening the selector
      */
-    public synchronized void register(SelectableChannel channel,
-                                      int operation, Object attachment) {
-        channelToRegister = channel;
-        operationToRegister = operation;
-        attachmentToRegister = attachment;
-        selector.wakeup();
+    public PrimaryListener(LogConfig config) throws IOException {
+        super(config);
     }
 }
@@ -54,6 +54,7 @@ public class RequestProxy implements Runnable {
     private static final int TIMEOUT_FACTOR = 1;
 
     private LogConfig config;
+    private Listener listener;
     private SelectionKey key;
     private ProtocolHandlerFactory handlerFactory;
     private ByteBuffer buffer;
@@ -80,17 +81,20 @@ public class RequestProxy implements Runnable {
     private static final int PENDING_NOTIFY = 1;
 
     /**
-     * Constructs a request proxy.
+     * Constructs a request proxy. The read buffer is taken from the
+     * buffer pool only while a request is processed.
      * @param config The log configuration
+     * @param listener The listener serving the socket channel
      * @param key The nio selection key identifying the socket channel
      */
-    public RequestProxy(LogConfig config, SelectionKey key) {
+    public RequestProxy(LogConfig config, Listener listener,
+                        SelectionKey key) {
         this.config = config;
+        this.listener = listener;
         this.key = key;
         className = getClass().getName();
         logger = Logger.getLogger(className);
         handlerFactory = new ProtocolHandlerFactory(config);
-        buffer = ByteBuffer.allocateDirect(config.readBufferSize);
     }
 
     /**
@@ -185,8 +189,8 @@ public class RequestProxy implements Runnable {
         ProtocolHandler handler = null;
         SocketChannel channel = (SocketChannel) key.channel();
 
+        buffer = config.bufferPool.get();
         try {
-            buffer.clear();
 
             // Reading step 1. Just read some data
             // If we can still not read anything within 100ms from the
@@ -241,8 +245,7 @@ public class RequestProxy implements Runnable {
                     // If we're here, the channel cannot take the whole
                     // write we wanted. So we just register this channel
                     // for notification once it is ready for writes.
-                    config.primaryListener.register(channel,
-                            SelectionKey.OP_WRITE, this);
+                    listener.register(channel, SelectionKey.OP_WRITE, this);
 
                     do { // write continuation loop
                         waitForWriteChannel();
@@ -250,8 +253,7 @@ public class RequestProxy implements Runnable {
 
                     // We're done writing, so we change the registration
                     // back to read.
-                    config.primaryListener.register(channel,
-                            SelectionKey.OP_READ,  this);
+                    listener.register(channel, SelectionKey.OP_READ,  this);
                 }
             } while (handler.requestPending());
 
@@ -266,6 +268,9 @@ public class RequestProxy implements Runnable {
         } catch (IOException e) {
             logger.log(Level.WARNING, e.getMessage(), e);
             cancelKey();
+        } finally {
+            config.bufferPool.release(buffer);
+            buffer = null;
         }
         flags[READY] = false;
         logger.finest("End processing request");
@@ -273,6 +278,8 @@ public class RequestProxy implements Runnable {
 
     private void cancelKey() {
         try {
+            if (key.channel().isOpen())
+                listener.closed();
             key.channel().close();
         } catch (IOException e) {
             logger.log(Level.FINE, "Error closing socket channel", e);
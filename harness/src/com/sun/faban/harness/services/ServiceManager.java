@@ -29,6 +29,7 @@ import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.common.Run;
 import com.sun.faban.harness.engine.CmdService;
 import com.sun.faban.harness.engine.DeployImageClassLoader;
+import com.sun.faban.harness.engine.OutputCollector;
 import com.sun.faban.harness.tools.MasterToolContext;
 import com.sun.faban.harness.tools.ToolDescription;
 import com.sun.faban.harness.util.XMLReader;
@@ -42,6 +43,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -634,11 +636,24 @@ public class ServiceManager {
     }
 
     /**
-     * Obtains the logs of a service.
+     * Obtains the logs of all services, collecting from the services
+     * in parallel. Services copy and truncate the logs of each host, so
+     * a failed collection is not retried. A retry would overwrite the
+     * logs already copied with the truncated ones.
      */
     public void getLogs() {
-        for(ServiceWrapper sw : loadedServicesList)
-            sw.getLogs();
+        OutputCollector collector =
+                new OutputCollector("service logs", "services", 0);
+        for(final ServiceWrapper sw : loadedServicesList)
+            collector.add(sw.ctx.getHostRole() + ':' + sw.ctx.desc.id + ' ' +
+                          Arrays.toString(sw.ctx.getUniqueHosts()),
+                          new Callable<Object>() {
+                public Object call() throws Exception {
+                    sw.getLogs();
+                    return null;
+                }
+            });
+        collector.collect();
     }
 
     /**
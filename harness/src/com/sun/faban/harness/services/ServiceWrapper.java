@@ -194,16 +194,13 @@ public class ServiceWrapper {
 
    /**
      * Invokes service's method annotated by @GetLogs.
+     * @throws Exception If the service fails to obtain its logs
      */
-   void getLogs() {
-       if (configured)
-           try {
-               Invoker.invoke(service, getLogsMethod, ctx.servicePath);
-               logger.info("Transfered " + ctx.desc.id + " service logs.");
-           } catch (Exception e) {
-               logger.log(Level.WARNING, "Failed to obtain service logs " +
-                       "for service " + ctx.getHostRole() + ":" + ctx.desc.id, e);
-           }
+   void getLogs() throws Exception {
+       if (configured) {
+           Invoker.invoke(service, getLogsMethod, ctx.servicePath);
+           logger.info("Transfered " + ctx.desc.id + " service logs.");
+       }
    }
 
     /**
@@ -25,10 +25,10 @@ package com.sun.faban.harness.tools;
 
 import com.sun.faban.common.Command;
 import com.sun.faban.common.CommandHandle;
-import com.sun.faban.common.FileTransfer;
 import com.sun.faban.harness.agent.CmdAgent;
 import com.sun.faban.harness.agent.CmdAgentImpl;
 import com.sun.faban.harness.agent.FileAgent;
+import com.sun.faban.harness.agent.TransferClient;
 import com.sun.faban.harness.common.Config;
 
 import java.io.File;
@@ -298,13 +298,11 @@ import java.util.logging.Logger;
             return;
         }
         try {
-            FileTransfer transfer = new FileTransfer(logfile, outfile);
             logger.finer("Transferring log from " + logfile + " to " + outfile);
             // Use FileAgent on master machine to copy log
             String s = Config.FILE_AGENT;
             FileAgent fa = (FileAgent)CmdAgentImpl.getRegistry().getService(s);
-            if (fa.push(transfer) != transfer.getSize())
-                logger.log(Level.SEVERE, "Invalid transfer size");
+            TransferClient.push(fa, logfile, outfile);
 
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error transferring " + logfile, e);
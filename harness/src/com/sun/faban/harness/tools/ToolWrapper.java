@@ -32,6 +32,7 @@ import com.sun.faban.harness.Start;
 import com.sun.faban.harness.Stop;
 import com.sun.faban.harness.agent.CmdAgentImpl;
 import com.sun.faban.harness.agent.FileAgent;
+import com.sun.faban.harness.agent.TransferClient;
 import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.util.Invoker;
 
@@ -39,7 +40,9 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CountDownLatch;
@@ -70,6 +73,8 @@ public class ToolWrapper {
     CountDownLatch latch;
     boolean countedDown = false;
     boolean postprocessed = false;
+    boolean transferred = false;
+    Set<String> transferredFiles = new HashSet<String>();
     String outfile;	// Name of stdout,stderr from tool
     CommandHandle outputHandle;
     int outputStream;
@@ -169,22 +174,28 @@ public class ToolWrapper {
     }
 
     /**
-     * This method is responsible for post-processing.
-     * @throws Exception Any exception thrown by the wrapped method
+     * This method is responsible for post-processing. The wrapped method
+     * runs only once. Calling this again after a failed transfer only
+     * retries the transfer of the tool output.
+     * @throws Exception Any exception thrown by the wrapped method, or
+     *         the transfer failing
      */
-    public void postprocess() throws Exception {
-        if (postprocessed)
+    public synchronized void postprocess() throws Exception {
+        if (transferred)
             return;
-        postprocessed = true;
         try {
             if (toolStatus == STOPPED) {
-                if (postprocessMethod != null) {
-                    logger.fine(toolName + " post-processing.");
-                    Invoker.invoke(tool, postprocessMethod, tc.toolPath);
-                    logger.fine("Postprocessed tool " + toolName);
+                if (!postprocessed) {
+                    postprocessed = true;
+                    if (postprocessMethod != null) {
+                        logger.fine(toolName + " post-processing.");
+                        Invoker.invoke(tool, postprocessMethod, tc.toolPath);
+                        logger.fine("Postprocessed tool " + toolName);
+                    }
                 }
-                // xfer log file to master machine, log any errors
+                // xfer log file to master machine
                 xferLog();
+                transferred = true;
                 logger.fine("Transfered logs for tool " + toolName);
                 logger.info(toolName + " Done ");
             }
@@ -325,25 +336,35 @@ public class ToolWrapper {
 
     /**
      * Transfers the tool output file back to the master.
+     * @throws IOException If the transfer fails
      */
-    protected void xferLog() {
+    protected void xferLog() throws IOException {
         String logfile = null;
         try {
-            FileTransfer[] transfer;
+            String s = Config.FILE_AGENT;
+            FileAgent fa = (FileAgent) CmdAgentImpl.getRegistry().getService(s);
             if (outputHandle != null) {
                 logger.finer("outputHandle is not null. outfile is " + outfile);
-                transfer = new FileTransfer[1];
-                transfer[0] = outputHandle.fetchOutput(outputStream, outfile);
+                // The output may be buffered in memory, so it goes over RMI.
+                FileTransfer t = outputHandle.fetchOutput(outputStream, outfile);
+                if (t != null) {
+                    logger.fine(toolName + ": Transferring log from " +
+                            t.getSource() + " to " + t.getDest());
+                    if (fa.push(t) != t.getSize())
+                        logger.info(toolName + ": Invalid transfer size");
+                }
             } else if (tc.localOutputFiles != null) {
-                transfer = new FileTransfer[tc.localOutputFiles.size()];
                 logger.finer("tc.localOutputFiles is not null. Size is " + tc.localOutputFiles.size());
-                int idx = 0;
+                // Try all files, a retry only sends the ones that failed.
+                IOException error = null;
                 for (Map.Entry<String, String> entry :
                         tc.localOutputFiles.entrySet()) {
                     String key = entry.getKey();
                     String path = entry.getValue();
                     String ext;
                     logger.finer("localOutputFiles path = " + path);
+                    if (transferredFiles.contains(path))
+                        continue;
                     if (path.endsWith(".xan") || path.contains(".xan."))
                         ext = ".xan.";
                     else
@@ -359,10 +380,22 @@ public class ToolWrapper {
                         outFile = outDir + toolName + ext + host;
                     else
                         outFile = outDir + toolName + '-' + key + ext + host;
-                    transfer[idx++] = new FileTransfer(path, outFile);
+                    try {
+                        xferFile(fa, path, outFile);
+                        transferredFiles.add(path);
+                    } catch (IOException e) {
+                        if (error == null) {
+                            error = e;
+                            logfile = path;
+                        } else {
+                            logger.log(Level.INFO, toolName +
+                                    ": Error transferring " + path, e);
+                        }
+                    }
                 }
+                if (error != null)
+                    throw error;
             } else {
-                transfer = new FileTransfer[1];
                 logfile = tc.getOutputFile();
                 logger.finer("single file transfer. logfile is " + logfile);
                 if (!new File(logfile).exists()) {
@@ -370,31 +403,33 @@ public class ToolWrapper {
                             " not found.");
                     return;
                 }
-                transfer[0] = new FileTransfer(logfile, outfile);
-            }
-
-            String s = Config.FILE_AGENT;
-            FileAgent fa = (FileAgent) CmdAgentImpl.getRegistry().getService(s);
-            for (FileTransfer t : transfer) {
-                logger.fine(toolName + ": Transferring log from " +
-                        t.getSource() + " to " + t.getDest());
-
-                // Use FileAgent on master machine to copy log
-                if (t != null) {
-                    if (fa.push(t) != t.getSize())
-                        logger.info(toolName + ": Invalid transfer size");
-                }
+                xferFile(fa, logfile, outfile);
             }
         } catch (IOException e) {
-            if (logfile == null)
+            if (logfile != null)
                 logger.log(Level.INFO, toolName + ": Error transferring " +
                         logfile, e);
             else
                 logger.log(Level.INFO, toolName + ": Error transferring " +
                         toolName + " output.", e);
+            throw e;
         }
     }
 
+    /**
+     * Streams a local file to the master using the FileAgent on the master.
+     * @param fa The FileAgent on the master
+     * @param srcFile The local file
+     * @param destFile The file on the master
+     * @throws IOException If the transfer fails
+     */
+    private void xferFile(FileAgent fa, String srcFile, String destFile)
+            throws IOException {
+        logger.fine(toolName + ": Transferring log from " + srcFile +
+                " to " + destFile);
+        TransferClient.push(fa, srcFile, destFile);
+    }
+
     /**
      * Finishes up the tool and notifies the infrastructure of the tool
      * finishing up.
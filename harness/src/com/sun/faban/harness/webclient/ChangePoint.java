@@ -0,0 +1,190 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A change point is a position in a series of run metrics where the mean
+ * level of the metric shifts. Change points are found by binary
+ * segmentation: the split maximizing the Welch t statistic between the
+ * two segments is accepted if the statistic and the relative change of
+ * the means are both significant, and both segments are searched again.
+ */
+public class ChangePoint {
+
+    /** The default minimum number of runs on either side of a change. */
+    static final int MIN_SEGMENT = 3;
+
+    /** The default t statistic threshold for a change to be reported. */
+    static final double THRESHOLD = 4d;
+
+    /** The default minimum relative change of the mean to be reported. */
+    static final double MIN_CHANGE = 0.02d;
+
+    /** The index of the first value after the change. */
+    public int index;
+
+    /** The mean of the segment before the change. */
+    public double before;
+
+    /** The mean of the segment after the change. */
+    public double after;
+
+    /** The relative change of the mean, (after - before) / before. */
+    public double change;
+
+    /** The t statistic of the change. */
+    public double score;
+
+    /** Whether the change is for the worse. */
+    public boolean regression;
+
+    /**
+     * Detects the change points of a series using the default
+     * parameters.
+     * @param values The series
+     * @param lowerIsBetter Whether lower values are better, used to tell
+     *        regressions from improvements
+     * @return The change points, in order of the series
+     */
+    public static List<ChangePoint> detect(double[] values,
+                                           boolean lowerIsBetter) {
+        return detect(values, lowerIsBetter, MIN_SEGMENT, THRESHOLD,
+                      MIN_CHANGE);
+    }
+
+    /**
+     * Detects the change points of a series.
+     * @param values The series
+     * @param lowerIsBetter Whether lower values are better
+     * @param minSegment The minimum number of values between changes
+     * @param threshold The t statistic threshold
+     * @param minChange The minimum relative change of the mean
+     * @return The change points, in order of the series
+     */
+    public static List<ChangePoint> detect(double[] values,
+                                           boolean lowerIsBetter,
+                                           int minSegment, double threshold,
+                                           double minChange) {
+        int n = values.length;
+
+        // Prefix sums of the values and squares, shifted by the overall
+        // mean for precision.
+        double shift = 0d;
+        for (double value : values)
+            shift += value;
+        if (n > 0)
+            shift /= n;
+        double[] sum = new double[n + 1];
+        double[] sumSq = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            double x = values[i] - shift;
+            sum[i + 1] = sum[i] + x;
+            sumSq[i + 1] = sumSq[i] + x * x;
+        }
+
+        ArrayList<ChangePoint> changes = new ArrayList<ChangePoint>();
+        segment(0, n, sum, sumSq, shift, minSegment, threshold, minChange,
+                lowerIsBetter, changes);
+        Collections.sort(changes, new Comparator<ChangePoint>() {
+            public int compare(ChangePoint c1, ChangePoint c2) {
+                return c1.index - c2.index;
+            }
+        });
+
+        // Report the means of the adjacent segments in the final
+        // segmentation, not the ones at the time of the split.
+        for (int i = 0; i < changes.size(); i++) {
+            ChangePoint c = changes.get(i);
+            int from = i == 0 ? 0 : changes.get(i - 1).index;
+            int to = i == changes.size() - 1 ? n : changes.get(i + 1).index;
+            c.before = (sum[c.index] - sum[from]) / (c.index - from) + shift;
+            c.after = (sum[to] - sum[c.index]) / (to - c.index) + shift;
+            c.setChange(lowerIsBetter);
+        }
+        return changes;
+    }
+
+    private static void segment(int from, int to, double[] sum,
+                                double[] sumSq, double shift, int minSegment,
+                                double threshold, double minChange,
+                                boolean lowerIsBetter,
+                                List<ChangePoint> changes) {
+        if (to - from < 2 * minSegment)
+            return;
+        ChangePoint best = null;
+        for (int split = from + minSegment; split <= to - minSegment;
+             split++) {
+            int n1 = split - from;
+            int n2 = to - split;
+            double m1 = (sum[split] - sum[from]) / n1;
+            double m2 = (sum[to] - sum[split]) / n2;
+            double v1 = variance(sumSq[split] - sumSq[from], m1, n1);
+            double v2 = variance(sumSq[to] - sumSq[split], m2, n2);
+
+            // Keep identical runs from making any difference infinite.
+            double floor = 1e-12 + 1e-12 * (m1 + shift) * (m1 + shift);
+            double score = Math.abs(m1 - m2) /
+                           Math.sqrt(Math.max(v1 / n1 + v2 / n2, floor));
+            if (best == null || score > best.score) {
+                if (best == null)
+                    best = new ChangePoint();
+                best.index = split;
+                best.before = m1 + shift;
+                best.after = m2 + shift;
+                best.score = score;
+            }
+        }
+        if (best == null || best.score < threshold)
+            return;
+        best.setChange(lowerIsBetter);
+        if (Math.abs(best.change) < minChange)
+            return;
+        changes.add(best);
+        segment(from, best.index, sum, sumSq, shift, minSegment, threshold,
+                minChange, lowerIsBetter, changes);
+        segment(best.index, to, sum, sumSq, shift, minSegment, threshold,
+                minChange, lowerIsBetter, changes);
+    }
+
+    private void setChange(boolean lowerIsBetter) {
+        if (before != 0d)
+            change = (after - before) / Math.abs(before);
+        else
+            change = after > 0d ? Double.POSITIVE_INFINITY :
+                                  Double.NEGATIVE_INFINITY;
+        regression = lowerIsBetter ? change > 0d : change < 0d;
+    }
+
+    private static double variance(double sumSq, double mean, int n) {
+        if (n < 2)
+            return 0d;
+        double v = (sumSq - n * mean * mean) / (n - 1);
+        return v < 0d ? 0d : v;
+    }
+}
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.io.IOException;
 
 import com.sun.faban.common.Utilities;
+import com.sun.faban.harness.logging.LogIndex;
 
 /**
  * The superclass of all log handlers provides all basic services
@@ -30,6 +31,7 @@ abstract class LogParseHandler extends DefaultHandler {
     StringBuffer buffer = new StringBuffer();
     LogRecord logRecord = new LogRecord();
     boolean xmlComplete = false; // Sets by the caller if parsing complete
+    LogIndex logIndex; // The side index of the log, if available
     protected HttpServletRequest request;
     protected ServletOutputStream out;
     protected String runId;
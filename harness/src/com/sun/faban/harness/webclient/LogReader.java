@@ -24,6 +24,7 @@
 package com.sun.faban.harness.webclient;
 
 import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.logging.LogIndex;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -45,6 +46,8 @@ import java.io.InputStream;
  * A servlet to read the sometimes incomplete log file, complete it, and
  * translate it into readable html format. This servlet does not currntly
  * contain any log filtering options but these can be added in the future.
+ * The side index of the log is used to seek directly to the requested
+ * page or exception record instead of parsing the log from the start.
  *
  * @author Akara Sucharitakul
  */
@@ -77,12 +80,14 @@ public class LogReader extends HttpServlet {
 
         String logFilePath = Config.OUT_DIR + runId +
                 File.separator + Config.LOG_FILE;
-        InputStream is = new FileInputStream(logFilePath);
-        if (is == null) {
+        File logFile = new File(logFilePath);
+        if (!logFile.isFile()) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND,
                     "Logfile " + logFilePath + " not found");
             return;
         }
+        LogIndex index = LogIndex.getInstance(logFile);
+        long recordCount = index.update();
 
         // Check the start line
         long start = -1l;
@@ -98,6 +103,21 @@ public class LogReader extends HttpServlet {
             showException = true;
         }
 
+        // Seek to the first record we need. For the end of the log, that
+        // is the first record of the last page.
+        long seekId = start;
+        if (start == -1l) {
+            seekId = 0l;
+            if (Config.LOG_VIEW_BUFFER_SIZE > 0)
+                seekId = Math.max(0l,
+                        recordCount - Config.LOG_VIEW_BUFFER_SIZE);
+        }
+        InputStream is = index.getInputStream(seekId);
+        if (is == null) { // Not indexed, parse from the start.
+            is = new FileInputStream(logFile);
+            seekId = 0l;
+        }
+
         ServletOutputStream out = response.getOutputStream();
         LogParseHandler handler = null;
 
@@ -115,6 +135,8 @@ public class LogReader extends HttpServlet {
                 handler = new TableHandler(start, request, out, runId);
             else
                 handler = new RecordHandler(start, request, out, runId);
+            handler.recordCount = seekId;
+            handler.logIndex = index;
             parser.parse(is, handler);
             handler.xmlComplete = true; // If we get here, the XML is good.
         } catch (ParserConfigurationException e) {
@@ -128,6 +150,8 @@ public class LogReader extends HttpServlet {
             handler.xmlComplete = false;
         } catch (SAXException e) {
             throw new ServletException(e);
+        } finally {
+            is.close();
         }
 
         response.setContentType("text/html");
@@ -0,0 +1,305 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.logging.LogIndex;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A servlet streaming the log records of a run as they get written. The
+ * client states the byte offset in the log file to start from and gets
+ * the complete records from that offset onwards, followed by new records
+ * as they arrive, without reloading and re-parsing the log. Records can
+ * be filtered by level on the server side using the side index of the
+ * log so filtered records are never read.<p>
+ * The records are sent as server-sent events by default. Each event
+ * carries one record as its data and the byte offset right after the
+ * record as its id, so a reconnecting client resumes exactly where it
+ * left off through the Last-Event-ID header. With format=xml, the raw
+ * record elements are streamed as a chunked response instead.<p>
+ * Request parameters:
+ * <ul>
+ * <li>runId - the run to tail, required</li>
+ * <li>offset - the byte offset to start from, defaults to the last
+ *     records of the log</li>
+ * <li>rows - the number of records before the end of the log to start
+ *     from if no offset is given, defaults to 1000</li>
+ * <li>level - the minimum level of the records to send, defaults to
+ *     all levels</li>
+ * <li>format - sse (default) or xml</li>
+ * </ul>
+ * The stream ends when the run is no longer running and all records are
+ * sent, or after a maximum time after which the client reconnects.
+ */
+public class LogTail extends HttpServlet {
+
+    private static final long serialVersionUID = 1l;
+
+    /** Interval to check for new records, in ms. */
+    static final long POLL_INTERVAL = 1000l;
+
+    /** Interval to send keep-alive comments on an idle stream, in ms. */
+    static final long KEEP_ALIVE_INTERVAL = 15000l;
+
+    /** Maximum time to keep a stream open, in ms. */
+    static final long MAX_STREAM_TIME = 600000l;
+
+    /** Number of records sent from the end of the log by default. */
+    static final int DEFAULT_ROWS = 1000;
+
+    /** Number of index entries read at once. */
+    static final int BATCH_SIZE = 256;
+
+    private static final byte[] RECORD_END = "</record>".getBytes();
+
+    private static Logger logger = Logger.getLogger(LogTail.class.getName());
+
+    /**
+     * Streams the log records of the run.
+     * @param request The servlet request
+     * @param response The servlet response
+     * @throws ServletException If the servlet fails
+     * @throws IOException If there is an I/O error
+     */
+    public void doGet(HttpServletRequest request,
+                      HttpServletResponse response)
+            throws ServletException, IOException {
+        String runId = request.getParameter("runId");
+        if (runId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "runId parameter not specified");
+            return;
+        }
+
+        String format = request.getParameter("format");
+        boolean sse = format == null || "sse".equals(format);
+        if (!sse && !"xml".equals(format)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Unknown format " + format);
+            return;
+        }
+
+        int minLevel = Integer.MIN_VALUE;
+        String levelName = request.getParameter("level");
+        if (levelName != null && levelName.length() > 0)
+            try {
+                minLevel = Level.parse(levelName).intValue();
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Unknown level " + levelName);
+                return;
+            }
+
+        // The Last-Event-ID of a reconnecting event source takes
+        // precedence over the offset it was originally opened with.
+        long offset = -1l;
+        String offsetString = null;
+        if (sse)
+            offsetString = request.getHeader("Last-Event-ID");
+        if (offsetString == null)
+            offsetString = request.getParameter("offset");
+        if (offsetString != null && offsetString.length() > 0)
+            try {
+                offset = Long.parseLong(offsetString.trim());
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Invalid offset " + offsetString);
+                return;
+            }
+
+        int rows = DEFAULT_ROWS;
+        String rowsString = request.getParameter("rows");
+        if (rowsString != null && rowsString.length() > 0)
+            try {
+                rows = Integer.parseInt(rowsString.trim());
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Invalid rows " + rowsString);
+                return;
+            }
+
+        File logFile = new File(Config.OUT_DIR + runId + File.separator +
+                                Config.LOG_FILE);
+        if (!logFile.isFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "Logfile for run " + runId + " not found");
+            return;
+        }
+        LogIndex index = LogIndex.getInstance(logFile);
+        long next = index.update();
+        if (offset >= 0l)
+            next = index.findByOffset(offset);
+        else
+            next = Math.max(0l, next - Math.max(rows, 0));
+
+        if (sse)
+            response.setContentType("text/event-stream; charset=UTF-8");
+        else
+            response.setContentType("text/xml; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        ServletOutputStream out = response.getOutputStream();
+
+        long[] offsets = new long[BATCH_SIZE + 1];
+        int[] markers = new int[BATCH_SIZE + 1];
+        byte[] buffer = new byte[8192];
+        long startTime = System.currentTimeMillis();
+        long lastSent = startTime;
+        RandomAccessFile log = new RandomAccessFile(logFile, "r");
+        try {
+            if (sse) // Reconnect delay for the event source.
+                out.print("retry: " + POLL_INTERVAL + "\n\n");
+            out.flush();
+            for (;;) {
+                // Check the run status before the update so no records
+                // written before the run ended get missed.
+                boolean running = "STARTED".equals(
+                                            RunResult.readStatus(runId)[0]);
+                long recordCount = index.update();
+                while (next < recordCount) {
+                    int count = index.read(next, offsets, markers);
+                    if (count == 0)
+                        break;
+                    int records = Math.min(count, BATCH_SIZE);
+                    for (int i = 0; i < records; i++) {
+                        int level = markers[i] & ~LogIndex.EXCEPTION;
+                        if (level < minLevel)
+                            continue;
+                        long end = i + 1 < count ? offsets[i + 1] :
+                                                   index.getIndexedTo();
+                        if (end - offsets[i] > buffer.length)
+                            buffer = new byte[(int) (end - offsets[i])];
+                        int length = readRecord(log, offsets[i], end, buffer);
+                        if (length <= 0)
+                            continue;
+                        if (sse)
+                            writeEvent(out, offsets[i] + length, buffer,
+                                       length);
+                        else {
+                            out.write(buffer, 0, length);
+                            out.print('\n');
+                        }
+                    }
+                    next += records;
+                    out.flush();
+                    lastSent = System.currentTimeMillis();
+                }
+                if (!running) {
+                    if (sse)
+                        out.print("event: end\ndata: " + runId + "\n\n");
+                    out.flush();
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                if (now - startTime >= MAX_STREAM_TIME)
+                    break;
+                if (now - lastSent >= KEEP_ALIVE_INTERVAL) {
+                    if (sse)
+                        out.print(": keep-alive\n\n");
+                    else
+                        out.print("\n");
+                    out.flush();
+                    lastSent = now;
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, "Log tail for " + runId + " interrupted.",
+                       e);
+        } catch (IOException e) {
+            // Most likely the client went away.
+            logger.log(Level.FINER, "Log tail for " + runId + " closed.", e);
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Reads a record from the log file, up to the end of the record
+     * element. Any whitespace between records is dropped.
+     * @param log The log file
+     * @param start The start offset of the record
+     * @param end The maximum end offset of the record
+     * @param buffer The buffer to read into, large enough for the record
+     * @return The length of the record, or 0 if it is not found complete
+     * @throws IOException Error reading the log file
+     */
+    static int readRecord(RandomAccessFile log, long start, long end,
+                          byte[] buffer) throws IOException {
+        int length = (int) (end - start);
+        log.seek(start);
+        log.readFully(buffer, 0, length);
+        int idx = indexOf(buffer, RECORD_END, length);
+        if (idx < 0)
+            return 0;
+        return idx + RECORD_END.length;
+    }
+
+    private static int indexOf(byte[] b, byte[] pattern, int length) {
+        outer:
+        for (int i = 0; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++)
+                if (b[i + j] != pattern[j])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a record as a server-sent event. Each line of the record
+     * becomes a data line of the event.
+     * @param out The output stream
+     * @param id The event id, the offset right after the record
+     * @param record The record bytes
+     * @param length The length of the record
+     * @throws IOException Error writing the event
+     */
+    static void writeEvent(ServletOutputStream out, long id, byte[] record,
+                           int length) throws IOException {
+        out.print("event: record\nid: " + id + '\n');
+        int lineStart = 0;
+        for (int i = 0; i <= length; i++)
+            if (i == length || record[i] == '\n') {
+                int lineEnd = i;
+                if (lineEnd > lineStart && record[lineEnd - 1] == '\r')
+                    --lineEnd;
+                out.print("data: ");
+                out.write(record, lineStart, lineEnd - lineStart);
+                out.print('\n');
+                lineStart = i + 1;
+            }
+        out.print('\n');
+    }
+}
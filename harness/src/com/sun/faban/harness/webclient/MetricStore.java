@@ -0,0 +1,682 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.common.RunId;
+import com.sun.faban.harness.security.AccessController;
+
+import javax.security.auth.Subject;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The metric store keeps the key metrics of each run for trend analysis
+ * across runs. Each benchmark has its own append-only columnar store in
+ * $FABAN/config/metrics/&lt;benchmark&gt;. The store consists of:
+ * <ul>
+ * <li>runs.col, the run id and time of each row, in append order</li>
+ * <li>columns.col, the column names, in order of the column numbers</li>
+ * <li>&lt;n&gt;.col, the row and value pairs of column n</li>
+ * </ul>
+ * A trend query therefore only reads the rows and the one column queried.
+ * Columns are sparse as operations differ across runs. Rows are appended
+ * as runs complete. Runs missing from the store, i.e. from before the
+ * store existed or uploaded from other harnesses, are added from the run
+ * index on the next query of the benchmark.<p>
+ * The columns are:
+ * <ul>
+ * <li>metric and passed for the benchmark</li>
+ * <li>&lt;driver&gt;/metric for each driver</li>
+ * <li>&lt;driver&gt;/&lt;operation&gt;/successes and failures from the
+ *     operation mix</li>
+ * <li>&lt;driver&gt;/&lt;operation&gt;/avg and the percentile response
+ *     times, e.g. &lt;driver&gt;/&lt;operation&gt;/90th</li>
+ * </ul>
+ */
+public class MetricStore {
+
+    private static final String STORE_DIR = "metrics";
+    private static final String RUNS_FILE = "runs.col";
+    private static final String COLUMNS_FILE = "columns.col";
+
+    /** The size of a row and value pair in a column file. */
+    private static final int PAIR_SIZE = 12;
+
+    private static Logger logger =
+            Logger.getLogger(MetricStore.class.getName());
+    private static MetricStore instance;
+
+    private final File dir;
+    private final HashMap<String, Store> stores = new HashMap<String, Store>();
+
+    /**
+     * The trend of one column of a benchmark.
+     */
+    public static class Series {
+
+        /** The benchmark name. */
+        public String bench;
+
+        /** The column name. */
+        public String column;
+
+        /** Whether lower values of this column are better. */
+        public boolean lowerIsBetter;
+
+        /** The run ids, in time order. */
+        public String[] runIds;
+
+        /** The run times, in ms. */
+        public long[] times;
+
+        /** The values. */
+        public double[] values;
+
+        /** The change points of the series. */
+        public List<ChangePoint> changes;
+    }
+
+    /**
+     * Obtains the metric store of this harness.
+     * @return The metric store
+     */
+    public static synchronized MetricStore getInstance() {
+        if (instance == null)
+            instance = new MetricStore(new File(Config.CONFIG_DIR, STORE_DIR));
+        return instance;
+    }
+
+    /**
+     * Constructs a metric store in the given directory.
+     * @param dir The store directory
+     */
+    MetricStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Checks whether lower values of a column are better. This is the
+     * case for response times and failures.
+     * @param column The column name
+     * @return Whether lower values are better
+     */
+    public static boolean isLowerBetter(String column) {
+        return !("metric".equals(column) || "passed".equals(column) ||
+                column.endsWith("/metric") || column.endsWith("/successes"));
+    }
+
+    /**
+     * Extracts the metrics of a completed run and appends them to the
+     * store of its benchmark. Runs already in the store are ignored.
+     * @param runId The run id
+     */
+    public void add(String runId) {
+        RunResult result = RunIndex.getInstance().get(new RunId(runId));
+        if (result == null)
+            return;
+        try {
+            getStore(result.runId.getBenchName()).add(result);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, runId + ": Error storing metrics.", e);
+        }
+    }
+
+    /**
+     * Extracts the metrics of a run from its summary.
+     * @param runDir The run directory name
+     * @return The column values, in column order
+     * @throws IOException If the summary cannot be read
+     */
+    static Map<String, Double> extract(String runDir) throws IOException {
+        RunModel model = RunModel.getSummary(runDir);
+        LinkedHashMap<String, Double> values =
+                new LinkedHashMap<String, Double>();
+        put(values, "metric", model.metric);
+        if (model.passed != null)
+            values.put("passed", Boolean.parseBoolean(model.passed) ? 1d : 0d);
+        for (RunModel.Driver driver : model.drivers) {
+            String prefix = driver.name + '/';
+            put(values, prefix + "metric", driver.metric);
+            for (int i = 0; i < driver.mixOps.length; i++) {
+                String opPrefix = prefix + driver.mixOps[i] + '/';
+                put(values, opPrefix + "successes", driver.successes[i]);
+                put(values, opPrefix + "failures", driver.failures[i]);
+            }
+            for (int i = 0; i < driver.ops.length; i++) {
+                String opPrefix = prefix + driver.ops[i] + '/';
+                put(values, opPrefix + "avg", driver.rtAvg[i]);
+                for (int j = 0; j < driver.pctNames.length &&
+                        j < driver.pctValues[i].length; j++)
+                    put(values, opPrefix + driver.pctNames[j],
+                        driver.pctValues[i][j]);
+            }
+        }
+        return values;
+    }
+
+    private static void put(Map<String, Double> values, String column,
+                            String value) {
+        if (value == null)
+            return;
+        value = value.trim();
+        // Response times out of the histogram range read like "> 5.000"
+        if (value.startsWith(">"))
+            value = value.substring(1).trim();
+        try {
+            values.put(column, Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            // Not a number, no value for the column.
+        }
+    }
+
+    /**
+     * Lists the benchmarks with runs on this harness.
+     * @return The benchmark names, sorted
+     */
+    public String[] getBenchmarks() {
+        TreeSet<String> benchmarks = new TreeSet<String>();
+        for (RunResult result : RunIndex.getInstance().getRuns())
+            benchmarks.add(result.runId.getBenchName());
+        return benchmarks.toArray(new String[benchmarks.size()]);
+    }
+
+    /**
+     * Lists the columns of a benchmark.
+     * @param bench The benchmark name
+     * @return The column names, in order of appearance
+     * @throws IOException If the store cannot be read
+     */
+    public String[] getColumns(String bench) throws IOException {
+        Store store = getStore(bench);
+        store.sync();
+        return store.getColumns();
+    }
+
+    /**
+     * Queries the trend of a column, with its change points. Only runs
+     * that still exist and the user is allowed to view are included.
+     * @param user The user, or null
+     * @param bench The benchmark name
+     * @param column The column name
+     * @return The series
+     * @throws IOException If the store cannot be read
+     */
+    public Series query(Subject user, String bench, String column)
+            throws IOException {
+        Store store = getStore(bench);
+        store.sync();
+        String[] runIds;
+        long[] times;
+        double[] values;
+        synchronized (store) {
+            runIds = store.runIds.toArray(new String[store.runIds.size()]);
+            times = new long[runIds.length];
+            System.arraycopy(store.times, 0, times, 0, times.length);
+            values = store.read(column, runIds.length);
+        }
+        Integer[] rows = visibleRows(user, runIds, times, values);
+        Series series = new Series();
+        series.bench = bench;
+        series.column = column;
+        series.lowerIsBetter = isLowerBetter(column);
+        series.runIds = new String[rows.length];
+        series.times = new long[rows.length];
+        series.values = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            series.runIds[i] = runIds[rows[i]];
+            series.times[i] = times[rows[i]];
+            series.values[i] = values[rows[i]];
+        }
+        series.changes = ChangePoint.detect(series.values,
+                                            series.lowerIsBetter);
+        return series;
+    }
+
+    /**
+     * Writes all columns of a benchmark as CSV, one line per run in time
+     * order.
+     * @param user The user, or null
+     * @param bench The benchmark name
+     * @param out The output
+     * @throws IOException If the store cannot be read or written
+     */
+    public void writeCSV(Subject user, String bench, Appendable out)
+            throws IOException {
+        Store store = getStore(bench);
+        store.sync();
+        String[] runIds;
+        long[] times;
+        String[] columns;
+        double[][] values;
+        synchronized (store) {
+            runIds = store.runIds.toArray(new String[store.runIds.size()]);
+            times = new long[runIds.length];
+            System.arraycopy(store.times, 0, times, 0, times.length);
+            columns = store.getColumns();
+            values = new double[columns.length][];
+            for (int i = 0; i < columns.length; i++)
+                values[i] = store.read(columns[i], runIds.length);
+        }
+        Integer[] rows = visibleRows(user, runIds, times, null);
+        out.append("\"runId\",\"time\"");
+        for (String column : columns)
+            out.append(",\"").append(column.replace("\"", "\"\"")).append('"');
+        out.append("\r\n");
+        for (int row : rows) {
+            out.append('"').append(runIds[row]).append("\",").
+                    append(String.valueOf(times[row]));
+            for (double[] column : values) {
+                out.append(',');
+                if (!Double.isNaN(column[row]))
+                    out.append(String.valueOf(column[row]));
+            }
+            out.append("\r\n");
+        }
+    }
+
+    /**
+     * Selects the rows of runs that still exist and are visible to the
+     * user and, if values are given, that have a value.
+     * @return The rows, in time order
+     */
+    private static Integer[] visibleRows(Subject user, String[] runIds,
+                                         final long[] times, double[] values) {
+        ArrayList<Integer> rows = new ArrayList<Integer>(runIds.length);
+        for (int i = 0; i < runIds.length; i++) {
+            if (values != null && Double.isNaN(values[i]))
+                continue;
+            RunId runId = new RunId(runIds[i]);
+            if (!runId.getResultDir().isDirectory() ||
+                    !AccessController.isViewAllowed(user, runIds[i]))
+                continue;
+            rows.add(i);
+        }
+        Integer[] result = rows.toArray(new Integer[rows.size()]);
+        Arrays.sort(result, new Comparator<Integer>() {
+            public int compare(Integer r1, Integer r2) {
+                long t1 = times[r1];
+                long t2 = times[r2];
+                return t1 < t2 ? -1 : (t1 == t2 ? r1 - r2 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Obtains the store of a benchmark, loading it if needed.
+     * @param bench The benchmark name
+     * @return The store
+     * @throws IOException If the benchmark name is invalid or the store
+     *         cannot be read
+     */
+    synchronized Store getStore(String bench) throws IOException {
+        if (bench == null || bench.length() == 0 || bench.startsWith(".") ||
+                bench.indexOf('/') >= 0 || bench.indexOf('\\') >= 0)
+            throw new IOException("Invalid benchmark name " + bench);
+        Store store = stores.get(bench);
+        if (store == null) {
+            store = new Store(bench, new File(dir, bench));
+            store.load();
+            stores.put(bench, store);
+        }
+        return store;
+    }
+
+    /**
+     * The columnar store of one benchmark.
+     */
+    static class Store {
+
+        String bench;
+        File dir;
+        ArrayList<String> runIds = new ArrayList<String>();
+        long[] times = new long[64];
+        HashSet<String> rows = new HashSet<String>();
+        ArrayList<String> columns = new ArrayList<String>();
+        HashMap<String, Integer> columnNumbers = new HashMap<String, Integer>();
+
+        /** Completed runs without a readable summary, not retried. */
+        HashSet<String> unavailable = new HashSet<String>();
+
+        /**
+         * Constructs the store.
+         * @param bench The benchmark name
+         * @param dir The store directory
+         */
+        Store(String bench, File dir) {
+            this.bench = bench;
+            this.dir = dir;
+        }
+
+        /**
+         * Loads the rows and column names. A record partially written
+         * when the harness went down gets truncated, as do values of a
+         * row that did not make it to disk.
+         * @throws IOException If the store cannot be read
+         */
+        synchronized void load() throws IOException {
+            File runsFile = new File(dir, RUNS_FILE);
+            if (runsFile.exists()) {
+                DataInputStream in = open(runsFile);
+                long good = 0l;
+                try {
+                    for (;;) {
+                        String runId = in.readUTF();
+                        long time = in.readLong();
+                        addRow(runId, time);
+                        good += 2 + utfLength(runId) + 8;
+                    }
+                } catch (EOFException e) {
+                    // End of rows.
+                } finally {
+                    in.close();
+                }
+                truncate(runsFile, good);
+            }
+            File columnsFile = new File(dir, COLUMNS_FILE);
+            if (columnsFile.exists()) {
+                DataInputStream in = open(columnsFile);
+                long good = 0l;
+                try {
+                    for (;;) {
+                        String column = in.readUTF();
+                        columnNumbers.put(column, columns.size());
+                        columns.add(column);
+                        good += 2 + utfLength(column);
+                    }
+                } catch (EOFException e) {
+                    // End of columns.
+                } finally {
+                    in.close();
+                }
+                truncate(columnsFile, good);
+            }
+            for (int i = 0; i < columns.size(); i++) {
+                File file = columnFile(i);
+                truncate(file, file.length() - file.length() % PAIR_SIZE);
+            }
+            dropValues(runIds.size());
+        }
+
+        /**
+         * Drops the values of rows not in the store from the end of the
+         * column files. Values are appended in row order, so only the
+         * values of a row that failed to be added can follow the last row.
+         * @param rowCount The number of rows in the store
+         * @throws IOException If a column file cannot be truncated
+         */
+        private void dropValues(int rowCount) throws IOException {
+            for (int i = 0; i < columns.size(); i++) {
+                File file = columnFile(i);
+                if (!file.exists())
+                    continue;
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    long length = raf.length();
+                    while (length >= PAIR_SIZE) {
+                        raf.seek(length - PAIR_SIZE);
+                        if (raf.readInt() < rowCount)
+                            break;
+                        length -= PAIR_SIZE;
+                    }
+                    if (length < raf.length()) {
+                        logger.warning("Dropping values of incomplete row " +
+                                "in " + file);
+                        raf.setLength(length);
+                    }
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+
+        private void addRow(String runId, long time) {
+            if (runIds.size() == times.length) {
+                long[] newTimes = new long[times.length * 2];
+                System.arraycopy(times, 0, newTimes, 0, times.length);
+                times = newTimes;
+            }
+            times[runIds.size()] = time;
+            runIds.add(runId);
+            rows.add(runId);
+        }
+
+        /**
+         * Adds the completed runs of this benchmark in the run index that
+         * are not yet in the store.
+         */
+        void sync() {
+            ArrayList<RunResult> missing = new ArrayList<RunResult>();
+            synchronized (this) {
+                for (RunResult result : RunIndex.getInstance().getRuns()) {
+                    String runId = result.runId.toString();
+                    if (bench.equals(result.runId.getBenchName()) &&
+                            "COMPLETED".equals(result.status) &&
+                            !rows.contains(runId) &&
+                            !unavailable.contains(runId))
+                        missing.add(result);
+                }
+            }
+            Collections.sort(missing, new Comparator<RunResult>() {
+                public int compare(RunResult r1, RunResult r2) {
+                    return time(r1) < time(r2) ? -1 :
+                            (time(r1) == time(r2) ? 0 : 1);
+                }
+            });
+            for (RunResult result : missing)
+                try {
+                    add(result);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, result.runId +
+                            ": Error storing metrics.", e);
+                }
+        }
+
+        private static long time(RunResult result) {
+            return result.dateTime == null ? 0l : result.dateTime.getTime();
+        }
+
+        /**
+         * Adds a run to the store.
+         * @param result The run result
+         * @throws IOException If the store cannot be written
+         */
+        synchronized void add(RunResult result) throws IOException {
+            String runId = result.runId.toString();
+            if (rows.contains(runId) || unavailable.contains(runId))
+                return;
+            Map<String, Double> values;
+            try {
+                values = extract(runId);
+            } catch (IOException e) {
+                logger.log(Level.FINE, runId + ": No metrics.", e);
+                if (!result.isActive())
+                    unavailable.add(runId);
+                return;
+            }
+            add(runId, time(result), values);
+        }
+
+        /**
+         * Appends a row to the store.
+         * @param runId The run id
+         * @param time The run time, in ms
+         * @param values The column values
+         * @throws IOException If the store cannot be written
+         */
+        synchronized void add(String runId, long time,
+                              Map<String, Double> values)
+                throws IOException {
+            if (rows.contains(runId))
+                return;
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+
+            // The row goes last, so a row on disk always has all its
+            // values. Values of a row that did not make it get dropped.
+            int row = runIds.size();
+            boolean added = false;
+            try {
+                for (Map.Entry<String, Double> entry : values.entrySet()) {
+                    Integer number = columnNumbers.get(entry.getKey());
+                    if (number == null) {
+                        number = columns.size();
+                        DataOutputStream out =
+                                append(new File(dir, COLUMNS_FILE));
+                        try {
+                            out.writeUTF(entry.getKey());
+                        } finally {
+                            out.close();
+                        }
+                        columnNumbers.put(entry.getKey(), number);
+                        columns.add(entry.getKey());
+                    }
+                    DataOutputStream out = append(columnFile(number));
+                    try {
+                        out.writeInt(row);
+                        out.writeDouble(entry.getValue());
+                    } finally {
+                        out.close();
+                    }
+                }
+
+                DataOutputStream out = append(new File(dir, RUNS_FILE));
+                try {
+                    out.writeUTF(runId);
+                    out.writeLong(time);
+                } finally {
+                    out.close();
+                }
+                added = true;
+            } finally {
+                if (!added)
+                    dropValues(row);
+            }
+            addRow(runId, time);
+        }
+
+        /**
+         * Obtains the column names.
+         * @return The column names
+         */
+        synchronized String[] getColumns() {
+            return columns.toArray(new String[columns.size()]);
+        }
+
+        /**
+         * Reads a column.
+         * @param column The column name
+         * @param rowCount The number of rows to read
+         * @return The values by row, NaN for rows without value
+         * @throws IOException If the column cannot be read
+         */
+        synchronized double[] read(String column, int rowCount)
+                throws IOException {
+            double[] values = new double[rowCount];
+            Arrays.fill(values, Double.NaN);
+            Integer number = columnNumbers.get(column);
+            if (number == null)
+                return values;
+            File file = columnFile(number);
+            long pairs = file.length() / PAIR_SIZE;
+            DataInputStream in = open(file);
+            try {
+                for (long i = 0; i < pairs; i++) {
+                    int row = in.readInt();
+                    double value = in.readDouble();
+                    if (row >= 0 && row < rowCount)
+                        values[row] = value;
+                }
+            } finally {
+                in.close();
+            }
+            return values;
+        }
+
+        private File columnFile(int number) {
+            return new File(dir, number + ".col");
+        }
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                                            new FileInputStream(file)));
+    }
+
+    private static DataOutputStream append(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                                            new FileOutputStream(file, true)));
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        if (!file.exists() || file.length() == length)
+            return;
+        logger.warning("Truncating partial record in " + file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Calculates the encoded length of a string in modified UTF-8, as
+     * written by DataOutput.writeUTF, excluding the length prefix.
+     */
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                length++;
+            else if (c > 0x07FF)
+                length += 3;
+            else
+                length += 2;
+        }
+        return length;
+    }
+}
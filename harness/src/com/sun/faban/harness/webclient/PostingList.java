@@ -0,0 +1,267 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed set of run numbers used as the posting list
+ * of a tag in the tag engine. Sparse lists are kept as sorted int arrays
+ * and dense lists as bitmaps, whichever is smaller. Lists never change
+ * once built, so readers can use them without any locking. Operations
+ * return new lists.
+ */
+final class PostingList {
+
+    /** The empty posting list. */
+    static final PostingList EMPTY = new PostingList(new int[0], null, 0);
+
+    private final int[] ids;   // Sorted ids if sparse, null otherwise.
+    private final long[] bits; // Bitmap if dense, null otherwise.
+    private final int size;
+
+    private PostingList(int[] ids, long[] bits, int size) {
+        this.ids = ids;
+        this.bits = bits;
+        this.size = size;
+    }
+
+    /**
+     * Creates a posting list from sorted run numbers, choosing the
+     * smaller representation.
+     * @param sorted The run numbers in ascending order, without duplicates
+     * @param length The number of run numbers in the array to use
+     * @return The posting list
+     */
+    static PostingList of(int[] sorted, int length) {
+        if (length == 0)
+            return EMPTY;
+        int words = (sorted[length - 1] >>> 6) + 1;
+        if (words * 2 < length) {
+            long[] bits = new long[words];
+            for (int i = 0; i < length; i++)
+                bits[sorted[i] >>> 6] |= 1l << sorted[i];
+            return new PostingList(null, bits, length);
+        }
+        int[] ids = new int[length];
+        System.arraycopy(sorted, 0, ids, 0, length);
+        return new PostingList(ids, null, length);
+    }
+
+    /**
+     * Creates a posting list from a bitmap.
+     * @param bits The bitmap, owned by the new list from now on
+     * @return The posting list
+     */
+    private static PostingList of(long[] bits) {
+        int size = 0;
+        int words = 0;
+        for (int i = 0; i < bits.length; i++)
+            if (bits[i] != 0l) {
+                size += Long.bitCount(bits[i]);
+                words = i + 1;
+            }
+        if (size == 0)
+            return EMPTY;
+        if (words * 2 < size) {
+            if (words < bits.length) {
+                long[] trimmed = new long[words];
+                System.arraycopy(bits, 0, trimmed, 0, words);
+                bits = trimmed;
+            }
+            return new PostingList(null, bits, size);
+        }
+        int[] ids = new int[size];
+        int n = 0;
+        for (int i = 0; i < words; i++)
+            for (long w = bits[i]; w != 0l; w &= w - 1)
+                ids[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+        return new PostingList(ids, null, size);
+    }
+
+    /**
+     * Obtains the number of runs in this list.
+     * @return The number of runs
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether a run is in this list.
+     * @param id The run number
+     * @return true if the run is in this list, false otherwise
+     */
+    boolean contains(int id) {
+        if (bits != null) {
+            int word = id >>> 6;
+            return word < bits.length && (bits[word] & (1l << id)) != 0l;
+        }
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * Obtains the run numbers in this list, in ascending order.
+     * @return The run numbers
+     */
+    int[] toArray() {
+        if (ids != null)
+            return ids.clone();
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < bits.length; i++)
+            for (long w = bits[i]; w != 0l; w &= w - 1)
+                result[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+        return result;
+    }
+
+    /**
+     * Returns a list with the given run added.
+     * @param id The run number
+     * @return The new list, or this list if it already contains the run
+     */
+    PostingList add(int id) {
+        if (contains(id))
+            return this;
+        if (bits != null) {
+            long[] b = new long[Math.max(bits.length, (id >>> 6) + 1)];
+            System.arraycopy(bits, 0, b, 0, bits.length);
+            b[id >>> 6] |= 1l << id;
+            return of(b);
+        }
+        int pos = -Arrays.binarySearch(ids, id) - 1;
+        int[] result = new int[size + 1];
+        System.arraycopy(ids, 0, result, 0, pos);
+        result[pos] = id;
+        System.arraycopy(ids, pos, result, pos + 1, size - pos);
+        return of(result, result.length);
+    }
+
+    /**
+     * Returns a list with the given run removed.
+     * @param id The run number
+     * @return The new list, or this list if it does not contain the run
+     */
+    PostingList remove(int id) {
+        if (!contains(id))
+            return this;
+        if (bits != null) {
+            long[] b = bits.clone();
+            b[id >>> 6] &= ~(1l << id);
+            return of(b);
+        }
+        int pos = Arrays.binarySearch(ids, id);
+        int[] result = new int[size - 1];
+        System.arraycopy(ids, 0, result, 0, pos);
+        System.arraycopy(ids, pos + 1, result, pos, size - pos - 1);
+        return of(result, result.length);
+    }
+
+    /**
+     * Intersects this list with another.
+     * @param other The other list
+     * @return The runs contained in both lists
+     */
+    PostingList and(PostingList other) {
+        if (size == 0 || other.size == 0)
+            return EMPTY;
+        if (bits != null && other.bits != null) {
+            long[] b = new long[Math.min(bits.length, other.bits.length)];
+            for (int i = 0; i < b.length; i++)
+                b[i] = bits[i] & other.bits[i];
+            return of(b);
+        }
+
+        // At least one side is sparse, walk the smaller sparse side.
+        PostingList sparse = this;
+        PostingList test = other;
+        if (ids == null || (other.ids != null && other.size < size)) {
+            sparse = other;
+            test = this;
+        }
+        int[] result = new int[sparse.size];
+        int n = 0;
+        for (int id : sparse.ids)
+            if (test.contains(id))
+                result[n++] = id;
+        return of(result, n);
+    }
+
+    /**
+     * Unites this list with another.
+     * @param other The other list
+     * @return The runs contained in either list
+     */
+    PostingList or(PostingList other) {
+        if (other.size == 0)
+            return this;
+        if (size == 0)
+            return other;
+        if (bits != null || other.bits != null) {
+            int max = Math.max(maxId(), other.maxId());
+            long[] b = new long[(max >>> 6) + 1];
+            setBits(b);
+            other.setBits(b);
+            return of(b);
+        }
+        int[] result = new int[size + other.size];
+        int i = 0, j = 0, n = 0;
+        while (i < size && j < other.size) {
+            int a = ids[i];
+            int c = other.ids[j];
+            if (a < c) {
+                result[n++] = a;
+                ++i;
+            } else if (a > c) {
+                result[n++] = c;
+                ++j;
+            } else {
+                result[n++] = a;
+                ++i;
+                ++j;
+            }
+        }
+        while (i < size)
+            result[n++] = ids[i++];
+        while (j < other.size)
+            result[n++] = other.ids[j++];
+        return of(result, n);
+    }
+
+    private int maxId() {
+        if (ids != null)
+            return ids[size - 1];
+        int i = bits.length - 1;
+        return (i << 6) + 63 - Long.numberOfLeadingZeros(bits[i]);
+    }
+
+    private void setBits(long[] b) {
+        if (bits != null)
+            for (int i = 0; i < bits.length; i++)
+                b[i] |= bits[i];
+        else
+            for (int id : ids)
+                b[id >>> 6] |= 1l << id;
+    }
+}
@@ -556,6 +556,7 @@ public class ResultAction {
             param.setParameter("fa:runConfig/fh:description",
                                                             result.description);
             param.save();
+            RunIndex.getInstance().update(result.runId.toString());
         } catch (Exception ex) {
             Logger.getLogger(ResultAction.class.getName()).
                     log(Level.SEVERE, null, ex);
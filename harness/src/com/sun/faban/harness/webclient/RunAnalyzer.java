@@ -28,17 +28,11 @@ import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.common.RunId;
 import com.sun.faban.harness.security.Acl;
 import com.sun.faban.harness.util.FileHelper;
-import com.sun.faban.harness.util.XMLException;
-import com.sun.faban.harness.util.XMLReader;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.NamedNodeMap;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -47,8 +41,6 @@ import java.util.logging.Logger;
  * @author Akara Sucharitakul
  */
 public class RunAnalyzer {
-    XMLReader reader;
-    ArrayList<String> rtPercentList[];
 
     /**
      * Analysis types.
@@ -215,496 +207,254 @@ public class RunAnalyzer {
     */
     public void compare(String runDirs[], String outDir) throws IOException {
         String outFile = outDir + File.separator + "compare.xan";
-        TextTable infoTable;
-        TextTable cpuTable = null;
-        PrintWriter p;
-        List<String> cpuList[];
-        int maxThruRows = 0, maxDistRows = 0;
-        infoTable = new TextTable(runDirs.length, 4);
-        infoTable.setHeader(0, "RunID");
-        infoTable.setHeader(1, "Avg. Throughput");
-        infoTable.setHeader(2, "Passed");
-        infoTable.setHeader(3, "Description");
-
-        p = openOutFile(outFile, "Compare");
 
-        for (int i = 0; i < runDirs.length; i++) {
-            String sumFile = getSumFile(runDirs[i]);
-
-            reader = new XMLReader(sumFile, false, false);
+        // Read or fetch all runs from the cache before we write anything.
+        RunModel[] models = RunModel.get(runDirs);
 
-            // parse Run Info section of summary file
-            getRunInfo(runDirs[i], reader, infoTable, i);
-            reader = null;
-        }
-        p.println("Section: Run Information");
-        p.println(infoTable.toString());
-
-        DetailReport detail = null;
-        for (int driver = 1, maxDriver = 1; driver <= maxDriver; driver++ ) {
-            TextTable thruTable, opAvgThruTable = null, opThruTable;
-            TextTable respTable, percentRespTable[] = null, avgRespTable = null;
-            String thruMetric = null, respMetric = null;
-            ArrayList<String> rtAvgList;
-            ArrayList<String> rtPercentNames = null;
-            ArrayList<String> opNames = new ArrayList<String>();
-
-            ArrayList<Double> thruList[] = new ArrayList[runDirs.length];
-            ArrayList<Double> opThruList[][] = null;
-            ArrayList<Double> timeVals = new ArrayList<Double>();
-            ArrayList<Double> timeDistVals = new ArrayList<Double>();
-
-            ArrayList<Double> respList[][] = null;
-            ArrayList<Integer> respDistList[][] = null;
-
-            for (int i = 0; i < runDirs.length; i++) {
-                String detFile = getDetFile(runDirs[i]);
-                detail = new DetailReport(detFile, driver);
-                List<Double> throughput = detail.getThruput();
-                List<Double> distVals = detail.getTimesDist();
-                if (i == 0) {
-                    maxThruRows = throughput.size();
-                    maxDistRows = distVals.size();
-                }
-                if (throughput.size() > maxThruRows) {
-                    maxThruRows = throughput.size();
-                }
-                if (distVals.size() > maxDistRows) {
-                    maxDistRows = distVals.size();
-                }
+        PrintWriter p = openOutFile(outFile, "Compare");
+        try {
+            TextTable infoTable = new TextTable(runDirs.length, 4);
+            infoTable.setHeader(0, "RunID");
+            infoTable.setHeader(1, "Avg. Throughput");
+            infoTable.setHeader(2, "Passed");
+            infoTable.setHeader(3, "Description");
+            for (int i = 0; i < models.length; i++) {
+                infoTable.setField(i, 0, value(models[i].runId));
+                infoTable.setField(i, 1, value(models[i].metric));
+                infoTable.setField(i, 2, value(models[i].passed));
+                infoTable.setField(i, 3, value(models[i].description));
             }
+            p.println("Section: Run Information");
+            p.println(infoTable.toString());
 
-            for (int i = 0; i < runDirs.length; i++) {
-                String sumFile = getSumFile(runDirs[i]);
-                String detFile = getDetFile(runDirs[i]);
-                reader = new XMLReader(sumFile, false, false);
-
-                // parse throughput section of detail.xan
-                detail = new DetailReport(detFile, driver);
-                thruList[i] = detail.getThruput();
-                timeVals = detail.getTimes();
-                timeDistVals = detail.getTimesDist(maxDistRows);
-
-                // read the metric from the first file
-                if (i == 0) {
-                    respMetric = getRespUnit(reader, driver);
-                    thruMetric = getThruUnit(reader, driver);
-                }
-
-                // Now get the response times
-                rtAvgList = new ArrayList<String>();
-                rtPercentNames = new ArrayList<String>();
-                try {
-                    getResponseTimes(reader, opNames, rtAvgList, rtPercentNames, driver);
-                } catch (IOException ie) {
-                    throw new IOException(ie.getMessage() + " : " + sumFile);
-                }
-
-                // Get cpu util.
-                cpuList = getCpuUtil(Config.OUT_DIR + runDirs[i]);
-
-                if (i == 0) {
-                    if (detail.hasNextDriver) {
-                        maxDriver++;
-                    }
-                    respList = new ArrayList[runDirs.length][opNames.size()];
-                    respDistList = new ArrayList[runDirs.length][opNames.size()];
-
-                    // thru. table on a per operation basis
-                    opAvgThruTable = new TextTable(runDirs.length, opNames.size() + 1);
-                    opAvgThruTable.setHeader(0, "RunID");
-
-                    opThruList = new ArrayList[runDirs.length][opNames.size()];
-
-                    /*
-                     * We have the following types of RT tables:
-                     * a) Avg. RT which simply has one row per run listing avg RT. of each operation
-                     * b) nth Percentile RT tables - same info as above
-                     * c) Detailed RT - one table per operation listing RT over time
-                     */
-                    avgRespTable = new TextTable(runDirs.length, opNames.size() + 1);
-                    avgRespTable.setHeader(0, "RunID");
-
-                    //percentile resp. tables (e.g. 90th, 99th)
-                    percentRespTable = new TextTable[rtPercentNames.size()];
-                    for (int j = 0; j < rtPercentNames.size(); j++) {
-                        percentRespTable[j] = new TextTable(runDirs.length, opNames.size() + 1);
-                        percentRespTable[j].setHeader(0, "RunID");
-                    }
-
-                    for (int j = 0; j < opNames.size(); j++) {
-                        opAvgThruTable.setHeader(j + 1, opNames.get(j));
-                        avgRespTable.setHeader(j + 1, opNames.get(j));
-                        for (int k = 0; k < rtPercentNames.size(); k++) {
-                            percentRespTable[k].setHeader(j + 1, opNames.get(j));
-                        }
-                    }
-
-                    /*** CPU info is tough for comparison. The hosts may not be the same */
-                    // CPU info. We print 1 row per RunID with each col. being cpu% for one host
-                    cpuTable = new TextTable(runDirs.length, cpuList.length + 1);
-                    cpuTable.setHeader(0, "RunID");
-                    for (int j = 0; j < cpuList.length; j++) {
-                        cpuTable.setHeader(j + 1, cpuList[j].get(0));    // hostname
-                    }
-                }
-                // Get avg. thruput per operation
-                opAvgThruTable.setField(i, 0, runDirs[i]);
-                avgRespTable.setField(i, 0, runDirs[i]);
-                for (int j = 0; j < opNames.size(); j++) {
-                    opAvgThruTable.setField(i, j + 1, String.format("%4.3f", detail.getOpAvgThruput(j)));
-                    opThruList[i][j] = detail.getOpThruput(j);
-                    respList[i][j] = detail.getOpRT(j);
-                    respDistList[i][j] = detail.getOpRTDist(j);
-                    avgRespTable.setField(i, j + 1, rtAvgList.get(j));
-                    for (int k = 0; k < rtPercentNames.size(); k++) {
-                        percentRespTable[k].setField(i, 0, runDirs[i]);
-                        percentRespTable[k].setField(i, j + 1, rtPercentList[k].get(j));
-                    }
-                }
-
-                cpuTable.setField(i, 0, runDirs[i]);
-                for (int j = 0; j < cpuList.length; j++) {
-                    cpuTable.setField(i, j + 1, cpuList[j].get(1));  // avg. util
-                }
-            }
-            // Create the thruput tables. We create it with the largest #rows
-            thruTable = new TextTable(maxThruRows, runDirs.length + 1); //1st col is time
-            thruTable.setHeader(0, "Time");
-            for (int i = 0; i < timeVals.size(); i++)
-                thruTable.setField(i, 0, timeVals.get(i).toString());
-
-            for (int i = 0; i < runDirs.length; i++) {
-                thruTable.setHeader(i + 1, runDirs[i]);
-                int j;
-                for (j = 0; j < thruList[i].size(); j++) {
-                    thruTable.setField(j, i + 1, thruList[i].get(j).toString());
-                }
-                int rem = timeVals.size() - thruList[i].size();
-                // Fill remaning timevals with dash - null value for .xan
-                for (; rem > 0; rem--) {
-                    thruTable.setField(j++, i + 1, "-");
-                }
-            }
-            p.println("Section: Overall Throughput (" + thruMetric + ")");
-            p.println("Display: Line");
-            p.println(thruTable.toString());
-
-            p.println("Section: Summary Throughput Per Operation (" + thruMetric + ")");
-            p.println(opAvgThruTable.toString());
-
-            // Print detailed thruput only if more than one operation as otherwise overall thruput is same as detail
-            if (opNames.size() > 1) {
-                for (int k = 0; k < opNames.size(); k++) {
-                    p.println("Section: Detailed Throughput For  Operation '" +
-                            opNames.get(k) + "' (" + thruMetric + ")");
-                    p.println("Display: Line");
-                    opThruTable = new TextTable(maxThruRows, runDirs.length + 1);
-                    opThruTable.setHeader(0, "Time");
-                    for (int i = 0; i < timeVals.size(); i++)
-                        opThruTable.setField(i, 0, timeVals.get(i).toString());
-
-                    for (int i = 0; i < runDirs.length; i++) {
-                        opThruTable.setHeader(i + 1, runDirs[i]);
-                        int j;
-                        for (j = 0; j < opThruList[i][k].size(); j++) {
-                            opThruTable.setField(j, i + 1, opThruList[i][k].get(j).toString());
-                        }
-                        // Fill with dash for remaining time intervals (if any)
-                        int rem = timeVals.size() - opThruList[i][k].size();
-                        for (; rem > 0; rem--) {
-                            opThruTable.setField(j++, i + 1, "-");
-                        }
-                    }
-                    p.println(opThruTable.toString());
-                }
-            }
+            // The drivers to compare are the ones of the first run.
+            for (int driver = 0; driver < models[0].drivers.length; driver++)
+                compareDriver(p, runDirs, models, driver);
 
-            p.println("Section: Average Response Times (" + respMetric + ")");
-            p.println(avgRespTable.toString());
+            compareCpu(p, runDirs, models);
+        } finally {
+            p.close();
+        }
+    }
 
-            // Print nth percentile RT info
-            for (int j = 0; j < rtPercentList.length; j++) {
-                p.println("Section: " + rtPercentNames.get(j) + " Percentile Response Times (" + respMetric + ")");
-                p.println(percentRespTable[j].toString());
-            }
+    /**
+     * Prints the comparison sections of one driver.
+     * @param p The output
+     * @param runDirs The run directory names
+     * @param models The run models
+     * @param driver The driver index, 0-based
+     */
+    private void compareDriver(PrintWriter p, String[] runDirs,
+                               RunModel[] models, int driver) {
+        RunModel.Driver[] drivers = new RunModel.Driver[models.length];
+        double[] timeVals = new double[0];
+        double[] timeDistVals = new double[0];
+        for (int i = 0; i < models.length; i++) {
+            drivers[i] = models[i].getDriver(driver);
+            if (drivers[i] == null)
+                continue;
+            if (drivers[i].times.length > timeVals.length)
+                timeVals = drivers[i].times;
+            if (drivers[i].distTimes.length > timeDistVals.length)
+                timeDistVals = drivers[i].distTimes;
+        }
 
-            for (int k = 0; k < opNames.size(); k++) {
-                p.println("Section: Average Response Times for Operation '" +
-                        opNames.get(k) + "' (" + respMetric + ")");
-                p.println("Display: Line");
-                respTable = new TextTable(maxThruRows, runDirs.length + 1);
-                respTable.setHeader(0, "Time");
-
-                // Set time column for all rows
-                for (int i = 0; i < timeVals.size(); i++)
-                    respTable.setField(i, 0, timeVals.get(i).toString());
-
-                for (int i = 0; i < runDirs.length; i++) {
-                    respTable.setHeader(i + 1, runDirs[i]);
-                    int j;
-                    for (j = 0; j < respList[i][k].size(); j++) {
-                        respTable.setField(j, i + 1, respList[i][k].get(j).toString());
-                    }
-                    int rem = timeVals.size() - respList[i][k].size();
-                    for (; rem > 0; rem--) {
-                        respTable.setField(j++, i + 1, "-");
-                    }
+        // Names and units come from the first run.
+        String[] opNames = drivers[0].ops;
+        String[] rtPercentNames = drivers[0].pctNames;
+        String thruMetric = drivers[0].thruUnit;
+        String respMetric = drivers[0].respUnit;
+
+        String[][] columns = new String[runDirs.length][];
+        for (int i = 0; i < drivers.length; i++)
+            if (drivers[i] != null)
+                columns[i] = toStrings(drivers[i].thruput);
+        p.println("Section: Overall Throughput (" + thruMetric + ")");
+        p.println("Display: Line");
+        p.println(seriesTable(timeVals, runDirs, columns).toString());
+
+        // Thru. table on a per operation basis.
+        /*
+         * We have the following types of RT tables:
+         * a) Avg. RT which simply has one row per run listing avg RT. of each operation
+         * b) nth Percentile RT tables - same info as above
+         * c) Detailed RT - one table per operation listing RT over time
+         */
+        TextTable opAvgThruTable = new TextTable(runDirs.length,
+                                                 opNames.length + 1);
+        TextTable avgRespTable = new TextTable(runDirs.length,
+                                               opNames.length + 1);
+        TextTable[] percentRespTable = new TextTable[rtPercentNames.length];
+        opAvgThruTable.setHeader(0, "RunID");
+        avgRespTable.setHeader(0, "RunID");
+        for (int k = 0; k < rtPercentNames.length; k++) {
+            percentRespTable[k] = new TextTable(runDirs.length,
+                                                opNames.length + 1);
+            percentRespTable[k].setHeader(0, "RunID");
+        }
+        for (int j = 0; j < opNames.length; j++) {
+            opAvgThruTable.setHeader(j + 1, opNames[j]);
+            avgRespTable.setHeader(j + 1, opNames[j]);
+            for (int k = 0; k < rtPercentNames.length; k++)
+                percentRespTable[k].setHeader(j + 1, opNames[j]);
+        }
+        for (int i = 0; i < runDirs.length; i++) {
+            RunModel.Driver d = drivers[i];
+            opAvgThruTable.setField(i, 0, runDirs[i]);
+            avgRespTable.setField(i, 0, runDirs[i]);
+            for (int k = 0; k < rtPercentNames.length; k++)
+                percentRespTable[k].setField(i, 0, runDirs[i]);
+            for (int j = 0; j < opNames.length; j++) {
+                String thru = "-";
+                if (d != null && j < d.opAvgThruput.length)
+                    thru = String.format("%4.3f", d.opAvgThruput[j]);
+                opAvgThruTable.setField(i, j + 1, thru);
+                avgRespTable.setField(i, j + 1, value(d == null ||
+                        j >= d.rtAvg.length ? null : d.rtAvg[j]));
+                for (int k = 0; k < rtPercentNames.length; k++) {
+                    // Runs may not report the same percentiles.
+                    String pct = null;
+                    int idx = d == null ? -1 : Arrays.asList(d.pctNames).
+                                            indexOf(rtPercentNames[k]);
+                    if (idx >= 0 && j < d.pctValues.length &&
+                            idx < d.pctValues[j].length)
+                        pct = d.pctValues[j][idx];
+                    percentRespTable[k].setField(i, j + 1, value(pct));
                 }
-                p.println(respTable.toString());
             }
+        }
 
-            // Print distribution of response times
-            for (int k = 0; k < opNames.size(); k++) {
-                p.println("Section: Distribution of Response Times for Operation '" +
-                        opNames.get(k) + "' (" + respMetric + ")");
+        p.println("Section: Summary Throughput Per Operation (" +
+                  thruMetric + ")");
+        p.println(opAvgThruTable.toString());
+
+        // Print detailed thruput only if more than one operation as otherwise overall thruput is same as detail
+        if (opNames.length > 1) {
+            for (int k = 0; k < opNames.length; k++) {
+                for (int i = 0; i < drivers.length; i++)
+                    columns[i] = drivers[i] == null ||
+                            k >= drivers[i].opThruput.length ? null :
+                            toStrings(drivers[i].opThruput[k]);
+                p.println("Section: Detailed Throughput For  Operation '" +
+                        opNames[k] + "' (" + thruMetric + ")");
                 p.println("Display: Line");
-                respTable = new TextTable(maxDistRows, runDirs.length + 1);
-                respTable.setHeader(0, "Time");
-
-                // Set time column for all rows
-                for (int i = 0; i < timeDistVals.size(); i++)
-                    respTable.setField(i, 0, timeDistVals.get(i).toString());
-
-                for (int i = 0; i < runDirs.length; i++) {
-                    respTable.setHeader(i + 1, runDirs[i]);
-                    int j;
-                    for (j = 0; j < respDistList[i][k].size(); j++) {
-                        respTable.setField(j, i + 1, respDistList[i][k].get(j).toString());
-                    }
-                    int rem = timeDistVals.size() - respDistList[i][k].size();
-                    for (; rem > 0; rem--) {
-                        respTable.setField(j++, i + 1, "-");
-                    }
-                }
-                p.println(respTable.toString());
+                p.println(seriesTable(timeVals, runDirs, columns).toString());
             }
-            first = true;
-            maxDistRows = 0;
-            maxThruRows = 0;
         }
 
-        // Print CPU utilization
-        p.println("Section: Average CPU Utilization");
-        p.println(cpuTable.toString());
-
-        p.close();
-        return;
-    }
+        p.println("Section: Average Response Times (" + respMetric + ")");
+        p.println(avgRespTable.toString());
 
-    PrintWriter openOutFile(String file, String type) throws IOException {
-        PrintWriter p = new PrintWriter(new BufferedWriter(new FileWriter(file)));
-        p.println("Title: " + type + " Report");
-        p.println();
-        return (p);
-    }
-
-    private String getSumFile(String runDir) throws IOException {
-        String sumFile = Config.OUT_DIR + runDir + File.separator + "summary.xml";
-        File f = new File(sumFile);
-        if (!f.exists()) {
-            throw new IOException(sumFile + " does not exist");
+        // Print nth percentile RT info
+        for (int k = 0; k < rtPercentNames.length; k++) {
+            p.println("Section: " + rtPercentNames[k] +
+                    " Percentile Response Times (" + respMetric + ")");
+            p.println(percentRespTable[k].toString());
         }
-        return (sumFile);
-    }
 
-    private String getDetFile(String runDir) throws IOException {
-        String file = Config.OUT_DIR + runDir + File.separator + "detail.xan";
-        if (!new File(file).exists()) {
-            throw new IOException("detail.xan does not exist in " + runDir);
+        for (int k = 0; k < opNames.length; k++) {
+            for (int i = 0; i < drivers.length; i++)
+                columns[i] = drivers[i] == null ||
+                        k >= drivers[i].opRT.length ? null :
+                        toStrings(drivers[i].opRT[k]);
+            p.println("Section: Average Response Times for Operation '" +
+                    opNames[k] + "' (" + respMetric + ")");
+            p.println("Display: Line");
+            p.println(seriesTable(timeVals, runDirs, columns).toString());
         }
-        return (file);
-    }
-
-    private File[] getVmstatXanFile(String runDir) throws IOException {
-        ArrayList<String> vmFileNames = new ArrayList<String>();
-        File dirf = new File(runDir);
-        File[] vmfiles = dirf.listFiles(new FilenameFilter() {
-            public boolean accept(File dir, String filename) {
-                return filename.startsWith("vmstat.xan.");
-            }
-        });
-        return (vmfiles);
-    }
-
-    /*
-    * Get the throughput unit for this run
-    * @param XMLReader for summary.xml of this run
-    * @return String unit
-    */
-
-    String getThruUnit(XMLReader r, int driver) {
 
-        List<String> m;
-        m = r.getAttributeValues("driverSummary["+driver+"]/metric", "unit");
-        String unit = m.get(0);
-        return (unit);
+        // Print distribution of response times
+        for (int k = 0; k < opNames.length; k++) {
+            for (int i = 0; i < drivers.length; i++)
+                columns[i] = drivers[i] == null ||
+                        k >= drivers[i].opRTDist.length ? null :
+                        toStrings(drivers[i].opRTDist[k]);
+            p.println("Section: Distribution of Response Times for Operation '" +
+                    opNames[k] + "' (" + respMetric + ")");
+            p.println("Display: Line");
+            p.println(seriesTable(timeDistVals, runDirs, columns).toString());
+        }
     }
 
-    String getRespUnit(XMLReader r, int driver) {
-
-        List<String> m;
-        m = r.getAttributeValues("driverSummary["+driver+"]/responseTimes", "unit");
-        String unit = m.get(0);
-        return (unit);
+    /**
+     * Prints the average CPU utilization of each host. The hosts may not
+     * be the same across runs, so we print one column for each host seen
+     * in any of the runs.
+     * @param p The output
+     * @param runDirs The run directory names
+     * @param models The run models
+     */
+    private void compareCpu(PrintWriter p, String[] runDirs,
+                            RunModel[] models) {
+        ArrayList<String> hosts = new ArrayList<String>();
+        for (RunModel model : models)
+            for (String[] hostUtil : model.cpu)
+                if (!hosts.contains(hostUtil[0]))
+                    hosts.add(hostUtil[0]);
+        TextTable cpuTable = new TextTable(runDirs.length, hosts.size() + 1);
+        cpuTable.setHeader(0, "RunID");
+        for (int j = 0; j < hosts.size(); j++)
+            cpuTable.setHeader(j + 1, hosts.get(j));
+        for (int i = 0; i < runDirs.length; i++) {
+            cpuTable.setField(i, 0, runDirs[i]);
+            for (int j = 0; j < hosts.size(); j++)
+                cpuTable.setField(i, j + 1, "-");
+            for (String[] hostUtil : models[i].cpu)
+                cpuTable.setField(i, hosts.indexOf(hostUtil[0]) + 1,
+                                  hostUtil[1]);
+        }
+        p.println("Section: Average CPU Utilization");
+        p.println(cpuTable.toString());
     }
 
-    private boolean first = true;
     /**
-    * @method getResponseTimes
-    * @param List opnames - list to add operation names to
-    * @param List rtAvgList - list to add avg. RT
-    * @param List rt90List - list to add 90% RT
-    */
-    void getResponseTimes(XMLReader reader, List opNames, List rtAvgList, List rtPercentNames, int driver)
-            throws IOException {
-        Element root = reader.getRootNode();
-
-        Node operationsNode = reader.getNode("driverSummary["+driver+"]/responseTimes", root);
-
-        if (operationsNode.getNodeType() != Node.ELEMENT_NODE) {
-            throw new IOException("Error: Can't find node driverSummary/responseTimes");
-
-        }
-        Element tse = (Element) operationsNode;
-        NodeList ops = reader.getNodes("operation", tse);
-
-        for (int j = 0; j < ops.getLength(); j++) {
-            Element op = (Element) ops.item(j);
-            if (first) { // Add names only first time
-                NamedNodeMap attrList = op.getAttributes();
-                for (int k = 0; k < attrList.getLength(); k++) {
-                    if (attrList.item(k).getNodeType()
-                            == Node.ATTRIBUTE_NODE) {
-                        if (attrList.item(k).getNodeName().equals("name")) {
-                            opNames.add(attrList.item(k).getNodeValue());
-                            break;  // no need to check other attributes
-                        }
-                    }
-                }
-            }
-            // The old style 90th percentile result is just p90th
-            // The new style is <percentile nth="90" suffix="th" limit="100.000">1.000</percentile>
-            NodeList pers = reader.getNodes("percentile", op);
-            try {
-                if (pers == null || pers.getLength() == 0) { // No percentile found. Look for old style
-
-                    if (j == 0) {
-                        rtPercentNames.add("90th");
-                        rtPercentList = new ArrayList[1];
-                        rtPercentList[0] = new ArrayList<String>();
-                    }
-                    rtPercentList[0].add(reader.getValue("p90th", op));
-
-                } else {
-                    if (j == 0) {
-                        int numPercent = pers.getLength();  // number of percentile entries
-                        rtPercentList = new ArrayList[numPercent];
-                    }
-                    for (int l = 0; l < pers.getLength(); l++) {
-                        Element p = (Element) pers.item(l);
-                        // Check if this is a 90th percentile element
-                        NamedNodeMap attrL = p.getAttributes();
-                        for (int k1 = 0; k1 < attrL.getLength(); k1++) {
-                            Node attr = attrL.item(k1);
-                            if (attr.getNodeType() == Node.ATTRIBUTE_NODE) {
-                                if ("nth".equals(attr.getNodeName())) {
-                                    if (j == 0) {
-                                        rtPercentNames.add(attr.getNodeValue());
-                                        rtPercentList[l] = new ArrayList<String>();
-                                    }
-                                    rtPercentList[l].add(p.getNodeValue());
-                                }
-                            }
-                        }
-                    }
-                }
-                rtAvgList.add(reader.getValue("avg", op));
-            } catch (XMLException xe) {
-                // just ignore. No data will get added
-            }
+     * Creates a table of time series, one column per run. Runs with
+     * shorter series are filled with dashes, the null value for .xan.
+     * @param axis The time axis
+     * @param runDirs The run directory names, used as column headers
+     * @param columns The series of each run, null if the run has none
+     * @return The table
+     */
+    private static TextTable seriesTable(double[] axis, String[] runDirs,
+                                         String[][] columns) {
+        TextTable table = new TextTable(axis.length, runDirs.length + 1);
+        table.setHeader(0, "Time");
+        for (int j = 0; j < axis.length; j++)
+            table.setField(j, 0, Double.toString(axis[j]));
+        for (int i = 0; i < runDirs.length; i++) {
+            table.setHeader(i + 1, runDirs[i]);
+            String[] column = columns[i];
+            for (int j = 0; j < axis.length; j++)
+                table.setField(j, i + 1, column != null &&
+                        j < column.length ? column[j] : "-");
         }
-        first = false;
+        return table;
     }
 
-    /*
-    * parse Run Info from summary file
-    * This method parses global run information and sets the TextTable elements appropriately
-    * @param String wlchar.xan file
-    * @param TextTable where values need to be entered
-    * @param int idx into TextTable for this runid
-    */
-
-    private void getRunInfo(String runDir, XMLReader sumReader, TextTable t, int idx) throws IOException {
-        String runFile = Config.OUT_DIR + runDir + File.separator + "run.xml";
-        XMLReader r = new XMLReader(runFile, true, false);
-        String description = r.getValue("fh:description");
-
-        String runId = sumReader.getValue("benchSummary/runId");
-        String metricVal = sumReader.getValue("benchSummary/metric");
-        //List<String> m = sumReader.getAttributeValues("benchSummary/metric", "unit");
-        //String metric = m.get(0);
-        String passed = sumReader.getValue("benchSummary/passed");
-        t.setField(idx, 0, runId);
-        t.setField(idx, 1, metricVal);
-        t.setField(idx, 2, passed);
-        t.setField(idx, 3, description);
+    private static String[] toStrings(double[] values) {
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++)
+            strings[i] = Double.toString(values[i]);
+        return strings;
     }
 
-    /*
-    * @method getCpuUtil
-    * This method reads the vmstat.xan.* file to get the total cpu% for
-    * each host in the test configuration.
-    * @param String runDir
-    * @return ArrayList<String>[] - list of host,util pairs
-    * @throws IOException if it can't find/open vmstat.xan.* or if the file contents are not as expected
-    *
-    */
-    ArrayList<String>[] getCpuUtil(String runDir) throws IOException {
-        String tokens[];
-        ArrayList<String> hostUtils[];
-        int usr = 0, sys = 0, total;
-        File files[] = getVmstatXanFile(runDir);
-        hostUtils = new ArrayList[files.length];
-        int i = 0;
-        for (File file : files) {
-            // Read the total cpu util.
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            String line;
-            String filename = file.getName();
-
-            while ((line = br.readLine()) != null) {
-                if (line.contains("CPU (usr)")) {
-                    // process the line.
-                    tokens = line.split("\\s+");
-                    if (tokens.length != 5) {
-                        logger.warning("Error processing " + filename + ". Number of tokens on CPU (usr) line is " + tokens.length);
-                        break;
-                    }
-                    usr = Integer.parseInt(tokens[2]);
-                } else if (line.contains("CPU (sys)")) {
-                    tokens = line.split("\\s+");
-                    if (tokens.length != 5) {
-                        logger.warning("Error processing " + filename + ". Number of tokens on CPU (sys) line is " + tokens.length);
-                        break;
-                    }
-                    sys = Integer.parseInt(tokens[2]);
-                    break;
-                }
-
-            }
-            br.close();
-            total = usr + sys;
-            String host = filename.substring("vmstat.xan.".length());   // get the hostname that follows 'vmstat.xan.'
-            hostUtils[i] = new ArrayList<String>();
-            hostUtils[i].add(host); //hostname
-            hostUtils[i].add(Integer.toString(total)); //cpu util
-            i++;
-        }
+    private static String[] toStrings(int[] values) {
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++)
+            strings[i] = Integer.toString(values[i]);
+        return strings;
+    }
 
-        return (hostUtils);
+    private static String value(String value) {
+        return value == null ? "-" : value;
     }
 
+    PrintWriter openOutFile(String file, String type) throws IOException {
+        PrintWriter p = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        p.println("Title: " + type + " Report");
+        p.println();
+        return (p);
+    }
 
     /*
      * @param args the command line arguments which should be the list of runDirs
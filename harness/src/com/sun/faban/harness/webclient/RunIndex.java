@@ -0,0 +1,427 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.harness.common.Config;
+import com.sun.faban.harness.common.RunId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The run index keeps the results of all runs in the output directory so
+ * the result list and the feeds can be served without scanning the output
+ * directory and reading each run. Changed and removed runs are appended
+ * to the journal at $FABAN/config/runindex.journal, which is replayed at
+ * startup and compacted to one record per run when it grows to twice the
+ * number of runs. The index is kept up to date incrementally:
+ * <ul>
+ * <li>The run daemon updates the run it just ran.</li>
+ * <li>The watcher thread polls the output directory for runs added or
+ *     deleted, and re-reads the runs that are still active.</li>
+ * <li>Every full scan interval, the watcher also checks all runs for
+ *     changes, catching anything else modified behind its back.</li>
+ * </ul>
+ * A run is only re-read if its run directory changed.
+ */
+public class RunIndex implements Runnable {
+
+    /** The interval the watcher polls the output directory, in ms. */
+    static final long POLL_INTERVAL = 5000l;
+
+    /** The number of polls between full scans of all runs. */
+    static final int FULL_SCAN_POLLS = 120;
+
+    /** The minimum number of journal records before compaction. */
+    static final int COMPACT_MIN = 1000;
+
+    private static final String JOURNAL_FILE = "runindex.journal";
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static Logger logger = Logger.getLogger(RunIndex.class.getName());
+    private static volatile RunIndex instance;
+
+    private ConcurrentHashMap<String, RunResult> runs =
+            new ConcurrentHashMap<String, RunResult>(1024);
+    private long outDirModTime = 0l;
+    private Thread watcher;
+
+    /** The runs changed or removed since the last save. */
+    private ConcurrentHashMap<String, Boolean> changed =
+            new ConcurrentHashMap<String, Boolean>();
+
+    // The journal, guarded by this.
+    private File journalFile = new File(Config.CONFIG_DIR, JOURNAL_FILE);
+    private DataOutputStream journal;
+    private int journalRecords = 0;
+
+    /**
+     * Obtains the singleton instance of the run index. The first call
+     * replays the index from its journal, or builds it from the output
+     * directory if there is no journal yet.
+     * @return The run index
+     */
+    public static RunIndex getInstance() {
+        if (instance == null) {
+            synchronized (RunIndex.class) {
+                if (instance == null)
+                    instance = createInstance();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Creates the run index and starts the watcher thread.
+     * @return The run index
+     */
+    private static RunIndex createInstance() {
+        RunIndex index = new RunIndex();
+        boolean loaded = index.load();
+        if (!loaded)
+            index.poll(true);
+        synchronized (index) {
+            index.changed.clear();
+            index.compact();
+        }
+
+        // The serialized index of older versions is replaced by the journal.
+        new File(Config.CONFIG_DIR, "runindex.ser").delete();
+        index.watcher = new Thread(index, "RunIndexWatcher");
+        index.watcher.setDaemon(true);
+        index.watcher.start();
+        return index;
+    }
+
+    /**
+     * Private constructor. Nobody should ever construct RunIndex.
+     */
+    private RunIndex() {
+    }
+
+    /**
+     * Loads the index by replaying the journal. A record truncated by a
+     * crash ends the replay.
+     * @return true if the index got loaded, false otherwise
+     */
+    private boolean load() {
+        if (!journalFile.exists())
+            return false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                                        new FileInputStream(journalFile)));
+            for (;;) {
+                int op = in.read();
+                if (op == -1)
+                    break;
+                String runId = in.readUTF();
+                if (op == PUT) {
+                    byte[] buffer = new byte[in.readInt()];
+                    in.readFully(buffer);
+                    runs.put(runId, readResult(buffer));
+                } else if (op == REMOVE) {
+                    runs.remove(runId);
+                } else {
+                    throw new IOException("Invalid journal record " + op);
+                }
+            }
+            logger.fine("Loaded " + runs.size() + " runs from run index.");
+            return true;
+        } catch (EOFException e) {
+            logger.log(Level.WARNING, "Run index journal truncated, " +
+                    "ignoring last record.", e);
+            return true;
+        } catch (InvalidClassException e) {
+            logger.log(Level.WARNING,
+                    "Old run index journal may be incompatible, ignoring.", e);
+        } catch (ClassNotFoundException e) {
+            logger.log(Level.WARNING, "Error loading run index.", e);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error loading run index.", e);
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Error closing run index.", e);
+                }
+        }
+        runs.clear();
+        return false;
+    }
+
+    private static RunResult readResult(byte[] buffer)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(
+                                        new ByteArrayInputStream(buffer));
+        try {
+            return (RunResult) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String runId,
+                                    RunResult result) throws IOException {
+        if (result == null) {
+            out.write(REMOVE);
+            out.writeUTF(runId);
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        ObjectOutputStream o = new ObjectOutputStream(buffer);
+        o.writeObject(result);
+        o.close();
+        out.write(PUT);
+        out.writeUTF(runId);
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+    }
+
+    /**
+     * Marks a run changed so the next save writes it to the journal.
+     * @param runId The run id
+     */
+    private void changed(String runId) {
+        changed.put(runId, Boolean.TRUE);
+    }
+
+    /**
+     * Saves the runs changed since the last save by appending them to
+     * the journal. The journal gets compacted if it grew large.
+     */
+    synchronized void save() {
+        if (changed.isEmpty())
+            return;
+        try {
+            if (journal == null)
+                journal = new DataOutputStream(new BufferedOutputStream(
+                                new FileOutputStream(journalFile, true)));
+            for (String runId : changed.keySet()) {
+                changed.remove(runId);
+                writeRecord(journal, runId, runs.get(runId));
+                ++journalRecords;
+            }
+            journal.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error saving run index.", e);
+        }
+        if (journalRecords > Math.max(COMPACT_MIN, 2 * runs.size()))
+            compact();
+    }
+
+    /**
+     * Rewrites the journal with one record per run and closes it, to be
+     * reopened for appending on the next save. The journal is written to
+     * a temporary file first so a crash does not leave a truncated
+     * journal behind.
+     */
+    private void compact() {
+        File tmpFile = new File(Config.CONFIG_DIR, JOURNAL_FILE + ".tmp");
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            int records = 0;
+            try {
+                for (RunResult result : runs.values()) {
+                    writeRecord(out, result.runId.toString(), result);
+                    ++records;
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(journalFile)) {
+                journalFile.delete();
+                if (!tmpFile.renameTo(journalFile))
+                    throw new IOException("Cannot rename " + tmpFile +
+                                          " to " + journalFile);
+            }
+            journalRecords = records;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error compacting run index journal.",
+                       e);
+        }
+    }
+
+    /**
+     * Obtains the result of a run, reading the run if it is not yet
+     * indexed or changed since it was last read.
+     * @param runId The run id
+     * @return The result of the run
+     */
+    RunResult get(RunId runId) {
+        String key = runId.toString();
+        RunResult result = runs.get(key);
+        if (result == null) {
+            result = new RunResult(runId);
+            RunResult oldResult = runs.putIfAbsent(key, result);
+            if (oldResult != null)
+                result = oldResult;
+        }
+        refresh(result);
+        return result;
+    }
+
+    /**
+     * Refreshes a result from disk, marking the index changed if the
+     * result got read.
+     * @param result The result to refresh
+     */
+    private void refresh(RunResult result) {
+        try {
+            if (result.refresh())
+                changed(result.runId.toString());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, result.runId.toString() +
+                    ": Error reading run.", e);
+            result.description = "Error reading this result";
+            changed(result.runId.toString());
+        }
+    }
+
+    /**
+     * Obtains the results of all indexed runs. The results are as current
+     * as the last poll of the watcher.
+     * @return The results
+     */
+    public Collection<RunResult> getRuns() {
+        return runs.values();
+    }
+
+    /**
+     * Updates a run in the index after the run or its meta data changed.
+     * The run is read again even if its run directory did not change.
+     * @param runId The run id
+     */
+    public void update(String runId) {
+        RunId id = new RunId(runId);
+        if (!id.getResultDir().isDirectory()) {
+            remove(runId);
+            return;
+        }
+        RunResult result = runs.get(runId);
+        if (result != null)
+            result.invalidate();
+        get(id);
+        save();
+    }
+
+    /**
+     * Removes a run from the index.
+     * @param runId The run id
+     */
+    public void remove(String runId) {
+        if (runs.remove(runId) != null) {
+            changed(runId);
+            save();
+        }
+    }
+
+    /**
+     * Polls the output directory for changes. Runs get added or removed
+     * if the output directory changed. Active runs are always refreshed.
+     * @param full Whether to check all runs for changes
+     */
+    synchronized void poll(boolean full) {
+        File outDir = new File(Config.OUT_DIR);
+        long modTime = outDir.lastModified();
+        if (full || modTime != outDirModTime) {
+            outDirModTime = modTime;
+            File[] dirs = outDir.listFiles();
+            if (dirs == null)
+                dirs = new File[0];
+            HashSet<String> runIds = new HashSet<String>(dirs.length);
+            for (File runDir : dirs) {
+                if (!runDir.isDirectory())
+                    continue;
+                String runIdS = runDir.getName();
+                runIds.add(runIdS);
+                if (runs.containsKey(runIdS))
+                    continue;
+                RunId runId;
+                try {
+                    runId = new RunId(runIdS);
+                } catch (RuntimeException e) {
+                    logger.log(Level.FINER, "Ignoring directory " + runIdS +
+                                            ", not a run.", e);
+                    continue;
+                }
+                get(runId);
+            }
+            for (String runId : runs.keySet())
+                if (!runIds.contains(runId)) {
+                    runs.remove(runId);
+                    changed(runId);
+                }
+        }
+        for (RunResult result : runs.values())
+            if (full || result.isActive())
+                refresh(result);
+    }
+
+    /**
+     * The watcher thread's run method.
+     */
+    public void run() {
+        // The index loaded from file may be stale, start with a full scan.
+        int polls = 0;
+        for (;;) {
+            try {
+                poll(polls == 0);
+                save();
+                if (++polls >= FULL_SCAN_POLLS)
+                    polls = 0;
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                logger.log(Level.FINE, "Run index watcher interrupted.", e);
+                break;
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error polling for runs.", e);
+            }
+        }
+    }
+}
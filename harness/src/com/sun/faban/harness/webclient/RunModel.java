@@ -0,0 +1,660 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.harness.common.Config;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * RunModel is the compact extract of a run used by the run analyzer. It
+ * holds the run information, the per-driver operations, units, average and
+ * percentile response times, the time series from detail.xan, and the
+ * CPU utilization of each host. The summary and run configuration are read
+ * with a streaming parser and detail.xan is read in a single pass, so no
+ * DOM is ever built. Models are cached by run id and only re-read if any
+ * of the source files change, making repeated comparisons cheap.
+ */
+class RunModel {
+
+    /** The maximum number of models kept in the cache. */
+    static final int CACHE_SIZE = 256;
+
+    private static Logger logger = Logger.getLogger(RunModel.class.getName());
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private static final String FH_NS =
+            "http://faban.sunsource.net/ns/fabanharness";
+
+    /** The model cache, in access order. Values are softly referenced. */
+    private static final Map<String, SoftReference<RunModel>> cache =
+            new LinkedHashMap<String, SoftReference<RunModel>>(
+                                                    64, 0.75f, true) {
+                private static final long serialVersionUID = 1l;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, SoftReference<RunModel>> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /** The run directory name, as passed to the analyzer. */
+    String runDir;
+
+    /** The run id, as reported in the summary. */
+    String runId;
+
+    /** The benchmark metric. */
+    String metric;
+
+    /** Whether the run passed. */
+    String passed;
+
+    /** The run description. */
+    String description;
+
+    /** The drivers of the run, in report order. */
+    Driver[] drivers;
+
+    /** The host name and total CPU utilization of each host. */
+    String[][] cpu;
+
+    /** The modification stamps of the source files, to validate the cache. */
+    private long[] stamp;
+
+    /**
+     * The extract of a single driver.
+     */
+    static class Driver {
+
+        /** The driver name. */
+        String name;
+
+        /** The driver metric. */
+        String metric;
+
+        /** The throughput unit. */
+        String thruUnit;
+
+        /** The response time unit. */
+        String respUnit;
+
+        /** The operation names. */
+        String[] ops = new String[0];
+
+        /** The average response time of each operation. */
+        String[] rtAvg = new String[0];
+
+        /** The operation names in the mix. */
+        String[] mixOps = new String[0];
+
+        /** The successful operations in steady state, by mix operation. */
+        String[] successes = new String[0];
+
+        /** The failed operations in steady state, by mix operation. */
+        String[] failures = new String[0];
+
+        /** The percentile names, e.g. 90th. */
+        String[] pctNames = new String[0];
+
+        /** The percentile response times, by operation and percentile. */
+        String[][] pctValues = new String[0][];
+
+        /** The time axis of the throughput and response time series. */
+        double[] times = new double[0];
+
+        /** The total throughput over time. */
+        double[] thruput = new double[0];
+
+        /** The average throughput of each operation. */
+        double[] opAvgThruput = new double[0];
+
+        /** The throughput over time, by operation. */
+        double[][] opThruput = new double[0][];
+
+        /** The response times over time, by operation. */
+        double[][] opRT = new double[0][];
+
+        /** The response time axis of the distribution. */
+        double[] distTimes = new double[0];
+
+        /** The response time distribution, by operation. */
+        int[][] opRTDist = new int[0][];
+    }
+
+    /**
+     * Obtains the models for a set of runs. The runs not already cached
+     * are read in parallel on the harness thread pool.
+     * @param runDirs The run directory names, relative to the output dir
+     * @return The models, in the order of the run directories
+     * @throws IOException If any of the runs cannot be read
+     */
+    static RunModel[] get(final String[] runDirs) throws IOException {
+        final RunModel[] models = new RunModel[runDirs.length];
+        final AtomicInteger next = new AtomicInteger();
+        final IOException[] error = new IOException[1];
+        Runnable worker = new Runnable() {
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < runDirs.length) {
+                    try {
+                        models[i] = get(runDirs[i]);
+                    } catch (IOException e) {
+                        synchronized (error) {
+                            if (error[0] == null)
+                                error[0] = e;
+                        }
+                        return;
+                    }
+                    if (error[0] != null)
+                        return;
+                }
+            }
+        };
+
+        ExecutorService pool = Config.THREADPOOL;
+        int workers = Math.min(runDirs.length,
+                Runtime.getRuntime().availableProcessors()) - 1;
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        if (pool != null)
+            for (int i = 0; i < workers; i++)
+                futures.add(pool.submit(worker));
+        worker.run();
+        for (Future<?> future : futures)
+            try {
+                future.get();
+            } catch (Exception e) {
+                throw new IOException("Failed reading runs: " +
+                                       e.getMessage());
+            }
+        synchronized (error) {
+            if (error[0] != null)
+                throw error[0];
+        }
+        return models;
+    }
+
+    /**
+     * Obtains the model of a run from the cache, reading the run if it
+     * is not cached or has changed since it was read.
+     * @param runDir The run directory name, relative to the output dir
+     * @return The model
+     * @throws IOException If the run cannot be read
+     */
+    static RunModel get(String runDir) throws IOException {
+        File dir = new File(Config.OUT_DIR + runDir);
+        File sumFile = new File(dir, "summary.xml");
+        if (!sumFile.exists())
+            throw new IOException(sumFile + " does not exist");
+        File detFile = new File(dir, "detail.xan");
+        if (!detFile.exists())
+            throw new IOException("detail.xan does not exist in " + runDir);
+        long[] stamp = { dir.lastModified(), sumFile.lastModified(),
+                         detFile.lastModified(), sumFile.length(),
+                         detFile.length() };
+        RunModel model = null;
+        synchronized (cache) {
+            SoftReference<RunModel> ref = cache.get(runDir);
+            if (ref != null)
+                model = ref.get();
+        }
+        if (model != null && Arrays.equals(model.stamp, stamp))
+            return model;
+
+        model = new RunModel();
+        model.runDir = runDir;
+        model.stamp = stamp;
+        model.readSummary(sumFile);
+        model.readDescription(new File(dir, "run.xml"));
+        model.readDetail(detFile);
+        model.readCpu(dir);
+        synchronized (cache) {
+            cache.put(runDir, new SoftReference<RunModel>(model));
+        }
+        return model;
+    }
+
+    /**
+     * Reads the run information and the driver summaries of a run from
+     * its summary.xml only. The result is not cached and has no time
+     * series or CPU utilization.
+     * @param runDir The run directory name, relative to the output dir
+     * @return The model
+     * @throws IOException If the summary does not exist or cannot be read
+     */
+    static RunModel getSummary(String runDir) throws IOException {
+        File sumFile = new File(Config.OUT_DIR + runDir, "summary.xml");
+        if (!sumFile.exists())
+            throw new IOException(sumFile + " does not exist");
+        RunModel model = new RunModel();
+        model.runDir = runDir;
+        model.readSummary(sumFile);
+        model.cpu = new String[0][];
+        return model;
+    }
+
+    /**
+     * Obtains the given driver, or null if the run has no such driver.
+     * @param idx The driver index, 0-based
+     * @return The driver, or null
+     */
+    Driver getDriver(int idx) {
+        if (idx < drivers.length)
+            return drivers[idx];
+        return null;
+    }
+
+    private static SAXParser newParser(boolean namespaceAware)
+            throws IOException {
+        try {
+            SAXParserFactory sFact = SAXParserFactory.newInstance();
+            sFact.setNamespaceAware(namespaceAware);
+            sFact.setFeature("http://xml.org/sax/features/validation", false);
+            sFact.setFeature("http://apache.org/xml/features/nonvalidating/" +
+                    "load-external-dtd", false);
+            return sFact.newSAXParser();
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e.getMessage());
+        } catch (SAXException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void readSummary(File sumFile) throws IOException {
+        SummaryHandler handler = new SummaryHandler();
+        try {
+            newParser(false).parse(sumFile, handler);
+        } catch (SAXException e) {
+            throw new IOException(e.getMessage() + " : " + sumFile);
+        }
+        drivers = handler.driverList.toArray(
+                                new Driver[handler.driverList.size()]);
+    }
+
+    private void readDescription(File runFile) throws IOException {
+        if (!runFile.exists())
+            return;
+        final StringBuilder text = new StringBuilder();
+        DefaultHandler handler = new DefaultHandler() {
+            int depth = 0;
+            boolean inDescription = false;
+
+            @Override
+            public void startElement(String uri, String localName,
+                                     String qName, Attributes attributes) {
+                if (++depth == 2 && FH_NS.equals(uri) &&
+                        "description".equals(localName))
+                    inDescription = true;
+            }
+
+            @Override
+            public void endElement(String uri, String localName,
+                                   String qName) throws SAXException {
+                --depth;
+                if (inDescription)
+                    throw new SAXException("done");
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) {
+                if (inDescription)
+                    text.append(ch, start, length);
+            }
+        };
+        try {
+            newParser(true).parse(runFile, handler);
+        } catch (SAXException e) {
+            // Either we found the description or run.xml is bad.
+        }
+        description = text.toString().trim();
+    }
+
+    /**
+     * Reads detail.xan in a single pass. Each driver starts with its
+     * throughput section, followed by its response time and response
+     * time distribution sections. Other sections are skipped.
+     * @param detFile The detail.xan file
+     * @throws IOException If the file cannot be read or is malformed
+     */
+    private void readDetail(File detFile) throws IOException {
+        ArrayList<Driver> list = new ArrayList<Driver>(Arrays.asList(drivers));
+        BufferedReader reader = new BufferedReader(new FileReader(detFile));
+        try {
+            Driver driver = null;
+            int driverIdx = -1;
+            int section = 0; // 1: throughput, 2: resp. times, 3: distribution
+            int state = 0;   // 0: skip, 1: header, 2: dashes, 3: rows
+            ArrayList<double[]> rows = new ArrayList<double[]>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Section:")) {
+                    state = 0;
+                    if (line.endsWith(" Throughput")) {
+                        if (++driverIdx == list.size())
+                            list.add(new Driver());
+                        driver = list.get(driverIdx);
+                        section = 1;
+                    } else if (driver == null) {
+                        section = 0;
+                    } else if (line.contains(
+                            " Frequency Distribution of Response Times")) {
+                        section = 3;
+                    } else if (line.contains(" Response Times") &&
+                            driver.opRT.length == 0) {
+                        section = 2;
+                    } else {
+                        section = 0;
+                    }
+                    if (section != 0)
+                        state = 1;
+                } else if (state == 1) {
+                    if (line.startsWith("Time"))
+                        state = 2;
+                } else if (state == 2) {
+                    state = 3;
+                    rows.clear();
+                } else if (state == 3) {
+                    if (line.trim().length() > 0) {
+                        rows.add(parseRow(line));
+                    } else {
+                        setSeries(driver, section, rows);
+                        state = 0;
+                    }
+                }
+            }
+            if (state == 3)
+                setSeries(driver, section, rows);
+        } catch (NumberFormatException e) {
+            throw new IOException("Error parsing " + detFile + ": " +
+                                  e.getMessage());
+        } finally {
+            reader.close();
+        }
+        drivers = list.toArray(new Driver[list.size()]);
+    }
+
+    private static double[] parseRow(String line) {
+        String[] tokens = SPACES.split(line.trim());
+        double[] row = new double[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+            row[i] = Double.parseDouble(tokens[i]);
+        return row;
+    }
+
+    private static void setSeries(Driver driver, int section,
+                                  List<double[]> rows) {
+        int cols = 0;
+        for (double[] row : rows)
+            if (row.length - 1 > cols)
+                cols = row.length - 1;
+        double[] times = new double[rows.size()];
+        double[][] series = new double[cols][rows.size()];
+        for (int k = 0; k < times.length; k++) {
+            double[] row = rows.get(k);
+            times[k] = row[0];
+            for (int j = 1; j < row.length; j++)
+                series[j - 1][k] = row[j];
+        }
+        switch (section) {
+            case 1: driver.times = times;
+                    driver.opThruput = series;
+                    driver.thruput = new double[times.length];
+                    driver.opAvgThruput = new double[cols];
+                    for (int j = 0; j < cols; j++) {
+                        for (int k = 0; k < times.length; k++) {
+                            driver.thruput[k] += series[j][k];
+                            driver.opAvgThruput[j] += series[j][k];
+                        }
+                        if (times.length > 0)
+                            driver.opAvgThruput[j] /= times.length;
+                    }
+                    break;
+            case 2: driver.opRT = series;
+                    break;
+            case 3: driver.distTimes = times;
+                    driver.opRTDist = new int[cols][times.length];
+                    for (int j = 0; j < cols; j++)
+                        for (int k = 0; k < times.length; k++)
+                            driver.opRTDist[j][k] = (int) series[j][k];
+                    break;
+        }
+    }
+
+    /**
+     * Reads the total CPU utilization of each host from the vmstat.xan.*
+     * files in the run directory.
+     * @param dir The run directory
+     * @throws IOException If a file cannot be read
+     */
+    private void readCpu(File dir) throws IOException {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String filename) {
+                return filename.startsWith("vmstat.xan.");
+            }
+        });
+        if (files == null)
+            files = new File[0];
+        cpu = new String[files.length][];
+        for (int i = 0; i < files.length; i++) {
+            String filename = files[i].getName();
+            int usr = 0, sys = 0;
+            BufferedReader br = new BufferedReader(new FileReader(files[i]));
+            try {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    boolean isUsr = line.contains("CPU (usr)");
+                    if (!isUsr && !line.contains("CPU (sys)"))
+                        continue;
+                    String[] tokens = SPACES.split(line);
+                    if (tokens.length != 5) {
+                        logger.warning("Error processing " + filename +
+                                ". Number of tokens on CPU line is " +
+                                tokens.length);
+                        break;
+                    }
+                    if (isUsr) {
+                        usr = Integer.parseInt(tokens[2]);
+                    } else {
+                        sys = Integer.parseInt(tokens[2]);
+                        break;
+                    }
+                }
+            } finally {
+                br.close();
+            }
+            // The host name follows 'vmstat.xan.'
+            cpu[i] = new String[] {
+                        filename.substring("vmstat.xan.".length()),
+                        Integer.toString(usr + sys) };
+        }
+    }
+
+    /**
+     * The streaming handler for summary.xml, extracting the run
+     * information and the response times of each driver.
+     */
+    private class SummaryHandler extends DefaultHandler {
+
+        ArrayList<Driver> driverList = new ArrayList<Driver>();
+        ArrayList<String> path = new ArrayList<String>();
+        StringBuilder text = new StringBuilder();
+        boolean inText = false;
+
+        Driver driver;
+        ArrayList<String> ops, rtAvg, pctNames, opPctNames;
+        ArrayList<String> mixOps, successes, failures;
+        ArrayList<String[]> pctValues;
+        ArrayList<String> opPctValues;
+        String avg;
+
+        private boolean under(String parent) {
+            return path.size() >= 2 &&
+                    parent.equals(path.get(path.size() - 2));
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) {
+            path.add(qName);
+            int depth = path.size();
+            if (depth == 2 && "driverSummary".equals(qName)) {
+                driver = new Driver();
+                driver.name = attributes.getValue("name");
+                mixOps = new ArrayList<String>();
+                successes = new ArrayList<String>();
+                failures = new ArrayList<String>();
+                ops = new ArrayList<String>();
+                rtAvg = new ArrayList<String>();
+                pctNames = null;
+                pctValues = new ArrayList<String[]>();
+            } else if (depth == 3 && under("benchSummary")) {
+                startText();
+            } else if (depth == 3 && driver != null) {
+                if ("metric".equals(qName)) {
+                    driver.thruUnit = attributes.getValue("unit");
+                    startText();
+                } else if ("responseTimes".equals(qName)) {
+                    driver.respUnit = attributes.getValue("unit");
+                }
+            } else if (depth == 4 && driver != null &&
+                    "operation".equals(qName) && under("mix")) {
+                mixOps.add(attributes.getValue("name"));
+                successes.add(null);
+                failures.add(null);
+            } else if (depth == 5 && driver != null && under("operation") &&
+                    "mix".equals(path.get(2)) && ("successes".equals(qName) ||
+                    "failures".equals(qName))) {
+                startText();
+            } else if (depth == 4 && driver != null &&
+                    "operation".equals(qName) && under("responseTimes")) {
+                ops.add(attributes.getValue("name"));
+                avg = null;
+                opPctNames = new ArrayList<String>();
+                opPctValues = new ArrayList<String>();
+            } else if (depth == 5 && opPctNames != null) {
+                // The old style 90th percentile result is just p90th.
+                // The new style is <percentile nth="90" suffix="th"
+                // limit="100.000">1.000</percentile>
+                if ("percentile".equals(qName)) {
+                    String suffix = attributes.getValue("suffix");
+                    opPctNames.add(attributes.getValue("nth") +
+                                   (suffix == null ? "" : suffix));
+                    startText();
+                } else if ("p90th".equals(qName)) {
+                    opPctNames.add("90th");
+                    startText();
+                } else if ("avg".equals(qName)) {
+                    startText();
+                }
+            }
+        }
+
+        private void startText() {
+            text.setLength(0);
+            inText = true;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inText)
+                text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            int depth = path.size();
+            String value = text.toString().trim();
+            if (inText) {
+                inText = false;
+                if (depth == 3 && driver != null) {
+                    driver.metric = value;
+                } else if (depth == 3) {
+                    if ("runId".equals(qName))
+                        runId = value;
+                    else if ("metric".equals(qName))
+                        metric = value;
+                    else if ("passed".equals(qName))
+                        passed = value;
+                } else if (opPctNames == null) {
+                    // Successes or failures in the mix.
+                    int idx = mixOps.size() - 1;
+                    if ("successes".equals(qName))
+                        successes.set(idx, value);
+                    else
+                        failures.set(idx, value);
+                } else if ("avg".equals(qName)) {
+                    avg = value;
+                } else {
+                    opPctValues.add(value);
+                }
+            } else if (depth == 4 && opPctNames != null) {
+                rtAvg.add(avg);
+                if (pctNames == null)
+                    pctNames = opPctNames;
+                pctValues.add(opPctValues.toArray(
+                        new String[opPctValues.size()]));
+                opPctNames = null;
+            } else if (depth == 2 && driver != null) {
+                driver.ops = ops.toArray(new String[ops.size()]);
+                driver.rtAvg = rtAvg.toArray(new String[rtAvg.size()]);
+                if (pctNames != null)
+                    driver.pctNames = pctNames.toArray(
+                            new String[pctNames.size()]);
+                driver.pctValues = pctValues.toArray(
+                        new String[pctValues.size()][]);
+                driver.mixOps = mixOps.toArray(new String[mixOps.size()]);
+                driver.successes = successes.toArray(
+                        new String[successes.size()]);
+                driver.failures = failures.toArray(
+                        new String[failures.size()]);
+                driverList.add(driver);
+                driver = null;
+            }
+            path.remove(depth - 1);
+        }
+    }
+}
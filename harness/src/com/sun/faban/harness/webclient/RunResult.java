@@ -42,7 +42,6 @@ import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.w3c.dom.Element;
@@ -52,8 +51,14 @@ import org.w3c.dom.NodeList;
 /**
  * Result class scans through the output directory and compiles a list of run
  * results. Enhance this to enable the user to sort it using different options.
+ * The results are kept in the persistent run index so the result list and
+ * feeds do not need to scan the output directory.
+ *
+ * @see RunIndex
  */
-public class RunResult {
+public class RunResult implements Serializable {
+
+    private static final long serialVersionUID = 1l;
 
     /**
      * Status and result values when they are not available. The
@@ -65,12 +70,9 @@ public class RunResult {
     private static final int FEED_LIMIT = 25;
 
     private static Logger logger = Logger.getLogger(RunResult.class.getName());
-    private static ConcurrentHashMap<String, RunResult> resultCache =
-            new ConcurrentHashMap<String, RunResult>(1024);
 
     // The format in the result file
-    private SimpleDateFormat parseFormat = new SimpleDateFormat(
-                              "EEE MMM dd HH:mm:ss z yyyy");
+    private transient SimpleDateFormat parseFormat;
 
     private static SimpleDateFormat dateFormatOrig = new SimpleDateFormat(
                                     "MM/dd/yy EEE'&#160;'HH:mm:ss'&#160;'z");
@@ -128,18 +130,7 @@ public class RunResult {
      * @return A result instance.
      */
     private static RunResult getInstance0(RunId runId) {
-        RunResult result = new RunResult(runId);
-        RunResult oldResult = resultCache.putIfAbsent(runId.toString(), result);
-        if (oldResult != null)
-            result = oldResult;
-        try {
-            result.refresh();
-        } catch (RuntimeException e) {
-            logger.log(Level.WARNING, runId.toString() +
-                    ": Error reading run.", e);
-            result.description = "Error reading this result";
-        }
-        return result;
+        return RunIndex.getInstance().get(runId);
     }
 
     /**
@@ -153,21 +144,51 @@ public class RunResult {
         return null;
     }
 
-    private RunResult(RunId runId) {
+    /**
+     * Constructs an empty result for a run. The result gets filled
+     * by the first refresh.
+     * @param runId The run id
+     */
+    RunResult(RunId runId) {
         this.runId = runId;
     }
 
-    private synchronized void refresh() {
+    /**
+     * Checks whether the run may still change by itself, i.e. it is
+     * not yet completed, failed, or killed.
+     * @return true if the run is still active, false otherwise
+     */
+    boolean isActive() {
+        return !"COMPLETED".equals(status) && !"FAILED".equals(status) &&
+                !"KILLED".equals(status);
+    }
+
+    /**
+     * Causes the next refresh to read the run from disk again, even if
+     * the run directory did not change.
+     */
+    synchronized void invalidate() {
+        modTime = 0;
+    }
+
+    /**
+     * Reads the run from disk if the run directory changed since the
+     * last refresh.
+     * @return true if the run got read, false if it was up to date
+     */
+    synchronized boolean refresh() {
 
         File resultDir = runId.getResultDir();
 
         long modTime = resultDir.lastModified();
         if (modTime <= this.modTime) {
             logger.finer("Run " + runId + " already cached.");
-            return;
+            return false;
         }
         logger.finer("Fetching run " + runId + " from disk.");
         this.modTime = modTime;
+        if (parseFormat == null)
+            parseFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy");
 
         String shortName = runId.getBenchName();        
 
@@ -304,6 +325,7 @@ public class RunResult {
             tags = new String[1];
             tags[0] = "&nbsp";
         }
+        return true;
     }
 
     /**
@@ -422,22 +444,14 @@ public class RunResult {
     public static SortableTableModel getResultTable(Subject user, int column,
                                                     String sortDirection) {
 
-        File[] dirs = new File(Config.OUT_DIR).listFiles();
-        ArrayList<RunResult> runs = new ArrayList<RunResult>(dirs.length);
-        for (File runDir : dirs) {
-            if (!runDir.isDirectory()) {
-                continue;
-            }
-            String runIdS = runDir.getName();
+        Collection<RunResult> results = RunIndex.getInstance().getRuns();
+        ArrayList<RunResult> runs = new ArrayList<RunResult>(results.size());
+        for (RunResult result : results) {
+            String runIdS = result.runId.toString();
             try {
                 if (!AccessController.isViewAllowed(user, runIdS) || runIdS.contains("analysis")) {
                     continue;
                 }
-                RunId runId = new RunId(runIdS);
-                RunResult result = getInstance0(runId);
-                if (result == null) {
-                    continue;
-                }
                 runs.add(result);
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Cannot read result dir " + runIdS, 
@@ -708,8 +722,12 @@ public class RunResult {
         RunId runId = new RunId(runIdStr);
         File f = runId.getResultDir();
         if (f.isDirectory()) {
-            return(FileHelper.recursiveDelete(f));
+            boolean deleted = FileHelper.recursiveDelete(f);
+            if (deleted)
+                RunIndex.getInstance().remove(runIdStr);
+            return deleted;
         }
+        RunIndex.getInstance().remove(runIdStr);
         return(true);
     }
 
@@ -931,7 +949,9 @@ public class RunResult {
      * sorting, and the text representation of the value.
      */
     public static class ResultField<T extends Comparable>
-            implements Comparable {
+            implements Comparable, Serializable {
+
+        private static final long serialVersionUID = 1l;
 
         String text;
         T value;
@@ -1007,18 +1027,15 @@ public class RunResult {
      */
     public static List<FeedRecord> getFeeds(Subject user) {
 
-        File[] dirs = new File(Config.OUT_DIR).listFiles();
-        ArrayList<FeedRecord> feedList = new ArrayList<FeedRecord>(dirs.length);
-        RunResult result0 = null;
-        for (File runDir : dirs) {
-            if (!runDir.isDirectory())
-                continue;
-            String runIdS = runDir.getName();
+        Collection<RunResult> results = RunIndex.getInstance().getRuns();
+        ArrayList<FeedRecord> feedList =
+                                new ArrayList<FeedRecord>(results.size());
+        for (RunResult result0 : results) {
+            RunId runId = result0.runId;
+            String runIdS = runId.toString();
             try {
-                RunId runId = new RunId(runIdS);
                 if (!AccessController.isViewAllowed(user, runIdS))
                     continue;
-                result0 = getInstance0(runId);
                 FeedRecord feedRecord = new FeedRecord(runId, result0);
                 feedList.add(feedRecord);
             } catch (Exception e) {
@@ -28,6 +28,7 @@ import com.sun.faban.harness.common.Config;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.logging.Level;
 
 /**
  * Handler for parsing the log and displaying a log record in a
@@ -132,6 +133,18 @@ class TableHandler extends LogParseHandler {
                     append("&startId=").append(nextPage).
                     append("\">PgDn</a>\n");
 
+            // Link to the page starting with the next error, if any.
+            if (logIndex != null) {
+                long nextError = logIndex.find(begin + logBuffer.size(),
+                                               Level.SEVERE.intValue());
+                if (nextError >= 0l)
+                    naviBuffer.append("<a href=\"").append(requestBase).
+                            append("&startId=").append(nextError).
+                            append("\">NextErr</a>\n");
+                else
+                    naviBuffer.append("NextErr ");
+            }
+
             naviBuffer.append("<a href=\"").append(requestBase).
                     append("&startId=end#end\">Bottom</a>");
             naviBar = naviBuffer.toString();
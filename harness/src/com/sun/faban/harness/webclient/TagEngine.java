@@ -24,97 +24,102 @@ package com.sun.faban.harness.webclient;
 
 import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.util.FileHelper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InvalidClassException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * This class maintains the tags to runs mapping.
+ * This class maintains the tags to runs mapping.<p>
+ * Each tag maps to a compressed posting list of the runs carrying the tag
+ * or any of its sub-tags, so a tag query is a single lookup and the
+ * queries combine posting lists. The posting lists and the tag map are
+ * published as an immutable snapshot, replaced on each change. Searches
+ * therefore never lock. Changes are serialized and appended to the
+ * journal at $FABAN/config/tagengine.journal. The journal is replayed on
+ * startup and compacted to one record per run when it grows to twice
+ * the number of tagged runs.
  *
  * @author Sheetal Patil
  */
-public class TagEngine implements Serializable{
+public class TagEngine {
 
-    private static final long serialVersionUID = 20090302L;
+    private static final String JOURNAL_FILE = "tagengine.journal";
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+
+    /** The minimum number of journal records before compaction. */
+    static final int COMPACT_MIN = 1000;
 
     private static Logger logger = Logger.getLogger(TagEngine.class.getName());
     private static TagEngine instance = null;
 
-    
-    HashMap<String, Entry> tagEntries = new HashMap<String, Entry>();
-    HashMap<String, HashSet<Entry>> runEntries =
-                                    new HashMap<String, HashSet<Entry>>();
-    private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
-    private final Lock wlock = rwl.writeLock();
-    private final Lock rlock = rwl.readLock();
+    /** The published state, the only state used by searches. */
+    private volatile Snapshot snapshot =
+            new Snapshot(new String[0], new HashMap<String, PostingList>());
+
+    // The writer state, guarded by this.
+    private HashMap<String, Integer> runNumbers =
+                                    new HashMap<String, Integer>();
+    private String[] runNames = new String[1024];
+    private int runCount = 0;
+    private HashMap<String, String[]> runTags = new HashMap<String, String[]>();
+    private File journalFile = new File(Config.CONFIG_DIR, JOURNAL_FILE);
+    private DataOutputStream journal;
+    private int journalRecords = 0;
 
     /**
-     * Creates the singleton instance of the tag engine, reads it from the
-     * serialized tag engine if available. Otherwise it will re-index.
+     * Creates the singleton instance of the tag engine, replaying the
+     * journal if available. Otherwise it will re-index.
      * @return The tag engine
      * @throws java.io.IOException Error reading from the file
      * @throws java.lang.ClassNotFoundException Error loading TagEngine class
      */
     private static TagEngine createInstance()
             throws IOException, ClassNotFoundException {
-        // 1. Check for existence of ser file
-        // 2. If exists, load ser file
-        // 3. If not exists, scan and create tag engine
-        // 4. Save output to ser file
-        File serFile = new File(Config.CONFIG_DIR + "/tagengine.ser");
-        if (serFile.exists()) {
-            try {
-            ObjectInputStream in = new ObjectInputStream(
-                                        new FileInputStream(serFile));
-            instance = (TagEngine) in.readObject();
-            in.close();
-            } catch (InvalidClassException e) {
-                logger.log(Level.WARNING,
-                        "Old tagengine.ser may be incompatible, ignoring.", e);
-            }
-        }
-
-        if (instance == null) {
-            instance = new TagEngine();
+        // 1. Check for existence of the journal
+        // 2. If exists, replay the journal
+        // 3. If not exists, scan the runs for tags
+        // 4. Write out the compacted journal
+        TagEngine engine = new TagEngine();
+        if (engine.journalFile.exists()) {
+            engine.replay();
+        } else {
             File[] dirs = new File(Config.OUT_DIR).listFiles();
-            ArrayList<String> runIdList = new ArrayList<String>(dirs.length);
-
+            if (dirs == null)
+                dirs = new File[0];
             for (File runDir : dirs) {
                 if (!runDir.isDirectory())
                     continue;
-                String runIdS = runDir.getName();
-                runIdList.add(runIdS);
+                File file = new File(runDir, "META-INF/tags");
+                String[] tags = FileHelper.readArrayContentFromFile(file);
+                if (tags != null && tags.length > 0)
+                    engine.apply(runDir.getName(), expand(tags));
             }
-            instance.wlock.lock();
-            try {
-                for (String runId : runIdList){
-                    File file = new File(Config.OUT_DIR + runId +
-                                                        "/META-INF/tags");
-                    String[] tags = FileHelper.readArrayContentFromFile(file);
-                    if (tags != null && tags.length > 0) {
-                        instance.add(runId, tags);
-                    }
-                }
-            }finally {
-                instance.wlock.unlock();
-            }
-            instance.save();
+
+            // The serialized tag engine of older versions is replaced
+            // by the journal.
+            new File(Config.CONFIG_DIR, "tagengine.ser").delete();
         }
-        return instance;
+        synchronized (engine) {
+            engine.rebuild();
+            engine.compact();
+        }
+        return engine;
     }
 
     /**
@@ -145,26 +150,184 @@ public class TagEngine implements Serializable{
     }
 
     /**
-     * Serializes the tag engine to file. It is located at
-     * $FABAN/config/tagengine.ser.
+     * Replays the journal into the writer state. A record truncated by
+     * a crash ends the replay.
+     * @throws IOException Error reading the journal
      */
-    public void save() {
-       File filename = new File(Config.CONFIG_DIR + "/tagengine.ser");
-        ObjectOutputStream out = null;
+    private synchronized void replay() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                        new FileInputStream(journalFile)));
         try {
-            out = new ObjectOutputStream(new FileOutputStream(filename));
-            out.writeObject(this);
+            for (;;) {
+                int op = in.read();
+                if (op == -1)
+                    break;
+                String runId = in.readUTF();
+                if (op == ADD) {
+                    String[] tags = new String[in.readInt()];
+                    for (int i = 0; i < tags.length; i++)
+                        tags[i] = in.readUTF();
+                    apply(runId, tags);
+                } else if (op == REMOVE) {
+                    apply(runId, new String[0]);
+                } else {
+                    throw new IOException("Invalid journal record " + op);
+                }
+            }
+        } catch (EOFException e) {
+            logger.log(Level.WARNING, "Tag engine journal truncated, " +
+                    "ignoring last record.", e);
         } catch (IOException e) {
-            logger.log(Level.WARNING, "Error saving tag engine.", e);
+            logger.log(Level.WARNING, "Error reading tag engine journal, " +
+                    "ignoring the rest of the journal.", e);
         } finally {
-            if (out != null)
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "Error closing tag engine file " +
-                            filename, e);
+            in.close();
+        }
+    }
+
+    /**
+     * Applies the tags of a run to the writer state.
+     * @param runId The run id
+     * @param paths The expanded tag paths of the run
+     * @return The run number
+     */
+    private int apply(String runId, String[] paths) {
+        Integer number = runNumbers.get(runId);
+        if (number == null) {
+            if (runCount == runNames.length) {
+                // Published snapshots keep referring to the old array.
+                String[] names = new String[runNames.length * 2];
+                System.arraycopy(runNames, 0, names, 0, runCount);
+                runNames = names;
+            }
+            runNames[runCount] = runId;
+            number = runCount++;
+            runNumbers.put(runId, number);
+        }
+        if (paths.length == 0)
+            runTags.remove(runId);
+        else
+            runTags.put(runId, paths);
+        return number;
+    }
+
+    /**
+     * Rebuilds all posting lists from the writer state and publishes them.
+     */
+    private void rebuild() {
+        HashMap<String, int[]> lists = new HashMap<String, int[]>();
+        HashMap<String, Integer> sizes = new HashMap<String, Integer>();
+        for (int i = 0; i < runCount; i++) {
+            String[] paths = runTags.get(runNames[i]);
+            if (paths == null)
+                continue;
+            for (String path : paths) {
+                int[] list = lists.get(path);
+                Integer size = sizes.get(path);
+                if (list == null) {
+                    list = new int[16];
+                    size = 0;
+                } else if (size == list.length) {
+                    int[] l = new int[list.length * 2];
+                    System.arraycopy(list, 0, l, 0, size);
+                    list = l;
+                }
+                list[size] = i;
+                lists.put(path, list);
+                sizes.put(path, size + 1);
+            }
+        }
+        HashMap<String, PostingList> postings =
+                new HashMap<String, PostingList>(lists.size() * 2);
+        for (Map.Entry<String, int[]> entry : lists.entrySet())
+            postings.put(entry.getKey(), PostingList.of(entry.getValue(),
+                                            sizes.get(entry.getKey())));
+        snapshot = new Snapshot(runNames, postings);
+    }
+
+    /**
+     * Rewrites the journal with one record per tagged run and reopens
+     * it for appending.
+     */
+    private void compact() {
+        File tmpFile = new File(Config.CONFIG_DIR, JOURNAL_FILE + ".tmp");
+        try {
+            closeJournal();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                for (int i = 0; i < runCount; i++) {
+                    String[] paths = runTags.get(runNames[i]);
+                    if (paths != null)
+                        writeRecord(out, ADD, runNames[i], paths);
                 }
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(journalFile)) {
+                journalFile.delete();
+                if (!tmpFile.renameTo(journalFile))
+                    throw new IOException("Cannot rename " + tmpFile +
+                                          " to " + journalFile);
+            }
+            journalRecords = runTags.size();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error compacting tag engine journal.",
+                       e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte op,
+                                    String runId, String[] paths)
+            throws IOException {
+        out.write(op);
+        out.writeUTF(runId);
+        if (op == ADD) {
+            out.writeInt(paths.length);
+            for (String path : paths)
+                out.writeUTF(path);
+        }
+    }
+
+    /**
+     * Appends a change to the journal. The journal gets flushed on save.
+     * @param op The operation
+     * @param runId The run id
+     * @param paths The expanded tag paths, for additions
+     */
+    private void log(byte op, String runId, String[] paths) {
+        try {
+            if (journal == null)
+                journal = new DataOutputStream(new BufferedOutputStream(
+                                new FileOutputStream(journalFile, true)));
+            writeRecord(journal, op, runId, paths);
+            ++journalRecords;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing tag engine journal.", e);
+        }
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Saves the changes to the tag engine by flushing the journal at
+     * $FABAN/config/tagengine.journal. The journal gets compacted if it
+     * grew large.
+     */
+    public synchronized void save() {
+        try {
+            if (journal != null)
+                journal.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error saving tag engine.", e);
         }
+        if (journalRecords > Math.max(COMPACT_MIN, 2 * runTags.size()))
+            compact();
     }
 
     /**
@@ -191,111 +354,93 @@ public class TagEngine implements Serializable{
 
     /**
      * Searches the tag engine for runs matching the given tags given
-     * an array of tags.
+     * an array of tags. A run matches if it matches all the tags. A tag
+     * may list alternatives separated by '|', matching runs carrying any
+     * of the alternatives.
      * @param tags The tags in question, '/' seperated from sub-tags
      * @return The set of run ids matching the given tags
      */
     public Set<String> search(String[] tags) {
 
         HashSet<String> finalAnswer = new HashSet<String>();
-        if (tags != null) {
-            int count = 0;
-            rlock.lock();
-            try {
-                for (String tag : tags) {
-                    // In many instances, the separator is URL encoded from '/'
-                    // to "+", so we have to change them back.
-                    tag = tag.replace("+", "/");
-                    HashSet<String> answer = new HashSet<String>();
-                    Entry entry = findEntry(tag);
-                    if (entry != null) {
-
-                        // Flatten the entry hierarchy into the ArrayList entries.
-                        ArrayList<Entry> entries = new ArrayList<Entry>();
-                        entries.addAll(entry.subtags.values());
-
-                        // Keep flattening down the hierarchy
-                        // entries.size keeps increasing as we go down
-                        // the hierarchy. That's why we need to keep
-                        // evaluating entries.size() and cannot use an iterator.
-                        for (int i = 0; i < entries.size(); i++) {
-                            Entry subEntry = entries.get(i);
-                            entries.addAll(subEntry.subtags.values());
-                        }
-
-                        // Adds run ids from the flattened entries to the answer.
-                        answer.addAll(entry.runIds);
-                        for (Entry subEntry : entries) {
-                            answer.addAll(subEntry.runIds);
-                        }
-                        if (count == 0) {
-                            finalAnswer = answer;
-                        }
-                    }
-                    finalAnswer.retainAll(answer);
-                    answer = null;
-                    count++;
-                }
-            } finally {
-                rlock.unlock();
+        if (tags == null || tags.length == 0)
+            return finalAnswer;
+        Snapshot s = snapshot;
+        PostingList result = null;
+        for (String tag : tags) {
+            // In many instances, the separator is URL encoded from '/'
+            // to "+", so we have to change them back.
+            tag = tag.replace("+", "/");
+            PostingList answer = PostingList.EMPTY;
+            StringTokenizer alternatives = new StringTokenizer(tag, "|");
+            while (alternatives.hasMoreTokens()) {
+                PostingList list = s.postings.get(
+                                        normalize(alternatives.nextToken()));
+                if (list != null)
+                    answer = answer.or(list);
             }
-        } 
-        return finalAnswer;
-    }
-    
-    private Entry findEntry(String tag) {
-        tag = tag.toLowerCase();
-        StringTokenizer t = new StringTokenizer(tag, "/");
-        String topTag = t.nextToken();
-        Entry entry = tagEntries.get(topTag);          
-        String subTag = topTag;
-        // Keep finding the entry that represents the exact tag/subtag.
-        while(entry != null && t.hasMoreTokens()) {
-            subTag = subTag + "/" + t.nextToken();
-            entry = entry.subtags.get(subTag);
-            if (entry == null)
+            result = result == null ? answer : result.and(answer);
+            if (result.size() == 0)
                 break;
         }
-        return entry;
+        for (int id : result.toArray())
+            finalAnswer.add(s.runNames[id]);
+        return finalAnswer;
+    }
+
+    /**
+     * Normalizes a tag to its lower case path form.
+     * @param tag The tag
+     * @return The normalized tag
+     */
+    private static String normalize(String tag) {
+        String[] tagsArray = getTagsArray(tag.toLowerCase());
+        if (tagsArray.length == 0)
+            return "";
+        return tagsArray[tagsArray.length - 1];
     }
 
     /**
      * Removes a run from the tag engine.
      * @param runId The id of the run
      */
-    public void removeRun(String runId) {
-        wlock.lock();
-        try {
-            HashSet<Entry> removeSet = runEntries.get(runId);
-            if (removeSet != null) {
-                for (Entry entry : removeSet) {
-                    entry.runIds.remove(runId);
-                }
-            }
-            runEntries.remove(runId);
-        } finally {
-            wlock.unlock();
-        }
+    public synchronized void removeRun(String runId) {
+        if (!runTags.containsKey(runId))
+            return;
+        update(runId, new String[0]);
+        log(REMOVE, runId, null);
     }
 
-    private String[] getTagsArray(String tag) {
-        String[] tagsArray = null;
-        if (tag != null && !"".equals(tag)) {
-            StringTokenizer tok = new StringTokenizer(tag, "/");
-            tagsArray = new String[tok.countTokens()];
-            int count = tok.countTokens();
-            int i = 0;
-            while (i < count) {
-                String nextT = tok.nextToken().trim();
-                if (i == 0) {
-                    tagsArray[i] = nextT;
-                } else {
-                    tagsArray[i] = tagsArray[i - 1] + "/" + nextT;
-                }
-                i++;
-            }
+    /**
+     * Obtains the tag and all its parent tags, top down.
+     * @param tag The tag
+     * @return The tag paths from the top tag to the tag itself
+     */
+    private static String[] getTagsArray(String tag) {
+        ArrayList<String> tagsArray = new ArrayList<String>();
+        StringTokenizer tok = new StringTokenizer(tag, "/");
+        String path = null;
+        while (tok.hasMoreTokens()) {
+            String nextT = tok.nextToken().trim();
+            if (nextT.length() == 0)
+                continue;
+            path = path == null ? nextT : path + "/" + nextT;
+            tagsArray.add(path);
         }
-        return tagsArray;
+        return tagsArray.toArray(new String[tagsArray.size()]);
+    }
+
+    /**
+     * Expands tags into the set of tag paths a run is indexed under.
+     * @param tags The tags
+     * @return The tags and all their parent tags, in lower case
+     */
+    private static String[] expand(String[] tags) {
+        LinkedHashSet<String> paths = new LinkedHashSet<String>();
+        for (String tag : tags)
+            for (String path : getTagsArray(tag.toLowerCase()))
+                paths.add(path);
+        return paths.toArray(new String[paths.size()]);
     }
 
     /**
@@ -306,67 +451,54 @@ public class TagEngine implements Serializable{
      * @param runId The runId
      * @param tags The list of tags to add
      */
-    public void add(String runId, String[] tags) {
-        wlock.lock();
-        try {
-            HashSet<Entry> entrySet = runEntries.get(runId);
-            if(entrySet == null)
-                entrySet = new HashSet<Entry>();
-            HashSet<Entry> newEntrySet = new HashSet<Entry>();
-            for (String tag : tags) {
-                tag = tag.toLowerCase();
-                String[] tagsArray = getTagsArray(tag);
-                Entry entry = null;
-                int count = 0;
-                for(String subtag : tagsArray){
-                    if (count == 0) {
-                        entry = findEntry(subtag);
-                        if (entry == null) {
-                            entry = new Entry();
-                            entry.fullTagName = subtag;
-                            tagEntries.put(subtag, entry);
-                        }
-                    }else{
-                        Entry subEntry = findEntry(subtag);
-                        if (subEntry == null) {
-                            subEntry  = new Entry();
-                            subEntry.fullTagName = subtag;
-                            tagEntries.put(subtag, subEntry);
-                            entry.subtags.put(subtag, subEntry);
-                        }
-                    }
-                    entry = tagEntries.get(subtag);
-                    count++;
-                }
-                entry.runIds.add(runId);
-                tagEntries.put(tag, entry);
-                newEntrySet.add(entry);
-            }
-
-            HashSet<Entry> removeEntrySet = new HashSet<Entry>(entrySet);
-            removeEntrySet.removeAll(newEntrySet);
+    public synchronized void add(String runId, String[] tags) {
+        String[] paths = expand(tags == null ? new String[0] : tags);
+        update(runId, paths);
+        log(ADD, runId, paths);
+    }
 
-            for (Entry entry : removeEntrySet) {
-                entry.runIds.remove(runId);
-                if (entry.runIds.size() == 0 && entry.subtags.size() == 0) {
-                    //removeEntry(entry);
-                    entry.subtags.remove(entry);
+    /**
+     * Changes the tags of a run and publishes a new snapshot. Only the
+     * posting lists of the tags added or removed get replaced.
+     * @param runId The run id
+     * @param paths The new expanded tag paths of the run
+     */
+    private void update(String runId, String[] paths) {
+        String[] oldPaths = runTags.get(runId);
+        int id = apply(runId, paths);
+        HashMap<String, PostingList> postings =
+                new HashMap<String, PostingList>(snapshot.postings);
+        HashSet<String> newSet = new HashSet<String>();
+        for (String path : paths)
+            newSet.add(path);
+        if (oldPaths != null)
+            for (String path : oldPaths)
+                if (!newSet.remove(path)) {
+                    PostingList list = postings.get(path).remove(id);
+                    if (list.size() == 0)
+                        postings.remove(path);
+                    else
+                        postings.put(path, list);
                 }
-            }
-            entrySet.removeAll(removeEntrySet);
-            entrySet.addAll(newEntrySet);
-            runEntries.put(runId, entrySet);
-        } finally {
-            wlock.unlock();
+        for (String path : newSet) {
+            PostingList list = postings.get(path);
+            if (list == null)
+                list = PostingList.EMPTY;
+            postings.put(path, list.add(id));
         }
+        snapshot = new Snapshot(runNames, postings);
     }
 
     /**
-     * Represents a chainable entry in the tag engine.
+     * An immutable state of the tag engine as seen by searches.
      */
-    static class Entry implements Serializable{
-        String fullTagName;
-        HashSet<String> runIds = new HashSet<String>();
-        HashMap<String, Entry> subtags = new HashMap<String, Entry>();
+    private static class Snapshot {
+        final String[] runNames;
+        final HashMap<String, PostingList> postings;
+
+        Snapshot(String[] runNames, HashMap<String, PostingList> postings) {
+            this.runNames = runNames;
+            this.postings = postings;
+        }
     }
 }
@@ -0,0 +1,239 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.harness.common.RunId;
+
+import javax.security.auth.Subject;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Controller for the trend charts of the benchmark metrics across runs,
+ * backed by the metric store.
+ */
+public class Trends {
+
+    private static Logger logger = Logger.getLogger(Trends.class.getName());
+
+    /**
+     * The model passed to trends.jsp.
+     */
+    public static class Model {
+
+        /** The benchmarks with runs. */
+        public String[] benchmarks = new String[0];
+
+        /** The selected benchmark, or null if there are no runs. */
+        public String bench;
+
+        /** The columns of the selected benchmark. */
+        public String[] columns = new String[0];
+
+        /** The selected column. */
+        public String column = "metric";
+
+        /** The trend of the selected column, or null. */
+        public MetricStore.Series series;
+
+        /** The time and value pairs of the series, as JSON. */
+        public String values;
+
+        /** The time and segment mean pairs of the series, as JSON. */
+        public String levels;
+
+        /** The time and value pairs of the regressions, as JSON. */
+        public String regressions;
+
+        /** The time and value pairs of the improvements, as JSON. */
+        public String improvements;
+    }
+
+    /**
+     * Shows the trend of a benchmark metric. The request parameters are
+     * bench for the benchmark and column for the metric.
+     * @param request The servlet request
+     * @param response The servlet response
+     * @return The view to render
+     * @throws IOException If the metric store cannot be read
+     */
+    public String show(HttpServletRequest request,
+                       HttpServletResponse response) throws IOException {
+        MetricStore store = MetricStore.getInstance();
+        Model model = new Model();
+        model.benchmarks = store.getBenchmarks();
+        model.bench = request.getParameter("bench");
+        if (model.bench == null ||
+                !Arrays.asList(model.benchmarks).contains(model.bench))
+            model.bench = model.benchmarks.length > 0 ?
+                          model.benchmarks[0] : null;
+        if (model.bench != null) {
+            model.columns = store.getColumns(model.bench);
+            String column = request.getParameter("column");
+            if (column != null && Arrays.asList(model.columns).
+                                                contains(column))
+                model.column = column;
+            model.series = store.query(getUser(request), model.bench,
+                                       model.column);
+            json(model);
+        }
+        request.setAttribute("model", model);
+        return "/trends.jsp";
+    }
+
+    /**
+     * Downloads all metrics of a benchmark as CSV.
+     * @param request The servlet request
+     * @param response The servlet response
+     * @throws IOException If the metric store cannot be read
+     */
+    public void csv(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String bench = request.getParameter("bench");
+        if (bench == null || !Arrays.asList(MetricStore.getInstance().
+                                            getBenchmarks()).contains(bench)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                               "No runs for benchmark " + bench);
+            return;
+        }
+        response.setContentType("text/csv; charset=UTF-8");
+        response.setHeader("Content-Disposition",
+                           "attachment; filename=\"" + bench + "-trend.csv\"");
+        PrintWriter out = response.getWriter();
+        try {
+            MetricStore.getInstance().writeCSV(getUser(request), bench, out);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error writing metrics of " + bench, e);
+            throw e;
+        }
+        out.flush();
+        out.close();
+    }
+
+    private static Subject getUser(
+            HttpServletRequest request) {
+        HttpSession session = request.getSession();
+        UserEnv usrEnv = (UserEnv) session.getAttribute("usrEnv");
+        if (usrEnv == null) {
+            usrEnv = new UserEnv();
+            session.setAttribute("usrEnv", usrEnv);
+        }
+        return usrEnv.getSubject();
+    }
+
+    /**
+     * Formats the series for the chart. The levels are the mean of each
+     * segment between change points and are drawn as steps.
+     * @param model The model
+     */
+    private static void json(Model model) {
+        MetricStore.Series series = model.series;
+        StringBuilder values = new StringBuilder("[");
+        StringBuilder levels = new StringBuilder("[");
+        StringBuilder regressions = new StringBuilder("[");
+        StringBuilder improvements = new StringBuilder("[");
+        int next = 0;
+        double level = series.changes.isEmpty() ? mean(series.values) :
+                                              series.changes.get(0).before;
+        for (int i = 0; i < series.values.length; i++) {
+            if (next < series.changes.size() &&
+                    series.changes.get(next).index == i) {
+                ChangePoint change = series.changes.get(next++);
+                level = change.after;
+                // Close the previous step, then mark the change.
+                point(levels, series.times[i], change.before);
+                point(change.regression ? regressions : improvements,
+                      series.times[i], series.values[i]);
+            }
+            point(values, series.times[i], series.values[i]);
+            point(levels, series.times[i], level);
+        }
+        model.values = values.append(']').toString();
+        model.levels = levels.append(']').toString();
+        model.regressions = regressions.append(']').toString();
+        model.improvements = improvements.append(']').toString();
+    }
+
+    private static void point(StringBuilder b, long time, double value) {
+        if (b.length() > 1)
+            b.append(',');
+        b.append('[').append(time).append(',').append(value).append(']');
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0d;
+        for (double value : values)
+            sum += value;
+        return values.length > 0 ? sum / values.length : 0d;
+    }
+
+    /**
+     * Formats the relative change of a change point for display.
+     * @param change The change point
+     * @return The change in percent, with sign
+     */
+    public static String percent(ChangePoint change) {
+        if (Double.isInfinite(change.change))
+            return change.change > 0d ? "+inf" : "-inf";
+        return String.format("%+.1f%%", change.change * 100d);
+    }
+
+    /**
+     * Escapes a string for use in a double-quoted JavaScript string
+     * literal inside a script element.
+     * @param s The string
+     * @return The escaped string
+     */
+    public static String jsString(String s) {
+        StringBuilder b = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c == '<' || c < ' ')
+                b.append(String.format("\\u%04x", (int) c));
+            else
+                b.append(c);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Obtains the link to the result of a run.
+     * @param runId The run id
+     * @return The link to the result, relative to the web root
+     */
+    public static String resultLink(String runId) {
+        RunResult result = RunIndex.getInstance().get(new RunId(runId));
+        if (result != null && result.resultLink != null)
+            return result.resultLink;
+        return "/resultframe.jsp?runId=" + runId + "&result=summary.xml";
+    }
+}
@@ -162,6 +162,7 @@ public class Uploader {
                 }
                 FileHelper.writeContentToFile(formattedTags.toString(), runTagFile);
                 result.tags = tagList.toArray(new String[tagList.size()]);
+                RunIndex.getInstance().update(runId);
             }
             try {
                 uploadTags(runId);
@@ -0,0 +1,198 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.agent;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests streaming files through the transfer server.
+ */
+public class TransferClientTest extends TestCase {
+
+    private File dir;
+    private File src;
+    private byte[] content;
+    private TransferEndpoint endpoint;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("transfer", "");
+        dir.delete();
+        dir.mkdirs();
+        content = new byte[1000000];
+        Random random = new Random(1);
+        // Half random, half compressible.
+        for (int i = 0; i < content.length; i++)
+            content[i] = i < content.length / 2 ?
+                    (byte) random.nextInt() : (byte) ('a' + i % 26);
+        src = new File(dir, "src");
+        write(src, content, content.length);
+        endpoint = TransferServer.getInstance().getEndpoint();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    /**
+     * Tests getting and putting files with and without compression.
+     * @throws IOException If the transfer fails
+     */
+    public void testGetPut() throws IOException {
+        for (boolean compress : new boolean[] { false, true }) {
+            File dest = new File(dir, "get" + compress);
+            SocketChannel channel = TransferClient.connect(endpoint);
+            try {
+                assertEquals(content.length, TransferClient.get(channel,
+                        endpoint, src.getPath(), dest.getPath(), compress,
+                        false));
+            } finally {
+                channel.close();
+            }
+            assertContent(dest);
+
+            dest = new File(dir, "put" + compress);
+            channel = TransferClient.connect(endpoint);
+            try {
+                assertEquals(content.length, TransferClient.put(channel,
+                        endpoint, src.getPath(), dest.getPath(), compress,
+                        false));
+            } finally {
+                channel.close();
+            }
+            assertContent(dest);
+        }
+    }
+
+    /**
+     * Tests that a retry resumes from the partially received file while
+     * a new transfer ignores a partial file left by another transfer.
+     * @throws IOException If the transfer fails
+     */
+    public void testResume() throws IOException {
+        File dest = new File(dir, "resumed");
+        File part = new File(dest.getPath() + TransferServer.PART_SUFFIX);
+        write(part, content, content.length / 3);
+        SocketChannel channel = TransferClient.connect(endpoint);
+        try {
+            TransferClient.get(channel, endpoint, src.getPath(),
+                               dest.getPath(), true, true);
+        } finally {
+            channel.close();
+        }
+        assertContent(dest);
+        assertFalse(part.exists());
+
+        // A leftover from an unrelated transfer must not be reused.
+        byte[] other = new byte[content.length / 3];
+        Arrays.fill(other, (byte) 'x');
+        for (boolean put : new boolean[] { false, true }) {
+            dest = new File(dir, "fresh" + put);
+            part = new File(dest.getPath() + TransferServer.PART_SUFFIX);
+            write(part, other, other.length);
+            channel = TransferClient.connect(endpoint);
+            try {
+                if (put)
+                    TransferClient.put(channel, endpoint, src.getPath(),
+                                       dest.getPath(), true, false);
+                else
+                    TransferClient.get(channel, endpoint, src.getPath(),
+                                       dest.getPath(), true, false);
+            } finally {
+                channel.close();
+            }
+            assertContent(dest);
+            assertFalse(part.exists());
+        }
+    }
+
+    /**
+     * Tests that server side errors and bad tokens are reported.
+     * @throws IOException If the transfer fails
+     */
+    public void testErrors() throws IOException {
+        SocketChannel channel = TransferClient.connect(endpoint);
+        try {
+            TransferClient.get(channel, endpoint,
+                    new File(dir, "missing").getPath(),
+                    new File(dir, "dest").getPath(), false, false);
+            fail("Missing file transferred");
+        } catch (TransferClient.TransferError e) {
+            // Expected.
+        } finally {
+            channel.close();
+        }
+
+        TransferEndpoint bad = new TransferEndpoint(endpoint.host,
+                endpoint.port, endpoint.token + 1);
+        channel = TransferClient.connect(bad);
+        try {
+            TransferClient.get(channel, bad, src.getPath(),
+                               new File(dir, "dest").getPath(), false, false);
+            fail("Request with bad token served");
+        } catch (IOException e) {
+            // Expected.
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void write(File file, byte[] bytes, int length)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertContent(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        assertTrue(Arrays.equals(content, bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,134 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.engine;
+
+import com.sun.faban.harness.common.Config;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests collecting output from many hosts in parallel.
+ */
+public class OutputCollectorTest extends TestCase {
+
+    private ExecutorService savedPool;
+    private int savedThreads;
+    private int savedRetries;
+
+    @Override
+    protected void setUp() throws Exception {
+        savedPool = Config.THREADPOOL;
+        savedThreads = Config.COLLECT_THREADS;
+        savedRetries = Config.COLLECT_RETRIES;
+        Config.THREADPOOL = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Config.THREADPOOL.shutdown();
+        Config.THREADPOOL = savedPool;
+        Config.COLLECT_THREADS = savedThreads;
+        Config.COLLECT_RETRIES = savedRetries;
+    }
+
+    /**
+     * Tests that all hosts are collected from, never more than the
+     * configured number at a time.
+     */
+    public void testConcurrencyLimit() {
+        Config.COLLECT_THREADS = 3;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger collected = new AtomicInteger();
+        OutputCollector collector = new OutputCollector("test output");
+        for (int i = 0; i < 12; i++)
+            collector.add("host" + i, new Callable<Object>() {
+                public Object call() throws InterruptedException {
+                    int n = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        if (n > maxRunning.get())
+                            maxRunning.set(n);
+                    }
+                    Thread.sleep(50);
+                    running.decrementAndGet();
+                    collected.incrementAndGet();
+                    return null;
+                }
+            });
+        assertEquals(0, collector.collect());
+        assertEquals(12, collected.get());
+        assertEquals(3, maxRunning.get());
+    }
+
+    /**
+     * Tests that failed collections are retried and reported when all
+     * retries fail.
+     */
+    public void testRetry() {
+        Config.COLLECT_RETRIES = 1;
+        final AtomicInteger flakyCalls = new AtomicInteger();
+        final AtomicInteger brokenCalls = new AtomicInteger();
+        OutputCollector collector = new OutputCollector("test output");
+        collector.add("flaky", new Callable<Object>() {
+            public Object call() throws IOException {
+                if (flakyCalls.incrementAndGet() == 1)
+                    throw new IOException("Connection reset");
+                return null;
+            }
+        });
+        collector.add("broken", new Callable<Object>() {
+            public Object call() throws IOException {
+                brokenCalls.incrementAndGet();
+                throw new IOException("No route to host");
+            }
+        });
+        assertEquals(1, collector.collect());
+        assertEquals(2, flakyCalls.get());
+        assertEquals(2, brokenCalls.get());
+    }
+
+    /**
+     * Tests that a collector constructed without retries runs a failed
+     * task only once, regardless of the configured retries.
+     */
+    public void testNoRetry() {
+        Config.COLLECT_RETRIES = 2;
+        final AtomicInteger calls = new AtomicInteger();
+        OutputCollector collector =
+                new OutputCollector("test logs", "services", 0);
+        collector.add("service", new Callable<Object>() {
+            public Object call() throws IOException {
+                calls.incrementAndGet();
+                throw new IOException("Log copy failed");
+            }
+        });
+        assertEquals(1, collector.collect());
+        assertEquals(1, calls.get());
+    }
+}
@@ -0,0 +1,74 @@
+package com.sun.faban.harness.logging;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Test class for the LogIndex.
+ */
+public class LogIndexTest extends TestCase {
+
+    private File logFile;
+
+    protected void setUp() throws Exception {
+        logFile = File.createTempFile("log", ".xml");
+        logFile.deleteOnExit();
+        new File(logFile.getPath() + LogIndex.SUFFIX).deleteOnExit();
+        FileHandler handler = new FileHandler(logFile.getPath());
+        handler.setFormatter(new XMLFormatter());
+        for (int i = 0; i < 100; i++) {
+            LogRecord record = new LogRecord(i % 10 == 9 ? Level.SEVERE :
+                                             Level.INFO, "Record " + i);
+            if (i == 42)
+                record.setThrown(new Exception("Record " + i));
+            handler.publish(record);
+        }
+        handler.flush(); // Keep it open, no tail
+    }
+
+    public void testIndex() throws Exception {
+        LogIndex index = LogIndex.getInstance(logFile);
+        assertEquals(100, index.update());
+        assertEquals(9, index.find(0, Level.SEVERE.intValue()));
+        assertEquals(42, index.find(40, Level.SEVERE.intValue()));
+        assertEquals(49, index.find(43, Level.SEVERE.intValue()));
+        assertEquals(-1, index.find(100, Level.SEVERE.intValue()));
+
+        InputStream in = index.getInputStream(57);
+        byte[] b = new byte[8192];
+        int len = in.read(b);
+        while (len < b.length) {
+            int count = in.read(b, len, b.length - len);
+            if (count < 0)
+                break;
+            len += count;
+        }
+        in.close();
+        String s = new String(b, 0, len);
+        assertTrue(s.startsWith("<?xml"));
+        int first = s.indexOf("<message>");
+        assertEquals("<message>Record 57</message>",
+                     s.substring(first, first + 28));
+    }
+
+    public void testIncremental() throws Exception {
+        LogIndex index = LogIndex.getInstance(logFile);
+        assertEquals(100, index.update());
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        out.write("<record>\n  <level>WARNING</level>\n".getBytes());
+        out.flush();
+        assertEquals(100, index.update()); // Incomplete record
+        out.write("  <message>tail</message>\n</record>\n".getBytes());
+        out.close();
+        assertEquals(101, index.update());
+        assertEquals(100, index.find(100, Level.WARNING.intValue()));
+        assertTrue(index.getOffset(100) > index.getOffset(99));
+        assertEquals(-1, index.getOffset(101));
+    }
+}
@@ -0,0 +1,181 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import junit.framework.TestCase;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the metric store and the change point detection.
+ */
+public class MetricStoreTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("metrics", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    /**
+     * Tests that a drop in throughput is reported as a regression at the
+     * first run with the new level.
+     */
+    public void testStep() {
+        Random random = new Random(1);
+        double[] values = new double[40];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (i < 25 ? 1000d : 900d) + random.nextGaussian() * 5d;
+        List<ChangePoint> changes = ChangePoint.detect(values, false);
+        assertEquals(1, changes.size());
+        ChangePoint change = changes.get(0);
+        assertEquals(25, change.index);
+        assertTrue(change.regression);
+        assertEquals(-0.1d, change.change, 0.01d);
+
+        // The same step in response times is an improvement.
+        assertFalse(ChangePoint.detect(values, true).get(0).regression);
+    }
+
+    /**
+     * Tests that noise without a shift and shifts within the minimum
+     * change are not reported.
+     */
+    public void testNoChange() {
+        Random random = new Random(2);
+        double[] values = new double[200];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 100d + random.nextGaussian() * 10d;
+        assertTrue(ChangePoint.detect(values, false).isEmpty());
+
+        for (int i = 0; i < values.length; i++)
+            values[i] = i < 100 ? 100d : 101d;
+        assertTrue(ChangePoint.detect(values, false).isEmpty());
+        assertTrue(ChangePoint.detect(new double[0], false).isEmpty());
+    }
+
+    /**
+     * Tests that multiple shifts are all found, with the means of the
+     * adjacent segments.
+     */
+    public void testMultipleSteps() {
+        double[] values = new double[30];
+        for (int i = 0; i < values.length; i++)
+            values[i] = i < 10 ? 50d : (i < 20 ? 60d : 45d);
+        values[3] = 51d; // Some variance.
+        List<ChangePoint> changes = ChangePoint.detect(values, true);
+        assertEquals(2, changes.size());
+        assertEquals(10, changes.get(0).index);
+        assertEquals(20, changes.get(1).index);
+        assertEquals(60d, changes.get(0).after, 1e-9d);
+        assertEquals(60d, changes.get(1).before, 1e-9d);
+        assertTrue(changes.get(0).regression);
+        assertFalse(changes.get(1).regression);
+    }
+
+    /**
+     * Tests appending rows with sparse columns, reloading the store and
+     * dropping a partially written row and its values.
+     */
+    public void testStore() throws Exception {
+        MetricStore.Store store = new MetricStore.Store("bench", dir);
+        store.load();
+        LinkedHashMap<String, Double> values =
+                new LinkedHashMap<String, Double>();
+        values.put("metric", 10d);
+        values.put("driver/op1/avg", 1.5d);
+        store.add("bench.1A", 1000l, values);
+        values.clear();
+        values.put("metric", 12d);
+        values.put("driver/op2/avg", 2.5d);
+        store.add("bench.1B", 2000l, values);
+        store.add("bench.1B", 3000l, values); // Already there, ignored.
+
+        // Simulate a crash while writing a row, after its values.
+        DataOutputStream value = new DataOutputStream(
+                new FileOutputStream(new File(dir, "2.col"), true));
+        value.writeInt(2);
+        value.writeDouble(99d);
+        value.close();
+        FileOutputStream out =
+                new FileOutputStream(new File(dir, "runs.col"), true);
+        out.write(new byte[] { 0, 8, 'b', 'e' });
+        out.close();
+
+        store = new MetricStore.Store("bench", dir);
+        store.load();
+        assertEquals(2, store.runIds.size());
+        assertEquals(2000l, store.times[1]);
+        String[] columns = store.getColumns();
+        assertEquals(3, columns.length);
+        assertEquals("driver/op2/avg", columns[2]);
+
+        double[] metric = store.read("metric", 2);
+        assertEquals(10d, metric[0]);
+        assertEquals(12d, metric[1]);
+        double[] op1 = store.read("driver/op1/avg", 2);
+        assertEquals(1.5d, op1[0]);
+        assertTrue(Double.isNaN(op1[1]));
+        assertTrue(Double.isNaN(store.read("nothing", 2)[0]));
+
+        values.clear();
+        values.put("metric", 14d);
+        store.add("bench.1C", 4000l, values);
+        store = new MetricStore.Store("bench", dir);
+        store.load();
+        assertEquals("bench.1C", store.runIds.get(2));
+        assertEquals(14d, store.read("metric", 3)[2]);
+        assertEquals(2.5d, store.read("driver/op2/avg", 3)[1]);
+        assertTrue(Double.isNaN(store.read("driver/op2/avg", 3)[2]));
+    }
+
+    /**
+     * Tests which columns count lower values as better.
+     */
+    public void testLowerIsBetter() {
+        assertFalse(MetricStore.isLowerBetter("metric"));
+        assertFalse(MetricStore.isLowerBetter("driver/metric"));
+        assertFalse(MetricStore.isLowerBetter("driver/op/successes"));
+        assertTrue(MetricStore.isLowerBetter("driver/op/failures"));
+        assertTrue(MetricStore.isLowerBetter("driver/op/avg"));
+        assertTrue(MetricStore.isLowerBetter("driver/op/99.9th"));
+    }
+}
@@ -107,6 +107,53 @@ public class TagEngineTest extends TestCase {
         System.out.println("------------------------------------------------");
     }
 
+    public void testSearch() throws Exception {
+        tagEngine = TagEngine.getInstance();
+        tagEngine.add("SearchTest.1A", new String[] {"StLinux/x86",
+                                                     "StMySQL"});
+        tagEngine.add("SearchTest.1B", new String[] {"StLinux/sparc"});
+        tagEngine.add("SearchTest.1C", new String[] {"StSolaris/sparc",
+                                                     "StMySQL"});
+        assertEquals(2, tagEngine.search("stlinux").size());
+        assertEquals(1, tagEngine.search("StLinux/x86").size());
+        assertEquals(0, tagEngine.search("stx86").size());
+        assertEquals(1, tagEngine.search("stlinux stmysql").size());
+        assertEquals(3, tagEngine.search("stlinux|stsolaris").size());
+        assertEquals(2, tagEngine.search("stlinux|stsolaris stmysql").size());
+        assertEquals(0, tagEngine.search("stlinux stnosuchtag").size());
+
+        // Replacing the tags of a run drops the old tags.
+        tagEngine.add("SearchTest.1A", new String[] {"StSolaris/x86"});
+        assertEquals(1, tagEngine.search("stlinux").size());
+        assertEquals(1, tagEngine.search("stmysql").size());
+        tagEngine.removeRun("SearchTest.1C");
+        assertEquals(0, tagEngine.search("stmysql").size());
+        assertTrue(tagEngine.search("stsolaris").contains("SearchTest.1A"));
+        tagEngine.add("SearchTest.1A", new String[0]);
+        tagEngine.removeRun("SearchTest.1B");
+        tagEngine.save();
+    }
+
+    public void testPostingList() {
+        int[] sparse = {3, 70, 1000};
+        int[] dense = new int[500];
+        for (int i = 0; i < dense.length; i++)
+            dense[i] = i * 2;
+        PostingList a = PostingList.of(sparse, sparse.length);
+        PostingList b = PostingList.of(dense, dense.length);
+        assertEquals(3, a.size());
+        assertEquals(500, b.size());
+        assertTrue(b.contains(998));
+        assertFalse(b.contains(999));
+        assertEquals(1, a.and(b).size());
+        assertEquals(70, a.and(b).toArray()[0]);
+        assertEquals(502, a.or(b).size());
+        assertEquals(501, b.add(999).size());
+        assertEquals(2, a.remove(70).size());
+        assertEquals(499, b.remove(0).size());
+        assertEquals(0, a.and(PostingList.EMPTY).size());
+    }
+
     @AfterClass
     public void tearDownClass() throws Exception {
         super.tearDown();
@@ -0,0 +1,117 @@
+<!DOCTYPE HTML PUBLIC "-//W3C//DTD HTML 4.01//EN">
+<!--
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+-->
+<%@ page language="java" import="java.util.Arrays,
+                                 com.sun.faban.harness.common.RunId"%>
+<%
+    String runId = new RunId(request.getParameter("runId")).toString();
+    String[] levels = { "", "FINE", "CONFIG", "INFO", "WARNING", "SEVERE" };
+    String level = request.getParameter("level");
+    if (level == null || !Arrays.asList(levels).contains(level))
+        level = "";
+%>
+<html>
+    <head>
+        <title>Live Log: RunID <%= runId %></title>
+        <link rel="stylesheet" type="text/css" href="/css/style.css" />
+        <link rel="icon" type="image/gif" href="<%= request.getContextPath() %>/img/faban.gif">
+        <script type="text/javascript">
+            var maxRows = 1000;
+            function cell(row, text, style) {
+                var td = row.insertCell(-1);
+                td.className = "tablecell";
+                if (style)
+                    td.setAttribute("style", style);
+                td.appendChild(document.createTextNode(text));
+            }
+            function field(record, name) {
+                var e = record.getElementsByTagName(name);
+                return e.length > 0 ? e[0].textContent : "";
+            }
+            function tail() {
+                var body = document.getElementById("records");
+                var status = document.getElementById("status");
+                if (!window.EventSource) {
+                    status.innerHTML = "Live log not supported by this " +
+                            "browser, use the <a href=\"LogReader?runId=" +
+                            "<%= runId %>&startId=end#end\">Run Log</a>.";
+                    return;
+                }
+                var source = new EventSource("LogTail?runId=<%= runId %>" +
+                                             "&rows=" + maxRows +
+                                             "&level=<%= level %>");
+                source.addEventListener("record", function(e) {
+                    var doc = new DOMParser().parseFromString(e.data,
+                                                              "text/xml");
+                    var record = doc.documentElement;
+                    var row = body.insertRow(-1);
+                    var lvl = field(record, "level");
+                    var weight = lvl == "SEVERE" || lvl == "WARNING" ?
+                                 "bold" : "normal";
+                    cell(row, field(record, "date"));
+                    cell(row, field(record, "host"), "text-align: center;");
+                    cell(row, lvl, "text-align: center; font-weight: " +
+                                   weight + ";");
+                    cell(row, field(record, "message"));
+                    while (body.rows.length > maxRows + 1)
+                        body.deleteRow(1);
+                    var atEnd = window.innerHeight + window.pageYOffset >=
+                                document.body.offsetHeight - 50;
+                    if (atEnd)
+                        window.scrollTo(0, document.body.scrollHeight);
+                }, false);
+                source.addEventListener("end", function(e) {
+                    source.close();
+                    status.innerHTML = "Run <%= runId %> ended.";
+                }, false);
+            }
+        </script>
+    </head>
+    <body onload="tail()">
+        <form method="get" action="logtail.jsp">
+            <input type="hidden" name="runId" value="<%= runId %>">
+            Level:&nbsp;<select name="level" onchange="this.form.submit()">
+            <% for (String l : levels) { %>
+                <option value="<%= l %>"<%= l.equals(level) ? " selected" : "" %>><%= l.length() == 0 ? "ALL" : l %></option>
+            <% } %>
+            </select>&nbsp;
+            <a href="LogReader?runId=<%= runId %>&startId=end#end">Run&nbsp;Log</a>
+        </form>
+        <hr style="border: 1px solid #cccccc;">
+        <table border="0" cellpadding="4" cellspacing="3" style="padding: 2px; border: 2px solid #cccccc;">
+            <tbody id="records">
+                <tr>
+                    <th class="header">Time</th>
+                    <th class="header">Host</th>
+                    <th class="header">Level</th>
+                    <th class="header">Message</th>
+                </tr>
+            </tbody>
+        </table>
+        <hr style="border: 1px solid #cccccc;">
+        <div id="status"></div>
+    </body>
+</html>
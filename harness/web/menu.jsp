@@ -67,6 +67,7 @@
             <tr><td VALIGN="CENTER" style="color: rgb(102, 102, 102);"><br/>Kill Current Run</td></tr>
 <% } %>
             <tr><td VALIGN="CENTER"><br/><a href="/controller/results/list" target="main">View Results</a></td></tr>
+            <tr><td VALIGN="CENTER"><br/><a href="/controller/trends/show" target="main">Trends</a></td></tr>
 <% if (submitAllowed || manageAllowed) { %>
             <tr><td VALIGN="CENTER"><br/><a href="pending-runs.jsp" target="main">View Pending Runs</a></td></tr>
 <% } else { %>
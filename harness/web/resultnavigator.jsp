@@ -102,6 +102,7 @@
         <% } %>
         <% if (!finished) { %>
             <a href="LogReader?runId=<%= runId %>&startId=end#end" target="display">Run&nbsp;Log</a>&nbsp;
+            <a href="logtail.jsp?runId=<%= runId %>" target="display">Live&nbsp;Log</a>&nbsp;
         <% } else { %>
             <a href="LogReader?runId=<%= runId %>" target="display">Run&nbsp;Log</a>&nbsp;
         <% } %>
@@ -0,0 +1,160 @@
+<!DOCTYPE HTML PUBLIC "-//W3C//DTD HTML 4.01//EN">
+<!--
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2010 Sun Microsystems Inc. All Rights Reserved
+ */
+-->
+<%@ page language="java" import="java.text.SimpleDateFormat,
+                                 java.util.Date,
+                                 com.sun.faban.common.Utilities,
+                                 com.sun.faban.harness.webclient.ChangePoint,
+                                 com.sun.faban.harness.webclient.MetricStore,
+                                 com.sun.faban.harness.webclient.Trends"%>
+<%
+    response.setHeader("Cache-Control", "no-cache");
+    Trends.Model model = (Trends.Model) request.getAttribute("model");
+    MetricStore.Series series = model.series;
+    SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yy HH:mm:ss z");
+    String[] rowClasses = {"even", "odd"};
+%>
+<html>
+    <head>
+        <meta http-equiv="Content-Type" content="text/html; charset=UTF-8">
+        <title>Trends</title>
+        <link rel="icon" type="image/gif" href="/img/faban.gif"/>
+        <link rel="stylesheet" type="text/css" href="/css/style.css" />
+        <!--[if lt IE 9]><script language="javascript" type="text/javascript" src="/scripts/excanvas.min.js"></script><![endif]-->
+        <script language="javascript" type="text/javascript" src="/scripts/jquery.min.js"></script>
+        <script language="javascript" type="text/javascript" src="/scripts/jquery.jqplot.min.js"></script>
+        <script type="text/javascript" src="/scripts/jqplot.cursor.min.js"></script>
+        <script type="text/javascript" src="/scripts/jqplot.highlighter.min.js"></script>
+        <script language="javascript" type="text/javascript" src="/scripts/jqplot.dateAxisRenderer.min.js"></script>
+        <link rel="stylesheet" type="text/css" href="/css/jquery.jqplot.css" />
+        <style>
+            .regression { color: #cc0000; font-weight: bold; }
+            .improvement { color: #00aa00; font-weight: bold; }
+        </style>
+    </head>
+    <body>
+        <h2 class="page_title">Trends</h2>
+<% if (model.bench == null) { %>
+        <p>There are no runs on this harness.</p>
+<% } else { %>
+        <form name="trends" method="get" action="/controller/trends/show">
+            Benchmark:
+            <select name="bench" onchange="this.form.column.selectedIndex = -1; this.form.submit();">
+<%     for (String bench : model.benchmarks) { %>
+                <option value="<%= Utilities.escapeXML(bench) %>"<%= bench.equals(model.bench) ? " selected" : "" %>><%= Utilities.escapeXML(bench) %></option>
+<%     } %>
+            </select>
+            Metric:
+            <select name="column" onchange="this.form.submit();">
+<%     for (String column : model.columns) { %>
+                <option value="<%= Utilities.escapeXML(column) %>"<%= column.equals(model.column) ? " selected" : "" %>><%= Utilities.escapeXML(column) %></option>
+<%     } %>
+            </select>
+            <input type="submit" value="Show">
+            <a href="/controller/trends/csv?bench=<%= java.net.URLEncoder.encode(model.bench, "UTF-8") %>">Download CSV</a>
+        </form>
+<%     if (series.values.length == 0) { %>
+        <p>No runs of <%= Utilities.escapeXML(model.bench) %> have a value for <%= Utilities.escapeXML(model.column) %>.</p>
+<%     } else { %>
+        <div id="trend" style="width: 800px; height: 350px; position: relative;"></div>
+        <p>Change points are detected by binary segmentation of the series,
+            <%= series.lowerIsBetter ? "lower" : "higher" %> values are better.
+            <span class="regression">Regressions</span> and
+            <span class="improvement">improvements</span> are marked on the run
+            where the new level starts.</p>
+<%         if (!series.changes.isEmpty()) { %>
+        <table BORDER=0 CELLPADDING=4 CELLSPACING=3 style="padding:2px; border: 2px solid #cccccc;">
+            <tr>
+                <th class="header">RunID</th>
+                <th class="header">Date/Time</th>
+                <th class="header">Before</th>
+                <th class="header">After</th>
+                <th class="header">Change</th>
+                <th class="header">Score</th>
+            </tr>
+<%             for (int i = 0; i < series.changes.size(); i++) {
+                   ChangePoint change = series.changes.get(i);
+                   String runId = series.runIds[change.index]; %>
+            <tr class="<%= rowClasses[i % 2] %>">
+                <td class="tablecell"><a href="<%= Utilities.escapeXML(Trends.resultLink(runId)) %>" target="main"><%= runId %></a></td>
+                <td class="tablecell"><%= dateFormat.format(new Date(series.times[change.index])) %></td>
+                <td class="tablecell" style="text-align: right;"><%= String.format("%.3f", change.before) %></td>
+                <td class="tablecell" style="text-align: right;"><%= String.format("%.3f", change.after) %></td>
+                <td class="tablecell" style="text-align: right;"><span class="<%= change.regression ? "regression" : "improvement" %>"><%= Trends.percent(change) %></span></td>
+                <td class="tablecell" style="text-align: right;"><%= String.format("%.1f", change.score) %></td>
+            </tr>
+<%             } %>
+        </table>
+<%         } else { %>
+        <p>No significant changes over <%= series.values.length %> runs.</p>
+<%         } %>
+        <script id="source" language="javascript" type="text/javascript">
+$(function () {
+    var runIds = [<% for (int i = 0; i < series.runIds.length; i++) { %><%= i > 0 ? "," : "" %>"<%= series.runIds[i] %>"<% } %>];
+    var dataset = [<%= model.values %>, <%= model.levels %>];
+    var series = [
+        { label: "Value", lineWidth: 1.5, markerOptions: { size: 5 } },
+        { label: "Level", lineWidth: 1, showMarker: false, color: "#999999" }
+    ];
+    var regressions = <%= model.regressions %>;
+    var improvements = <%= model.improvements %>;
+    if (regressions.length > 0) {
+        dataset.push(regressions);
+        series.push({ label: "Regression", showLine: false, color: "#cc0000",
+                      markerOptions: { size: 12, style: "filledCircle" } });
+    }
+    if (improvements.length > 0) {
+        dataset.push(improvements);
+        series.push({ label: "Improvement", showLine: false, color: "#00aa00",
+                      markerOptions: { size: 12, style: "filledCircle" } });
+    }
+    $.jqplot("trend", dataset, {
+        title: "<%= Trends.jsString(model.bench + ": " + model.column) %>",
+        series: series,
+        axes: {
+            xaxis: {
+                renderer: $.jqplot.DateAxisRenderer,
+                tickOptions: { formatString: "%m/%d/%y" }
+            }
+        },
+        highlighter: {
+            show: true,
+            tooltipContentEditor: function (str, seriesIndex, pointIndex, plot) {
+                var point = plot.series[seriesIndex].data[pointIndex];
+                var label = seriesIndex == 0 ? runIds[pointIndex] + ": " :
+                                               plot.series[seriesIndex].label + ": ";
+                return label + point[1];
+            }
+        },
+        cursor: { show: true, zoom: true, showTooltip: false },
+        legend: { show: true, location: "nw" }
+    });
+});
+        </script>
+<%     }
+   } %>
+    </body>
+</html>